@@ -8,6 +8,7 @@ public class ProductAggregate {
   private final int weight;
   private final List<RecommendationSummary> recommendations;
   private final List<ReviewSummary> reviews;
+  private final RatingSummary ratingSummary;
   private final ServiceAddresses serviceAddresses;
 
   public ProductAggregate() {
@@ -16,6 +17,7 @@ public class ProductAggregate {
     weight = 0;
     recommendations = null;
     reviews = null;
+    ratingSummary = null;
     serviceAddresses = null;
   }
 
@@ -27,11 +29,24 @@ public class ProductAggregate {
     List<ReviewSummary> reviews,
     ServiceAddresses serviceAddresses) {
 
+    this(productId, name, weight, recommendations, reviews, null, serviceAddresses);
+  }
+
+  public ProductAggregate(
+    int productId,
+    String name,
+    int weight,
+    List<RecommendationSummary> recommendations,
+    List<ReviewSummary> reviews,
+    RatingSummary ratingSummary,
+    ServiceAddresses serviceAddresses) {
+
     this.productId = productId;
     this.name = name;
     this.weight = weight;
     this.recommendations = recommendations;
     this.reviews = reviews;
+    this.ratingSummary = ratingSummary;
     this.serviceAddresses = serviceAddresses;
   }
 
@@ -55,6 +70,10 @@ public class ProductAggregate {
     return reviews;
   }
 
+  public RatingSummary getRatingSummary() {
+    return ratingSummary;
+  }
+
   public ServiceAddresses getServiceAddresses() {
     return serviceAddresses;
   }
@@ -28,7 +28,8 @@ public interface ProductCompositeService {
     description = "${api.product-composite.create-composite-product.notes}")
   @ApiResponses(value = {
     @ApiResponse(responseCode = "400", description = "${api.responseCodes.badRequest.description}"),
-    @ApiResponse(responseCode = "422", description = "${api.responseCodes.unprocessableEntity.description}")
+    @ApiResponse(responseCode = "422", description = "${api.responseCodes.unprocessableEntity.description}"),
+    @ApiResponse(responseCode = "503", description = "${api.responseCodes.serviceUnavailable.description}")
   })
   @ResponseStatus(HttpStatus.ACCEPTED)
   @PostMapping(
@@ -37,9 +38,10 @@ public interface ProductCompositeService {
   Mono<Void> createProduct(@RequestBody ProductAggregate body);
 
   /**
-   * Sample usage: "curl $HOST:$PORT/product-composite/1".
+   * Sample usage: "curl $HOST:$PORT/product-composite/1?recommendationLimit=5".
    *
    * @param productId Id of the product
+   * @param recommendationLimit Max number of recommendations to return, best rated first. Zero returns all recommendations
    * @return the composite product info, if found, else null
    */
   @Operation(
@@ -47,6 +49,7 @@ public interface ProductCompositeService {
     description = "${api.product-composite.get-composite-product.notes}")
   @ApiResponses(value = {
     @ApiResponse(responseCode = "200", description = "${api.responseCodes.ok.description}"),
+    @ApiResponse(responseCode = "304", description = "${api.responseCodes.notModified.description}"),
     @ApiResponse(responseCode = "400", description = "${api.responseCodes.badRequest.description}"),
     @ApiResponse(responseCode = "404", description = "${api.responseCodes.notFound.description}"),
     @ApiResponse(responseCode = "422", description = "${api.responseCodes.unprocessableEntity.description}")
@@ -58,7 +61,8 @@ public interface ProductCompositeService {
     @RequestHeader HttpHeaders headers,
     @PathVariable int productId,
     @RequestParam(value = "delay", required = false, defaultValue = "0") int delay,
-    @RequestParam(value = "faultPercent", required = false, defaultValue = "0") int faultPercent
+    @RequestParam(value = "faultPercent", required = false, defaultValue = "0") int faultPercent,
+    @RequestParam(value = "recommendationLimit", required = false, defaultValue = "0") int recommendationLimit
   );
 
   /**
@@ -71,7 +75,8 @@ public interface ProductCompositeService {
     description = "${api.product-composite.delete-composite-product.notes}")
   @ApiResponses(value = {
     @ApiResponse(responseCode = "400", description = "${api.responseCodes.badRequest.description}"),
-    @ApiResponse(responseCode = "422", description = "${api.responseCodes.unprocessableEntity.description}")
+    @ApiResponse(responseCode = "422", description = "${api.responseCodes.unprocessableEntity.description}"),
+    @ApiResponse(responseCode = "503", description = "${api.responseCodes.serviceUnavailable.description}")
   })
   @ResponseStatus(HttpStatus.ACCEPTED)
   @DeleteMapping(value = "/product-composite/{productId}")
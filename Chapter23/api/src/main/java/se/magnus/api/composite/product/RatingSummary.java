@@ -0,0 +1,34 @@
+package se.magnus.api.composite.product;
+
+import java.util.Map;
+
+public class RatingSummary {
+
+  private final int count;
+  private final double average;
+  private final Map<Integer, Integer> histogram;
+
+  public RatingSummary() {
+    this.count = 0;
+    this.average = 0;
+    this.histogram = null;
+  }
+
+  public RatingSummary(int count, double average, Map<Integer, Integer> histogram) {
+    this.count = count;
+    this.average = average;
+    this.histogram = histogram;
+  }
+
+  public int getCount() {
+    return count;
+  }
+
+  public double getAverage() {
+    return average;
+  }
+
+  public Map<Integer, Integer> getHistogram() {
+    return histogram;
+  }
+}
@@ -4,6 +4,7 @@ public class Product {
   private int productId;
   private String name;
   private int weight;
+  private Integer version;
   private String serviceAddress;
 
   public Product() {
@@ -32,6 +33,10 @@ public class Product {
     return weight;
   }
 
+  public Integer getVersion() {
+    return version;
+  }
+
   public String getServiceAddress() {
     return serviceAddress;
   }
@@ -48,6 +53,10 @@ public class Product {
     this.weight = weight;
   }
 
+  public void setVersion(Integer version) {
+    this.version = version;
+  }
+
   public void setServiceAddress(String serviceAddress) {
     this.serviceAddress = serviceAddress;
   }
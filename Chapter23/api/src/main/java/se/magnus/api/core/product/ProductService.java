@@ -5,6 +5,7 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 public interface ProductService {
@@ -27,5 +28,49 @@ public interface ProductService {
     @RequestParam(value = "faultPercent", required = false, defaultValue = "0") int faultPercent
   );
 
+  /**
+   * Sample usage: "curl $HOST:$PORT/product?afterProductId=100&limit=50".
+   * <p>
+   * Keyset pagination: pass the productId of the last product in a page as afterProductId to get the next page.
+   *
+   * @param afterProductId Only products with a higher productId are returned, 0 starts from the first product
+   * @param limit Max number of products to return
+   * @return a page of products, sorted on productId
+   */
+  @GetMapping(
+    value = "/product",
+    produces = "application/json")
+  Flux<Product> getProducts(
+    @RequestHeader HttpHeaders headers,
+    @RequestParam(value = "afterProductId", required = false, defaultValue = "0") int afterProductId,
+    @RequestParam(value = "limit", required = false, defaultValue = "100") int limit);
+
+  /**
+   * Sample usage: "curl $HOST:$PORT/product/export".
+   *
+   * @return all products, sorted on productId, streamed as newline delimited JSON
+   */
+  @GetMapping(
+    value = "/product/export",
+    produces = "application/x-ndjson")
+  Flux<Product> exportProducts(@RequestHeader HttpHeaders headers);
+
+  /**
+   * Sample usage: "curl $HOST:$PORT/product/search?prefix=lapt&limit=10".
+   * <p>
+   * Typeahead search: every word in the prefix shall match the beginning of a word in the name of the product.
+   *
+   * @param prefix The words typed so far, at least 3 characters, e.g. "red sh" matches "Red shoes"
+   * @param limit Max number of products to return
+   * @return the matching products, sorted on productId
+   */
+  @GetMapping(
+    value = "/product/search",
+    produces = "application/json")
+  Flux<Product> searchProducts(
+    @RequestHeader HttpHeaders headers,
+    @RequestParam(value = "prefix") String prefix,
+    @RequestParam(value = "limit", required = false, defaultValue = "10") int limit);
+
   Mono<Void> deleteProduct(int productId);
 }
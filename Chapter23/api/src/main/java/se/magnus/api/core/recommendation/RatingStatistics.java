@@ -0,0 +1,82 @@
+package se.magnus.api.core.recommendation;
+
+import java.util.Map;
+
+public class RatingStatistics {
+  private int productId;
+  private int count;
+  private long sum;
+  private Map<Integer, Integer> histogram;
+  private Integer version;
+  private String serviceAddress;
+
+  public RatingStatistics() {
+    productId = 0;
+    count = 0;
+    sum = 0;
+    histogram = null;
+    serviceAddress = null;
+  }
+
+  public RatingStatistics(
+    int productId,
+    int count,
+    long sum,
+    Map<Integer, Integer> histogram,
+    String serviceAddress) {
+
+    this.productId = productId;
+    this.count = count;
+    this.sum = sum;
+    this.histogram = histogram;
+    this.serviceAddress = serviceAddress;
+  }
+
+  public int getProductId() {
+    return productId;
+  }
+
+  public int getCount() {
+    return count;
+  }
+
+  public long getSum() {
+    return sum;
+  }
+
+  public Map<Integer, Integer> getHistogram() {
+    return histogram;
+  }
+
+  public Integer getVersion() {
+    return version;
+  }
+
+  public String getServiceAddress() {
+    return serviceAddress;
+  }
+
+  public void setProductId(int productId) {
+    this.productId = productId;
+  }
+
+  public void setCount(int count) {
+    this.count = count;
+  }
+
+  public void setSum(long sum) {
+    this.sum = sum;
+  }
+
+  public void setHistogram(Map<Integer, Integer> histogram) {
+    this.histogram = histogram;
+  }
+
+  public void setVersion(Integer version) {
+    this.version = version;
+  }
+
+  public void setServiceAddress(String serviceAddress) {
+    this.serviceAddress = serviceAddress;
+  }
+}
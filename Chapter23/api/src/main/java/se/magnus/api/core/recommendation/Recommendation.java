@@ -6,6 +6,7 @@ public class Recommendation {
   private String author;
   private int rate;
   private String content;
+  private Integer version;
   private String serviceAddress;
 
   public Recommendation() {
@@ -53,6 +54,10 @@ public class Recommendation {
     return content;
   }
 
+  public Integer getVersion() {
+    return version;
+  }
+
   public String getServiceAddress() {
     return serviceAddress;
   }
@@ -77,6 +82,10 @@ public class Recommendation {
     this.content = content;
   }
 
+  public void setVersion(Integer version) {
+    this.version = version;
+  }
+
   public void setServiceAddress(String serviceAddress) {
     this.serviceAddress = serviceAddress;
   }
@@ -22,5 +22,50 @@ public interface RecommendationService {
     @RequestHeader HttpHeaders headers,
     @RequestParam(value = "productId", required = true) int productId);
 
+  /**
+   * Sample usage: "curl $HOST:$PORT/recommendation/top?productId=1&limit=5".
+   *
+   * @param productId Id of the product
+   * @param limit Max number of recommendations to return
+   * @return the best rated recommendations of the product, sorted on rating in descending order
+   */
+  @GetMapping(
+    value = "/recommendation/top",
+    produces = "application/json")
+  Flux<Recommendation> getTopRecommendations(
+    @RequestHeader HttpHeaders headers,
+    @RequestParam(value = "productId", required = true) int productId,
+    @RequestParam(value = "limit", required = false, defaultValue = "5") int limit);
+
+  /**
+   * Sample usage: "curl $HOST:$PORT/recommendation/rating-statistics?productId=1".
+   *
+   * @param productId Id of the product
+   * @return the rating statistics of the product, with a count of zero if it has no recommendations
+   */
+  @GetMapping(
+    value = "/recommendation/rating-statistics",
+    produces = "application/json")
+  Mono<RatingStatistics> getRatingStatistics(
+    @RequestHeader HttpHeaders headers,
+    @RequestParam(value = "productId", required = true) int productId);
+
+  /**
+   * Sample usage: "curl $HOST:$PORT/recommendation/related?productId=1&limit=5".
+   * <p>
+   * Related products are precomputed periodically from the ratings, i.e. products recently rated might not be included yet.
+   *
+   * @param productId Id of the product
+   * @param limit Max number of related products to return
+   * @return the products most often liked by the same authors, sorted on similarity in descending order
+   */
+  @GetMapping(
+    value = "/recommendation/related",
+    produces = "application/json")
+  Flux<RelatedProduct> getRelatedProducts(
+    @RequestHeader HttpHeaders headers,
+    @RequestParam(value = "productId", required = true) int productId,
+    @RequestParam(value = "limit", required = false, defaultValue = "5") int limit);
+
   Mono<Void> deleteRecommendations(int productId);
 }
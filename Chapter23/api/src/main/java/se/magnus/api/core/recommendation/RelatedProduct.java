@@ -0,0 +1,59 @@
+package se.magnus.api.core.recommendation;
+
+public class RelatedProduct {
+  private int productId;
+  private int relatedProductId;
+  private double similarity;
+  private String serviceAddress;
+
+  public RelatedProduct() {
+    productId = 0;
+    relatedProductId = 0;
+    similarity = 0;
+    serviceAddress = null;
+  }
+
+  public RelatedProduct(
+    int productId,
+    int relatedProductId,
+    double similarity,
+    String serviceAddress) {
+
+    this.productId = productId;
+    this.relatedProductId = relatedProductId;
+    this.similarity = similarity;
+    this.serviceAddress = serviceAddress;
+  }
+
+  public int getProductId() {
+    return productId;
+  }
+
+  public int getRelatedProductId() {
+    return relatedProductId;
+  }
+
+  public double getSimilarity() {
+    return similarity;
+  }
+
+  public String getServiceAddress() {
+    return serviceAddress;
+  }
+
+  public void setProductId(int productId) {
+    this.productId = productId;
+  }
+
+  public void setRelatedProductId(int relatedProductId) {
+    this.relatedProductId = relatedProductId;
+  }
+
+  public void setSimilarity(double similarity) {
+    this.similarity = similarity;
+  }
+
+  public void setServiceAddress(String serviceAddress) {
+    this.serviceAddress = serviceAddress;
+  }
+}
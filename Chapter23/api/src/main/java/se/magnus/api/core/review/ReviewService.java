@@ -22,5 +22,24 @@ public interface ReviewService {
     @RequestHeader HttpHeaders headers,
     @RequestParam(value = "productId", required = true) int productId);
 
+  /**
+   * Sample usage: "curl '$HOST:$PORT/review/search?query=battery+%22lasts+long%22&page=0&size=20'".
+   * <p>
+   * Full-text search in the subject and content of all reviews. All terms must be found, use quotes to search for a phrase.
+   *
+   * @param query The terms and phrases to search for
+   * @param page The page to return, starting with 0
+   * @param size Max number of reviews per page
+   * @return the matching reviews, best match first
+   */
+  @GetMapping(
+    value = "/review/search",
+    produces = "application/json")
+  Flux<Review> searchReviews(
+    @RequestHeader HttpHeaders headers,
+    @RequestParam(value = "query") String query,
+    @RequestParam(value = "page", required = false, defaultValue = "0") int page,
+    @RequestParam(value = "size", required = false, defaultValue = "20") int size);
+
   Mono<Void> deleteReviews(int productId);
 }
@@ -0,0 +1,25 @@
+package se.magnus.api.exceptions;
+
+import java.time.Duration;
+
+public class ServiceUnavailableException extends RuntimeException {
+
+  private final Duration retryAfter;
+
+  public ServiceUnavailableException(String message, Duration retryAfter) {
+    super(message);
+    this.retryAfter = retryAfter;
+  }
+
+  public ServiceUnavailableException(String message, Duration retryAfter, Throwable cause) {
+    super(message, cause);
+    this.retryAfter = retryAfter;
+  }
+
+  /**
+   * @return the time to wait before the request is made again
+   */
+  public Duration getRetryAfter() {
+    return retryAfter;
+  }
+}
@@ -0,0 +1,52 @@
+#!/usr/bin/env bash
+#
+# Writes or restores a snapshot of the products, recommendations and reviews, running the core services in parallel with Docker Compose:
+#
+#   ./catalog-snapshot.bash write /tmp/catalog-snapshot
+#   ./catalog-snapshot.bash restore /tmp/catalog-snapshot
+#
+# The databases must be running. Restore into empty databases, and start or restart the core services after the restore.
+# The restoring service rebuilds its in-memory state, e.g. the product id filter, but instances that were already running
+# only load it at startup.
+#
+: ${COMPOSE_FILE=docker-compose.yml}
+
+MODE=$1
+SNAPSHOT_DIR=$2
+
+if [[ "$MODE" != "write" && "$MODE" != "restore" ]] || [[ -z "$SNAPSHOT_DIR" ]]
+then
+  echo "Usage: $0 write|restore <snapshot directory>"
+  exit 1
+fi
+
+mkdir -p "$SNAPSHOT_DIR"
+SNAPSHOT_DIR=$(cd "$SNAPSHOT_DIR" && pwd)
+
+pids=()
+for service in product recommendation review
+do
+  # The message consumers are not started, to leave the events to the running instances of the service
+  docker compose -f $COMPOSE_FILE run --rm --no-deps -v "$SNAPSHOT_DIR:/snapshots" $service \
+    --app.catalog-snapshot.mode=$MODE \
+    --app.catalog-snapshot.directory=/snapshots \
+    --spring.cloud.stream.default.consumer.auto-startup=false \
+    --spring.main.web-application-type=none > "$SNAPSHOT_DIR/$service-$MODE.log" 2>&1 &
+  pids+=($!)
+done
+
+failed=0
+for i in "${!pids[@]}"
+do
+  if ! wait ${pids[$i]}
+  then
+    echo "Failed to $MODE the snapshot, see the logs in $SNAPSHOT_DIR"
+    failed=1
+  fi
+done
+
+if [[ $failed == 0 ]]
+then
+  grep -h "Done with the" $SNAPSHOT_DIR/*-$MODE.log
+fi
+exit $failed
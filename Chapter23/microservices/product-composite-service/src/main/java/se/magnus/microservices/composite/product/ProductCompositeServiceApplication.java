@@ -4,12 +4,14 @@ import brave.baggage.BaggagePropagation;
 import brave.baggage.BaggagePropagationCustomizer;
 import brave.propagation.B3Propagation;
 import brave.propagation.Propagation;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.ser.ZonedDateTimeSerializer;
 import io.swagger.v3.oas.models.ExternalDocumentation;
 import io.swagger.v3.oas.models.OpenAPI;
 import io.swagger.v3.oas.models.info.Contact;
 import io.swagger.v3.oas.models.info.Info;
 import io.swagger.v3.oas.models.info.License;
+import java.time.Duration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.aot.hint.annotation.RegisterReflectionForBinding;
@@ -18,6 +20,9 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.web.codec.CodecCustomizer;
+import org.springframework.cloud.client.loadbalancer.reactive.ReactorLoadBalancerExchangeFilterFunction;
+import org.springframework.cloud.loadbalancer.annotation.LoadBalancerClients;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.web.reactive.function.client.WebClient;
@@ -25,13 +30,20 @@ import reactor.core.publisher.Hooks;
 import reactor.core.scheduler.Scheduler;
 import reactor.core.scheduler.Schedulers;
 import se.magnus.api.core.product.Product;
+import se.magnus.api.core.recommendation.RatingStatistics;
 import se.magnus.api.core.recommendation.Recommendation;
 import se.magnus.api.core.review.Review;
 import se.magnus.api.event.Event;
+import se.magnus.microservices.composite.product.services.passthrough.AssembledProductAggregateEncoder;
+import se.magnus.util.admission.AdmissionController;
+import se.magnus.util.http.Deadline;
+import se.magnus.util.http.PooledHttpClient;
+import se.magnus.util.loadbalancer.LatencyAwareLoadBalancerConfiguration;
 
 @SpringBootApplication
 @ComponentScan("se.magnus")
-@RegisterReflectionForBinding({ Event.class, ZonedDateTimeSerializer.class, Product.class, Recommendation.class, Review.class})
+@LoadBalancerClients(defaultConfiguration = LatencyAwareLoadBalancerConfiguration.class)
+@RegisterReflectionForBinding({ Event.class, ZonedDateTimeSerializer.class, Product.class, Recommendation.class, RatingStatistics.class, Review.class})
 public class ProductCompositeServiceApplication {
 
   private static final Logger LOG = LoggerFactory.getLogger(ProductCompositeServiceApplication.class);
@@ -90,11 +102,51 @@ public class ProductCompositeServiceApplication {
     return Schedulers.newBoundedElastic(threadPoolSize, taskQueueSize, "publish-pool");
   }
 
+  /**
+   * Sheds composite writes before the task queue of the publishEventScheduler is full, see AdmissionController.
+   */
+  @Bean
+  public AdmissionController publishEventAdmissionController() {
+    return new AdmissionController("publishEventScheduler", threadPoolSize, threadPoolSize + taskQueueSize);
+  }
+
+  /**
+   * The connection pool of the calls to the core services, see app.http-client in config-repo/application.yml.
+   */
+  @Bean
+  public PooledHttpClient coreServicesHttpClient(
+    @Value("${app.http-client.h2c:true}") boolean h2c,
+    @Value("${app.http-client.max-connections:100}") int maxConnections,
+    @Value("${app.http-client.max-idle-time:30s}") Duration maxIdleTime,
+    @Value("${app.http-client.eviction-interval:10s}") Duration evictionInterval,
+    @Value("${app.http-client.pending-acquire-max-count:200}") int pendingAcquireMaxCount,
+    @Value("${app.http-client.pending-acquire-timeout:2s}") Duration pendingAcquireTimeout) {
+
+    return new PooledHttpClient("core-services", h2c, maxConnections, maxIdleTime, evictionInterval, pendingAcquireMaxCount,
+      pendingAcquireTimeout);
+  }
+
+  /**
+   * Propagates the deadline of the current request to the core services. The calls are load balanced over the instances
+   * of the core services if spring.cloud.loadbalancer.enabled is true, see LatencyAwareLoadBalancer.
+   */
   @Bean
-  public WebClient webClient(WebClient.Builder builder) {
+  public WebClient webClient(WebClient.Builder builder, PooledHttpClient coreServicesHttpClient,
+    ObjectProvider<ReactorLoadBalancerExchangeFilterFunction> loadBalancerFilter) {
+    builder.clientConnector(coreServicesHttpClient.connector());
+    builder.filter(Deadline.propagation());
+    loadBalancerFilter.ifAvailable(builder::filter);
     return builder.build();
   }
 
+  /**
+   * Writes the JSON of product aggregates assembled by the ProductAggregateAssembler as is.
+   */
+  @Bean
+  public CodecCustomizer assembledProductAggregateCodecCustomizer(ObjectMapper mapper) {
+    return configurer -> configurer.customCodecs().register(new AssembledProductAggregateEncoder(mapper));
+  }
+
   @Bean
   BaggagePropagation.FactoryBuilder myPropagationFactoryBuilder(
     ObjectProvider<BaggagePropagationCustomizer> baggagePropagationCustomizers) {
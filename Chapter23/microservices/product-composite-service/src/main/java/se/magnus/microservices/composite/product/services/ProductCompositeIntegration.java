@@ -4,21 +4,27 @@ import static java.util.logging.Level.FINE;
 import static reactor.core.publisher.Flux.empty;
 import static se.magnus.api.event.Event.Type.CREATE;
 import static se.magnus.api.event.Event.Type.DELETE;
+import static se.magnus.util.admission.AdmissionController.Priority.READ;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
-import io.github.resilience4j.circuitbreaker.annotation.CircuitBreaker;
-import io.github.resilience4j.retry.annotation.Retry;
-import io.github.resilience4j.timelimiter.annotation.TimeLimiter;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.retry.RetryRegistry;
+import io.github.resilience4j.timelimiter.TimeLimiterRegistry;
 import java.io.IOException;
 import java.net.URI;
+import java.time.Duration;
+import java.util.Optional;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.stereotype.Component;
@@ -30,13 +36,23 @@ import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Scheduler;
 import se.magnus.api.core.product.Product;
 import se.magnus.api.core.product.ProductService;
+import se.magnus.api.core.recommendation.RatingStatistics;
 import se.magnus.api.core.recommendation.Recommendation;
 import se.magnus.api.core.recommendation.RecommendationService;
+import se.magnus.api.core.recommendation.RelatedProduct;
 import se.magnus.api.core.review.Review;
 import se.magnus.api.core.review.ReviewService;
 import se.magnus.api.event.Event;
+import se.magnus.api.exceptions.DeadlineExceededException;
 import se.magnus.api.exceptions.InvalidInputException;
 import se.magnus.api.exceptions.NotFoundException;
+import se.magnus.api.exceptions.ServiceUnavailableException;
+import se.magnus.microservices.composite.product.services.resilience.ResiliencePipeline;
+import se.magnus.microservices.composite.product.services.resilience.ResiliencePipeline.RetryGate;
+import se.magnus.microservices.composite.product.services.retry.DecorrelatedJitter;
+import se.magnus.microservices.composite.product.services.retry.RetryBudget;
+import se.magnus.util.admission.AdmissionController;
+import se.magnus.util.http.Deadline;
 import se.magnus.util.http.HttpErrorInfo;
 import se.magnus.util.http.ServiceUtil;
 
@@ -56,13 +72,37 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
 
   private final ServiceUtil serviceUtil;
 
+  // Limits the concurrent calls to each service, to not let a slow service hold on to the connections and event loops
+  // that are needed to call the other services
+  private final AdmissionController productServiceLimit;
+  private final AdmissionController recommendationServiceLimit;
+  private final AdmissionController reviewServiceLimit;
+
+  // The time limiter, circuit breaker and retry of the calls to get a product, configured under resilience4j.*.product
+  private final ResiliencePipeline productResilience;
+
+  // The timeout of each attempt to get a product, and the shortest wait before it is retried
+  private final Duration productTimeout;
+  private final Duration productRetryWait;
+
+  // Successful calls make up the budget for the retries of failed calls
+  private final RetryBudget productRetryBudget;
+  private final DecorrelatedJitter productRetryJitter;
+
   @Autowired
   public ProductCompositeIntegration(
     @Qualifier("publishEventScheduler") Scheduler publishEventScheduler,
     WebClient webClient,
     ObjectMapper mapper,
     StreamBridge streamBridge,
-    ServiceUtil serviceUtil
+    ServiceUtil serviceUtil,
+    TimeLimiterRegistry timeLimiterRegistry,
+    CircuitBreakerRegistry circuitBreakerRegistry,
+    RetryRegistry retryRegistry,
+    RetryBudget productRetryBudget,
+    DecorrelatedJitter productRetryJitter,
+    @Value("${app.service-limit.initial:16}") int initialServiceLimit,
+    @Value("${app.service-limit.max:200}") int maxServiceLimit
   ) {
     this.webClient = webClient;
 
@@ -70,6 +110,25 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
     this.mapper = mapper;
     this.streamBridge = streamBridge;
     this.serviceUtil = serviceUtil;
+
+    this.productServiceLimit = new AdmissionController("product service", initialServiceLimit, maxServiceLimit);
+    this.recommendationServiceLimit = new AdmissionController("recommendation service", initialServiceLimit, maxServiceLimit);
+    this.reviewServiceLimit = new AdmissionController("review service", initialServiceLimit, maxServiceLimit);
+
+    this.productResilience = new ResiliencePipeline("product", timeLimiterRegistry, circuitBreakerRegistry, retryRegistry);
+    this.productTimeout = productResilience.getTimeout();
+    this.productRetryWait = productRetryJitter.getBaseWait();
+    this.productRetryBudget = productRetryBudget;
+    this.productRetryJitter = productRetryJitter;
+  }
+
+  /**
+   * Lets the concurrency limits of the calls to the core services start over, e.g. after calls made to warm up.
+   */
+  public void resetServiceLimits() {
+    productServiceLimit.reset();
+    recommendationServiceLimit.reset();
+    reviewServiceLimit.reset();
   }
 
   @Override
@@ -82,22 +141,41 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
   }
 
   @Override
-  @Retry(name = "product")
-  @TimeLimiter(name = "product")
-  @CircuitBreaker(name = "product", fallbackMethod = "getProductFallbackValue")
   public Mono<Product> getProduct(HttpHeaders headers, int productId, int delay, int faultPercent) {
 
     URI url = UriComponentsBuilder.fromUriString(PRODUCT_SERVICE_URL
       + "/product/{productId}?delay={delay}&faultPercent={faultPercent}").build(productId, delay, faultPercent);
     LOG.debug("Will call the getProduct API on URL: {}", url);
 
-    return webClient.get().uri(url)
+    Mono<Product> product = webClient.get().uri(url)
       .headers(h -> h.addAll(headers))
       .retrieve().bodyToMono(Product.class).log(LOG.getName(), FINE)
       .onErrorMap(WebClientResponseException.class, ex -> handleException(ex));
+
+    // The product service gets the timeout of the attempt as its deadline, unless the deadline of the request is earlier.
+    // An attempt that fails too close to the deadline of the request is not retried, since the retry can't be made in time.
+    // Calls that are shed since too many calls to the product service are in flight get the same fallback as when the
+    // circuit is open
+    return productServiceLimit.admit(READ, Deadline.within(productTimeout, product))
+      .doOnNext(p -> productRetryBudget.onSuccess())
+      .onErrorResume(WebClientResponseException.InternalServerError.class, ex -> Deadline.current()
+        .filter(deadline -> deadline.remaining().compareTo(productRetryWait) <= 0)
+        .flatMap(deadline -> Mono.<Product>error(new DeadlineExceededException("No time left to retry: " + ex.getMessage(), ex)))
+        .switchIfEmpty(Mono.error(ex)))
+      .transformDeferred(call -> productResilience.decorate(call, this::newProductRetryGate))
+      .onErrorResume(CallNotPermittedException.class, ex -> createFallbackProduct(productId, delay, faultPercent, ex))
+      .onErrorResume(ServiceUnavailableException.class, ex -> createFallbackProduct(productId, delay, faultPercent, ex));
   }
 
-  private Mono<Product> getProductFallbackValue(HttpHeaders headers, int productId, int delay, int faultPercent, CallNotPermittedException ex) {
+  /**
+   * Permits the retries of a call to get a product within the retry budget, waiting with decorrelated jitter.
+   */
+  private RetryGate newProductRetryGate() {
+    DecorrelatedJitter.Waits waits = productRetryJitter.newWaits();
+    return () -> productRetryBudget.tryAcquire() ? Optional.of(waits.next()) : Optional.empty();
+  }
+
+  private Mono<Product> createFallbackProduct(int productId, int delay, int faultPercent, RuntimeException ex) {
 
     LOG.warn("Creating a fail-fast fallback product for productId = {}, delay = {}, faultPercent = {} and exception = {} ",
       productId, delay, faultPercent, ex.toString());
@@ -115,6 +193,45 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
     return Mono.just(new Product(productId, "Fallback product" + productId, productId, serviceUtil.getServiceAddress()));
   }
 
+  @Override
+  public Flux<Product> getProducts(HttpHeaders headers, int afterProductId, int limit) {
+
+    URI url = UriComponentsBuilder.fromUriString(PRODUCT_SERVICE_URL
+      + "/product?afterProductId={afterProductId}&limit={limit}").build(afterProductId, limit);
+    LOG.debug("Will call the getProducts API on URL: {}", url);
+
+    return productServiceLimit.admit(READ, webClient.get().uri(url)
+      .headers(h -> h.addAll(headers))
+      .retrieve().bodyToFlux(Product.class).log(LOG.getName(), FINE)
+      .onErrorMap(WebClientResponseException.class, ex -> handleException(ex)));
+  }
+
+  @Override
+  public Flux<Product> exportProducts(HttpHeaders headers) {
+
+    URI url = UriComponentsBuilder.fromUriString(PRODUCT_SERVICE_URL + "/product/export").build().toUri();
+    LOG.debug("Will call the exportProducts API on URL: {}", url);
+
+    return webClient.get().uri(url)
+      .headers(h -> h.addAll(headers))
+      .accept(MediaType.APPLICATION_NDJSON)
+      .retrieve().bodyToFlux(Product.class)
+      .onErrorMap(WebClientResponseException.class, ex -> handleException(ex));
+  }
+
+  @Override
+  public Flux<Product> searchProducts(HttpHeaders headers, String prefix, int limit) {
+
+    URI url = UriComponentsBuilder.fromUriString(PRODUCT_SERVICE_URL
+      + "/product/search?prefix={prefix}&limit={limit}").build(prefix, limit);
+    LOG.debug("Will call the searchProducts API on URL: {}", url);
+
+    return productServiceLimit.admit(READ, webClient.get().uri(url)
+      .headers(h -> h.addAll(headers))
+      .retrieve().bodyToFlux(Product.class).log(LOG.getName(), FINE)
+      .onErrorMap(WebClientResponseException.class, ex -> handleException(ex)));
+  }
+
   @Override
   public Mono<Void> deleteProduct(int productId) {
 
@@ -139,7 +256,58 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
     LOG.debug("Will call the getRecommendations API on URL: {}", url);
 
     // Return an empty result if something goes wrong to make it possible for the composite service to return partial responses
-    return webClient.get().uri(url).headers(h -> h.addAll(headers)).retrieve().bodyToFlux(Recommendation.class).log(LOG.getName(), FINE).onErrorResume(error -> empty());
+    return recommendationServiceLimit.admit(READ, webClient.get().uri(url).headers(h -> h.addAll(headers)).retrieve().bodyToFlux(Recommendation.class).log(LOG.getName(), FINE)).onErrorResume(error -> empty());
+  }
+
+  @Override
+  public Flux<Recommendation> getTopRecommendations(HttpHeaders headers, int productId, int limit) {
+
+    URI url = UriComponentsBuilder.fromUriString(RECOMMENDATION_SERVICE_URL + "/recommendation/top?productId={productId}&limit={limit}").build(productId, limit);
+
+    LOG.debug("Will call the getTopRecommendations API on URL: {}", url);
+
+    // Return an empty result if something goes wrong to make it possible for the composite service to return partial responses
+    return recommendationServiceLimit.admit(READ, webClient.get().uri(url).headers(h -> h.addAll(headers)).retrieve().bodyToFlux(Recommendation.class).log(LOG.getName(), FINE)).onErrorResume(error -> empty());
+  }
+
+  /**
+   * The recommendations as the JSON of the response, for the ProductAggregateAssembler to copy them from.
+   * <p>
+   * Errors are not replaced by an empty result, since they can happen after a part of the JSON is received.
+   *
+   * @param limit Max number of recommendations, best rated first. Zero gives all recommendations
+   */
+  public Flux<DataBuffer> getRecommendationsJson(HttpHeaders headers, int productId, int limit) {
+
+    URI url = (limit == 0)
+      ? UriComponentsBuilder.fromUriString(RECOMMENDATION_SERVICE_URL + "/recommendation?productId={productId}").build(productId)
+      : UriComponentsBuilder.fromUriString(RECOMMENDATION_SERVICE_URL + "/recommendation/top?productId={productId}&limit={limit}").build(productId, limit);
+
+    LOG.debug("Will call the recommendation API for JSON on URL: {}", url);
+
+    return recommendationServiceLimit.admit(READ, webClient.get().uri(url).headers(h -> h.addAll(headers)).accept(MediaType.APPLICATION_JSON).retrieve().bodyToFlux(DataBuffer.class));
+  }
+
+  @Override
+  public Mono<RatingStatistics> getRatingStatistics(HttpHeaders headers, int productId) {
+
+    URI url = UriComponentsBuilder.fromUriString(RECOMMENDATION_SERVICE_URL + "/recommendation/rating-statistics?productId={productId}").build(productId);
+
+    LOG.debug("Will call the getRatingStatistics API on URL: {}", url);
+
+    // Return an empty result if something goes wrong to make it possible for the composite service to return partial responses
+    return recommendationServiceLimit.admit(READ, webClient.get().uri(url).headers(h -> h.addAll(headers)).retrieve().bodyToMono(RatingStatistics.class).log(LOG.getName(), FINE)).onErrorResume(error -> Mono.empty());
+  }
+
+  @Override
+  public Flux<RelatedProduct> getRelatedProducts(HttpHeaders headers, int productId, int limit) {
+
+    URI url = UriComponentsBuilder.fromUriString(RECOMMENDATION_SERVICE_URL + "/recommendation/related?productId={productId}&limit={limit}").build(productId, limit);
+
+    LOG.debug("Will call the getRelatedProducts API on URL: {}", url);
+
+    // Return an empty result if something goes wrong to make it possible for the composite service to return partial responses
+    return recommendationServiceLimit.admit(READ, webClient.get().uri(url).headers(h -> h.addAll(headers)).retrieve().bodyToFlux(RelatedProduct.class).log(LOG.getName(), FINE)).onErrorResume(error -> empty());
   }
 
   @Override
@@ -166,7 +334,34 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
     LOG.debug("Will call the getReviews API on URL: {}", url);
 
     // Return an empty result if something goes wrong to make it possible for the composite service to return partial responses
-    return webClient.get().uri(url).headers(h -> h.addAll(headers)).retrieve().bodyToFlux(Review.class).log(LOG.getName(), FINE).onErrorResume(error -> empty());
+    return reviewServiceLimit.admit(READ, webClient.get().uri(url).headers(h -> h.addAll(headers)).retrieve().bodyToFlux(Review.class).log(LOG.getName(), FINE)).onErrorResume(error -> empty());
+  }
+
+  /**
+   * The reviews as the JSON of the response, for the ProductAggregateAssembler to copy them from.
+   * <p>
+   * Errors are not replaced by an empty result, since they can happen after a part of the JSON is received.
+   */
+  public Flux<DataBuffer> getReviewsJson(HttpHeaders headers, int productId) {
+
+    URI url = UriComponentsBuilder.fromUriString(REVIEW_SERVICE_URL + "/review?productId={productId}").build(productId);
+
+    LOG.debug("Will call the getReviews API for JSON on URL: {}", url);
+
+    return reviewServiceLimit.admit(READ, webClient.get().uri(url).headers(h -> h.addAll(headers)).accept(MediaType.APPLICATION_JSON).retrieve().bodyToFlux(DataBuffer.class));
+  }
+
+  @Override
+  public Flux<Review> searchReviews(HttpHeaders headers, String query, int page, int size) {
+
+    URI url = UriComponentsBuilder.fromUriString(REVIEW_SERVICE_URL + "/review/search?query={query}&page={page}&size={size}").build(query, page, size);
+
+    LOG.debug("Will call the searchReviews API on URL: {}", url);
+
+    return reviewServiceLimit.admit(READ, webClient.get().uri(url)
+      .headers(h -> h.addAll(headers))
+      .retrieve().bodyToFlux(Review.class).log(LOG.getName(), FINE)
+      .onErrorMap(WebClientResponseException.class, ex -> handleException(ex)));
   }
 
   @Override
@@ -201,6 +396,9 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
       case UNPROCESSABLE_ENTITY:
         return new InvalidInputException(getErrorMessage(wcre));
 
+      case GATEWAY_TIMEOUT:
+        return new DeadlineExceededException(getErrorMessage(wcre));
+
       default:
         LOG.warn("Got an unexpected HTTP error: {}, will rethrow it", wcre.getStatusCode());
         LOG.warn("Error body: {}", wcre.getResponseBodyAsString());
@@ -1,15 +1,22 @@
 package se.magnus.microservices.composite.product.services;
 
 import static java.util.logging.Level.FINE;
+import static se.magnus.util.admission.AdmissionController.Priority.WRITE;
+import static se.magnus.util.http.ConditionalRequests.checkNotModified;
+import static se.magnus.util.http.ConditionalRequests.entityTag;
 
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
 import org.springframework.security.core.context.ReactiveSecurityContextHolder;
 import org.springframework.security.core.context.SecurityContext;
@@ -17,12 +24,18 @@ import org.springframework.security.core.context.SecurityContextImpl;
 import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
 import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.util.function.Tuples;
 import se.magnus.api.composite.product.*;
 import se.magnus.api.core.product.Product;
+import se.magnus.api.core.recommendation.RatingStatistics;
 import se.magnus.api.core.recommendation.Recommendation;
 import se.magnus.api.core.review.Review;
+import se.magnus.api.exceptions.InvalidInputException;
+import se.magnus.microservices.composite.product.services.passthrough.ProductAggregateAssembler;
 import se.magnus.microservices.composite.product.services.tracing.ObservationUtil;
+import se.magnus.util.admission.AdmissionController;
 import se.magnus.util.http.ServiceUtil;
 
 @RestController
@@ -35,12 +48,25 @@ public class ProductCompositeServiceImpl implements ProductCompositeService {
   private final ServiceUtil serviceUtil;
   private final ObservationUtil observationUtil;
   private final ProductCompositeIntegration integration;
+  private final AdmissionController publishEventAdmissionController;
+  private final ProductAggregateAssembler assembler;
+  private final boolean passthroughAssembly;
 
   @Autowired
-  public ProductCompositeServiceImpl(ServiceUtil serviceUtil, ObservationUtil observationUtil, ProductCompositeIntegration integration) {
+  public ProductCompositeServiceImpl(
+    ServiceUtil serviceUtil,
+    ObservationUtil observationUtil,
+    ProductCompositeIntegration integration,
+    @Qualifier("publishEventAdmissionController") AdmissionController publishEventAdmissionController,
+    ProductAggregateAssembler assembler,
+    @Value("${app.passthrough-assembly.enabled:false}") boolean passthroughAssembly) {
+
     this.serviceUtil = serviceUtil;
     this.observationUtil = observationUtil;
     this.integration = integration;
+    this.publishEventAdmissionController = publishEventAdmissionController;
+    this.assembler = assembler;
+    this.passthroughAssembly = passthroughAssembly;
   }
 
   @Override
@@ -76,9 +102,10 @@ public class ProductCompositeServiceImpl implements ProductCompositeService {
 
       LOG.debug("createCompositeProduct: composite entities created for productId: {}", body.getProductId());
 
-      return Mono.zip(r -> "", monoList.toArray(new Mono[0]))
+      // The events of a composite product are admitted together, to not publish some of them and shed the others
+      return publishEventAdmissionController.admit(WRITE, Mono.zip(r -> "", monoList.toArray(new Mono[0]))
         .doOnError(ex -> LOG.warn("createCompositeProduct failed: {}", ex.toString()))
-        .then();
+        .then());
 
     } catch (RuntimeException re) {
       LOG.warn("createCompositeProduct failed: {}", re.toString());
@@ -87,26 +114,69 @@ public class ProductCompositeServiceImpl implements ProductCompositeService {
   }
 
   @Override
-  public Mono<ProductAggregate> getProduct(HttpHeaders requestHeaders, int productId, int delay, int faultPercent) {
-    return observationWithProductInfo(productId, () -> getProductInternal(requestHeaders, productId, delay, faultPercent));
+  public Mono<ProductAggregate> getProduct(HttpHeaders requestHeaders, int productId, int delay, int faultPercent, int recommendationLimit) {
+    return observationWithProductInfo(productId, () -> getProductInternal(requestHeaders, productId, delay, faultPercent, recommendationLimit));
   }
 
-  private Mono<ProductAggregate> getProductInternal(HttpHeaders requestHeaders, int productId, int delay, int faultPercent) {
+  private Mono<ProductAggregate> getProductInternal(HttpHeaders requestHeaders, int productId, int delay, int faultPercent, int recommendationLimit) {
     LOG.info("Will get composite product info for product.id={}", productId);
 
+    if (recommendationLimit < 0) {
+      throw new InvalidInputException("Invalid recommendationLimit: " + recommendationLimit);
+    }
+
     HttpHeaders headers = getHeaders(requestHeaders, "X-group");
 
+    if (passthroughAssembly) {
+      return Mono.zip(
+          getLogAuthorizationInfoMono(),
+          assembler.assemble(headers, productId, delay, faultPercent, recommendationLimit, serviceUtil.getServiceAddress()),
+          (sc, aggregate) -> aggregate)
+        .flatMap(aggregate -> checkNotModified((ProductAggregate) aggregate, aggregate.getEntityTag()))
+        .doOnError(ex -> LOG.warn("getCompositeProduct failed: {}", ex.toString()))
+        .log(LOG.getName(), FINE);
+    }
+
+    // Only ask for the best rated recommendations if a limit is specified, to avoid moving unused recommendations over the network
+    Flux<Recommendation> recommendations = (recommendationLimit == 0)
+      ? integration.getRecommendations(headers, productId)
+      : integration.getTopRecommendations(headers, productId, recommendationLimit);
+
     return Mono.zip(
-        values -> createProductAggregate(
-          (SecurityContext) values[0], (Product) values[1], (List<Recommendation>) values[2], (List<Review>) values[3], serviceUtil.getServiceAddress()),
+        values -> {
+          Product product = (Product) values[1];
+          List<Recommendation> recommendationList = (List<Recommendation>) values[2];
+          List<Review> reviewList = (List<Review>) values[3];
+          RatingStatistics ratingStatistics = ((Optional<RatingStatistics>) values[4]).orElse(null);
+          return Tuples.of(
+            createProductAggregate((SecurityContext) values[0], product, recommendationList, reviewList, ratingStatistics, serviceUtil.getServiceAddress()),
+            aggregateTag(product, recommendationList, reviewList, ratingStatistics));
+        },
         getSecurityContextMono(),
         integration.getProduct(headers, productId, delay, faultPercent),
-        integration.getRecommendations(headers, productId).collectList(),
-        integration.getReviews(headers, productId).collectList())
+        recommendations.collectList(),
+        integration.getReviews(headers, productId).collectList(),
+        integration.getRatingStatistics(headers, productId).map(Optional::of).defaultIfEmpty(Optional.empty()))
+      .flatMap(aggregateAndTag -> checkNotModified(aggregateAndTag.getT1(), aggregateAndTag.getT2()))
       .doOnError(ex -> LOG.warn("getCompositeProduct failed: {}", ex.toString()))
       .log(LOG.getName(), FINE);
   }
 
+  /**
+   * Derived from the versions and fields of all entities in the aggregate, the sizes of the lists keep them apart.
+   */
+  private String aggregateTag(Product product, List<Recommendation> recommendations, List<Review> reviews, RatingStatistics ratingStatistics) {
+    Stream<Object> productParts = Stream.of(product.getProductId(), product.getVersion(), product.getName(), product.getWeight());
+    Stream<Object> recommendationParts = Stream.concat(Stream.of(recommendations.size()), recommendations.stream()
+      .flatMap(r -> Stream.of(r.getRecommendationId(), r.getVersion(), r.getAuthor(), r.getRate(), r.getContent())));
+    Stream<Object> reviewParts = Stream.concat(Stream.of(reviews.size()), reviews.stream()
+      .flatMap(r -> Stream.of(r.getReviewId(), r.getVersion(), r.getAuthor(), r.getSubject(), r.getContent())));
+    Stream<Object> ratingParts = (ratingStatistics == null) ? Stream.empty()
+      : Stream.of(ratingStatistics.getVersion(), ratingStatistics.getCount(), ratingStatistics.getSum(), ratingStatistics.getHistogram());
+
+    return entityTag(Stream.of(productParts, recommendationParts, reviewParts, ratingParts).flatMap(parts -> parts).toArray());
+  }
+
   private HttpHeaders getHeaders(HttpHeaders requesthHeaders, String... headers) {
     LOG.trace("Will look for {} headers: {}", headers.length, headers);
     HttpHeaders h = new HttpHeaders();
@@ -130,13 +200,13 @@ public class ProductCompositeServiceImpl implements ProductCompositeService {
 
       LOG.info("Will delete a product aggregate for product.id: {}", productId);
 
-      return Mono.zip(r -> "",
+      return publishEventAdmissionController.admit(WRITE, Mono.zip(r -> "",
           getLogAuthorizationInfoMono(),
           integration.deleteProduct(productId),
           integration.deleteRecommendations(productId),
           integration.deleteReviews(productId))
         .doOnError(ex -> LOG.warn("delete failed: {}", ex.toString()))
-        .log(LOG.getName(), FINE).then();
+        .log(LOG.getName(), FINE).then());
 
     } catch (RuntimeException re) {
       LOG.warn("deleteCompositeProduct failed: {}", re.toString());
@@ -154,7 +224,8 @@ public class ProductCompositeServiceImpl implements ProductCompositeService {
   }
 
   private ProductAggregate createProductAggregate(
-    SecurityContext sc, Product product, List<Recommendation> recommendations, List<Review> reviews, String serviceAddress) {
+    SecurityContext sc, Product product, List<Recommendation> recommendations, List<Review> reviews,
+    RatingStatistics ratingStatistics, String serviceAddress) {
 
     logAuthorizationInfo(sc);
 
@@ -175,13 +246,20 @@ public class ProductCompositeServiceImpl implements ProductCompositeService {
         .map(r -> new ReviewSummary(r.getReviewId(), r.getAuthor(), r.getSubject(), r.getContent()))
         .collect(Collectors.toList());
 
-    // 4. Create info regarding the involved microservices addresses
+    // 4. Summarize the rating statistics, if available
+    RatingSummary ratingSummary = (ratingStatistics == null) ? null :
+      new RatingSummary(
+        ratingStatistics.getCount(),
+        (ratingStatistics.getCount() == 0) ? 0 : (double) ratingStatistics.getSum() / ratingStatistics.getCount(),
+        ratingStatistics.getHistogram());
+
+    // 5. Create info regarding the involved microservices addresses
     String productAddress = product.getServiceAddress();
     String reviewAddress = (reviews != null && reviews.size() > 0) ? reviews.get(0).getServiceAddress() : "";
     String recommendationAddress = (recommendations != null && recommendations.size() > 0) ? recommendations.get(0).getServiceAddress() : "";
     ServiceAddresses serviceAddresses = new ServiceAddresses(serviceAddress, productAddress, reviewAddress, recommendationAddress);
 
-    return new ProductAggregate(productId, name, weight, recommendationSummaries, reviewSummaries, serviceAddresses);
+    return new ProductAggregate(productId, name, weight, recommendationSummaries, reviewSummaries, ratingSummary, serviceAddresses);
   }
 
   private Mono<SecurityContext> getLogAuthorizationInfoMono() {
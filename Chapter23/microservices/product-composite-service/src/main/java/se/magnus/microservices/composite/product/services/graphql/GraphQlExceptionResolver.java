@@ -0,0 +1,37 @@
+package se.magnus.microservices.composite.product.services.graphql;
+
+import graphql.GraphQLError;
+import graphql.GraphqlErrorBuilder;
+import graphql.schema.DataFetchingEnvironment;
+import org.springframework.graphql.execution.DataFetcherExceptionResolverAdapter;
+import org.springframework.graphql.execution.ErrorType;
+import org.springframework.stereotype.Component;
+import se.magnus.api.exceptions.InvalidInputException;
+import se.magnus.api.exceptions.NotFoundException;
+
+/**
+ * Reports the exceptions of the API with the corresponding GraphQL error types, like GlobalControllerExceptionHandler
+ * does with HTTP status codes.
+ */
+@Component
+public class GraphQlExceptionResolver extends DataFetcherExceptionResolverAdapter {
+
+  @Override
+  protected GraphQLError resolveToSingleError(Throwable ex, DataFetchingEnvironment env) {
+    ErrorType errorType = errorTypeOf(ex);
+    return (errorType == null) ? null : GraphqlErrorBuilder.newError(env).errorType(errorType).message(ex.getMessage()).build();
+  }
+
+  /**
+   * @return the error type of an exception of the API, or null for other exceptions
+   */
+  static ErrorType errorTypeOf(Throwable ex) {
+    if (ex instanceof InvalidInputException) {
+      return ErrorType.BAD_REQUEST;
+    }
+    if (ex instanceof NotFoundException) {
+      return ErrorType.NOT_FOUND;
+    }
+    return null;
+  }
+}
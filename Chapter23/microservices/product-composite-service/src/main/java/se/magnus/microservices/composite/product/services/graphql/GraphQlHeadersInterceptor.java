@@ -0,0 +1,33 @@
+package se.magnus.microservices.composite.product.services.graphql;
+
+import java.util.List;
+import org.springframework.graphql.server.WebGraphQlInterceptor;
+import org.springframework.graphql.server.WebGraphQlRequest;
+import org.springframework.graphql.server.WebGraphQlResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+/**
+ * Makes the request headers that are passed on to the core services, i.e. the X-group header used for routing,
+ * available to the DataLoaders through the GraphQL context.
+ */
+@Component
+public class GraphQlHeadersInterceptor implements WebGraphQlInterceptor {
+
+  static final String HEADERS = "headers";
+
+  private static final String GROUP_HEADER = "X-group";
+
+  @Override
+  public Mono<WebGraphQlResponse> intercept(WebGraphQlRequest request, Chain chain) {
+    HttpHeaders headers = new HttpHeaders();
+    List<String> group = request.getHeaders().get(GROUP_HEADER);
+    if (group != null) {
+      headers.addAll(GROUP_HEADER, group);
+    }
+
+    request.configureExecutionInput((input, builder) -> builder.graphQLContext(context -> context.put(HEADERS, headers)).build());
+    return chain.next(request);
+  }
+}
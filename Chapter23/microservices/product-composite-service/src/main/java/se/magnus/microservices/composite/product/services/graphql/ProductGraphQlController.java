@@ -0,0 +1,194 @@
+package se.magnus.microservices.composite.product.services.graphql;
+
+import graphql.GraphQLContext;
+import graphql.GraphQLError;
+import graphql.GraphqlErrorBuilder;
+import graphql.execution.DataFetcherResult;
+import graphql.schema.DataFetchingEnvironment;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+import org.dataloader.BatchLoaderEnvironment;
+import org.dataloader.DataLoader;
+import org.dataloader.Try;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.graphql.data.method.annotation.Argument;
+import org.springframework.graphql.data.method.annotation.QueryMapping;
+import org.springframework.graphql.data.method.annotation.SchemaMapping;
+import org.springframework.graphql.execution.BatchLoaderRegistry;
+import org.springframework.graphql.execution.ErrorType;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Controller;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import se.magnus.api.composite.product.RatingSummary;
+import se.magnus.api.core.product.Product;
+import se.magnus.api.core.recommendation.RatingStatistics;
+import se.magnus.api.core.recommendation.Recommendation;
+import se.magnus.api.core.review.Review;
+import se.magnus.api.exceptions.InvalidInputException;
+import se.magnus.api.exceptions.NotFoundException;
+import se.magnus.microservices.composite.product.services.ProductCompositeIntegration;
+
+/**
+ * Serves the GraphQL schema in graphql/product-composite.graphqls.
+ * <p>
+ * Each field is resolved through a DataLoader, so the core services are only called for the fields selected by a query.
+ * The DataLoaders collect the keys requested while a query is executed and load them in one batch, i.e. each product,
+ * recommendation list, review list and rating statistics is fetched once per query, with all lookups of a batch made
+ * in parallel. A lookup that fails only fails the field of its own key, not the other keys of the batch. Products that
+ * are not found are returned as null, also in the list of the products query, where the failed lookups are reported as
+ * errors at the position of their product.
+ */
+@Controller
+public class ProductGraphQlController {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ProductGraphQlController.class);
+
+  private static final String PRODUCTS = "products";
+  private static final String RECOMMENDATIONS = "recommendations";
+  private static final String REVIEWS = "reviews";
+  private static final String RATING_STATISTICS = "ratingStatistics";
+
+  private static final int MAX_PRODUCT_IDS = 100;
+
+  private final int batchConcurrency;
+
+  @Autowired
+  public ProductGraphQlController(
+    ProductCompositeIntegration integration,
+    BatchLoaderRegistry registry,
+    @Value("${app.graphql.batch-concurrency:16}") int batchConcurrency) {
+
+    this.batchConcurrency = batchConcurrency;
+
+    registry.<Integer, Product>forName(PRODUCTS).registerMappedBatchLoader((productIds, env) ->
+      load(productIds, productId -> Mono.defer(() -> integration.getProduct(getHeaders(env), productId, 0, 0))
+        .onErrorResume(NotFoundException.class, e -> Mono.empty())));
+
+    registry.<RecommendationsKey, List<Recommendation>>forName(RECOMMENDATIONS).registerMappedBatchLoader((keys, env) ->
+      load(keys, key -> ((key.limit() == 0)
+        ? integration.getRecommendations(getHeaders(env), key.productId())
+        : integration.getTopRecommendations(getHeaders(env), key.productId(), key.limit())).collectList()));
+
+    registry.<Integer, List<Review>>forName(REVIEWS).registerMappedBatchLoader((productIds, env) ->
+      load(productIds, productId -> integration.getReviews(getHeaders(env), productId).collectList()));
+
+    registry.<Integer, RatingStatistics>forName(RATING_STATISTICS).registerMappedBatchLoader((productIds, env) ->
+      load(productIds, productId -> integration.getRatingStatistics(getHeaders(env), productId)));
+  }
+
+  @QueryMapping
+  public CompletableFuture<Product> product(@Argument int productId, DataFetchingEnvironment env) {
+    validateProductId(productId);
+    return env.<Integer, Product>getDataLoader(PRODUCTS).load(productId);
+  }
+
+  @QueryMapping
+  public CompletableFuture<DataFetcherResult<List<Product>>> products(@Argument List<Integer> productIds, DataFetchingEnvironment env) {
+    if (productIds.size() > MAX_PRODUCT_IDS) {
+      throw new InvalidInputException("Invalid number of productIds: " + productIds.size() + ", must be at most " + MAX_PRODUCT_IDS);
+    }
+    productIds.forEach(productId -> validateProductId(productId));
+
+    DataLoader<Integer, Product> loader = env.getDataLoader(PRODUCTS);
+    List<CompletableFuture<DataFetcherResult<Product>>> products = IntStream.range(0, productIds.size())
+      .mapToObj(i -> loader.load(productIds.get(i)).handle((product, error) -> (error == null)
+        ? DataFetcherResult.<Product>newResult().data(product).build()
+        : DataFetcherResult.<Product>newResult().error(productError(productIds.get(i), i, error, env)).build()))
+      .toList();
+
+    return CompletableFuture.allOf(products.toArray(CompletableFuture[]::new)).thenApply(v -> {
+      DataFetcherResult.Builder<List<Product>> result = DataFetcherResult.newResult();
+      products.forEach(product -> result.errors(product.join().getErrors()));
+      return result.data(products.stream().map(product -> product.join().getData()).toList()).build();
+    });
+  }
+
+  @SchemaMapping(typeName = "Product")
+  public CompletableFuture<List<Recommendation>> recommendations(Product product, @Argument int limit, DataFetchingEnvironment env) {
+    if (limit < 0) {
+      throw new InvalidInputException("Invalid limit: " + limit);
+    }
+    DataLoader<RecommendationsKey, List<Recommendation>> loader = env.getDataLoader(RECOMMENDATIONS);
+    return loader.load(new RecommendationsKey(product.getProductId(), limit)).thenApply(r -> (r == null) ? List.of() : r);
+  }
+
+  @SchemaMapping(typeName = "Product")
+  public CompletableFuture<List<Review>> reviews(Product product, DataFetchingEnvironment env) {
+    DataLoader<Integer, List<Review>> loader = env.getDataLoader(REVIEWS);
+    return loader.load(product.getProductId()).thenApply(r -> (r == null) ? List.of() : r);
+  }
+
+  @SchemaMapping(typeName = "Product")
+  public CompletableFuture<RatingSummary> ratingSummary(Product product, DataFetchingEnvironment env) {
+    DataLoader<Integer, RatingStatistics> loader = env.getDataLoader(RATING_STATISTICS);
+    return loader.load(product.getProductId()).thenApply(s -> (s == null) ? null : new RatingSummary(
+      s.getCount(),
+      (s.getCount() == 0) ? 0 : (double) s.getSum() / s.getCount(),
+      s.getHistogram()));
+  }
+
+  @SchemaMapping(typeName = "RatingSummary")
+  public List<RatingCount> histogram(RatingSummary ratingSummary) {
+    Map<Integer, Integer> histogram = ratingSummary.getHistogram();
+    if (histogram == null) {
+      return List.of();
+    }
+    return histogram.entrySet().stream()
+      .map(e -> new RatingCount(e.getKey(), e.getValue()))
+      .sorted((a, b) -> Integer.compare(a.rating(), b.rating()))
+      .toList();
+  }
+
+  private void validateProductId(int productId) {
+    if (productId < 1) {
+      throw new InvalidInputException("Invalid productId: " + productId);
+    }
+  }
+
+  private GraphQLError productError(int productId, int index, Throwable error, DataFetchingEnvironment env) {
+    Throwable cause = (error instanceof CompletionException && error.getCause() != null) ? error.getCause() : error;
+    ErrorType errorType = GraphQlExceptionResolver.errorTypeOf(cause);
+    if (errorType == null) {
+      LOG.warn("Failed to get the product with productId: {}, {}", productId, cause.toString());
+    }
+    return GraphqlErrorBuilder.newError(env)
+      .path(env.getExecutionStepInfo().getPath().segment(index))
+      .errorType((errorType == null) ? ErrorType.INTERNAL_ERROR : errorType)
+      .message((errorType == null) ? "Failed to get the product with productId: " + productId : cause.getMessage())
+      .build();
+  }
+
+  /**
+   * Loads the values of all keys in a batch in parallel, keys without a value are left out of the map.
+   * <p>
+   * The value of a key whose lookup failed is a failed Try, that the DataLoader completes the future of that key with,
+   * i.e. the other keys of the batch get their values.
+   */
+  @SuppressWarnings("unchecked")
+  private <K, V> Mono<Map<K, V>> load(Set<K> keys, Function<K, Mono<V>> loader) {
+    LOG.debug("Will load a batch of {} keys, e.g. {}", keys.size(), keys.iterator().next());
+    return Flux.fromIterable(keys)
+      .flatMap(key -> Mono.defer(() -> loader.apply(key))
+        .map(value -> Map.<K, Object>entry(key, value))
+        .onErrorResume(error -> Mono.just(Map.<K, Object>entry(key, Try.failed(error)))), batchConcurrency)
+      .collectMap(Map.Entry::getKey, entry -> (V) entry.getValue());
+  }
+
+  private static HttpHeaders getHeaders(BatchLoaderEnvironment env) {
+    GraphQLContext context = env.getContext();
+    return (context == null) ? new HttpHeaders() : context.getOrDefault(GraphQlHeadersInterceptor.HEADERS, new HttpHeaders());
+  }
+
+  public record RecommendationsKey(int productId, int limit) {}
+
+  public record RatingCount(int rating, int count) {}
+}
@@ -0,0 +1,47 @@
+package se.magnus.microservices.composite.product.services.passthrough;
+
+import java.util.List;
+import org.springframework.core.io.buffer.DataBuffer;
+import se.magnus.api.composite.product.ProductAggregate;
+import se.magnus.api.composite.product.RatingSummary;
+import se.magnus.api.composite.product.ServiceAddresses;
+
+/**
+ * A product aggregate that is already written as JSON by the {@link ProductAggregateAssembler}, the JSON is written to
+ * the response as is by the {@link AssembledProductAggregateEncoder}.
+ * <p>
+ * The recommendations and reviews are only part of the JSON, i.e. they are null in the aggregate.
+ */
+public class AssembledProductAggregate extends ProductAggregate {
+
+  private final List<DataBuffer> json;
+  private final String entityTag;
+
+  AssembledProductAggregate(
+    int productId,
+    String name,
+    int weight,
+    RatingSummary ratingSummary,
+    ServiceAddresses serviceAddresses,
+    List<DataBuffer> json,
+    String entityTag) {
+
+    super(productId, name, weight, null, null, ratingSummary, serviceAddresses);
+    this.json = json;
+    this.entityTag = entityTag;
+  }
+
+  /**
+   * @return the buffers that make up the JSON of the aggregate, in order
+   */
+  public List<DataBuffer> getJson() {
+    return json;
+  }
+
+  /**
+   * @return the same entity tag as the aggregate would get if it was created from objects
+   */
+  public String getEntityTag() {
+    return entityTag;
+  }
+}
@@ -0,0 +1,59 @@
+package se.magnus.microservices.composite.product.services.passthrough;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.List;
+import java.util.Map;
+import org.reactivestreams.Publisher;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.Encoder;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.util.MimeType;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import se.magnus.api.composite.product.ProductAggregate;
+
+/**
+ * Writes the JSON of assembled product aggregates as is, other product aggregates are encoded as JSON by Jackson.
+ * <p>
+ * The buffers of the JSON are joined into one buffer of the response, with Netty without copying them.
+ */
+public class AssembledProductAggregateEncoder implements Encoder<ProductAggregate> {
+
+  private final Jackson2JsonEncoder jsonEncoder;
+
+  public AssembledProductAggregateEncoder(ObjectMapper mapper) {
+    this.jsonEncoder = new Jackson2JsonEncoder(mapper);
+  }
+
+  @Override
+  public boolean canEncode(ResolvableType elementType, MimeType mimeType) {
+    return ProductAggregate.class.isAssignableFrom(elementType.toClass()) && jsonEncoder.canEncode(elementType, mimeType);
+  }
+
+  @Override
+  public Flux<DataBuffer> encode(Publisher<? extends ProductAggregate> input, DataBufferFactory bufferFactory,
+    ResolvableType elementType, MimeType mimeType, Map<String, Object> hints) {
+
+    if (input instanceof Mono) {
+      return Mono.from(input).map(value -> encodeValue(value, bufferFactory, elementType, mimeType, hints)).flux();
+    }
+    return jsonEncoder.encode(input, bufferFactory, elementType, mimeType, hints);
+  }
+
+  @Override
+  public DataBuffer encodeValue(ProductAggregate value, DataBufferFactory bufferFactory,
+    ResolvableType valueType, MimeType mimeType, Map<String, Object> hints) {
+
+    if (value instanceof AssembledProductAggregate assembled) {
+      return bufferFactory.join(assembled.getJson());
+    }
+    return jsonEncoder.encodeValue(value, bufferFactory, valueType, mimeType, hints);
+  }
+
+  @Override
+  public List<MimeType> getEncodableMimeTypes() {
+    return jsonEncoder.getEncodableMimeTypes();
+  }
+}
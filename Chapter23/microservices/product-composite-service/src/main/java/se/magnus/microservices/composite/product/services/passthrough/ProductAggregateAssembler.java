@@ -0,0 +1,179 @@
+package se.magnus.microservices.composite.product.services.passthrough;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import se.magnus.api.composite.product.RatingSummary;
+import se.magnus.api.composite.product.ServiceAddresses;
+import se.magnus.api.core.product.Product;
+import se.magnus.api.core.recommendation.RatingStatistics;
+import se.magnus.microservices.composite.product.services.ProductCompositeIntegration;
+import se.magnus.microservices.composite.product.services.passthrough.SummaryWriter.Summary;
+import se.magnus.util.http.EntityTagBuilder;
+
+/**
+ * Assembles the JSON of a composite product from the JSON responses of the core services, without creating objects
+ * for the recommendations and reviews.
+ * <p>
+ * The summaries of the recommendations and reviews are copied by {@link SummaryWriter}s as the responses are streamed,
+ * and the product info, rating summary and service addresses are written around them. The JSON and the entity tag are
+ * the same as for an aggregate created from objects, except that failing recommendation or review responses give
+ * empty lists rather than the elements received before the failure.
+ * <p>
+ * The JSON is written to heap buffers that are left to the garbage collector if the aggregate is not written to a
+ * response, e.g. for a 304 Not Modified response.
+ */
+@Component
+public class ProductAggregateAssembler {
+
+  private static final List<String> RECOMMENDATION_SUMMARY_FIELDS = List.of("recommendationId", "author", "rate", "content");
+  private static final List<String> RECOMMENDATION_TAG_FIELDS = List.of("recommendationId", "version", "author", "rate", "content");
+  private static final List<String> REVIEW_SUMMARY_FIELDS = List.of("reviewId", "author", "subject", "content");
+  private static final List<String> REVIEW_TAG_FIELDS = List.of("reviewId", "version", "author", "subject", "content");
+
+  private static final int FRAME_CAPACITY = 256;
+
+  private final ProductCompositeIntegration integration;
+  private final ObjectMapper mapper;
+  private final DataBufferFactory bufferFactory;
+  private final SummaryWriter recommendationWriter;
+  private final SummaryWriter reviewWriter;
+
+  @Autowired
+  public ProductAggregateAssembler(ProductCompositeIntegration integration, ObjectMapper mapper) {
+    this.integration = integration;
+    this.mapper = mapper;
+    this.bufferFactory = new NettyDataBufferFactory(new UnpooledByteBufAllocator(false));
+    this.recommendationWriter = new SummaryWriter(mapper.getFactory(), bufferFactory, RECOMMENDATION_SUMMARY_FIELDS, RECOMMENDATION_TAG_FIELDS);
+    this.reviewWriter = new SummaryWriter(mapper.getFactory(), bufferFactory, REVIEW_SUMMARY_FIELDS, REVIEW_TAG_FIELDS);
+  }
+
+  /**
+   * @param recommendationLimit Max number of recommendations, best rated first. Zero gives all recommendations
+   */
+  public Mono<AssembledProductAggregate> assemble(HttpHeaders headers, int productId, int delay, int faultPercent,
+    int recommendationLimit, String serviceAddress) {
+
+    return assemble(
+      integration.getProduct(headers, productId, delay, faultPercent),
+      integration.getRecommendationsJson(headers, productId, recommendationLimit),
+      integration.getReviewsJson(headers, productId),
+      integration.getRatingStatistics(headers, productId),
+      serviceAddress);
+  }
+
+  Mono<AssembledProductAggregate> assemble(Mono<Product> product, Flux<DataBuffer> recommendations, Flux<DataBuffer> reviews,
+    Mono<RatingStatistics> ratingStatistics, String serviceAddress) {
+
+    return Mono.zip(
+        product,
+        recommendationWriter.write(recommendations),
+        reviewWriter.write(reviews),
+        ratingStatistics.map(Optional::of).defaultIfEmpty(Optional.empty()))
+      .map(values -> assemble(values.getT1(), values.getT2(), values.getT3(), values.getT4().orElse(null), serviceAddress));
+  }
+
+  private AssembledProductAggregate assemble(Product product, Summary recommendations, Summary reviews,
+    RatingStatistics ratingStatistics, String serviceAddress) {
+
+    RatingSummary ratingSummary = (ratingStatistics == null) ? null :
+      new RatingSummary(
+        ratingStatistics.getCount(),
+        (ratingStatistics.getCount() == 0) ? 0 : (double) ratingStatistics.getSum() / ratingStatistics.getCount(),
+        ratingStatistics.getHistogram());
+    ServiceAddresses serviceAddresses = new ServiceAddresses(
+      serviceAddress, product.getServiceAddress(), reviews.serviceAddress(), recommendations.serviceAddress());
+
+    // Same properties in the same order as the JSON of a ProductAggregate
+    FrameOutputStream out = new FrameOutputStream();
+    try (JsonGenerator generator = mapper.getFactory().createGenerator(out)) {
+      generator.writeStartObject();
+      generator.writeNumberField("productId", product.getProductId());
+      generator.writeStringField("name", product.getName());
+      generator.writeNumberField("weight", product.getWeight());
+      writeSummaries(generator, out, "recommendations", recommendations);
+      writeSummaries(generator, out, "reviews", reviews);
+      generator.writeObjectField("ratingSummary", ratingSummary);
+      generator.writeObjectField("serviceAddresses", serviceAddresses);
+      generator.writeEndObject();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    return new AssembledProductAggregate(product.getProductId(), product.getName(), product.getWeight(), ratingSummary,
+      serviceAddresses, out.getBuffers(), entityTag(product, recommendations, reviews, ratingStatistics));
+  }
+
+  private void writeSummaries(JsonGenerator generator, FrameOutputStream out, String fieldName, Summary summaries) throws IOException {
+    generator.writeFieldName(fieldName);
+    // Lets the generator write the separator before the value, the summaries are then added after it as they are
+    generator.writeRawValue("");
+    generator.flush();
+    out.append(summaries.json());
+  }
+
+  /**
+   * Derived from the same parts as the entity tag of an aggregate created from objects.
+   */
+  private String entityTag(Product product, Summary recommendations, Summary reviews, RatingStatistics ratingStatistics) {
+    EntityTagBuilder tag = new EntityTagBuilder();
+    Stream.of(product.getProductId(), product.getVersion(), product.getName(), product.getWeight()).forEach(tag::add);
+    tag.append(recommendations.tagParts()).append(reviews.tagParts());
+    if (ratingStatistics != null) {
+      Stream.of(ratingStatistics.getVersion(), ratingStatistics.getCount(), ratingStatistics.getSum(), ratingStatistics.getHistogram())
+        .forEach(tag::add);
+    }
+    return tag.build();
+  }
+
+  /**
+   * Writes to a new buffer after each appended buffer, i.e. the JSON is made up of the written and appended buffers.
+   */
+  private class FrameOutputStream extends OutputStream {
+
+    private final List<DataBuffer> buffers = new ArrayList<>();
+    private DataBuffer current;
+
+    @Override
+    public void write(int b) {
+      current().write((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      current().write(b, off, len);
+    }
+
+    void append(DataBuffer buffer) {
+      buffers.add(buffer);
+      current = null;
+    }
+
+    List<DataBuffer> getBuffers() {
+      return buffers;
+    }
+
+    private DataBuffer current() {
+      if (current == null) {
+        current = bufferFactory.allocateBuffer(FRAME_CAPACITY);
+        buffers.add(current);
+      }
+      return current;
+    }
+  }
+}
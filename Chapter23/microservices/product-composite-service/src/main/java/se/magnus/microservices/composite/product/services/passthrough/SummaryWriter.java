@@ -0,0 +1,267 @@
+package se.magnus.microservices.composite.product.services.passthrough;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteBufferFeeder;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import se.magnus.util.http.EntityTagBuilder;
+
+/**
+ * Copies the summary fields of the objects in a JSON array, e.g. of the recommendations of a product, from the response
+ * of a core service to a buffer of the composite response, without creating objects for the elements.
+ * <p>
+ * The response is parsed by a non-blocking parser as its buffers arrive and the scalar values of the summary fields are
+ * copied as they are parsed, other fields are skipped. Strings are copied as the UTF-8 encoded bytes of the response,
+ * i.e. without encoding the parsed characters again, unless they span two buffers of the response. The fields that
+ * entity tags are derived from are added to the tag as they are parsed, i.e. in the same way as the fields of the
+ * objects.
+ */
+class SummaryWriter {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SummaryWriter.class);
+
+  private static final String SERVICE_ADDRESS = "serviceAddress";
+  private static final int INITIAL_CAPACITY = 1024;
+
+  /**
+   * @param json the JSON array of the summaries
+   * @param tagParts the number of elements followed by the tag fields of each element, null for a missing field
+   * @param serviceAddress the service address of the first element, or an empty string if there are no elements
+   */
+  record Summary(DataBuffer json, EntityTagBuilder tagParts, String serviceAddress) {}
+
+  private final JsonFactory jsonFactory;
+  private final DataBufferFactory bufferFactory;
+  private final List<String> summaryFields;
+  private final List<String> tagFields;
+
+  SummaryWriter(JsonFactory jsonFactory, DataBufferFactory bufferFactory, List<String> summaryFields, List<String> tagFields) {
+    this.jsonFactory = jsonFactory;
+    this.bufferFactory = bufferFactory;
+    this.summaryFields = summaryFields;
+    this.tagFields = tagFields;
+  }
+
+  /**
+   * The buffers of the response are released when they are copied.
+   *
+   * @return the summary of the elements, or a summary of no elements if the response fails
+   */
+  Mono<Summary> write(Flux<DataBuffer> response) {
+    return Mono.fromCallable(() -> new Copier())
+      .flatMap(copier -> response
+        .doOnNext(buffer -> {
+          try {
+            copier.feed(buffer);
+          } finally {
+            DataBufferUtils.release(buffer);
+          }
+        })
+        .then(Mono.fromCallable(() -> copier.finish())))
+      .doOnDiscard(DataBuffer.class, DataBufferUtils::release)
+      .onErrorResume(ex -> {
+        LOG.warn("Failed to copy the summaries, will return no summaries: {}", ex.toString());
+        return Mono.fromCallable(() -> noSummaries());
+      });
+  }
+
+  private Summary noSummaries() {
+    DataBuffer json = bufferFactory.allocateBuffer(2);
+    json.write((byte) '[').write((byte) ']');
+    return new Summary(json, new EntityTagBuilder().add(0), "");
+  }
+
+  private class Copier {
+
+    private final JsonParser parser;
+    private final ByteBufferFeeder feeder;
+    private final DataBuffer json;
+    private final JsonGenerator generator;
+
+    // The tag fields of the element that is copied, in the order of tagFields, and of all copied elements
+    private final EntityTagBuilder[] elementTagParts = new EntityTagBuilder[tagFields.size()];
+    private final boolean[] elementTagPartsSet = new boolean[tagFields.size()];
+    private final EntityTagBuilder tagParts = new EntityTagBuilder();
+
+    // The buffer that is parsed, and its offset in the response
+    private ByteBuffer input;
+    private int inputPosition;
+    private long inputOffset;
+    private long nextInputOffset;
+    private byte[] copyBuffer = new byte[0];
+
+    private int depth;
+    private int count;
+    private String fieldName;
+    private long fieldNameEndOffset;
+    private String serviceAddress;
+    private boolean complete;
+
+    Copier() throws IOException {
+      this.parser = jsonFactory.createNonBlockingByteBufferParser();
+      this.feeder = (ByteBufferFeeder) parser.getNonBlockingInputFeeder();
+      this.json = bufferFactory.allocateBuffer(INITIAL_CAPACITY);
+      this.generator = jsonFactory.createGenerator(json.asOutputStream());
+      Arrays.setAll(elementTagParts, i -> new EntityTagBuilder());
+    }
+
+    void feed(DataBuffer buffer) {
+      try (DataBuffer.ByteBufferIterator iterator = buffer.readableByteBuffers()) {
+        while (iterator.hasNext()) {
+          input = iterator.next();
+          inputPosition = input.position();
+          inputOffset = nextInputOffset;
+          nextInputOffset += input.remaining();
+          feeder.feedInput(input);
+          copyAvailableTokens();
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    Summary finish() throws IOException {
+      feeder.endOfInput();
+      copyAvailableTokens();
+      if (!complete) {
+        throw new JsonParseException(parser, "Incomplete JSON array");
+      }
+
+      generator.flush();
+      parser.close();
+      return new Summary(json, new EntityTagBuilder().add(count).append(tagParts), (count == 0) ? "" : serviceAddress);
+    }
+
+    private void copyAvailableTokens() throws IOException {
+      JsonToken token;
+      while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+        copy(token);
+      }
+    }
+
+    private void copy(JsonToken token) throws IOException {
+      switch (token) {
+        case START_ARRAY -> {
+          if (++depth == 1) {
+            generator.writeStartArray();
+          }
+        }
+        case START_OBJECT -> {
+          if (++depth == 1) {
+            throw new JsonParseException(parser, "Expected a JSON array");
+          }
+          if (depth == 2) {
+            generator.writeStartObject();
+            Arrays.fill(elementTagPartsSet, false);
+          }
+        }
+        case END_OBJECT -> {
+          if (depth-- == 2) {
+            generator.writeEndObject();
+            addElementTagParts();
+            count++;
+          }
+        }
+        case END_ARRAY -> {
+          if (depth-- == 1) {
+            generator.writeEndArray();
+            complete = true;
+          }
+        }
+        case FIELD_NAME -> {
+          if (depth == 2) {
+            fieldName = parser.currentName();
+            fieldNameEndOffset = parser.currentLocation().getByteOffset();
+          }
+        }
+        default -> {
+          if (depth == 2) {
+            copyValue(token);
+          }
+        }
+      }
+    }
+
+    private void copyValue(JsonToken token) throws IOException {
+      if (summaryFields.contains(fieldName)) {
+        generator.writeFieldName(fieldName);
+        if (token != JsonToken.VALUE_STRING || !copyStringBytes()) {
+          generator.copyCurrentEvent(parser);
+        }
+      }
+
+      int tagIndex = tagFields.indexOf(fieldName);
+      if (tagIndex >= 0) {
+        addTagPart(token, elementTagParts[tagIndex].reset());
+        elementTagPartsSet[tagIndex] = true;
+      }
+
+      if (count == 0 && SERVICE_ADDRESS.equals(fieldName)) {
+        serviceAddress = parser.getValueAsString();
+      }
+    }
+
+    /**
+     * Copies the bytes between the quotes of the string that is parsed, if the string is in the buffer that is parsed.
+     * It starts at the first quote after the field name, i.e. after the colon and any whitespace.
+     *
+     * @return true if the string is copied
+     */
+    private boolean copyStringBytes() throws IOException {
+      if (fieldNameEndOffset < inputOffset) {
+        return false;
+      }
+
+      int index = inputPosition + (int) (fieldNameEndOffset - inputOffset);
+      while (input.get(index) != '"') {
+        index++;
+      }
+      int start = index + 1;
+      int length = inputPosition + (int) (parser.currentLocation().getByteOffset() - inputOffset) - 1 - start;
+
+      if (input.hasArray()) {
+        generator.writeRawUTF8String(input.array(), input.arrayOffset() + start, length);
+      } else {
+        if (copyBuffer.length < length) {
+          copyBuffer = new byte[Math.max(length, 2 * copyBuffer.length)];
+        }
+        input.get(start, copyBuffer, 0, length);
+        generator.writeRawUTF8String(copyBuffer, 0, length);
+      }
+      return true;
+    }
+
+    private void addTagPart(JsonToken token, EntityTagBuilder part) throws IOException {
+      switch (token) {
+        case VALUE_STRING -> part.addString(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+        case VALUE_NUMBER_INT, VALUE_NUMBER_FLOAT -> part.add(parser.getNumberValue());
+        case VALUE_TRUE, VALUE_FALSE -> part.add(parser.getBooleanValue());
+        default -> part.add(null);
+      }
+    }
+
+    private void addElementTagParts() {
+      for (int i = 0; i < elementTagParts.length; i++) {
+        if (elementTagPartsSet[i]) {
+          tagParts.append(elementTagParts[i]);
+        } else {
+          tagParts.add(null);
+        }
+      }
+    }
+  }
+}
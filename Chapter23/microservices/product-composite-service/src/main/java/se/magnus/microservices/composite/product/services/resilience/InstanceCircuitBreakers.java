@@ -0,0 +1,148 @@
+package se.magnus.microservices.composite.product.services.resilience;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.CompletionContext;
+import org.springframework.cloud.client.loadbalancer.LoadBalancerLifecycle;
+import org.springframework.cloud.client.loadbalancer.Request;
+import org.springframework.cloud.client.loadbalancer.Response;
+import org.springframework.cloud.client.loadbalancer.ResponseData;
+import org.springframework.cloud.client.loadbalancer.TimedRequestContext;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import se.magnus.util.loadbalancer.InstanceAvailability;
+
+/**
+ * A circuit breaker per instance of the services that have a circuit breaker configuration named
+ * <code>&lt;service&gt;-instance</code> under <code>resilience4j.circuitbreaker.configs</code>, e.g. product-instance.
+ * <p>
+ * The circuit breakers are named <code>&lt;service&gt;@&lt;host&gt;:&lt;port&gt;</code> and are created in the
+ * circuit breaker registry, i.e. their events are found by the circuitbreakerevents actuator endpoint. The calls are
+ * recorded as they are reported to the lifecycle of the load balancer, and an instance with an open circuit gets no calls,
+ * i.e. the calls are routed to the other instances instead of the circuit of the whole service opening.
+ * <p>
+ * An open circuit moves to half open by itself when it has been open long enough, i.e. asking if an instance is
+ * available does not ask for permission to call it and does not use up the calls permitted in the half open state. A half
+ * open instance is only available until the permitted calls are started, i.e. the calls it gets are limited to the ones
+ * that decide if the circuit closes. The circuit breakers of the instances that are no longer listed by the discovery
+ * client are removed from the registry.
+ */
+@Component
+public class InstanceCircuitBreakers implements InstanceAvailability, LoadBalancerLifecycle<Object, Object, ServiceInstance> {
+
+  private static final String CONFIG_SUFFIX = "-instance";
+
+  private final CircuitBreakerRegistry registry;
+
+  private final Map<String, Optional<CircuitBreakerConfig>> configs = new ConcurrentHashMap<>();
+  // The last supplied instances of each service, the list is the same until the instances are listed again
+  private final Map<String, List<ServiceInstance>> listedInstances = new ConcurrentHashMap<>();
+  // The calls in progress per circuit breaker that were started in the half open state
+  private final Map<String, AtomicInteger> halfOpenCalls = new ConcurrentHashMap<>();
+
+  public InstanceCircuitBreakers(CircuitBreakerRegistry registry) {
+    this.registry = registry;
+    registry.getEventPublisher().onEntryAdded(event -> event.getAddedEntry().getEventPublisher()
+      .onStateTransition(transition -> halfOpenCalls.remove(transition.getCircuitBreakerName())));
+  }
+
+  public Optional<CircuitBreaker> find(ServiceInstance instance) {
+    return config(instance.getServiceId()).map(c -> registry.circuitBreaker(name(instance), c));
+  }
+
+  @Override
+  public boolean isAvailable(ServiceInstance instance) {
+    return find(instance).map(circuitBreaker -> switch (circuitBreaker.getState()) {
+      case OPEN, FORCED_OPEN -> false;
+      case HALF_OPEN -> halfOpenCalls(circuitBreaker.getName()) + circuitBreaker.getMetrics().getNumberOfBufferedCalls()
+        < circuitBreaker.getCircuitBreakerConfig().getPermittedNumberOfCallsInHalfOpenState();
+      default -> true;
+    }).orElse(true);
+  }
+
+  @Override
+  public void retainAll(String serviceId, List<ServiceInstance> instances) {
+    if (config(serviceId).isEmpty() || listedInstances.put(serviceId, instances) == instances) {
+      return;
+    }
+
+    String prefix = serviceId + "@";
+    Set<String> listed = instances.stream().map(InstanceCircuitBreakers::name).collect(Collectors.toSet());
+    registry.getAllCircuitBreakers().stream()
+      .map(CircuitBreaker::getName)
+      .filter(name -> name.startsWith(prefix) && !listed.contains(name))
+      .forEach(name -> {
+        registry.remove(name);
+        halfOpenCalls.remove(name);
+      });
+  }
+
+  @Override
+  public void onStart(Request<Object> request) {
+  }
+
+  @Override
+  public void onStartRequest(Request<Object> request, Response<ServiceInstance> lbResponse) {
+    if (request.getContext() instanceof TimedRequestContext context && context.getRequestStartTime() <= 0) {
+      context.setRequestStartTime(System.nanoTime());
+    }
+    if (lbResponse != null && lbResponse.hasServer()) {
+      find(lbResponse.getServer())
+        .filter(circuitBreaker -> circuitBreaker.getState() == CircuitBreaker.State.HALF_OPEN)
+        .ifPresent(circuitBreaker -> halfOpenCalls.computeIfAbsent(circuitBreaker.getName(), name -> new AtomicInteger()).incrementAndGet());
+    }
+  }
+
+  @Override
+  public void onComplete(CompletionContext<Object, ServiceInstance, Object> completionContext) {
+    Response<ServiceInstance> lbResponse = completionContext.getLoadBalancerResponse();
+    // Discarded calls were not made, e.g. since no instance was found
+    if (completionContext.status() == CompletionContext.Status.DISCARD || lbResponse == null || !lbResponse.hasServer()) {
+      return;
+    }
+
+    find(lbResponse.getServer()).ifPresent(circuitBreaker -> {
+      long duration = 0;
+      if (completionContext.getLoadBalancerRequest().getContext() instanceof TimedRequestContext context && context.getRequestStartTime() > 0) {
+        duration = System.nanoTime() - context.getRequestStartTime();
+      }
+
+      if (completionContext.status() == CompletionContext.Status.FAILED) {
+        circuitBreaker.onError(duration, NANOSECONDS, completionContext.getThrowable());
+      } else if (completionContext.getClientResponse() instanceof ResponseData response
+        && response.getHttpStatus() != null && response.getHttpStatus().is5xxServerError()) {
+        circuitBreaker.onError(duration, NANOSECONDS,
+          WebClientResponseException.create(response.getHttpStatus().value(), "Server error", null, null, null));
+      } else {
+        circuitBreaker.onSuccess(duration, NANOSECONDS);
+      }
+      halfOpenCalls.computeIfPresent(circuitBreaker.getName(), (name, calls) -> calls.decrementAndGet() > 0 ? calls : null);
+    });
+  }
+
+  private Optional<CircuitBreakerConfig> config(String serviceId) {
+    // Nothing asks an open circuit for permission, i.e. it must move to half open by itself
+    return configs.computeIfAbsent(serviceId, id -> registry.getConfiguration(id + CONFIG_SUFFIX)
+      .map(c -> CircuitBreakerConfig.from(c).automaticTransitionFromOpenToHalfOpenEnabled(true).build()));
+  }
+
+  private int halfOpenCalls(String name) {
+    AtomicInteger calls = halfOpenCalls.get(name);
+    return calls == null ? 0 : calls.get();
+  }
+
+  private static String name(ServiceInstance instance) {
+    return instance.getServiceId() + "@" + instance.getHost() + ":" + instance.getPort();
+  }
+}
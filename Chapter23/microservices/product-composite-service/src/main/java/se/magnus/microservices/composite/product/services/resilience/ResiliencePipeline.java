@@ -0,0 +1,142 @@
+package se.magnus.microservices.composite.product.services.resilience;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.reactor.circuitbreaker.operator.CircuitBreakerOperator;
+import io.github.resilience4j.reactor.retry.RetryOperator;
+import io.github.resilience4j.reactor.timelimiter.TimeLimiterOperator;
+import io.github.resilience4j.retry.Retry;
+import io.github.resilience4j.retry.RetryConfig;
+import io.github.resilience4j.retry.RetryRegistry;
+import io.github.resilience4j.timelimiter.TimeLimiter;
+import io.github.resilience4j.timelimiter.TimeLimiterRegistry;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+
+/**
+ * Decorates the calls to a service with the time limiter, circuit breaker and retry that are configured for it under
+ * <code>resilience4j.timelimiter.instances</code>, <code>resilience4j.circuitbreaker.instances</code> and
+ * <code>resilience4j.retry.instances</code>, using Reactor operators instead of annotations, i.e. without AOP proxies.
+ * <p>
+ * The decorators are applied in the same order as the Resilience4j aspects apply them: each attempt is time limited and
+ * recorded by the circuit breaker, and failed attempts are retried. A decorator that is not configured for the service
+ * is left out.
+ * <p>
+ * The retries of a call can also be let through by a {@link RetryGate} of the call, that can deny a retry the retry
+ * config would make, and waits before the retries it permits.
+ */
+public class ResiliencePipeline {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ResiliencePipeline.class);
+
+  private final String name;
+  private final Optional<TimeLimiter> timeLimiter;
+  private final Optional<CircuitBreaker> circuitBreaker;
+  private final Optional<Retry> retry;
+  private final boolean retriesDeniedRetries;
+
+  public ResiliencePipeline(String name, TimeLimiterRegistry timeLimiterRegistry, CircuitBreakerRegistry circuitBreakerRegistry,
+    RetryRegistry retryRegistry) {
+
+    this.name = name;
+    this.timeLimiter = timeLimiterRegistry.find(name);
+    this.circuitBreaker = circuitBreakerRegistry.find(name);
+    this.retry = retryRegistry.find(name);
+    this.retriesDeniedRetries = retry.isPresent()
+      && retry.get().getRetryConfig().getExceptionPredicate().test(new RetryDeniedException(null));
+
+    LOG.info("Calls to {} are decorated with time limiter: {}, circuit breaker: {}, retry: {}",
+      name, timeLimiter.isPresent(), circuitBreaker.isPresent(), retry.isPresent());
+  }
+
+  /**
+   * To be applied with {@link Mono#transformDeferred}, to get new attempts when the call is subscribed to again.
+   */
+  public <T> Mono<T> decorate(Mono<T> call) {
+    Mono<T> decorated = timeLimitedAndRecorded(call);
+    if (retry.isPresent()) {
+      decorated = decorated.transformDeferred(RetryOperator.of(retry.get()));
+    }
+    return decorated;
+  }
+
+  /**
+   * As {@link #decorate(Mono)}, but a failed attempt is only retried if the gate of the call permits it. The gate is only
+   * asked when the retry config would retry the attempt, i.e. for a retryable exception and if attempts are left. The
+   * wait of the retry config is added to the wait of the gate, set it to zero.
+   *
+   * @param retryGates creates the gate of each call
+   */
+  public <T> Mono<T> decorate(Mono<T> call, Supplier<RetryGate> retryGates) {
+    if (retry.isEmpty()) {
+      return decorate(call);
+    }
+    if (retriesDeniedRetries) {
+      throw new IllegalStateException("The retry of " + name + " retries all exceptions, set its retryExceptions to gate its retries");
+    }
+
+    RetryConfig config = retry.get().getRetryConfig();
+    return Mono.defer(() -> {
+      RetryGate gate = retryGates.get();
+      AtomicInteger attempts = new AtomicInteger();
+      return timeLimitedAndRecorded(call)
+        .doOnSubscribe(s -> attempts.incrementAndGet())
+        .onErrorResume(ex -> {
+          if (attempts.get() >= config.getMaxAttempts() || !config.getExceptionPredicate().test(ex)) {
+            return Mono.error(ex);
+          }
+          return gate.permitRetry()
+            .map(wait -> Mono.delay(wait).then(Mono.<T>error(ex)))
+            .orElseGet(() -> Mono.error(new RetryDeniedException(ex)));
+        })
+        .transformDeferred(RetryOperator.of(retry.get()))
+        .onErrorMap(RetryDeniedException.class, Throwable::getCause);
+    });
+  }
+
+  private <T> Mono<T> timeLimitedAndRecorded(Mono<T> call) {
+    Mono<T> decorated = call;
+    if (timeLimiter.isPresent()) {
+      decorated = decorated.transformDeferred(TimeLimiterOperator.of(timeLimiter.get()));
+    }
+    if (circuitBreaker.isPresent()) {
+      decorated = decorated.transformDeferred(CircuitBreakerOperator.of(circuitBreaker.get()));
+    }
+    return decorated;
+  }
+
+  /**
+   * @return the timeout of each attempt, or null if the calls are not time limited
+   */
+  public Duration getTimeout() {
+    return timeLimiter.map(limiter -> limiter.getTimeLimiterConfig().getTimeoutDuration()).orElse(null);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Decides if the failed attempts of one call are retried.
+   */
+  public interface RetryGate {
+
+    /**
+     * @return the wait before the retry, or empty if the attempt is not retried
+     */
+    Optional<Duration> permitRetry();
+  }
+
+  // Not retried by a retry that only retries its retryExceptions, unwrapped when the retry gives up
+  private static final class RetryDeniedException extends RuntimeException {
+
+    RetryDeniedException(Throwable cause) {
+      super(null, cause, false, false);
+    }
+  }
+}
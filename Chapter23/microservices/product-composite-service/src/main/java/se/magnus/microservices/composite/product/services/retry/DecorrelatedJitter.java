@@ -0,0 +1,48 @@
+package se.magnus.microservices.composite.product.services.retry;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Waits before retries with decorrelated jitter, i.e. each wait of a call is drawn at random between the base wait and
+ * three times the previous wait of the same call, up to a max wait. The retries of calls that failed at the same time
+ * are spread out rather than made in synchronized waves.
+ */
+public class DecorrelatedJitter {
+
+  private final long baseWaitMs;
+  private final long maxWaitMs;
+
+  public DecorrelatedJitter(Duration baseWait, Duration maxWait) {
+    this.baseWaitMs = baseWait.toMillis();
+    this.maxWaitMs = Math.max(baseWaitMs, maxWait.toMillis());
+  }
+
+  /**
+   * @return the waits before the retries of one call
+   */
+  public Waits newWaits() {
+    return new Waits();
+  }
+
+  public Duration getBaseWait() {
+    return Duration.ofMillis(baseWaitMs);
+  }
+
+  /**
+   * The waits of one call, the retries of a call are made one at a time.
+   */
+  public class Waits {
+
+    private long previousWaitMs = baseWaitMs;
+
+    /**
+     * @return min(max wait, random(base wait, 3 * previous wait))
+     */
+    public Duration next() {
+      long upperBoundMs = Math.max(baseWaitMs, 3 * previousWaitMs);
+      previousWaitMs = Math.min(maxWaitMs, ThreadLocalRandom.current().nextLong(baseWaitMs, upperBoundMs + 1));
+      return Duration.ofMillis(previousWaitMs);
+    }
+  }
+}
@@ -0,0 +1,42 @@
+package se.magnus.microservices.composite.product.services.retry;
+
+import io.github.resilience4j.common.retry.configuration.RetryConfigCustomizer;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Lets the retries of <code>resilience4j.retry.product</code> wait with decorrelated jitter and be limited by a retry
+ * budget, instead of retrying every failed call after a fixed wait. Both are applied per call by the
+ * {@link se.magnus.microservices.composite.product.services.resilience.ResiliencePipeline ResiliencePipeline}.
+ */
+@Configuration(proxyBeanMethods = false)
+public class ProductRetryConfig {
+
+  @Bean
+  public RetryBudget productRetryBudget(
+    @Value("${app.retry.product.budget-ratio:0.1}") double ratio,
+    @Value("${app.retry.product.min-retries-per-second:1}") int minRetriesPerSecond,
+    MeterRegistry registry) {
+
+    return new RetryBudget("product", ratio, minRetriesPerSecond, registry);
+  }
+
+  @Bean
+  public DecorrelatedJitter productRetryJitter(
+    @Value("${app.retry.product.base-wait:500ms}") Duration baseWait,
+    @Value("${app.retry.product.max-wait:2s}") Duration maxWait) {
+
+    return new DecorrelatedJitter(baseWait, maxWait);
+  }
+
+  /**
+   * The pipeline waits the jittered wait before it lets a retry through, so the retry itself shall not wait as well.
+   */
+  @Bean
+  public RetryConfigCustomizer productRetryConfigCustomizer() {
+    return RetryConfigCustomizer.of("product", builder -> builder.waitDuration(Duration.ZERO));
+  }
+}
@@ -0,0 +1,113 @@
+package se.magnus.microservices.composite.product.services.retry;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits the retries of the calls to a service to a share of the calls that recently succeeded, plus a few retries
+ * per second to let calls to a service with little traffic be retried. When the service fails, the retries are
+ * denied rather than multiplying the load on it.
+ * <p>
+ * The granted and denied retries are counted by the meter <code>retry.budget.retries</code>.
+ */
+public class RetryBudget {
+
+  private static final Logger LOG = LoggerFactory.getLogger(RetryBudget.class);
+
+  // The recent calls are counted per second over the last WINDOW seconds
+  private static final int WINDOW = 10;
+
+  private final String name;
+  private final double ratio;
+  private final int minRetriesPerSecond;
+  private final LongSupplier nanoClock;
+
+  private final long[] seconds = new long[WINDOW];
+  private final long[] successes = new long[WINDOW];
+  private final long[] retries = new long[WINDOW];
+
+  private final Counter grantedCounter;
+  private final Counter deniedCounter;
+
+  /**
+   * @param name the name of the service, used in messages and as the tag <code>name</code> of the meter
+   * @param ratio the share of the successful calls that may be retried, e.g. 0.1 for 10%
+   * @param minRetriesPerSecond the retries per second that are granted regardless of the successful calls
+   */
+  public RetryBudget(String name, double ratio, int minRetriesPerSecond, MeterRegistry registry) {
+    this(name, ratio, minRetriesPerSecond, registry, System::nanoTime);
+  }
+
+  RetryBudget(String name, double ratio, int minRetriesPerSecond, MeterRegistry registry, LongSupplier nanoClock) {
+    this.name = name;
+    this.ratio = ratio;
+    this.minRetriesPerSecond = minRetriesPerSecond;
+    this.nanoClock = nanoClock;
+    this.grantedCounter = Counter.builder("retry.budget.retries").tag("name", name).tag("result", "granted")
+      .description("Retries granted by the retry budget").register(registry);
+    this.deniedCounter = Counter.builder("retry.budget.retries").tag("name", name).tag("result", "denied")
+      .description("Retries denied by the retry budget").register(registry);
+  }
+
+  public synchronized void onSuccess() {
+    successes[currentSecond()]++;
+  }
+
+  /**
+   * @return true if the retry is within the budget, i.e. is granted and counted against it
+   */
+  public boolean tryAcquire() {
+    boolean granted;
+    synchronized (this) {
+      int current = currentSecond();
+      long recentSuccesses = 0;
+      long recentRetries = 0;
+      for (int i = 0; i < WINDOW; i++) {
+        recentSuccesses += successes[i];
+        recentRetries += retries[i];
+      }
+
+      granted = recentRetries < (long) (ratio * recentSuccesses) + (long) minRetriesPerSecond * WINDOW;
+      if (granted) {
+        retries[current]++;
+      }
+    }
+
+    if (granted) {
+      grantedCounter.increment();
+    } else {
+      LOG.debug("Denies a retry of a call to {}, the retry budget is spent", name);
+      deniedCounter.increment();
+    }
+    return granted;
+  }
+
+  /**
+   * Forgets the recent calls and retries, e.g. the calls made to warm up.
+   */
+  public synchronized void reset() {
+    Arrays.fill(successes, 0);
+    Arrays.fill(retries, 0);
+  }
+
+  /**
+   * Clears the counts of the seconds that have passed since they were last used, i.e. are outside of the window.
+   *
+   * @return the index of the current second
+   */
+  private int currentSecond() {
+    long second = TimeUnit.NANOSECONDS.toSeconds(nanoClock.getAsLong());
+    int index = (int) Math.floorMod(second, (long) WINDOW);
+    if (seconds[index] != second) {
+      seconds[index] = second;
+      successes[index] = 0;
+      retries[index] = 0;
+    }
+    return index;
+  }
+}
@@ -0,0 +1,202 @@
+package se.magnus.microservices.composite.product.services.warmup;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.security.oauth2.jwt.BadJwtException;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import se.magnus.api.composite.product.ProductAggregate;
+import se.magnus.api.composite.product.ProductCompositeService;
+import se.magnus.microservices.composite.product.services.ProductCompositeIntegration;
+import se.magnus.microservices.composite.product.services.retry.RetryBudget;
+
+/**
+ * Warms up the service before the readiness probe reports UP, if app.warm-up.enabled is true. Spring Boot reports the
+ * service as ready when the application runners are done, i.e. the warm-up delays the traffic to a new instance
+ * instead of slowing down its first requests.
+ * <p>
+ * The parts that are warmed up are set by app.warm-up.coverage:
+ * <ul>
+ *   <li>jwks: the JWKS of the auth server is fetched by decoding a synthetic token, signed by a key it doesn't have</li>
+ *   <li>product: composite products are read by calling the service in-process and serialized with the ObjectMapper,
+ *     i.e. the JIT compiler, the connection pools to the core services and the Jackson serializers are warmed up, but
+ *     not the web server, the security filter chain or the HTTP codecs</li>
+ *   <li>top-recommendations: also reads composite products with only the best rated recommendations</li>
+ *   <li>http: the same requests are sent to the local port with the synthetic token, i.e. the web server, the request
+ *     routing and the bearer token authentication are warmed up. The token is rejected, so the requests end with 401
+ *     in the security filter chain, and don't reach the controller or the JSON encoder</li>
+ * </ul>
+ * The synthetic requests are made in parallel until app.warm-up.max-requests are done or app.warm-up.duration has
+ * passed. Their failures are ignored, and the circuit breakers are reset afterwards, to not let core services that
+ * start at the same time open the circuits. The concurrency limits of the calls to the core services and the retry
+ * budget of the product calls are reset as well, i.e. the real traffic does not start with limits learned from the
+ * latency of the cold calls, or with a budget spent on retries of synthetic calls.
+ */
+@Component
+public class WarmUpRunner implements ApplicationRunner {
+
+  private static final Logger LOG = LoggerFactory.getLogger(WarmUpRunner.class);
+
+  static final String JWKS = "jwks";
+  static final String PRODUCT = "product";
+  static final String TOP_RECOMMENDATIONS = "top-recommendations";
+  static final String HTTP = "http";
+
+  private static final int RECOMMENDATION_LIMIT = 5;
+
+  private final boolean enabled;
+  private final Duration duration;
+  private final int maxRequests;
+  private final int concurrency;
+  private final int[] productIds;
+  private final List<String> coverage;
+  private final ProductCompositeService compositeService;
+  private final ObjectMapper mapper;
+  private final ObjectProvider<ReactiveJwtDecoder> jwtDecoder;
+  private final CircuitBreakerRegistry circuitBreakerRegistry;
+  private final ProductCompositeIntegration integration;
+  private final RetryBudget productRetryBudget;
+  private final Environment environment;
+
+  @Autowired
+  public WarmUpRunner(
+    @Value("${app.warm-up.enabled:false}") boolean enabled,
+    @Value("${app.warm-up.duration:20s}") Duration duration,
+    @Value("${app.warm-up.max-requests:1000}") int maxRequests,
+    @Value("${app.warm-up.concurrency:8}") int concurrency,
+    @Value("${app.warm-up.product-ids:1}") int[] productIds,
+    @Value("${app.warm-up.coverage:jwks,product}") List<String> coverage,
+    ProductCompositeService compositeService,
+    ObjectMapper mapper,
+    ObjectProvider<ReactiveJwtDecoder> jwtDecoder,
+    CircuitBreakerRegistry circuitBreakerRegistry,
+    ProductCompositeIntegration integration,
+    RetryBudget productRetryBudget,
+    Environment environment) {
+
+    this.enabled = enabled;
+    this.duration = duration;
+    this.maxRequests = maxRequests;
+    this.concurrency = concurrency;
+    this.productIds = productIds;
+    this.coverage = coverage;
+    this.compositeService = compositeService;
+    this.mapper = mapper;
+    this.jwtDecoder = jwtDecoder;
+    this.circuitBreakerRegistry = circuitBreakerRegistry;
+    this.integration = integration;
+    this.productRetryBudget = productRetryBudget;
+    this.environment = environment;
+  }
+
+  @Override
+  public void run(ApplicationArguments args) {
+    if (!enabled) {
+      return;
+    }
+
+    LOG.info("Will warm up {} for at most {} s", coverage, duration.toSeconds());
+    long start = System.nanoTime();
+
+    if (coverage.contains(JWKS)) {
+      jwtDecoder.ifAvailable(this::loadJwks);
+    }
+
+    if (coverage.contains(PRODUCT) || coverage.contains(TOP_RECOMMENDATIONS) || coverage.contains(HTTP)) {
+      WebClient localClient = coverage.contains(HTTP) ? localClient() : null;
+      long requests = Flux.range(0, maxRequests)
+        .flatMap(i -> syntheticRequest(i, localClient), concurrency)
+        .take(duration)
+        .count()
+        .block();
+
+      circuitBreakerRegistry.getAllCircuitBreakers().forEach(CircuitBreaker::reset);
+      integration.resetServiceLimits();
+      productRetryBudget.reset();
+      LOG.info("Made {} synthetic requests", requests);
+    }
+
+    LOG.info("Warmed up in {} ms", Duration.ofNanos(System.nanoTime() - start).toMillis());
+  }
+
+  /**
+   * The decoder fetches the JWKS to look for the key of the token, before it rejects it as a bad token. Other errors,
+   * e.g. that the JWKS could not be fetched in time, mean that it is not loaded.
+   */
+  private void loadJwks(ReactiveJwtDecoder decoder) {
+    try {
+      decoder.decode(syntheticToken()).block(duration);
+    } catch (BadJwtException e) {
+      LOG.info("Loaded the JWKS, the synthetic token was rejected as expected: {}", e.getMessage());
+    } catch (RuntimeException e) {
+      LOG.warn("Failed to load the JWKS: {}", e.toString());
+    }
+  }
+
+  private Mono<Integer> syntheticRequest(int i, WebClient localClient) {
+    int productId = productIds[i % productIds.length];
+    boolean topRecommendations = coverage.contains(TOP_RECOMMENDATIONS) && (!coverage.contains(PRODUCT) || i % 2 == 1);
+    int recommendationLimit = topRecommendations ? RECOMMENDATION_LIMIT : 0;
+
+    Mono<Integer> inProcess = (coverage.contains(PRODUCT) || coverage.contains(TOP_RECOMMENDATIONS))
+      ? compositeService.getProduct(new HttpHeaders(), productId, 0, 0, recommendationLimit).map(this::serialize)
+      : Mono.empty();
+    Mono<HttpStatusCode> overHttp = (localClient != null)
+      ? localClient.get()
+        .uri("/product-composite/{productId}?recommendationLimit={recommendationLimit}", productId, recommendationLimit)
+        .headers(h -> h.setBearerAuth(syntheticToken()))
+        .exchangeToMono(response -> response.releaseBody().thenReturn(response.statusCode()))
+      : Mono.empty();
+
+    return Mono.when(ignoreFailure(inProcess, productId), ignoreFailure(overHttp, productId)).thenReturn(i);
+  }
+
+  private <T> Mono<T> ignoreFailure(Mono<T> request, int productId) {
+    return request.onErrorResume(e -> {
+      LOG.debug("Synthetic request for product {} failed: {}", productId, e.toString());
+      return Mono.empty();
+    });
+  }
+
+  /**
+   * The web server is started before the application runners are run, i.e. its port is known.
+   */
+  private WebClient localClient() {
+    return WebClient.create("http://localhost:" + environment.getRequiredProperty("local.server.port"));
+  }
+
+  private int serialize(ProductAggregate aggregate) {
+    try {
+      return mapper.writeValueAsBytes(aggregate).length;
+    } catch (JsonProcessingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  static String syntheticToken() {
+    Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+    return encoder.encodeToString("{\"alg\":\"RS256\",\"kid\":\"warm-up\"}".getBytes(UTF_8)) + "."
+      + encoder.encodeToString("{\"sub\":\"warm-up\"}".getBytes(UTF_8)) + "."
+      + encoder.encodeToString("warm-up".getBytes(UTF_8));
+  }
+}
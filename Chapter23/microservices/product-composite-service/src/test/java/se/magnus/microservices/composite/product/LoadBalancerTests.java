@@ -0,0 +1,44 @@
+package se.magnus.microservices.composite.product;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledInNativeImage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.Response;
+import org.springframework.cloud.client.loadbalancer.reactive.ReactiveLoadBalancer;
+import org.springframework.cloud.loadbalancer.support.LoadBalancerClientFactory;
+import reactor.core.publisher.Mono;
+import se.magnus.util.loadbalancer.LatencyAwareLoadBalancer;
+
+/**
+ * The load balancer is enabled at deploy time, i.e. by spring.cloud.loadbalancer.enabled in config-repo.
+ */
+@DisabledInNativeImage
+@SpringBootTest(
+  webEnvironment = RANDOM_PORT,
+  classes = {TestSecurityConfig.class},
+  properties = {
+    "spring.security.oauth2.resourceserver.jwt.issuer-uri=",
+    "spring.main.allow-bean-definition-overriding=true",
+    "spring.cloud.loadbalancer.enabled=true",
+    "spring.cloud.discovery.client.simple.instances.product[0].uri=http://product-1:8080",
+    "spring.cloud.discovery.client.simple.instances.product[1].uri=http://product-2:8080"})
+class LoadBalancerTests {
+
+  @Autowired
+  private LoadBalancerClientFactory loadBalancerClientFactory;
+
+  @Test
+  void callsAreBalancedByTheLatencyAwareLoadBalancer() {
+    ReactiveLoadBalancer<ServiceInstance> loadBalancer = loadBalancerClientFactory.getInstance("product");
+    assertThat(loadBalancer).isInstanceOf(LatencyAwareLoadBalancer.class);
+
+    Response<ServiceInstance> response = Mono.from(loadBalancer.choose()).block();
+    assertThat(response.hasServer()).isTrue();
+    assertThat(response.getServer().getHost()).startsWith("product-");
+  }
+}
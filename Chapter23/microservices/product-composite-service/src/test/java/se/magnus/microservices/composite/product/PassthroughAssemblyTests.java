@@ -0,0 +1,125 @@
+package se.magnus.microservices.composite.product;
+
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
+import static org.springframework.http.HttpStatus.*;
+import static org.springframework.http.MediaType.APPLICATION_JSON;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledInNativeImage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import se.magnus.api.core.product.Product;
+import se.magnus.api.core.recommendation.RatingStatistics;
+import se.magnus.api.core.recommendation.Recommendation;
+import se.magnus.api.core.review.Review;
+import se.magnus.api.exceptions.NotFoundException;
+import se.magnus.microservices.composite.product.services.ProductCompositeIntegration;
+
+@DisabledInNativeImage
+@SpringBootTest(
+  webEnvironment = RANDOM_PORT,
+  classes = {TestSecurityConfig.class},
+  properties = {
+    "spring.security.oauth2.resourceserver.jwt.issuer-uri=",
+    "spring.main.allow-bean-definition-overriding=true",
+    "app.passthrough-assembly.enabled=true"})
+class PassthroughAssemblyTests {
+
+  private static final int PRODUCT_ID_OK = 1;
+  private static final int PRODUCT_ID_NOT_FOUND = 2;
+
+  @Autowired
+  private WebTestClient client;
+
+  @Autowired
+  private ObjectMapper mapper;
+
+  @MockBean
+  private ProductCompositeIntegration compositeIntegration;
+
+  @BeforeEach
+  void setUp() {
+
+    when(compositeIntegration.getProduct(any(), eq(PRODUCT_ID_OK), anyInt(), anyInt()))
+      .thenReturn(Mono.just(new Product(PRODUCT_ID_OK, "name", 1, "mock-address")));
+
+    when(compositeIntegration.getRecommendationsJson(any(), eq(PRODUCT_ID_OK), eq(0)))
+      .thenAnswer(invocation -> json(singletonList(new Recommendation(PRODUCT_ID_OK, 1, "author", 1, "content", "mock address"))));
+
+    when(compositeIntegration.getRatingStatistics(any(), eq(PRODUCT_ID_OK)))
+      .thenReturn(Mono.just(new RatingStatistics(PRODUCT_ID_OK, 2, 5, singletonMap(2, 1), "mock address")));
+
+    when(compositeIntegration.getReviewsJson(any(), eq(PRODUCT_ID_OK)))
+      .thenAnswer(invocation -> json(singletonList(new Review(PRODUCT_ID_OK, 1, "author", "subject", "content", "mock address"))));
+
+    when(compositeIntegration.getProduct(any(), eq(PRODUCT_ID_NOT_FOUND), anyInt(), anyInt()))
+      .thenReturn(Mono.error(new NotFoundException("NOT FOUND: " + PRODUCT_ID_NOT_FOUND)));
+    when(compositeIntegration.getRecommendationsJson(any(), eq(PRODUCT_ID_NOT_FOUND), anyInt())).thenReturn(Flux.empty());
+    when(compositeIntegration.getReviewsJson(any(), eq(PRODUCT_ID_NOT_FOUND))).thenReturn(Flux.empty());
+    when(compositeIntegration.getRatingStatistics(any(), eq(PRODUCT_ID_NOT_FOUND))).thenReturn(Mono.empty());
+  }
+
+  @Test
+  void getProductById() {
+
+    String etag = client.get()
+      .uri("/product-composite/" + PRODUCT_ID_OK)
+      .accept(APPLICATION_JSON)
+      .exchange()
+      .expectStatus().isEqualTo(OK)
+      .expectHeader().contentType(APPLICATION_JSON)
+      .expectBody()
+      .jsonPath("$.productId").isEqualTo(PRODUCT_ID_OK)
+      .jsonPath("$.recommendations.length()").isEqualTo(1)
+      .jsonPath("$.recommendations[0].content").isEqualTo("content")
+      .jsonPath("$.recommendations[0].serviceAddress").doesNotExist()
+      .jsonPath("$.reviews.length()").isEqualTo(1)
+      .jsonPath("$.reviews[0].subject").isEqualTo("subject")
+      .jsonPath("$.ratingSummary.average").isEqualTo(2.5)
+      .jsonPath("$.serviceAddresses.rec").isEqualTo("mock address")
+      .returnResult()
+      .getResponseHeaders().getETag();
+
+    client.get()
+      .uri("/product-composite/" + PRODUCT_ID_OK)
+      .accept(APPLICATION_JSON)
+      .header(HttpHeaders.IF_NONE_MATCH, etag)
+      .exchange()
+      .expectStatus().isEqualTo(NOT_MODIFIED)
+      .expectBody().isEmpty();
+
+    verify(compositeIntegration, never()).getRecommendations(any(), anyInt());
+    verify(compositeIntegration, never()).getReviews(any(), anyInt());
+  }
+
+  @Test
+  void getProductNotFound() {
+
+    client.get()
+      .uri("/product-composite/" + PRODUCT_ID_NOT_FOUND)
+      .accept(APPLICATION_JSON)
+      .exchange()
+      .expectStatus().isEqualTo(NOT_FOUND)
+      .expectBody()
+      .jsonPath("$.message").isEqualTo("NOT FOUND: " + PRODUCT_ID_NOT_FOUND);
+  }
+
+  private Flux<DataBuffer> json(Object value) throws Exception {
+    return Flux.just(DefaultDataBufferFactory.sharedInstance.wrap(mapper.writeValueAsBytes(value)));
+  }
+}
@@ -1,28 +1,39 @@
 package se.magnus.microservices.composite.product;
 
 import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+import static java.util.stream.Collectors.joining;
 import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
 import static org.springframework.http.HttpStatus.*;
 import static org.springframework.http.MediaType.APPLICATION_JSON;
 
+import java.time.Duration;
+import java.util.stream.IntStream;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.condition.DisabledInNativeImage;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import se.magnus.api.core.product.Product;
+import se.magnus.api.core.recommendation.RatingStatistics;
 import se.magnus.api.core.recommendation.Recommendation;
 import se.magnus.api.core.review.Review;
 import se.magnus.api.exceptions.InvalidInputException;
 import se.magnus.api.exceptions.NotFoundException;
+import se.magnus.api.exceptions.ServiceUnavailableException;
 import se.magnus.microservices.composite.product.services.ProductCompositeIntegration;
+import se.magnus.util.http.Deadline;
 
 @DisabledInNativeImage
 @SpringBootTest(
@@ -30,7 +41,8 @@ import se.magnus.microservices.composite.product.services.ProductCompositeIntegr
   classes = {TestSecurityConfig.class},
   properties = {
     "spring.security.oauth2.resourceserver.jwt.issuer-uri=",
-    "spring.main.allow-bean-definition-overriding=true"})
+    "spring.main.allow-bean-definition-overriding=true",
+    "spring.graphql.path=/product-composite/graphql"})
 class ProductCompositeServiceApplicationTests {
 
   private static final int PRODUCT_ID_OK = 1;
@@ -52,9 +64,23 @@ class ProductCompositeServiceApplicationTests {
     when(compositeIntegration.getRecommendations(any(), eq(PRODUCT_ID_OK)))
       .thenReturn(Flux.fromIterable(singletonList(new Recommendation(PRODUCT_ID_OK, 1, "author", 1, "content", "mock address"))));
 
+    when(compositeIntegration.getTopRecommendations(any(), eq(PRODUCT_ID_OK), eq(1)))
+      .thenReturn(Flux.fromIterable(singletonList(new Recommendation(PRODUCT_ID_OK, 2, "author", 5, "content", "mock address"))));
+
+    when(compositeIntegration.getRatingStatistics(any(), eq(PRODUCT_ID_OK)))
+      .thenReturn(Mono.just(new RatingStatistics(PRODUCT_ID_OK, 2, 5, singletonMap(2, 1), "mock address")));
+
     when(compositeIntegration.getReviews(any(), eq(PRODUCT_ID_OK)))
       .thenReturn(Flux.fromIterable(singletonList(new Review(PRODUCT_ID_OK, 1, "author", "subject", "content", "mock address"))));
 
+    // A product service that is slower than any deadline
+    when(compositeIntegration.getProduct(any(), eq(PRODUCT_ID_OK), eq(1), anyInt())).thenReturn(Mono.never());
+
+    // The publishEventScheduler is overloaded
+    when(compositeIntegration.deleteProduct(PRODUCT_ID_OK)).thenReturn(Mono.error(new ServiceUnavailableException("Overloaded", Duration.ofMillis(1500))));
+    when(compositeIntegration.deleteRecommendations(PRODUCT_ID_OK)).thenReturn(Mono.empty());
+    when(compositeIntegration.deleteReviews(PRODUCT_ID_OK)).thenReturn(Mono.empty());
+
     when(compositeIntegration.getProduct(any(), eq(PRODUCT_ID_NOT_FOUND), anyInt(), anyInt())).thenThrow(new NotFoundException("NOT FOUND: " + PRODUCT_ID_NOT_FOUND));
 
     when(compositeIntegration.getProduct(any(), eq(PRODUCT_ID_INVALID), anyInt(), anyInt())).thenThrow(new InvalidInputException("INVALID: " + PRODUCT_ID_INVALID));
@@ -70,7 +96,82 @@ class ProductCompositeServiceApplicationTests {
     getAndVerifyProduct(PRODUCT_ID_OK, OK)
       .jsonPath("$.productId").isEqualTo(PRODUCT_ID_OK)
       .jsonPath("$.recommendations.length()").isEqualTo(1)
-      .jsonPath("$.reviews.length()").isEqualTo(1);
+      .jsonPath("$.reviews.length()").isEqualTo(1)
+      .jsonPath("$.ratingSummary.count").isEqualTo(2)
+      .jsonPath("$.ratingSummary.average").isEqualTo(2.5);
+  }
+
+  @Test
+  void getProductByIdWithRecommendationLimit() {
+
+    client.get()
+      .uri("/product-composite/" + PRODUCT_ID_OK + "?recommendationLimit=1")
+      .accept(APPLICATION_JSON)
+      .exchange()
+      .expectStatus().isEqualTo(OK)
+      .expectBody()
+      .jsonPath("$.recommendations.length()").isEqualTo(1)
+      .jsonPath("$.recommendations[0].recommendationId").isEqualTo(2)
+      .jsonPath("$.recommendations[0].rate").isEqualTo(5);
+  }
+
+  @Test
+  void getProductNotModified() {
+
+    String etag = client.get()
+      .uri("/product-composite/" + PRODUCT_ID_OK)
+      .accept(APPLICATION_JSON)
+      .exchange()
+      .expectStatus().isEqualTo(OK)
+      .expectHeader().exists(HttpHeaders.ETAG)
+      .returnResult(String.class)
+      .getResponseHeaders().getETag();
+
+    client.get()
+      .uri("/product-composite/" + PRODUCT_ID_OK)
+      .accept(APPLICATION_JSON)
+      .header(HttpHeaders.IF_NONE_MATCH, etag)
+      .exchange()
+      .expectStatus().isEqualTo(NOT_MODIFIED)
+      .expectBody().isEmpty();
+
+    // Another recommendation limit gives another aggregate, i.e. another ETag
+    client.get()
+      .uri("/product-composite/" + PRODUCT_ID_OK + "?recommendationLimit=1")
+      .accept(APPLICATION_JSON)
+      .header(HttpHeaders.IF_NONE_MATCH, etag)
+      .exchange()
+      .expectStatus().isEqualTo(OK);
+  }
+
+  @Test
+  void getProductDeadlineExceeded() {
+
+    client.get()
+      .uri("/product-composite/" + PRODUCT_ID_OK + "?delay=1")
+      .accept(APPLICATION_JSON)
+      .header(Deadline.TIMEOUT_HEADER, "200")
+      .exchange()
+      .expectStatus().isEqualTo(GATEWAY_TIMEOUT);
+
+    client.get()
+      .uri("/product-composite/" + PRODUCT_ID_OK)
+      .accept(APPLICATION_JSON)
+      .header(Deadline.TIMEOUT_HEADER, "0")
+      .exchange()
+      .expectStatus().isEqualTo(GATEWAY_TIMEOUT);
+  }
+
+  @Test
+  void deleteProductShed() {
+
+    client.delete()
+      .uri("/product-composite/" + PRODUCT_ID_OK)
+      .exchange()
+      .expectStatus().isEqualTo(SERVICE_UNAVAILABLE)
+      .expectHeader().valueEquals(HttpHeaders.RETRY_AFTER, "2")
+      .expectBody()
+      .jsonPath("$.message").isEqualTo("Overloaded");
   }
 
   @Test
@@ -89,6 +190,79 @@ class ProductCompositeServiceApplicationTests {
       .jsonPath("$.message").isEqualTo("INVALID: " + PRODUCT_ID_INVALID);
   }
 
+  @Test
+  void graphQlOnlyCallsSelectedServices() {
+
+    postGraphQlQuery("{ product(productId: " + PRODUCT_ID_OK + ") { productId name recommendations(limit: 1) { recommendationId rate } } }")
+      .jsonPath("$.errors").doesNotExist()
+      .jsonPath("$.data.product.productId").isEqualTo(PRODUCT_ID_OK)
+      .jsonPath("$.data.product.name").isEqualTo("name")
+      .jsonPath("$.data.product.recommendations.length()").isEqualTo(1)
+      .jsonPath("$.data.product.recommendations[0].recommendationId").isEqualTo(2)
+      .jsonPath("$.data.product.reviews").doesNotExist();
+
+    verify(compositeIntegration, never()).getRecommendations(any(), anyInt());
+    verify(compositeIntegration, never()).getReviews(any(), anyInt());
+    verify(compositeIntegration, never()).getRatingStatistics(any(), anyInt());
+  }
+
+  @Test
+  void graphQlBatchesLookups() {
+
+    postGraphQlQuery("{ products(productIds: [" + PRODUCT_ID_OK + ", " + PRODUCT_ID_NOT_FOUND + ", " + PRODUCT_ID_OK + "]) "
+        + "{ productId reviews { reviewId } ratingSummary { count average histogram { rating count } } } }")
+      .jsonPath("$.errors").doesNotExist()
+      .jsonPath("$.data.products.length()").isEqualTo(3)
+      .jsonPath("$.data.products[0].productId").isEqualTo(PRODUCT_ID_OK)
+      .jsonPath("$.data.products[0].reviews.length()").isEqualTo(1)
+      .jsonPath("$.data.products[0].ratingSummary.average").isEqualTo(2.5)
+      .jsonPath("$.data.products[0].ratingSummary.histogram[0].rating").isEqualTo(2)
+      .jsonPath("$.data.products[1]").isEmpty()
+      .jsonPath("$.data.products[2].productId").isEqualTo(PRODUCT_ID_OK);
+
+    // Each product is only looked up once, even if it is requested more than once
+    verify(compositeIntegration, times(1)).getProduct(any(), eq(PRODUCT_ID_OK), anyInt(), anyInt());
+    verify(compositeIntegration, times(1)).getReviews(any(), eq(PRODUCT_ID_OK));
+    verify(compositeIntegration, times(1)).getRatingStatistics(any(), eq(PRODUCT_ID_OK));
+  }
+
+  @Test
+  void graphQlInvalidInput() {
+
+    postGraphQlQuery("{ product(productId: 0) { productId } }")
+      .jsonPath("$.data.product").isEmpty()
+      .jsonPath("$.errors[0].message").isEqualTo("Invalid productId: 0")
+      .jsonPath("$.errors[0].extensions.classification").isEqualTo("BAD_REQUEST");
+
+    String tooManyProductIds = IntStream.rangeClosed(1, 101).mapToObj(Integer::toString).collect(joining(", "));
+    postGraphQlQuery("{ products(productIds: [" + tooManyProductIds + "]) { productId } }")
+      .jsonPath("$.errors[0].message").isEqualTo("Invalid number of productIds: 101, must be at most 100")
+      .jsonPath("$.errors[0].extensions.classification").isEqualTo("BAD_REQUEST");
+  }
+
+  @Test
+  void graphQlFailedLookupOnlyFailsItsProduct() {
+
+    postGraphQlQuery("{ products(productIds: [" + PRODUCT_ID_INVALID + ", " + PRODUCT_ID_OK + "]) { productId } }")
+      .jsonPath("$.data.products.length()").isEqualTo(2)
+      .jsonPath("$.data.products[0]").isEmpty()
+      .jsonPath("$.data.products[1].productId").isEqualTo(PRODUCT_ID_OK)
+      .jsonPath("$.errors.length()").isEqualTo(1)
+      .jsonPath("$.errors[0].message").isEqualTo("INVALID: " + PRODUCT_ID_INVALID)
+      .jsonPath("$.errors[0].path[1]").isEqualTo(0)
+      .jsonPath("$.errors[0].extensions.classification").isEqualTo("BAD_REQUEST");
+  }
+
+  private WebTestClient.BodyContentSpec postGraphQlQuery(String query) {
+    return client.post()
+      .uri("/product-composite/graphql")
+      .contentType(APPLICATION_JSON)
+      .bodyValue(singletonMap("query", query))
+      .exchange()
+      .expectStatus().isEqualTo(OK)
+      .expectBody();
+  }
+
   private WebTestClient.BodyContentSpec getAndVerifyProduct(int productId, HttpStatus expectedStatus) {
     return client.get()
       .uri("/product-composite/" + productId)
@@ -0,0 +1,137 @@
+package se.magnus.microservices.composite.product.services.passthrough;
+
+import static org.springframework.http.MediaType.APPLICATION_JSON;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.buffer.PooledByteBufAllocator;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.RunnerException;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.Hints;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import se.magnus.api.composite.product.ProductAggregate;
+import se.magnus.api.composite.product.RatingSummary;
+import se.magnus.api.composite.product.RecommendationSummary;
+import se.magnus.api.composite.product.ReviewSummary;
+import se.magnus.api.composite.product.ServiceAddresses;
+import se.magnus.api.core.product.Product;
+import se.magnus.api.core.recommendation.RatingStatistics;
+import se.magnus.api.core.recommendation.Recommendation;
+import se.magnus.api.core.review.Review;
+import se.magnus.util.benchmark.BenchmarkTest;
+import se.magnus.util.benchmark.Benchmarks;
+
+/**
+ * Compares the throughput and allocations of assembling a composite product from objects, i.e. decoding the recommendations and reviews
+ * the way WebClient does, copying them into summaries and encoding the aggregate, with the passthrough assembly.
+ * <p>
+ * Run with: ./gradlew :microservices:product-composite-service:test --tests '*AssemblyBenchmarkTests' -Dbenchmark=true -i
+ */
+@BenchmarkTest
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AssemblyBenchmarkTests {
+
+  // The size of the buffers of the responses from the core services
+  private static final int CHUNK_SIZE = 8 * 1024;
+  // The codecs log the values at debug level, which is not what is measured
+  private static final Map<String, Object> HINTS = Hints.from(Hints.SUPPRESS_LOGGING_HINT, true);
+
+  @Param({"10", "100", "1000"})
+  public int size;
+
+  private final ObjectMapper mapper = new ObjectMapper();
+  private final Jackson2JsonDecoder decoder = new Jackson2JsonDecoder(mapper);
+  private final AssembledProductAggregateEncoder encoder = new AssembledProductAggregateEncoder(mapper);
+  private final ProductAggregateAssembler assembler = new ProductAggregateAssembler(null, mapper);
+  private final DataBufferFactory responseBufferFactory = new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT);
+
+  private Product product;
+  private RatingStatistics ratingStatistics;
+  private byte[] recommendationsJson;
+  private byte[] reviewsJson;
+
+  @Test
+  void compareAssemblies() throws RunnerException {
+    // Reports the allocated bytes per assembly too, i.e. gc.alloc.rate.norm
+    Benchmarks.runJmh(AssemblyBenchmarkTests.class);
+  }
+
+  @Setup
+  public void setup() throws Exception {
+    String content = "A recommendation or review of a reasonable length, with some more words to make it look real. ".repeat(3);
+    product = new Product(1, "name", 1, "product-address");
+    ratingStatistics = new RatingStatistics(1, size, 3 * size, Map.of(3, size), "recommendation-address");
+    recommendationsJson = mapper.writeValueAsBytes(IntStream.rangeClosed(1, size)
+      .mapToObj(i -> new Recommendation(1, i, "author " + i, 3, content, "recommendation-address")).toList());
+    reviewsJson = mapper.writeValueAsBytes(IntStream.rangeClosed(1, size)
+      .mapToObj(i -> new Review(1, i, "author " + i, "subject " + i, content, "review-address")).toList());
+  }
+
+  @Benchmark
+  public int objects() {
+    List<Recommendation> recommendations = decoder.decode(chunks(recommendationsJson), ResolvableType.forClass(Recommendation.class), APPLICATION_JSON, HINTS)
+      .cast(Recommendation.class).collectList().block();
+    List<Review> reviews = decoder.decode(chunks(reviewsJson), ResolvableType.forClass(Review.class), APPLICATION_JSON, HINTS)
+      .cast(Review.class).collectList().block();
+
+    ProductAggregate aggregate = new ProductAggregate(product.getProductId(), product.getName(), product.getWeight(),
+      recommendations.stream().map(r -> new RecommendationSummary(r.getRecommendationId(), r.getAuthor(), r.getRate(), r.getContent())).toList(),
+      reviews.stream().map(r -> new ReviewSummary(r.getReviewId(), r.getAuthor(), r.getSubject(), r.getContent())).toList(),
+      new RatingSummary(ratingStatistics.getCount(), (double) ratingStatistics.getSum() / ratingStatistics.getCount(), ratingStatistics.getHistogram()),
+      new ServiceAddresses("composite-address", product.getServiceAddress(), reviews.get(0).getServiceAddress(), recommendations.get(0).getServiceAddress()));
+
+    return write(aggregate);
+  }
+
+  @Benchmark
+  public int passthrough() {
+    ProductAggregate aggregate = assembler.assemble(
+      Mono.just(product), chunks(recommendationsJson), chunks(reviewsJson), Mono.just(ratingStatistics), "composite-address").block();
+
+    return write(aggregate);
+  }
+
+  private int write(ProductAggregate aggregate) {
+    DataBuffer buffer = encoder.encodeValue(aggregate, responseBufferFactory, ResolvableType.forClass(ProductAggregate.class), APPLICATION_JSON, HINTS);
+    int size = buffer.readableByteCount();
+    DataBufferUtils.release(buffer);
+    return size;
+  }
+
+  private Flux<DataBuffer> chunks(byte[] json) {
+    List<DataBuffer> chunks = new ArrayList<>();
+    for (int i = 0; i < json.length; i += CHUNK_SIZE) {
+      chunks.add(DefaultDataBufferFactory.sharedInstance.wrap(ByteBuffer.wrap(json, i, Math.min(CHUNK_SIZE, json.length - i))));
+    }
+    return Flux.fromIterable(chunks);
+  }
+}
@@ -0,0 +1,106 @@
+package se.magnus.microservices.composite.product.services.passthrough;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledInNativeImage;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import se.magnus.api.composite.product.ProductAggregate;
+import se.magnus.api.composite.product.RatingSummary;
+import se.magnus.api.composite.product.RecommendationSummary;
+import se.magnus.api.composite.product.ReviewSummary;
+import se.magnus.api.composite.product.ServiceAddresses;
+import se.magnus.api.core.product.Product;
+import se.magnus.api.core.recommendation.RatingStatistics;
+import se.magnus.api.core.recommendation.Recommendation;
+import se.magnus.api.core.review.Review;
+import se.magnus.util.http.ConditionalRequests;
+
+@DisabledInNativeImage
+class ProductAggregateAssemblerTests {
+
+  // Small chunks to make tokens span several buffers
+  private static final int CHUNK_SIZE = 7;
+
+  private final ObjectMapper mapper = new ObjectMapper();
+  private final ProductAggregateAssembler assembler = new ProductAggregateAssembler(null, mapper);
+
+  private final Product product = new Product(1, "name", 1, "product-address");
+  private final List<Recommendation> recommendations = List.of(
+    new Recommendation(1, 1, "author 1", 5, "räksmörgås with \"quotes\"\nand a new line", "recommendation-address"),
+    new Recommendation(1, 2, null, 3, "content 2", "recommendation-address"));
+  private final List<Review> reviews = List.of(
+    new Review(1, 1, "author 1", "subject 1", "content 1", "review-address"));
+  private final RatingStatistics ratingStatistics = new RatingStatistics(1, 2, 8, Map.of(3, 1, 5, 1), "recommendation-address");
+
+  @Test
+  void sameAsAggregateOfObjects() throws Exception {
+    product.setVersion(2);
+    recommendations.get(0).setVersion(3);
+    reviews.get(0).setVersion(4);
+
+    AssembledProductAggregate aggregate = assembler.assemble(
+      Mono.just(product), chunks(recommendations), chunks(reviews), Mono.just(ratingStatistics), "composite-address").block();
+
+    ProductAggregate expected = new ProductAggregate(1, "name", 1,
+      recommendations.stream().map(r -> new RecommendationSummary(r.getRecommendationId(), r.getAuthor(), r.getRate(), r.getContent())).toList(),
+      reviews.stream().map(r -> new ReviewSummary(r.getReviewId(), r.getAuthor(), r.getSubject(), r.getContent())).toList(),
+      new RatingSummary(2, 4.0, ratingStatistics.getHistogram()),
+      new ServiceAddresses("composite-address", "product-address", "review-address", "recommendation-address"));
+    assertEquals(mapper.writeValueAsString(expected), json(aggregate));
+
+    // Derived from the same parts as the entity tag of ProductCompositeServiceImpl
+    Stream<Object> parts = Stream.of(
+      Stream.of(product.getProductId(), product.getVersion(), product.getName(), product.getWeight()),
+      Stream.of(recommendations.size()),
+      recommendations.stream().flatMap(r -> Stream.of(r.getRecommendationId(), r.getVersion(), r.getAuthor(), r.getRate(), r.getContent())),
+      Stream.of(reviews.size()),
+      reviews.stream().flatMap(r -> Stream.of(r.getReviewId(), r.getVersion(), r.getAuthor(), r.getSubject(), r.getContent())),
+      Stream.of(ratingStatistics.getVersion(), ratingStatistics.getCount(), ratingStatistics.getSum(), ratingStatistics.getHistogram()))
+      .flatMap(p -> p);
+    assertEquals(ConditionalRequests.entityTag(parts.toArray()), aggregate.getEntityTag());
+  }
+
+  @Test
+  void failingResponsesGiveNoSummaries() throws Exception {
+    // Fails after a part of the JSON is received
+    Flux<DataBuffer> recommendationsJson = chunks(recommendations).take(3).concatWith(Mono.error(new RuntimeException("Failed")));
+    Flux<DataBuffer> reviewsJson = Flux.just(DefaultDataBufferFactory.sharedInstance.wrap("[{\"reviewId\": 1,".getBytes(UTF_8)));
+
+    AssembledProductAggregate aggregate = assembler.assemble(
+      Mono.just(product), recommendationsJson, reviewsJson, Mono.empty(), "composite-address").block();
+
+    ProductAggregate expected = new ProductAggregate(1, "name", 1, List.of(), List.of(), null,
+      new ServiceAddresses("composite-address", "product-address", "", ""));
+    assertEquals(mapper.writeValueAsString(expected), json(aggregate));
+    assertNull(aggregate.getRecommendations());
+  }
+
+  private Flux<DataBuffer> chunks(Object value) throws Exception {
+    byte[] json = mapper.writeValueAsBytes(value);
+    List<DataBuffer> chunks = new ArrayList<>();
+    for (int i = 0; i < json.length; i += CHUNK_SIZE) {
+      chunks.add(DefaultDataBufferFactory.sharedInstance.wrap(ByteBuffer.wrap(json, i, Math.min(CHUNK_SIZE, json.length - i))));
+    }
+    return Flux.fromIterable(chunks);
+  }
+
+  private String json(AssembledProductAggregate aggregate) {
+    DataBuffer joined = DefaultDataBufferFactory.sharedInstance.join(aggregate.getJson());
+    String json = joined.toString(UTF_8);
+    DataBufferUtils.release(joined);
+    return json;
+  }
+}
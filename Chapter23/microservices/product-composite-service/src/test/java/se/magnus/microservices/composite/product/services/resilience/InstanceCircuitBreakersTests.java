@@ -0,0 +1,163 @@
+package se.magnus.microservices.composite.product.services.resilience;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.CompletionContext;
+import org.springframework.cloud.client.loadbalancer.DefaultRequest;
+import org.springframework.cloud.client.loadbalancer.DefaultResponse;
+import org.springframework.cloud.client.loadbalancer.RequestData;
+import org.springframework.cloud.client.loadbalancer.RequestDataContext;
+import org.springframework.cloud.client.loadbalancer.ResponseData;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import reactor.core.publisher.Flux;
+import se.magnus.util.loadbalancer.InstanceStats;
+import se.magnus.util.loadbalancer.OutlierEjectingServiceInstanceListSupplier;
+
+class InstanceCircuitBreakersTests {
+
+  private final ServiceInstance healthy = new DefaultServiceInstance("healthy", "product", "product-1", 80, false);
+  private final ServiceInstance broken = new DefaultServiceInstance("broken", "product", "product-2", 80, false);
+  private final ServiceInstance review = new DefaultServiceInstance("review", "review", "review-1", 80, false);
+
+  private final CircuitBreakerRegistry registry = CircuitBreakerRegistry.ofDefaults();
+  private final InstanceCircuitBreakers circuitBreakers = new InstanceCircuitBreakers(registry);
+
+  InstanceCircuitBreakersTests() {
+    registry.addConfiguration("product-instance", CircuitBreakerConfig.custom()
+      .slidingWindowSize(5).minimumNumberOfCalls(5).waitDurationInOpenState(Duration.ofMinutes(1))
+      .permittedNumberOfCallsInHalfOpenState(2).build());
+  }
+
+  @Test
+  void circuitOpensForFailingInstanceOnly() {
+    IntStream.range(0, 5).forEach(i -> {
+      complete(healthy, HttpStatus.OK);
+      complete(broken, HttpStatus.INTERNAL_SERVER_ERROR);
+    });
+
+    assertThat(circuitBreakers.isAvailable(healthy)).isTrue();
+    assertThat(circuitBreakers.isAvailable(broken)).isFalse();
+    assertThat(registry.find("product@product-2:80").map(CircuitBreaker::getState)).contains(CircuitBreaker.State.OPEN);
+
+    OutlierEjectingServiceInstanceListSupplier supplier = new OutlierEjectingServiceInstanceListSupplier(supplier(healthy, broken),
+      new InstanceStats("product", Duration.ofSeconds(10), 0.5, 10, Duration.ofSeconds(30), 0.5), List.of(circuitBreakers));
+    assertThat(supplier.get().blockFirst()).containsExactly(healthy);
+  }
+
+  @Test
+  void askingForAvailabilityDoesNotAskForPermission() {
+    IntStream.range(0, 5).forEach(i -> complete(broken, HttpStatus.INTERNAL_SERVER_ERROR));
+    CircuitBreaker circuitBreaker = registry.circuitBreaker("product@product-2:80");
+
+    IntStream.range(0, 10).forEach(i -> assertThat(circuitBreakers.isAvailable(broken)).isFalse());
+    assertThat(circuitBreaker.getMetrics().getNumberOfNotPermittedCalls()).isZero();
+    assertThat(circuitBreaker.getCircuitBreakerConfig().isAutomaticTransitionFromOpenToHalfOpenEnabled()).isTrue();
+
+    circuitBreaker.transitionToHalfOpenState();
+    IntStream.range(0, 10).forEach(i -> assertThat(circuitBreakers.isAvailable(broken)).isTrue());
+    assertThat(circuitBreaker.tryAcquirePermission()).isTrue();
+  }
+
+  @Test
+  void halfOpenInstanceIsOnlyAvailableForThePermittedCalls() {
+    IntStream.range(0, 5).forEach(i -> complete(broken, HttpStatus.INTERNAL_SERVER_ERROR));
+    CircuitBreaker circuitBreaker = registry.circuitBreaker("product@product-2:80");
+    circuitBreaker.transitionToHalfOpenState();
+
+    DefaultRequest<Object> first = start(broken);
+    assertThat(circuitBreakers.isAvailable(broken)).isTrue();
+    DefaultRequest<Object> second = start(broken);
+    assertThat(circuitBreakers.isAvailable(broken)).isFalse();
+
+    complete(first, broken, HttpStatus.OK);
+    assertThat(circuitBreakers.isAvailable(broken)).isFalse();
+    complete(second, broken, HttpStatus.OK);
+    assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    assertThat(circuitBreakers.isAvailable(broken)).isTrue();
+  }
+
+  @Test
+  void circuitBreakersOfInstancesNoLongerListedAreRemoved() {
+    complete(healthy, HttpStatus.OK);
+    complete(broken, HttpStatus.INTERNAL_SERVER_ERROR);
+    assertThat(registry.getAllCircuitBreakers()).hasSize(2);
+
+    OutlierEjectingServiceInstanceListSupplier supplier = new OutlierEjectingServiceInstanceListSupplier(supplier(healthy),
+      new InstanceStats("product", Duration.ofSeconds(10), 0.5, 10, Duration.ofSeconds(30), 0.5), List.of(circuitBreakers));
+    assertThat(supplier.get().blockFirst()).containsExactly(healthy);
+
+    assertThat(registry.find("product@product-1:80")).isPresent();
+    assertThat(registry.find("product@product-2:80")).isEmpty();
+  }
+
+  @Test
+  void clientErrorsAreNotFailures() {
+    IntStream.range(0, 5).forEach(i -> complete(broken, HttpStatus.NOT_FOUND));
+
+    assertThat(circuitBreakers.isAvailable(broken)).isTrue();
+  }
+
+  @Test
+  void failedCallsAreFailures() {
+    IntStream.range(0, 5).forEach(i -> circuitBreakers.onComplete(
+      new CompletionContext<>(CompletionContext.Status.FAILED, new IllegalStateException("Connection refused"), request(), response(broken))));
+
+    assertThat(circuitBreakers.isAvailable(broken)).isFalse();
+  }
+
+  @Test
+  void servicesWithoutConfigurationHaveNoCircuitBreakers() {
+    IntStream.range(0, 5).forEach(i -> complete(review, HttpStatus.INTERNAL_SERVER_ERROR));
+
+    assertThat(circuitBreakers.isAvailable(review)).isTrue();
+    assertThat(registry.getAllCircuitBreakers()).isEmpty();
+  }
+
+  private void complete(ServiceInstance instance, HttpStatus status) {
+    complete(start(instance), instance, status);
+  }
+
+  private DefaultRequest<Object> start(ServiceInstance instance) {
+    DefaultRequest<Object> request = request();
+    circuitBreakers.onStartRequest(request, response(instance));
+    return request;
+  }
+
+  private void complete(DefaultRequest<Object> request, ServiceInstance instance, HttpStatus status) {
+    ResponseData responseData = new ResponseData(status, new HttpHeaders(), null, null);
+    circuitBreakers.onComplete(new CompletionContext<>(CompletionContext.Status.SUCCESS, request, response(instance), responseData));
+  }
+
+  private static DefaultRequest<Object> request() {
+    return new DefaultRequest<>(new RequestDataContext(new RequestData(null, null, null, null, null)));
+  }
+
+  private static DefaultResponse response(ServiceInstance instance) {
+    return new DefaultResponse(instance);
+  }
+
+  private static ServiceInstanceListSupplier supplier(ServiceInstance... instances) {
+    return new ServiceInstanceListSupplier() {
+      @Override
+      public String getServiceId() {
+        return "product";
+      }
+
+      @Override
+      public Flux<List<ServiceInstance>> get() {
+        return Flux.just(List.of(instances));
+      }
+    };
+  }
+}
@@ -0,0 +1,63 @@
+package se.magnus.microservices.composite.product.services.resilience;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.net.URL;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledInNativeImage;
+import org.springframework.beans.factory.annotation.AnnotatedBeanDefinition;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.context.annotation.ClassPathScanningCandidateComponentProvider;
+import org.springframework.core.type.AnnotationMetadata;
+import org.springframework.util.ClassUtils;
+import se.magnus.microservices.composite.product.ProductCompositeServiceApplication;
+
+/**
+ * The service is built without spring-boot-starter-aop, i.e. the annotations of Resilience4j have no effect in
+ * production. The tests have it on their classpath for ResilienceBenchmarkTests, where an annotated method would be
+ * decorated by the aspects, i.e. the tests would pass for resilience that production doesn't have.
+ */
+@DisabledInNativeImage
+class NoResilienceAnnotationsTests {
+
+  private static final List<String> RESILIENCE_ANNOTATIONS = List.of(
+    "io.github.resilience4j.bulkhead.annotation.Bulkhead",
+    "io.github.resilience4j.circuitbreaker.annotation.CircuitBreaker",
+    "io.github.resilience4j.ratelimiter.annotation.RateLimiter",
+    "io.github.resilience4j.retry.annotation.Retry",
+    "io.github.resilience4j.timelimiter.annotation.TimeLimiter");
+
+  @Test
+  void mainClassesAreNotAnnotated() {
+    URL mainClasses = ProductCompositeServiceApplication.class.getProtectionDomain().getCodeSource().getLocation();
+
+    ClassPathScanningCandidateComponentProvider scanner = new ClassPathScanningCandidateComponentProvider(false) {
+      @Override
+      protected boolean isCandidateComponent(AnnotatedBeanDefinition beanDefinition) {
+        return true;
+      }
+    };
+    scanner.addIncludeFilter((reader, factory) -> RESILIENCE_ANNOTATIONS.stream().anyMatch(annotation -> {
+      AnnotationMetadata metadata = reader.getAnnotationMetadata();
+      return metadata.hasAnnotation(annotation) || metadata.hasAnnotatedMethods(annotation);
+    }));
+
+    Set<BeanDefinition> annotatedClasses = scanner.findCandidateComponents(ClassUtils.getPackageName(ProductCompositeServiceApplication.class));
+    List<String> annotatedMainClasses = annotatedClasses.stream()
+      .map(BeanDefinition::getBeanClassName)
+      .filter(className -> mainClasses.equals(codeSourceOf(className)))
+      .toList();
+
+    assertEquals(List.of(), annotatedMainClasses, "Use ResiliencePipeline instead of the annotations of Resilience4j");
+  }
+
+  private static URL codeSourceOf(String className) {
+    try {
+      return Class.forName(className).getProtectionDomain().getCodeSource().getLocation();
+    } catch (ClassNotFoundException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,124 @@
+package se.magnus.microservices.composite.product.services.resilience;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.circuitbreaker.annotation.CircuitBreaker;
+import io.github.resilience4j.retry.RetryRegistry;
+import io.github.resilience4j.retry.annotation.Retry;
+import io.github.resilience4j.springboot3.circuitbreaker.autoconfigure.CircuitBreakerAutoConfiguration;
+import io.github.resilience4j.springboot3.retry.autoconfigure.RetryAutoConfiguration;
+import io.github.resilience4j.springboot3.timelimiter.autoconfigure.TimeLimiterAutoConfiguration;
+import io.github.resilience4j.timelimiter.TimeLimiterRegistry;
+import io.github.resilience4j.timelimiter.annotation.TimeLimiter;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.RunnerException;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.aop.AopAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import reactor.core.publisher.Mono;
+import se.magnus.util.benchmark.BenchmarkTest;
+import se.magnus.util.benchmark.Benchmarks;
+
+/**
+ * Compares the per-call overhead of decorating a call with a time limiter, circuit breaker and retry using the Resilience4j
+ * aspects, i.e. the annotations, with the ResiliencePipeline. Both are configured from the same properties and the call
+ * itself returns at once, i.e. the overhead is all that is measured.
+ * <p>
+ * Run with: ./gradlew :microservices:product-composite-service:test --tests '*ResilienceBenchmarkTests' -Dbenchmark=true -i
+ * <p>
+ * The size and startup time of the native image are measured with native-footprint.bash.
+ */
+@BenchmarkTest
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResilienceBenchmarkTests {
+
+  private ConfigurableApplicationContext context;
+  private AnnotatedCall annotatedCall;
+  private ResiliencePipeline pipeline;
+
+  @Test
+  void compareDecorations() throws RunnerException {
+    // Reports the allocated bytes per call too, i.e. gc.alloc.rate.norm
+    Benchmarks.runJmh(ResilienceBenchmarkTests.class);
+  }
+
+  @Setup
+  public void setup() {
+    context = new SpringApplicationBuilder(AspectsConfig.class)
+      .web(WebApplicationType.NONE)
+      .properties(
+        "resilience4j.timelimiter.instances.benchmark.timeoutDuration=2s",
+        "resilience4j.circuitbreaker.instances.benchmark.slidingWindowSize=100",
+        "resilience4j.retry.instances.benchmark.maxAttempts=3")
+      .run();
+
+    annotatedCall = context.getBean(AnnotatedCall.class);
+    pipeline = new ResiliencePipeline("benchmark", context.getBean(TimeLimiterRegistry.class),
+      context.getBean(CircuitBreakerRegistry.class), context.getBean(RetryRegistry.class));
+  }
+
+  @TearDown
+  public void tearDown() {
+    context.close();
+  }
+
+  @Benchmark
+  public Integer undecorated() {
+    return call().block();
+  }
+
+  @Benchmark
+  public Integer aspects() {
+    return annotatedCall.call().block();
+  }
+
+  @Benchmark
+  public Integer pipeline() {
+    return call().transformDeferred(pipeline::decorate).block();
+  }
+
+  private static Mono<Integer> call() {
+    return Mono.just(1);
+  }
+
+  @Configuration(proxyBeanMethods = false)
+  @ImportAutoConfiguration({AopAutoConfiguration.class, TimeLimiterAutoConfiguration.class, CircuitBreakerAutoConfiguration.class,
+    RetryAutoConfiguration.class})
+  static class AspectsConfig {
+
+    @Bean
+    AnnotatedCall annotatedCall() {
+      return new AnnotatedCall();
+    }
+  }
+
+  static class AnnotatedCall {
+
+    @Retry(name = "benchmark")
+    @TimeLimiter(name = "benchmark")
+    @CircuitBreaker(name = "benchmark")
+    public Mono<Integer> call() {
+      return ResilienceBenchmarkTests.call();
+    }
+  }
+}
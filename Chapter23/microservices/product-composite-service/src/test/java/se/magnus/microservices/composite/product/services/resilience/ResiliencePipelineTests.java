@@ -0,0 +1,111 @@
+package se.magnus.microservices.composite.product.services.resilience;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.retry.RetryConfig;
+import io.github.resilience4j.retry.RetryRegistry;
+import io.github.resilience4j.timelimiter.TimeLimiterConfig;
+import io.github.resilience4j.timelimiter.TimeLimiterRegistry;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import se.magnus.microservices.composite.product.services.resilience.ResiliencePipeline.RetryGate;
+
+class ResiliencePipelineTests {
+
+  private final TimeLimiterRegistry timeLimiterRegistry = TimeLimiterRegistry.ofDefaults();
+  private final CircuitBreakerRegistry circuitBreakerRegistry = CircuitBreakerRegistry.ofDefaults();
+  private final RetryRegistry retryRegistry = RetryRegistry.ofDefaults();
+
+  private final AtomicInteger attempts = new AtomicInteger();
+
+  @Test
+  void eachAttemptIsTimeLimitedAndRetried() {
+    timeLimiterRegistry.timeLimiter("test", TimeLimiterConfig.custom().timeoutDuration(Duration.ofMillis(100)).build());
+    retryRegistry.retry("test", RetryConfig.custom().maxAttempts(3).waitDuration(Duration.ofMillis(10)).build());
+    ResiliencePipeline pipeline = pipeline();
+
+    // The first attempts are slower than the time limit, the last is not, i.e. the time limit is not for all attempts
+    Mono<Integer> call = Mono.defer(() -> attempts.incrementAndGet() < 3 ? Mono.delay(Duration.ofSeconds(1)).thenReturn(0) : Mono.just(1));
+
+    assertThat(call.transformDeferred(pipeline::decorate).block()).isEqualTo(1);
+    assertThat(attempts.get()).isEqualTo(3);
+    assertThat(pipeline.getTimeout()).isEqualTo(Duration.ofMillis(100));
+  }
+
+  @Test
+  void eachAttemptIsRecordedByCircuitBreaker() {
+    circuitBreakerRegistry.circuitBreaker("test", CircuitBreakerConfig.custom().slidingWindowSize(2).minimumNumberOfCalls(2).build());
+    retryRegistry.retry("test", RetryConfig.custom().maxAttempts(3).waitDuration(Duration.ofMillis(10))
+      .ignoreExceptions(CallNotPermittedException.class).build());
+    ResiliencePipeline pipeline = pipeline();
+
+    Mono<Integer> call = Mono.defer(() -> {
+      attempts.incrementAndGet();
+      return Mono.error(new IllegalStateException());
+    });
+
+    // The circuit opens after two failed attempts, and the third is not permitted
+    assertThrows(CallNotPermittedException.class, () -> call.transformDeferred(pipeline::decorate).block());
+    assertThat(attempts.get()).isEqualTo(2);
+  }
+
+  @Test
+  void retriesAreOnlyMadeWhenTheGatePermitsThem() {
+    retryRegistry.retry("test", RetryConfig.custom().maxAttempts(5).waitDuration(Duration.ZERO)
+      .retryExceptions(IllegalStateException.class).build());
+    ResiliencePipeline pipeline = pipeline();
+    IllegalStateException failure = new IllegalStateException();
+    Mono<Integer> call = Mono.defer(() -> {
+      attempts.incrementAndGet();
+      return Mono.error(failure);
+    });
+
+    // The gate permits one retry, the third attempt is denied and the call fails with the error of the attempt
+    AtomicInteger permits = new AtomicInteger(1);
+    RetryGate gate = () -> permits.getAndDecrement() > 0 ? Optional.of(Duration.ofMillis(10)) : Optional.empty();
+    Mono<Integer> gatedCall = call.transformDeferred(c -> pipeline.decorate(c, () -> gate));
+    assertThat(assertThrows(IllegalStateException.class, gatedCall::block)).isSameAs(failure);
+    assertThat(attempts.get()).isEqualTo(2);
+
+    // The gate is not asked after the last attempt
+    attempts.set(0);
+    permits.set(10);
+    assertThrows(IllegalStateException.class, gatedCall::block);
+    assertThat(attempts.get()).isEqualTo(5);
+    assertThat(permits.get()).isEqualTo(6);
+  }
+
+  @Test
+  void gatedRetryMustOnlyRetryItsRetryExceptions() {
+    retryRegistry.retry("test", RetryConfig.custom().maxAttempts(3).build());
+    ResiliencePipeline pipeline = pipeline();
+
+    assertThrows(IllegalStateException.class, () -> pipeline.decorate(Mono.just(1), () -> Optional::empty));
+  }
+
+  @Test
+  void decoratorsNotConfiguredAreLeftOut() {
+    ResiliencePipeline pipeline = pipeline();
+
+    Mono<Integer> call = Mono.defer(() -> {
+      attempts.incrementAndGet();
+      return Mono.error(new TimeoutException());
+    });
+
+    assertThrows(RuntimeException.class, () -> call.transformDeferred(pipeline::decorate).block());
+    assertThat(attempts.get()).isEqualTo(1);
+    assertThat(pipeline.getTimeout()).isNull();
+  }
+
+  private ResiliencePipeline pipeline() {
+    return new ResiliencePipeline("test", timeLimiterRegistry, circuitBreakerRegistry, retryRegistry);
+  }
+}
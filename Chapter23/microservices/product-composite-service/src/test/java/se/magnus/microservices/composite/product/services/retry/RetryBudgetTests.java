@@ -0,0 +1,61 @@
+package se.magnus.microservices.composite.product.services.retry;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+class RetryBudgetTests {
+
+  private final MeterRegistry registry = new SimpleMeterRegistry();
+  private long now = TimeUnit.SECONDS.toNanos(1000);
+  private final RetryBudget budget = new RetryBudget("test", 0.1, 0, registry, () -> now);
+
+  @Test
+  void retriesAreLimitedToShareOfSuccesses() {
+    IntStream.range(0, 100).forEach(i -> budget.onSuccess());
+
+    assertThat(IntStream.range(0, 20).filter(i -> budget.tryAcquire()).count()).isEqualTo(10);
+    assertThat(counted("granted")).isEqualTo(10);
+    assertThat(counted("denied")).isEqualTo(10);
+  }
+
+  @Test
+  void oldSuccessesAreForgotten() {
+    IntStream.range(0, 100).forEach(i -> budget.onSuccess());
+
+    now += TimeUnit.SECONDS.toNanos(10);
+    assertThat(budget.tryAcquire()).isFalse();
+  }
+
+  @Test
+  void minRetriesAreGrantedWithoutSuccesses() {
+    RetryBudget minBudget = new RetryBudget("min", 0.1, 1, registry, () -> now);
+
+    assertThat(IntStream.range(0, 20).filter(i -> minBudget.tryAcquire()).count()).isEqualTo(10);
+  }
+
+  @Test
+  void jitteredWaitsAreWithinBounds() {
+    DecorrelatedJitter jitter = new DecorrelatedJitter(Duration.ofMillis(100), Duration.ofMillis(1000));
+
+    IntStream.range(0, 1000).forEach(i -> {
+      DecorrelatedJitter.Waits waits = jitter.newWaits();
+      long previous = 100;
+      for (int retry = 1; retry <= 5; retry++) {
+        long wait = waits.next().toMillis();
+        assertThat(wait).isBetween(100L, Math.min(1000L, 3 * previous));
+        previous = wait;
+      }
+    });
+    assertThat(IntStream.range(0, 100).mapToLong(i -> jitter.newWaits().next().toMillis()).distinct().count()).isGreaterThan(1);
+  }
+
+  private double counted(String result) {
+    return registry.get("retry.budget.retries").tag("name", "test").tag("result", result).counter().count();
+  }
+}
@@ -0,0 +1,156 @@
+package se.magnus.microservices.composite.product.services.warmup;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.http.HttpHeaders.AUTHORIZATION;
+import static org.springframework.http.HttpStatus.UNAUTHORIZED;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.security.oauth2.jwt.BadJwtException;
+import org.springframework.security.oauth2.jwt.JwtException;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import se.magnus.api.composite.product.ProductAggregate;
+import se.magnus.api.composite.product.ProductCompositeService;
+import se.magnus.api.exceptions.NotFoundException;
+import se.magnus.microservices.composite.product.services.ProductCompositeIntegration;
+import se.magnus.microservices.composite.product.services.retry.RetryBudget;
+
+class WarmUpRunnerTests {
+
+  private final ProductCompositeService compositeService = mock(ProductCompositeService.class);
+  private final ReactiveJwtDecoder jwtDecoder = mock(ReactiveJwtDecoder.class);
+  private final CircuitBreakerRegistry circuitBreakerRegistry = CircuitBreakerRegistry.ofDefaults();
+  private final ProductCompositeIntegration integration = mock(ProductCompositeIntegration.class);
+  private final RetryBudget productRetryBudget = new RetryBudget("product", 0.1, 1, new SimpleMeterRegistry());
+  private final MockEnvironment environment = new MockEnvironment();
+
+  @Test
+  void syntheticRequestsCoverProductsAndRecommendationLimits() {
+    when(compositeService.getProduct(any(), eq(1), anyInt(), anyInt(), anyInt()))
+      .thenReturn(Mono.just(new ProductAggregate(1, "name", 1, List.of(), List.of(), null)));
+    when(compositeService.getProduct(any(), eq(2), anyInt(), anyInt(), anyInt()))
+      .thenReturn(Mono.error(new NotFoundException("No product found for productId: 2")));
+
+    runner(Duration.ofSeconds(10), List.of(WarmUpRunner.PRODUCT, WarmUpRunner.TOP_RECOMMENDATIONS)).run(null);
+
+    verify(compositeService, times(10)).getProduct(any(), eq(1), eq(0), eq(0), anyInt());
+    verify(compositeService, times(10)).getProduct(any(), eq(2), eq(0), eq(0), anyInt());
+    verify(compositeService, times(10)).getProduct(any(), anyInt(), eq(0), eq(0), eq(0));
+    verify(compositeService, times(10)).getProduct(any(), anyInt(), eq(0), eq(0), eq(5));
+    verify(jwtDecoder, never()).decode(any());
+  }
+
+  @Test
+  void syntheticRequestsAreSentToTheLocalPort() {
+    Queue<String> requests = new ConcurrentLinkedQueue<>();
+    DisposableServer server = HttpServer.create().port(0)
+      .route(routes -> routes.get("/product-composite/{productId}", (request, response) -> {
+        requests.add(request.uri() + " " + request.requestHeaders().get(AUTHORIZATION));
+        return response.status(UNAUTHORIZED.value()).send();
+      }))
+      .bindNow();
+    environment.setProperty("local.server.port", String.valueOf(server.port()));
+
+    try {
+      runner(Duration.ofSeconds(10), List.of(WarmUpRunner.HTTP)).run(null);
+    } finally {
+      server.disposeNow();
+    }
+
+    assertThat(requests).hasSize(20)
+      .contains("/product-composite/1?recommendationLimit=0 Bearer " + WarmUpRunner.syntheticToken())
+      .contains("/product-composite/2?recommendationLimit=0 Bearer " + WarmUpRunner.syntheticToken());
+    verify(compositeService, never()).getProduct(any(), anyInt(), anyInt(), anyInt(), anyInt());
+  }
+
+  @Test
+  void jwksIsLoadedWithSyntheticToken() {
+    when(jwtDecoder.decode(any())).thenReturn(Mono.error(new BadJwtException("No matching key")));
+
+    runner(Duration.ofSeconds(10), List.of(WarmUpRunner.JWKS)).run(null);
+
+    verify(jwtDecoder).decode(WarmUpRunner.syntheticToken());
+    verify(compositeService, never()).getProduct(any(), anyInt(), anyInt(), anyInt(), anyInt());
+  }
+
+  @Test
+  void jwksThatIsNotLoadedInTimeDoesNotDelayWarmUp() {
+    when(jwtDecoder.decode(any())).thenReturn(Mono.never());
+
+    long start = System.nanoTime();
+    runner(Duration.ofMillis(200), List.of(WarmUpRunner.JWKS)).run(null);
+
+    assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(5));
+  }
+
+  @Test
+  void jwksThatFailsToLoadDoesNotFailWarmUp() {
+    when(jwtDecoder.decode(any())).thenReturn(Mono.error(new JwtException("Connection refused")));
+
+    runner(Duration.ofSeconds(10), List.of(WarmUpRunner.JWKS)).run(null);
+
+    verify(jwtDecoder).decode(WarmUpRunner.syntheticToken());
+  }
+
+  @Test
+  void warmUpStopsAfterDuration() {
+    when(compositeService.getProduct(any(), anyInt(), anyInt(), anyInt(), anyInt())).thenReturn(Mono.never());
+
+    long start = System.nanoTime();
+    runner(Duration.ofMillis(200), List.of(WarmUpRunner.PRODUCT)).run(null);
+
+    assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(5));
+  }
+
+  @Test
+  void circuitBreakersAreResetAfterWarmUp() {
+    CircuitBreaker circuitBreaker = circuitBreakerRegistry.circuitBreaker("product");
+    circuitBreaker.transitionToOpenState();
+    when(compositeService.getProduct(any(), anyInt(), anyInt(), anyInt(), anyInt())).thenReturn(Mono.empty());
+
+    runner(Duration.ofSeconds(10), List.of(WarmUpRunner.PRODUCT)).run(null);
+
+    assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+  }
+
+  @Test
+  void serviceLimitsAndRetryBudgetAreResetAfterWarmUp() {
+    // One retry per second over the window of ten seconds
+    IntStream.range(0, 10).forEach(i -> productRetryBudget.tryAcquire());
+    assertThat(productRetryBudget.tryAcquire()).isFalse();
+    when(compositeService.getProduct(any(), anyInt(), anyInt(), anyInt(), anyInt())).thenReturn(Mono.empty());
+
+    runner(Duration.ofSeconds(10), List.of(WarmUpRunner.PRODUCT)).run(null);
+
+    verify(integration).resetServiceLimits();
+    assertThat(productRetryBudget.tryAcquire()).isTrue();
+  }
+
+  private WarmUpRunner runner(Duration duration, List<String> coverage) {
+    return new WarmUpRunner(true, duration, 20, 4, new int[] {1, 2}, coverage, compositeService, new ObjectMapper(),
+      new StaticListableBeanFactory(Map.of("jwtDecoder", jwtDecoder)).getBeanProvider(ReactiveJwtDecoder.class),
+      circuitBreakerRegistry, integration, productRetryBudget, environment);
+  }
+}
@@ -0,0 +1,76 @@
+package se.magnus.microservices.core.product.persistence;
+
+import static java.lang.String.format;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * The document layout used before products were keyed by their productId, only used to read and migrate products that have not been migrated yet.
+ */
+@Document(collection = "products")
+public class LegacyProductEntity {
+
+  @Id private String id;
+
+  @Version private Integer version;
+
+  private int productId;
+
+  private String name;
+  private int weight;
+
+  public LegacyProductEntity() {}
+
+  public LegacyProductEntity(int productId, String name, int weight) {
+    this.productId = productId;
+    this.name = name;
+    this.weight = weight;
+  }
+
+  @Override
+  public String toString() {
+    return format("LegacyProductEntity: %s", productId);
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public void setId(String id) {
+    this.id = id;
+  }
+
+  public Integer getVersion() {
+    return version;
+  }
+
+  public void setVersion(Integer version) {
+    this.version = version;
+  }
+
+  public int getProductId() {
+    return productId;
+  }
+
+  public void setProductId(int productId) {
+    this.productId = productId;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public void setName(String name) {
+    this.name = name;
+  }
+
+  public int getWeight() {
+    return weight;
+  }
+
+  public void setWeight(int weight) {
+    this.weight = weight;
+  }
+}
@@ -0,0 +1,10 @@
+package se.magnus.microservices.core.product.persistence;
+
+import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+import reactor.core.publisher.Mono;
+
+public interface LegacyProductRepository extends ReactiveCrudRepository<LegacyProductEntity, String> {
+  Mono<LegacyProductEntity> findByProductId(int productId);
+
+  Mono<Boolean> existsByProductId(int productId);
+}
@@ -4,19 +4,22 @@ import static java.lang.String.format;
 
 import org.springframework.data.annotation.Id;
 import org.springframework.data.annotation.Version;
-import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
-@Document(collection = "products")
+/**
+ * Products are keyed directly by their productId, i.e. the productId is stored as the document's _id.
+ * This avoids a separate unique index on productId that has to be maintained on every insert and
+ * looked up before the document can be fetched.
+ * <p>
+ * Products stored by earlier versions, using a generated _id, are moved to this layout by the LegacyLayoutMigration.
+ */
+@Document(collection = "productsByKey")
 public class ProductEntity {
 
-  @Id private String id;
+  @Id private int productId;
 
   @Version private Integer version;
 
-  @Indexed(unique = true)
-  private int productId;
-
   private String name;
   private int weight;
 
@@ -33,14 +36,6 @@ public class ProductEntity {
     return format("ProductEntity: %s", productId);
   }
 
-  public String getId() {
-    return id;
-  }
-
-  public void setId(String id) {
-    this.id = id;
-  }
-
   public Integer getVersion() {
     return version;
   }
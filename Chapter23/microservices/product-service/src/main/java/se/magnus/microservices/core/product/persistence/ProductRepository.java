@@ -1,8 +1,19 @@
 package se.magnus.microservices.core.product.persistence;
 
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.repository.Meta;
 import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-public interface ProductRepository extends ReactiveCrudRepository<ProductEntity, String> {
+public interface ProductRepository extends ReactiveCrudRepository<ProductEntity, Integer> {
   Mono<ProductEntity> findByProductId(int productId);
+
+  Flux<ProductEntity> findByProductIdGreaterThanOrderByProductIdAsc(int productId, Pageable pageable);
+
+  /**
+   * Reads all products from a cursor in small batches, the next batch is only fetched when the subscriber requests more products.
+   */
+  @Meta(cursorBatchSize = 100)
+  Flux<ProductEntity> findAllByOrderByProductIdAsc();
 }
@@ -0,0 +1,90 @@
+package se.magnus.microservices.core.product.services;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import se.magnus.microservices.core.product.persistence.LegacyProductEntity;
+import se.magnus.microservices.core.product.persistence.LegacyProductRepository;
+import se.magnus.microservices.core.product.persistence.ProductRepository;
+
+/**
+ * Moves products from the legacy layout, i.e. the "products" collection with generated ids,
+ * to the "productsByKey" collection where the productId is used as the id.
+ * <p>
+ * The migration runs in the background while the service is serving requests. Each product is first
+ * copied to the new layout and then removed from the legacy layout, so the migration can be restarted
+ * if it is interrupted. Both the migration and app.legacy-layout.fallback-enabled, that makes the service find
+ * products that have not been migrated yet, are enabled until they are disabled after the migration has completed.
+ */
+@Component
+public class LegacyLayoutMigration {
+
+  private static final Logger LOG = LoggerFactory.getLogger(LegacyLayoutMigration.class);
+
+  private final boolean migrationEnabled;
+  private final LegacyProductRepository legacyRepository;
+  private final ProductRepository repository;
+  private final ProductMapper mapper;
+  private final ReactiveMongoOperations mongoTemplate;
+
+  @Autowired
+  public LegacyLayoutMigration(
+    @Value("${app.legacy-layout.migration-enabled:true}") boolean migrationEnabled,
+    LegacyProductRepository legacyRepository,
+    ProductRepository repository,
+    ProductMapper mapper,
+    ReactiveMongoOperations mongoTemplate) {
+
+    this.migrationEnabled = migrationEnabled;
+    this.legacyRepository = legacyRepository;
+    this.repository = repository;
+    this.mapper = mapper;
+    this.mongoTemplate = mongoTemplate;
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void migrateAfterStartup() {
+    if (!migrationEnabled) {
+      return;
+    }
+
+    LOG.info("Will migrate products from the legacy layout in the background...");
+    migrate().subscribe(
+      count -> LOG.info("Migrated {} products from the legacy layout, the \"products\" collection can now be dropped", count),
+      error -> LOG.error("Migration from the legacy layout failed, restart the service to resume the migration", error));
+  }
+
+  /**
+   * @return the number of migrated products
+   */
+  public Mono<Long> migrate() {
+    // Migrate one product at a time to limit the extra load on MongoDB while the service is online
+    return legacyRepository.findAll()
+      .concatMap(legacyEntity -> migrate(legacyEntity))
+      .filter(migrated -> migrated)
+      .count();
+  }
+
+  private Mono<Boolean> migrate(LegacyProductEntity legacyEntity) {
+    int productId = legacyEntity.getProductId();
+
+    return repository.save(mapper.legacyToEntity(legacyEntity))
+      .map(e -> true)
+      // The product has already been recreated in the new layout, keep that version
+      .onErrorResume(DuplicateKeyException.class, ex -> Mono.just(false))
+      .flatMap(copied -> mongoTemplate.findAndRemove(query(where("_id").is(legacyEntity.getId())), LegacyProductEntity.class)
+        .map(removed -> copied)
+        // The product was deleted while being migrated, remove the copy to avoid bringing it back
+        .switchIfEmpty(Mono.defer(() -> copied ? repository.deleteById(productId).thenReturn(false) : Mono.just(false))));
+  }
+}
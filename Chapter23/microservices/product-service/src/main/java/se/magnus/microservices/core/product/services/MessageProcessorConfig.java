@@ -18,9 +18,23 @@ public class MessageProcessorConfig {
 
   private final ProductService productService;
 
+  private final ProductIdFilter productIdFilter;
+
+  private final ProductCache productCache;
+
+  private final ProductNameIndex productNameIndex;
+
   @Autowired
-  public MessageProcessorConfig(ProductService productService) {
+  public MessageProcessorConfig(
+    ProductService productService,
+    ProductIdFilter productIdFilter,
+    ProductCache productCache,
+    ProductNameIndex productNameIndex) {
+
     this.productService = productService;
+    this.productIdFilter = productIdFilter;
+    this.productCache = productCache;
+    this.productNameIndex = productNameIndex;
   }
 
   @Bean
@@ -52,4 +66,32 @@ public class MessageProcessorConfig {
 
     };
   }
+
+  /**
+   * Receives all product events, i.e. not only the share of the events processed by this instance in the consumer group,
+   * to keep the productId filter, the product cache and the name index of every instance up to date.
+   */
+  @Bean
+  public Consumer<Event<Integer, Product>> instanceStateUpdater() {
+    return event -> {
+      switch (event.getEventType()) {
+
+        case CREATE:
+          Product product = event.getData();
+          productIdFilter.put(event.getKey());
+          productCache.invalidate(event.getKey());
+          productNameIndex.add(product.getProductId(), product.getName(), product.getWeight());
+          break;
+
+        case DELETE:
+          productIdFilter.remove(event.getKey());
+          productCache.invalidate(event.getKey());
+          productNameIndex.remove(event.getKey());
+          break;
+
+        default:
+          LOG.debug("Ignores event of type {} when updating the instance state", event.getEventType());
+      }
+    };
+  }
 }
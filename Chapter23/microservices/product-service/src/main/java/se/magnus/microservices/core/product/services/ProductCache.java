@@ -0,0 +1,95 @@
+package se.magnus.microservices.core.product.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import se.magnus.microservices.core.product.persistence.ProductEntity;
+
+/**
+ * A size bounded, per instance, cache of products read from MongoDB.
+ * <p>
+ * Products are never updated, only created and deleted, so entries are invalidated by the create and delete events
+ * that every instance receives. Entries also expire after a while, to limit the damage of a lost event.
+ */
+@Component
+public class ProductCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ProductCache.class);
+
+  // Rough size of a ProductEntity with its object headers and fields, excluding the characters of the name
+  private static final int ENTITY_BASE_WEIGHT = 64;
+
+  private final boolean enabled;
+  private final Cache<Integer, ProductEntity> cache;
+
+  // Incremented on every invalidation, used to avoid caching a product read before it was deleted
+  private final AtomicLong invalidations = new AtomicLong();
+
+  @Autowired
+  public ProductCache(
+    @Value("${app.product-cache.enabled:true}") boolean enabled,
+    @Value("${app.product-cache.maximum-weight:10000000}") long maximumWeight,
+    @Value("${app.product-cache.expire-after-write:10m}") Duration expireAfterWrite,
+    MeterRegistry registry) {
+
+    this.enabled = enabled;
+    this.cache = Caffeine.newBuilder()
+      .maximumWeight(maximumWeight)
+      .weigher((Integer productId, ProductEntity entity) -> ENTITY_BASE_WEIGHT + 2 * (entity.getName() == null ? 0 : entity.getName().length()))
+      .expireAfterWrite(expireAfterWrite)
+      .recordStats()
+      .build();
+
+    CaffeineCacheMetrics.monitor(registry, cache, "product");
+
+    LOG.info("Product cache enabled: {}, maximum weight: {} bytes, expire after write: {}", enabled, maximumWeight, expireAfterWrite);
+  }
+
+  /**
+   * @return the cached product or null if it is not cached
+   */
+  public ProductEntity getIfPresent(int productId) {
+    return enabled ? cache.getIfPresent(productId) : null;
+  }
+
+  /**
+   * @return a token to be passed to {@link #put(ProductEntity, long)} once the product has been read from the database
+   */
+  public long beforeRead() {
+    return invalidations.get();
+  }
+
+  /**
+   * Caches the product, unless any product has been invalidated since the read started, i.e. since the token was acquired.
+   */
+  public void put(ProductEntity entity, long token) {
+    if (!enabled) {
+      return;
+    }
+
+    cache.put(entity.getProductId(), entity);
+
+    // Remove the entry again if it was invalidated while being read or stored, it might be stale
+    if (invalidations.get() != token) {
+      cache.invalidate(entity.getProductId());
+    }
+  }
+
+  public void invalidate(int productId) {
+    invalidations.incrementAndGet();
+    cache.invalidate(productId);
+  }
+
+  public void invalidateAll() {
+    invalidations.incrementAndGet();
+    cache.invalidateAll();
+  }
+}
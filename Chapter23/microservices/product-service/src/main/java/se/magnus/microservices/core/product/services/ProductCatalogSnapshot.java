@@ -0,0 +1,73 @@
+package se.magnus.microservices.core.product.services;
+
+import java.nio.file.Path;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import se.magnus.microservices.core.product.persistence.ProductEntity;
+import se.magnus.util.snapshot.CatalogSnapshot;
+import se.magnus.util.snapshot.Snapshots;
+
+/**
+ * Snapshots of the products, each product is written as its productId, name and weight.
+ * <p>
+ * The products are restored in batches that are inserted in parallel using bulk inserts. When all of them are inserted,
+ * the productId filter and the name index are rebuilt and the product cache is cleared, i.e. the service is up to date
+ * with the restored products also if it keeps running, see app.catalog-snapshot.exit-when-done.
+ * Products in the legacy layout are not included, complete the migration before writing a snapshot.
+ */
+@Component
+public class ProductCatalogSnapshot implements CatalogSnapshot {
+
+  private static final String TYPE = "products";
+
+  private final int batchSize;
+  private final int parallelism;
+  private final ReactiveMongoOperations mongoTemplate;
+  private final ProductIdFilter productIdFilter;
+  private final ProductNameIndex productNameIndex;
+  private final ProductCache productCache;
+
+  @Autowired
+  public ProductCatalogSnapshot(
+    @Value("${app.catalog-snapshot.batch-size:1000}") int batchSize,
+    @Value("${app.catalog-snapshot.restore-parallelism:4}") int parallelism,
+    ReactiveMongoOperations mongoTemplate,
+    ProductIdFilter productIdFilter,
+    ProductNameIndex productNameIndex,
+    ProductCache productCache) {
+
+    this.batchSize = batchSize;
+    this.parallelism = parallelism;
+    this.mongoTemplate = mongoTemplate;
+    this.productIdFilter = productIdFilter;
+    this.productNameIndex = productNameIndex;
+    this.productCache = productCache;
+  }
+
+  @Override
+  public String getType() {
+    return TYPE;
+  }
+
+  @Override
+  public Mono<Long> write(Path file) {
+    return Snapshots.write(file, TYPE, mongoTemplate.findAll(ProductEntity.class), (writer, e) -> {
+      writer.writeInt(e.getProductId());
+      writer.writeString(e.getName());
+      writer.writeInt(e.getWeight());
+    });
+  }
+
+  @Override
+  public Mono<Long> restore(Path file) {
+    return Snapshots.restore(file, TYPE, reader -> new ProductEntity(reader.readInt(), reader.readString(), reader.readInt()),
+        batchSize, parallelism, batch -> mongoTemplate.insert(batch, ProductEntity.class).count())
+      .flatMap(count -> productIdFilter.rebuild()
+        .then(productNameIndex.reload())
+        .then(Mono.fromRunnable(productCache::invalidateAll))
+        .thenReturn(count));
+  }
+}
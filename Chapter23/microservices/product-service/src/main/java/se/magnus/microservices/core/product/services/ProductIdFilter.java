@@ -0,0 +1,351 @@
+package se.magnus.microservices.core.product.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import se.magnus.microservices.core.product.persistence.LegacyProductEntity;
+import se.magnus.microservices.core.product.persistence.ProductEntity;
+
+/**
+ * An in-memory Bloom filter of the productIds stored in MongoDB, used to reject lookups of unknown products
+ * without reading them from the database.
+ * <p>
+ * The filter is built from MongoDB when the service is ready and kept up to date from create and delete events.
+ * A Bloom filter can't forget a productId, so deleted products only cause false positives, i.e. a database lookup.
+ * The filter is rebuilt in the background when too many products have been deleted or when it holds more products
+ * than it was sized for, since both increase the false positive rate. Until the filter has been built, all productIds
+ * are reported as possibly existing.
+ * <p>
+ * A product created by another instance is added to the filter when its create event is broadcast to this instance.
+ * Until the event has arrived the filter doesn't agree with the database, so a product the filter doesn't know is only
+ * rejected after an existence check that reads the index on the productId, but not the product. A product found that
+ * way is added to the filter, see {@link #putMissed(int)}.
+ */
+@Component
+public class ProductIdFilter {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ProductIdFilter.class);
+
+  // Products added this recently are copied into a filter being rebuilt, in case they are saved after the rebuild has read past them
+  private static final Duration RECENT_ADDITION_WINDOW = Duration.ofMinutes(1);
+
+  private final boolean enabled;
+  private final int expectedInsertions;
+  private final double falsePositiveProbability;
+  private final boolean legacyFallbackEnabled;
+  private final ReactiveMongoOperations mongoTemplate;
+
+  private final Counter absentCounter;
+  private final Counter presentCounter;
+  private final Counter falsePositiveCounter;
+  private final Counter missedCounter;
+
+  private final AtomicBoolean rebuilding = new AtomicBoolean(false);
+  private final AtomicInteger deletionsSinceRebuild = new AtomicInteger();
+  // The time each product was deleted, to not count lookups of products that are only known since they were deleted as false positives
+  private final Map<Integer, Long> deletedProducts = new ConcurrentHashMap<>();
+  private final Queue<RecentAddition> recentAdditions = new ConcurrentLinkedQueue<>();
+
+  private volatile BloomFilter current;
+  private BloomFilter pending;
+
+  @Autowired
+  public ProductIdFilter(
+    @Value("${app.product-id-filter.enabled:true}") boolean enabled,
+    @Value("${app.product-id-filter.expected-insertions:1000000}") int expectedInsertions,
+    @Value("${app.product-id-filter.false-positive-probability:0.01}") double falsePositiveProbability,
+    @Value("${app.legacy-layout.fallback-enabled:true}") boolean legacyFallbackEnabled,
+    ReactiveMongoOperations mongoTemplate,
+    MeterRegistry registry) {
+
+    this.enabled = enabled;
+    this.expectedInsertions = expectedInsertions;
+    this.falsePositiveProbability = falsePositiveProbability;
+    this.legacyFallbackEnabled = legacyFallbackEnabled;
+    this.mongoTemplate = mongoTemplate;
+
+    Gauge.builder("product.id.filter.expected.fpp", this, f -> f.current == null ? 1.0 : f.current.expectedFpp())
+      .description("Estimated false positive probability of the productId filter, based on the share of bits set")
+      .register(registry);
+    Gauge.builder("product.id.filter.memory", this, f -> f.current == null ? 0 : f.current.sizeInBytes())
+      .description("Memory used by the bits of the productId filter")
+      .baseUnit("bytes")
+      .register(registry);
+    Gauge.builder("product.id.filter.elements", this, f -> f.current == null ? 0 : f.current.elements.sum())
+      .description("Number of productIds added to the productId filter since it was built")
+      .register(registry);
+
+    this.absentCounter = Counter.builder("product.id.filter.lookups").tag("result", "absent")
+      .description("Lookups rejected by the productId filter, only checked for existence in the database")
+      .register(registry);
+    this.presentCounter = Counter.builder("product.id.filter.lookups").tag("result", "present")
+      .description("Lookups passed on to the database by the productId filter")
+      .register(registry);
+    this.falsePositiveCounter = Counter.builder("product.id.filter.false.positives")
+      .description("Lookups passed on to the database by the productId filter that did not find a product that was never added")
+      .register(registry);
+    this.missedCounter = Counter.builder("product.id.filter.missed")
+      .description("Lookups rejected by the productId filter of products found in the database, e.g. created by another instance")
+      .register(registry);
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void buildAfterStartup() {
+    if (!enabled) {
+      LOG.info("The productId filter is disabled, all lookups of products will be made in the database");
+      return;
+    }
+    if (current != null) {
+      LOG.debug("The productId filter is already built, e.g. after a restored catalog snapshot");
+      return;
+    }
+    rebuildInBackground();
+  }
+
+  /**
+   * @return false if the product definitely does not exist, true if it might exist
+   */
+  public boolean mightContain(int productId) {
+    BloomFilter filter = current;
+    if (filter == null) {
+      return true;
+    }
+
+    boolean present = filter.mightContain(productId);
+    (present ? presentCounter : absentCounter).increment();
+    return present;
+  }
+
+  /**
+   * Shall be called when a lookup let through by the filter did not find the product.
+   */
+  public void recordFalsePositive(int productId) {
+    if (current != null && !deletedProducts.containsKey(productId)) {
+      falsePositiveCounter.increment();
+    }
+  }
+
+  /**
+   * Shall be called when a lookup rejected by the filter found the product, i.e. before the filter learned about it.
+   */
+  public void putMissed(int productId) {
+    missedCounter.increment();
+    put(productId);
+  }
+
+  public void put(int productId) {
+    if (!enabled) {
+      return;
+    }
+
+    deletedProducts.remove(productId);
+
+    long now = System.nanoTime();
+    recentAdditions.add(new RecentAddition(productId, now));
+    RecentAddition oldest;
+    while ((oldest = recentAdditions.peek()) != null && now - oldest.addedAt > RECENT_ADDITION_WINDOW.toNanos()) {
+      recentAdditions.poll();
+    }
+
+    synchronized (this) {
+      if (current != null) {
+        current.put(productId);
+      }
+      if (pending != null) {
+        pending.put(productId);
+      }
+    }
+
+    if (current != null && current.elements.sum() > current.capacity) {
+      LOG.info("The productId filter holds more than the {} products it was sized for, will rebuild it", current.capacity);
+      rebuildInBackground();
+    }
+  }
+
+  /**
+   * Shall be called once per deleted product, i.e. from the event broadcast to all instances.
+   */
+  public void remove(int productId) {
+    if (!enabled || current == null) {
+      return;
+    }
+
+    deletedProducts.put(productId, System.nanoTime());
+    if (deletionsSinceRebuild.incrementAndGet() > current.capacity / 10) {
+      LOG.info("More than {} products have been deleted since the productId filter was built, will rebuild it", current.capacity / 10);
+      rebuildInBackground();
+    }
+  }
+
+  public void rebuildInBackground() {
+    rebuild().subscribe(
+      v -> {},
+      error -> LOG.warn("Failed to rebuild the productId filter, will keep using the current one: {}", error.toString()));
+  }
+
+  /**
+   * Builds a new filter from the productIds stored in the database, the current filter is used until the new one is complete.
+   */
+  public Mono<Void> rebuild() {
+    return enabled ? rebuild(loadProductIds()) : Mono.empty();
+  }
+
+  public Mono<Void> rebuild(Flux<Integer> productIds) {
+    return Mono.defer(() -> {
+      if (!rebuilding.compareAndSet(false, true)) {
+        LOG.debug("A rebuild of the productId filter is already in progress");
+        return Mono.empty();
+      }
+
+      long startedAt = System.nanoTime();
+      BloomFilter filter = current;
+      long elements = (filter == null) ? 0 : filter.elements.sum();
+      BloomFilter newFilter = new BloomFilter((int) Math.min(Math.max(expectedInsertions, 2 * elements), Integer.MAX_VALUE), falsePositiveProbability);
+
+      synchronized (this) {
+        recentAdditions.forEach(a -> newFilter.put(a.productId));
+        pending = newFilter;
+        deletionsSinceRebuild.set(0);
+      }
+
+      return productIds
+        .doOnNext(newFilter::put)
+        .then(Mono.fromRunnable(() -> {
+          synchronized (this) {
+            current = newFilter;
+          }
+          // Products deleted before the rebuild started are not in the new filter, unless they collide with a stored product
+          deletedProducts.entrySet().removeIf(e -> e.getValue() - startedAt < 0 && !newFilter.mightContain(e.getKey()));
+          LOG.info("Built the productId filter with {} products, using {} bytes", newFilter.elements.sum(), newFilter.sizeInBytes());
+        }))
+        .doFinally(signal -> {
+          synchronized (this) {
+            pending = null;
+          }
+          rebuilding.set(false);
+        })
+        .then();
+    });
+  }
+
+  private Flux<Integer> loadProductIds() {
+    Query query = new Query();
+    query.fields().include("_id");
+    Flux<Integer> productIds = mongoTemplate.find(query, ProductEntity.class).map(ProductEntity::getProductId);
+
+    if (!legacyFallbackEnabled) {
+      return productIds;
+    }
+
+    Query legacyQuery = new Query();
+    legacyQuery.fields().include("productId");
+    return productIds.concatWith(mongoTemplate.find(legacyQuery, LegacyProductEntity.class).map(LegacyProductEntity::getProductId));
+  }
+
+  private record RecentAddition(int productId, long addedAt) {}
+
+  /**
+   * A Bloom filter of ints, using double hashing to derive the bit positions from a single 64 bit hash.
+   */
+  static class BloomFilter {
+
+    private final int capacity;
+    private final int numBits;
+    private final int numHashFunctions;
+    private final AtomicLongArray bits;
+    private final LongAdder bitCount = new LongAdder();
+    private final LongAdder elements = new LongAdder();
+
+    BloomFilter(int capacity, double falsePositiveProbability) {
+      this.capacity = capacity;
+      long optimalNumBits = (long) Math.ceil(-capacity * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2)));
+      this.numBits = (int) Math.min(Math.max(optimalNumBits, 64), Integer.MAX_VALUE - 63);
+      this.numHashFunctions = Math.max(1, (int) Math.round((double) numBits / capacity * Math.log(2)));
+      this.bits = new AtomicLongArray((numBits + 63) / 64);
+    }
+
+    void put(int value) {
+      long hash = mix(value);
+      int hash1 = (int) hash;
+      int hash2 = (int) (hash >>> 32);
+      boolean changed = false;
+      for (int i = 1; i <= numHashFunctions; i++) {
+        changed |= setBit(index(hash1 + i * hash2));
+      }
+
+      // Only count new productIds, a productId can be added both by the service and by the event broadcast to all instances
+      if (changed) {
+        elements.increment();
+      }
+    }
+
+    boolean mightContain(int value) {
+      long hash = mix(value);
+      int hash1 = (int) hash;
+      int hash2 = (int) (hash >>> 32);
+      for (int i = 1; i <= numHashFunctions; i++) {
+        int index = index(hash1 + i * hash2);
+        if ((bits.get(index >>> 6) & (1L << index)) == 0) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    double expectedFpp() {
+      return Math.pow((double) bitCount.sum() / numBits, numHashFunctions);
+    }
+
+    long sizeInBytes() {
+      return bits.length() * 8L;
+    }
+
+    private int index(int combinedHash) {
+      return (combinedHash & Integer.MAX_VALUE) % numBits;
+    }
+
+    private boolean setBit(int index) {
+      int word = index >>> 6;
+      long mask = 1L << index;
+      long oldValue;
+      do {
+        oldValue = bits.get(word);
+        if ((oldValue & mask) != 0) {
+          return false;
+        }
+      } while (!bits.compareAndSet(word, oldValue, oldValue | mask));
+      bitCount.increment();
+      return true;
+    }
+
+    // The finalizer of MurmurHash3, spreads consecutive productIds over the whole hash range
+    private static long mix(long value) {
+      value ^= value >>> 33;
+      value *= 0xff51afd7ed558ccdL;
+      value ^= value >>> 33;
+      value *= 0xc4ceb93e53e2fe53L;
+      value ^= value >>> 33;
+      return value;
+    }
+  }
+}
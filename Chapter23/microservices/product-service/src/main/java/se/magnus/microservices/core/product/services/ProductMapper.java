@@ -4,6 +4,7 @@ import org.mapstruct.Mapper;
 import org.mapstruct.Mapping;
 import org.mapstruct.Mappings;
 import se.magnus.api.core.product.Product;
+import se.magnus.microservices.core.product.persistence.LegacyProductEntity;
 import se.magnus.microservices.core.product.persistence.ProductEntity;
 
 @Mapper(componentModel = "spring")
@@ -15,7 +16,12 @@ public interface ProductMapper {
   Product entityToApi(ProductEntity entity);
 
   @Mappings({
-    @Mapping(target = "id", ignore = true), @Mapping(target = "version", ignore = true)
+    @Mapping(target = "version", ignore = true)
   })
   ProductEntity apiToEntity(Product api);
+
+  @Mappings({
+    @Mapping(target = "version", ignore = true)
+  })
+  ProductEntity legacyToEntity(LegacyProductEntity legacyEntity);
 }
@@ -0,0 +1,320 @@
+package se.magnus.microservices.core.product.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import se.magnus.microservices.core.product.persistence.LegacyProductEntity;
+import se.magnus.microservices.core.product.persistence.ProductEntity;
+
+/**
+ * An in-memory inverted index from the words in the product names to the productIds, used for typeahead searches.
+ * <p>
+ * The words are kept in a sorted map, so all words starting with a prefix are found with a range lookup.
+ * Each word refers to a sorted int array of productIds, i.e. a posting list, that is merged and intersected
+ * with the posting lists of the other words in the query.
+ * <p>
+ * The index is loaded from MongoDB when the service is ready and kept up to date from create and delete events.
+ * Searches made while the index is loaded only see the products loaded so far.
+ */
+@Component
+public class ProductNameIndex {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ProductNameIndex.class);
+
+  private static final Pattern WORD_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+  private final boolean legacyFallbackEnabled;
+  private final ReactiveMongoOperations mongoTemplate;
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final NavigableMap<String, PostingList> postingLists = new TreeMap<>();
+  private final Map<Integer, IndexedProduct> products = new HashMap<>();
+
+  // Products deleted while the index is loaded, that shall not be added if they are read from MongoDB before being deleted
+  private Set<Integer> deletedWhileLoading;
+  private volatile boolean loaded;
+
+  @Autowired
+  public ProductNameIndex(
+    @Value("${app.legacy-layout.fallback-enabled:true}") boolean legacyFallbackEnabled,
+    ReactiveMongoOperations mongoTemplate) {
+
+    this.legacyFallbackEnabled = legacyFallbackEnabled;
+    this.mongoTemplate = mongoTemplate;
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void loadAfterStartup() {
+    if (loaded) {
+      LOG.debug("The name index is already loaded, e.g. after a restored catalog snapshot");
+      return;
+    }
+    load(loadProducts()).subscribe(
+      count -> LOG.info("Loaded {} products into the name index", count),
+      error -> LOG.error("Failed to load the name index, restart the service to retry", error));
+  }
+
+  /**
+   * Loads the products stored in MongoDB, on top of the products already in the index.
+   *
+   * @return the number of products in the index when the loading is done
+   */
+  public Mono<Integer> reload() {
+    return load(loadProducts());
+  }
+
+  /**
+   * @return the number of products in the index when the loading is done
+   */
+  public Mono<Integer> load(Flux<ProductEntity> products) {
+    return Mono.defer(() -> {
+      lock.writeLock().lock();
+      try {
+        deletedWhileLoading = new HashSet<>();
+      } finally {
+        lock.writeLock().unlock();
+      }
+
+      return products
+        .doOnNext(e -> add(e.getProductId(), e.getName(), e.getWeight(), true))
+        .then(Mono.fromCallable(() -> {
+          lock.writeLock().lock();
+          try {
+            deletedWhileLoading = null;
+            loaded = true;
+            return this.products.size();
+          } finally {
+            lock.writeLock().unlock();
+          }
+        }));
+    });
+  }
+
+  public void add(int productId, String name, int weight) {
+    add(productId, name, weight, false);
+  }
+
+  public void remove(int productId) {
+    lock.writeLock().lock();
+    try {
+      if (deletedWhileLoading != null) {
+        deletedWhileLoading.add(productId);
+      }
+
+      IndexedProduct product = products.remove(productId);
+      if (product == null) {
+        return;
+      }
+
+      for (String word : product.words) {
+        PostingList postingList = postingLists.get(word);
+        postingList.remove(productId);
+        if (postingList.size == 0) {
+          postingLists.remove(word);
+        }
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * @return the products having words starting with each word in the prefix, sorted on productId
+   */
+  public List<IndexedProduct> search(String prefix, int limit) {
+    String[] queryWords = toWords(prefix);
+    if (queryWords.length == 0) {
+      return Collections.emptyList();
+    }
+
+    lock.readLock().lock();
+    try {
+      int[] productIds = null;
+      int size = 0;
+      for (String queryWord : queryWords) {
+        int[] matches = matchingProductIds(queryWord);
+        if (productIds == null) {
+          productIds = matches;
+          size = matches.length;
+        } else {
+          size = intersect(productIds, size, matches);
+        }
+        if (size == 0) {
+          return Collections.emptyList();
+        }
+      }
+
+      List<IndexedProduct> result = new ArrayList<>(Math.min(size, limit));
+      for (int i = 0; i < size && result.size() < limit; i++) {
+        result.add(products.get(productIds[i]));
+      }
+      return result;
+
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private void add(int productId, String name, int weight, boolean loading) {
+    String[] words = toWords(name);
+
+    lock.writeLock().lock();
+    try {
+      if (loading && (deletedWhileLoading == null || deletedWhileLoading.contains(productId))) {
+        return;
+      }
+
+      if (products.containsKey(productId)) {
+        // Already added, either by an event or when loading the index
+        return;
+      }
+
+      products.put(productId, new IndexedProduct(productId, name, weight, words));
+      for (String word : words) {
+        postingLists.computeIfAbsent(word, w -> new PostingList()).add(productId);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * @return the sorted union of the posting lists of all words starting with the query word
+   */
+  private int[] matchingProductIds(String queryWord) {
+    NavigableMap<String, PostingList> matchingWords = postingLists.subMap(queryWord, true, queryWord + Character.MAX_VALUE, false);
+
+    if (matchingWords.size() == 1) {
+      PostingList postingList = matchingWords.firstEntry().getValue();
+      return Arrays.copyOf(postingList.productIds, postingList.size);
+    }
+
+    int total = 0;
+    for (PostingList postingList : matchingWords.values()) {
+      total += postingList.size;
+    }
+
+    int[] union = new int[total];
+    int size = 0;
+    for (PostingList postingList : matchingWords.values()) {
+      System.arraycopy(postingList.productIds, 0, union, size, postingList.size);
+      size += postingList.size;
+    }
+    Arrays.sort(union);
+
+    // A product can have several words starting with the query word, remove the duplicates
+    int unique = 0;
+    for (int i = 0; i < size; i++) {
+      if (unique == 0 || union[unique - 1] != union[i]) {
+        union[unique++] = union[i];
+      }
+    }
+    return (unique == size) ? union : Arrays.copyOf(union, unique);
+  }
+
+  /**
+   * Keeps the productIds found in both sorted arrays in the first array.
+   *
+   * @return the number of productIds kept
+   */
+  private static int intersect(int[] productIds, int size, int[] other) {
+    int kept = 0;
+    int i = 0;
+    int j = 0;
+    while (i < size && j < other.length) {
+      if (productIds[i] < other[j]) {
+        i++;
+      } else if (productIds[i] > other[j]) {
+        j++;
+      } else {
+        productIds[kept++] = productIds[i];
+        i++;
+        j++;
+      }
+    }
+    return kept;
+  }
+
+  private static String[] toWords(String text) {
+    if (text == null) {
+      return new String[0];
+    }
+    return Arrays.stream(WORD_SEPARATOR.split(text.toLowerCase(Locale.ROOT)))
+      .filter(w -> !w.isEmpty())
+      .distinct()
+      .toArray(String[]::new);
+  }
+
+  private Flux<ProductEntity> loadProducts() {
+    Query query = new Query();
+    query.fields().include("_id", "name", "weight");
+    Flux<ProductEntity> products = mongoTemplate.find(query, ProductEntity.class);
+
+    if (!legacyFallbackEnabled) {
+      return products;
+    }
+
+    Query legacyQuery = new Query();
+    legacyQuery.fields().include("productId", "name", "weight");
+    return products.concatWith(mongoTemplate.find(legacyQuery, LegacyProductEntity.class)
+      .map(e -> new ProductEntity(e.getProductId(), e.getName(), e.getWeight())));
+  }
+
+  public record IndexedProduct(int productId, String name, int weight, String[] words) {}
+
+  /**
+   * A sorted, growable array of productIds.
+   */
+  private static class PostingList {
+
+    private int[] productIds = new int[4];
+    private int size;
+
+    void add(int productId) {
+      int index = Arrays.binarySearch(productIds, 0, size, productId);
+      if (index >= 0) {
+        return;
+      }
+
+      index = -(index + 1);
+      if (size == productIds.length) {
+        productIds = Arrays.copyOf(productIds, size * 2);
+      }
+      System.arraycopy(productIds, index, productIds, index + 1, size - index);
+      productIds[index] = productId;
+      size++;
+    }
+
+    void remove(int productId) {
+      int index = Arrays.binarySearch(productIds, 0, size, productId);
+      if (index < 0) {
+        return;
+      }
+
+      System.arraycopy(productIds, index + 1, productIds, index, size - index - 1);
+      size--;
+    }
+  }
+}
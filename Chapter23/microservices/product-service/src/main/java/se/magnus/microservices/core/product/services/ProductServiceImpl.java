@@ -1,20 +1,26 @@
 package se.magnus.microservices.core.product.services;
 
 import static java.util.logging.Level.FINE;
+import static se.magnus.util.http.ConditionalRequests.checkNotModified;
+import static se.magnus.util.http.ConditionalRequests.entityTag;
 
 import java.time.Duration;
 import java.util.Random;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.http.HttpHeaders;
 import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import se.magnus.api.core.product.Product;
 import se.magnus.api.core.product.ProductService;
 import se.magnus.api.exceptions.InvalidInputException;
 import se.magnus.api.exceptions.NotFoundException;
+import se.magnus.microservices.core.product.persistence.LegacyProductRepository;
 import se.magnus.microservices.core.product.persistence.ProductEntity;
 import se.magnus.microservices.core.product.persistence.ProductRepository;
 import se.magnus.util.http.ServiceUtil;
@@ -24,16 +30,47 @@ public class ProductServiceImpl implements ProductService {
 
   private static final Logger LOG = LoggerFactory.getLogger(ProductServiceImpl.class);
 
+  private static final int MAX_PAGE_SIZE = 1000;
+
+  private static final int MAX_SEARCH_RESULT_SIZE = 100;
+
+  // Shorter prefixes match a large share of the products, i.e. take long to search and are of little use for a typeahead
+  private static final int MIN_SEARCH_PREFIX_LENGTH = 3;
+
   private final ServiceUtil serviceUtil;
 
   private final ProductRepository repository;
 
+  private final LegacyProductRepository legacyRepository;
+
+  private final boolean legacyFallbackEnabled;
+
   private final ProductMapper mapper;
 
+  private final ProductIdFilter productIdFilter;
+
+  private final ProductCache productCache;
+
+  private final ProductNameIndex productNameIndex;
+
   @Autowired
-  public ProductServiceImpl(ProductRepository repository, ProductMapper mapper, ServiceUtil serviceUtil) {
+  public ProductServiceImpl(
+    ProductRepository repository,
+    LegacyProductRepository legacyRepository,
+    @Value("${app.legacy-layout.fallback-enabled:true}") boolean legacyFallbackEnabled,
+    ProductMapper mapper,
+    ProductIdFilter productIdFilter,
+    ProductCache productCache,
+    ProductNameIndex productNameIndex,
+    ServiceUtil serviceUtil) {
+
     this.repository = repository;
+    this.legacyRepository = legacyRepository;
+    this.legacyFallbackEnabled = legacyFallbackEnabled;
     this.mapper = mapper;
+    this.productIdFilter = productIdFilter;
+    this.productCache = productCache;
+    this.productNameIndex = productNameIndex;
     this.serviceUtil = serviceUtil;
   }
 
@@ -44,12 +81,17 @@ public class ProductServiceImpl implements ProductService {
       throw new InvalidInputException("Invalid productId: " + body.getProductId());
     }
 
+    // Add the product to the filter before it is stored, to never reject a lookup of a stored product
+    productIdFilter.put(body.getProductId());
+
     ProductEntity entity = mapper.apiToEntity(body);
-    Mono<Product> newEntity = repository.save(entity)
+    Mono<Product> newEntity = rejectIfInLegacyLayout(body.getProductId())
+      .then(repository.save(entity))
       .log(LOG.getName(), FINE)
       .onErrorMap(
         DuplicateKeyException.class,
         ex -> new InvalidInputException("Duplicate key, Product Id: " + body.getProductId()))
+      .doOnNext(e -> productNameIndex.add(e.getProductId(), e.getName(), e.getWeight()))
       .map(e -> mapper.entityToApi(e));
 
     return newEntity;
@@ -64,15 +106,95 @@ public class ProductServiceImpl implements ProductService {
 
     LOG.info("Will get product info for id={}", productId);
 
-    return repository.findByProductId(productId)
+    if (!productIdFilter.mightContain(productId)) {
+      LOG.debug("Product with id={} is not known by the productId filter, only checks that it doesn't exist", productId);
+      return existsInDatabase(productId).flatMap(exists -> {
+        if (!exists) {
+          return Mono.error(new NotFoundException("No product found for productId: " + productId));
+        }
+        productIdFilter.putMissed(productId);
+        return getKnownProduct(productId, delay, faultPercent);
+      });
+    }
+
+    return getKnownProduct(productId, delay, faultPercent);
+  }
+
+  private Mono<Product> getKnownProduct(int productId, int delay, int faultPercent) {
+
+    // Serve cache hits without building a reactive pipeline, unless a delay or fault is to be simulated
+    ProductEntity cachedEntity = productCache.getIfPresent(productId);
+    if (cachedEntity != null && delay == 0 && faultPercent == 0) {
+      Product product = setServiceAddress(mapper.entityToApi(cachedEntity));
+      return checkNotModified(product, productTag(product));
+    }
+
+    Mono<ProductEntity> entity = (cachedEntity != null) ? Mono.just(cachedEntity) : findAndCacheProduct(productId);
+
+    return checkNotModified(entity
       .map(e -> throwErrorIfBadLuck(e, faultPercent))
       .delayElement(Duration.ofSeconds(delay))
-      .switchIfEmpty(Mono.error(new NotFoundException("No product found for productId: " + productId)))
+      .switchIfEmpty(Mono.defer(() -> {
+        productIdFilter.recordFalsePositive(productId);
+        return Mono.error(new NotFoundException("No product found for productId: " + productId));
+      }))
+      .log(LOG.getName(), FINE)
+      .map(e -> mapper.entityToApi(e))
+      .map(e -> setServiceAddress(e)), ProductServiceImpl::productTag);
+  }
+
+  private static String productTag(Product product) {
+    return entityTag(product.getProductId(), product.getVersion(), product.getName(), product.getWeight());
+  }
+
+  @Override
+  public Flux<Product> getProducts(HttpHeaders headers, int afterProductId, int limit) {
+
+    if (afterProductId < 0) {
+      throw new InvalidInputException("Invalid afterProductId: " + afterProductId);
+    }
+
+    if (limit < 1 || limit > MAX_PAGE_SIZE) {
+      throw new InvalidInputException("Invalid limit: " + limit + ", must be between 1 and " + MAX_PAGE_SIZE);
+    }
+
+    LOG.info("Will get max {} products after id={}", limit, afterProductId);
+
+    return repository.findByProductIdGreaterThanOrderByProductIdAsc(afterProductId, PageRequest.of(0, limit))
       .log(LOG.getName(), FINE)
       .map(e -> mapper.entityToApi(e))
       .map(e -> setServiceAddress(e));
   }
 
+  @Override
+  public Flux<Product> exportProducts(HttpHeaders headers) {
+
+    LOG.info("Will export all products");
+
+    // Backpressure from the HTTP response propagates to the MongoDB cursor, keeping the memory usage bounded by the cursor batch size
+    return repository.findAllByOrderByProductIdAsc()
+      .map(e -> mapper.entityToApi(e))
+      .map(e -> setServiceAddress(e));
+  }
+
+  @Override
+  public Flux<Product> searchProducts(HttpHeaders headers, String prefix, int limit) {
+
+    if (limit < 1 || limit > MAX_SEARCH_RESULT_SIZE) {
+      throw new InvalidInputException("Invalid limit: " + limit + ", must be between 1 and " + MAX_SEARCH_RESULT_SIZE);
+    }
+
+    if (prefix.trim().length() < MIN_SEARCH_PREFIX_LENGTH) {
+      throw new InvalidInputException("Invalid prefix: '" + prefix + "', must be at least " + MIN_SEARCH_PREFIX_LENGTH + " characters");
+    }
+
+    LOG.debug("Will search for max {} products matching prefix: {}", limit, prefix);
+
+    // Served from the in-memory name index, i.e. without calling MongoDB
+    return Flux.fromIterable(productNameIndex.search(prefix, limit))
+      .map(p -> setServiceAddress(new Product(p.productId(), p.name(), p.weight(), null)));
+  }
+
   @Override
   public Mono<Void> deleteProduct(int productId) {
 
@@ -81,7 +203,55 @@ public class ProductServiceImpl implements ProductService {
     }
 
     LOG.debug("deleteProduct: tries to delete an entity with productId: {}", productId);
-    return repository.findByProductId(productId).log(LOG.getName(), FINE).map(e -> repository.delete(e)).flatMap(e -> e);
+    return repository.findByProductId(productId).log(LOG.getName(), FINE).map(e -> repository.delete(e)).flatMap(e -> e)
+      .then(deleteInLegacyLayout(productId))
+      .doOnSuccess(v -> {
+        productCache.invalidate(productId);
+        productNameIndex.remove(productId);
+      });
+  }
+
+  private Mono<ProductEntity> findAndCacheProduct(int productId) {
+    return Mono.defer(() -> {
+      long cacheToken = productCache.beforeRead();
+      return repository.findByProductId(productId)
+        .switchIfEmpty(findInLegacyLayout(productId))
+        .doOnNext(e -> productCache.put(e, cacheToken));
+    });
+  }
+
+  /**
+   * Only reads the index on the productId, not the product.
+   */
+  private Mono<Boolean> existsInDatabase(int productId) {
+    Mono<Boolean> exists = repository.existsById(productId);
+    if (!legacyFallbackEnabled) {
+      return exists;
+    }
+    return exists.flatMap(found -> found ? Mono.just(true) : legacyRepository.existsByProductId(productId));
+  }
+
+  private Mono<ProductEntity> findInLegacyLayout(int productId) {
+    if (!legacyFallbackEnabled) {
+      return Mono.empty();
+    }
+    return Mono.defer(() -> legacyRepository.findByProductId(productId).map(e -> mapper.legacyToEntity(e)));
+  }
+
+  /**
+   * A product that is not migrated yet is only stored in the legacy layout, and is moved to the new layout before it is
+   * removed from the legacy layout, so it is always found in one of them.
+   */
+  private Mono<Void> rejectIfInLegacyLayout(int productId) {
+    return findInLegacyLayout(productId)
+      .flatMap(e -> Mono.<Void>error(new DuplicateKeyException("Product Id: " + productId + " is stored in the legacy layout")));
+  }
+
+  private Mono<Void> deleteInLegacyLayout(int productId) {
+    if (!legacyFallbackEnabled) {
+      return Mono.empty();
+    }
+    return Mono.defer(() -> legacyRepository.findByProductId(productId).flatMap(e -> legacyRepository.delete(e)));
   }
 
   private Product setServiceAddress(Product e) {
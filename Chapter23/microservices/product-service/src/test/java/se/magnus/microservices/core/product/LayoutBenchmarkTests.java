@@ -0,0 +1,74 @@
+package se.magnus.microservices.core.product;
+
+import static se.magnus.util.benchmark.Benchmarks.measureMillis;
+import static se.magnus.util.benchmark.Benchmarks.opsPerSecond;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.index.Index;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+import se.magnus.microservices.core.product.persistence.LegacyProductEntity;
+import se.magnus.microservices.core.product.persistence.LegacyProductRepository;
+import se.magnus.microservices.core.product.persistence.ProductEntity;
+import se.magnus.microservices.core.product.persistence.ProductRepository;
+import se.magnus.util.benchmark.BenchmarkTest;
+
+/**
+ * Compares insert and lookup throughput of the legacy layout, i.e. a generated _id plus a unique index on productId,
+ * with the layout keyed by productId.
+ * <p>
+ * Run with: ./gradlew :microservices:product-service:test --tests '*LayoutBenchmarkTests' -Dbenchmark=true -i
+ */
+@BenchmarkTest
+@DataMongoTest
+class LayoutBenchmarkTests extends MongoDbTestBase {
+
+  private static final Logger LOG = LoggerFactory.getLogger(LayoutBenchmarkTests.class);
+
+  private static final int NO_OF_PRODUCTS = 20_000;
+  private static final int CONCURRENCY = 16;
+
+  @Autowired
+  private ProductRepository repository;
+
+  @Autowired
+  private LegacyProductRepository legacyRepository;
+
+  @Autowired
+  private ReactiveMongoOperations mongoTemplate;
+
+  @BeforeEach
+  void setupDb() {
+    StepVerifier.create(repository.deleteAll()).verifyComplete();
+    StepVerifier.create(legacyRepository.deleteAll()).verifyComplete();
+
+    // The legacy entity no longer declares its index, create it the way earlier versions did
+    mongoTemplate.indexOps(LegacyProductEntity.class)
+      .ensureIndex(new Index().on("productId", Sort.Direction.ASC).unique().named("productId")).block();
+  }
+
+  @Test
+  void compareLayouts() {
+    long legacyInsertMs = measureMillis(() -> Flux.range(1, NO_OF_PRODUCTS)
+      .flatMap(id -> legacyRepository.save(new LegacyProductEntity(id, "n" + id, id)), CONCURRENCY).then().block());
+    long insertMs = measureMillis(() -> Flux.range(1, NO_OF_PRODUCTS)
+      .flatMap(id -> repository.save(new ProductEntity(id, "n" + id, id)), CONCURRENCY).then().block());
+
+    long legacyReadMs = measureMillis(() -> Flux.range(1, NO_OF_PRODUCTS)
+      .flatMap(id -> legacyRepository.findByProductId(id), CONCURRENCY).then().block());
+    long readMs = measureMillis(() -> Flux.range(1, NO_OF_PRODUCTS)
+      .flatMap(id -> repository.findById(id), CONCURRENCY).then().block());
+
+    LOG.info("Inserted {} products: legacy layout {} ops/s, keyed layout {} ops/s",
+      NO_OF_PRODUCTS, opsPerSecond(NO_OF_PRODUCTS, legacyInsertMs), opsPerSecond(NO_OF_PRODUCTS, insertMs));
+    LOG.info("Looked up {} products: legacy layout {} ops/s, keyed layout {} ops/s",
+      NO_OF_PRODUCTS, opsPerSecond(NO_OF_PRODUCTS, legacyReadMs), opsPerSecond(NO_OF_PRODUCTS, readMs));
+  }
+}
@@ -3,13 +3,19 @@ package se.magnus.microservices.core.product;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.condition.DisabledInNativeImage;
+import org.mapstruct.factory.Mappers;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
 import reactor.test.StepVerifier;
+import se.magnus.microservices.core.product.persistence.LegacyProductEntity;
+import se.magnus.microservices.core.product.persistence.LegacyProductRepository;
 import se.magnus.microservices.core.product.persistence.ProductEntity;
 import se.magnus.microservices.core.product.persistence.ProductRepository;
+import se.magnus.microservices.core.product.services.LegacyLayoutMigration;
+import se.magnus.microservices.core.product.services.ProductMapper;
 
 @DisabledInNativeImage
 @DataMongoTest
@@ -18,11 +24,18 @@ class PersistenceTests extends MongoDbTestBase {
   @Autowired
   private ProductRepository repository;
 
+  @Autowired
+  private LegacyProductRepository legacyRepository;
+
+  @Autowired
+  private ReactiveMongoOperations mongoTemplate;
+
   private ProductEntity savedEntity;
 
   @BeforeEach
   void setupDb() {
     StepVerifier.create(repository.deleteAll()).verifyComplete();
+    StepVerifier.create(legacyRepository.deleteAll()).verifyComplete();
 
     ProductEntity entity = new ProductEntity(1, "n", 1);
     StepVerifier.create(repository.save(entity))
@@ -42,7 +55,7 @@ class PersistenceTests extends MongoDbTestBase {
       .expectNextMatches(createdEntity -> newEntity.getProductId() == createdEntity.getProductId())
       .verifyComplete();
 
-    StepVerifier.create(repository.findById(newEntity.getId()))
+    StepVerifier.create(repository.findById(newEntity.getProductId()))
       .expectNextMatches(foundEntity -> areProductEqual(newEntity, foundEntity))
       .verifyComplete();
 
@@ -56,7 +69,7 @@ class PersistenceTests extends MongoDbTestBase {
       .expectNextMatches(updatedEntity -> updatedEntity.getName().equals("n2"))
       .verifyComplete();
 
-    StepVerifier.create(repository.findById(savedEntity.getId()))
+    StepVerifier.create(repository.findById(savedEntity.getProductId()))
       .expectNextMatches(foundEntity ->
         foundEntity.getVersion() == 1
         && foundEntity.getName().equals("n2"))
@@ -66,7 +79,7 @@ class PersistenceTests extends MongoDbTestBase {
   @Test
   void delete() {
     StepVerifier.create(repository.delete(savedEntity)).verifyComplete();
-    StepVerifier.create(repository.existsById(savedEntity.getId())).expectNext(false).verifyComplete();
+    StepVerifier.create(repository.existsById(savedEntity.getProductId())).expectNext(false).verifyComplete();
   }
 
   @Test
@@ -87,8 +100,8 @@ class PersistenceTests extends MongoDbTestBase {
   void optimisticLockError() {
 
     // Store the saved entity in two separate entity objects
-    ProductEntity entity1 = repository.findById(savedEntity.getId()).block();
-    ProductEntity entity2 = repository.findById(savedEntity.getId()).block();
+    ProductEntity entity1 = repository.findById(savedEntity.getProductId()).block();
+    ProductEntity entity2 = repository.findById(savedEntity.getProductId()).block();
 
     // Update the entity using the first entity object
     entity1.setName("n1");
@@ -99,17 +112,35 @@ class PersistenceTests extends MongoDbTestBase {
     StepVerifier.create(repository.save(entity2)).expectError(OptimisticLockingFailureException.class).verify();
 
     // Get the updated entity from the database and verify its new sate
-    StepVerifier.create(repository.findById(savedEntity.getId()))
+    StepVerifier.create(repository.findById(savedEntity.getProductId()))
       .expectNextMatches(foundEntity ->
         foundEntity.getVersion() == 1
         && foundEntity.getName().equals("n1"))
       .verifyComplete();
   }
 
+  @Test
+  void migrateFromLegacyLayout() {
+    legacyRepository.save(new LegacyProductEntity(2, "n2", 2)).block();
+
+    // Product 1 has already been recreated in the new layout, the legacy version shall not overwrite it
+    legacyRepository.save(new LegacyProductEntity(savedEntity.getProductId(), "old", 9)).block();
+
+    LegacyLayoutMigration migration = new LegacyLayoutMigration(true, legacyRepository, repository, Mappers.getMapper(ProductMapper.class), mongoTemplate);
+    StepVerifier.create(migration.migrate()).expectNext(1L).verifyComplete();
+
+    StepVerifier.create(legacyRepository.count()).expectNext(0L).verifyComplete();
+    StepVerifier.create(repository.findById(savedEntity.getProductId()))
+      .expectNextMatches(foundEntity -> areProductEqual(savedEntity, foundEntity))
+      .verifyComplete();
+    StepVerifier.create(repository.findById(2))
+      .expectNextMatches(foundEntity -> foundEntity.getName().equals("n2") && foundEntity.getWeight() == 2)
+      .verifyComplete();
+  }
+
   private boolean areProductEqual(ProductEntity expectedEntity, ProductEntity actualEntity) {
     return
-      (expectedEntity.getId().equals(actualEntity.getId()))
-      && (expectedEntity.getVersion() == actualEntity.getVersion())
+      (expectedEntity.getVersion() == actualEntity.getVersion())
       && (expectedEntity.getProductId() == actualEntity.getProductId())
       && (expectedEntity.getName().equals(actualEntity.getName()))
       && (expectedEntity.getWeight() == actualEntity.getWeight());
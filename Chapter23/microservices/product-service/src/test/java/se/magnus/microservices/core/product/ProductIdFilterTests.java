@@ -0,0 +1,92 @@
+package se.magnus.microservices.core.product;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledInNativeImage;
+import reactor.core.publisher.Flux;
+import se.magnus.microservices.core.product.services.ProductIdFilter;
+
+@DisabledInNativeImage
+class ProductIdFilterTests {
+
+  private MeterRegistry registry;
+  private ProductIdFilter filter;
+
+  @BeforeEach
+  void setUp() {
+    registry = new SimpleMeterRegistry();
+    filter = new ProductIdFilter(true, 10_000, 0.01, false, null, registry);
+  }
+
+  @Test
+  void allProductsMightExistBeforeTheFilterIsBuilt() {
+    assertTrue(filter.mightContain(1));
+    assertEquals(0.0, registry.get("product.id.filter.lookups").tag("result", "absent").counter().count());
+  }
+
+  @Test
+  void rejectsUnknownProducts() {
+    filter.rebuild(Flux.range(1, 1_000)).block();
+    filter.put(2_000);
+
+    for (int productId = 1; productId <= 1_000; productId++) {
+      assertTrue(filter.mightContain(productId));
+    }
+    assertTrue(filter.mightContain(2_000));
+
+    int falsePositives = 0;
+    for (int productId = 10_001; productId <= 20_000; productId++) {
+      if (filter.mightContain(productId)) {
+        falsePositives++;
+      }
+    }
+
+    // Far below the capacity, the false positive rate is well below the configured probability
+    assertTrue(falsePositives < 100, "Too many false positives: " + falsePositives);
+    assertEquals(10_000 - falsePositives, registry.get("product.id.filter.lookups").tag("result", "absent").counter().count());
+    assertEquals(1_001.0, registry.get("product.id.filter.elements").gauge().value());
+    assertTrue(registry.get("product.id.filter.memory").gauge().value() > 0);
+  }
+
+  @Test
+  void rebuildForgetsDeletedProducts() {
+    filter.rebuild(Flux.range(1, 100)).block();
+    assertTrue(filter.mightContain(50));
+
+    // Products 51 - 100 are deleted, the rebuilt filter shall reject (almost) all of them
+    Flux.range(51, 50).subscribe(filter::remove);
+    filter.rebuild(Flux.range(1, 50)).block();
+
+    long stillKnown = Flux.range(51, 50).filter(filter::mightContain).count().block();
+    assertTrue(stillKnown < 5, "Too many deleted products still known: " + stillKnown);
+  }
+
+  @Test
+  void lookupsOfDeletedProductsAreNotFalsePositives() {
+    filter.rebuild(Flux.range(1, 100)).block();
+
+    filter.remove(50);
+    filter.recordFalsePositive(50);
+    filter.recordFalsePositive(10_001);
+    assertEquals(1.0, registry.get("product.id.filter.false.positives").counter().count());
+
+    // A product that is created again is known, i.e. not finding it is a false positive again
+    filter.put(50);
+    filter.recordFalsePositive(50);
+    assertEquals(2.0, registry.get("product.id.filter.false.positives").counter().count());
+  }
+
+  @Test
+  void productsMissedByTheFilterAreAdded() {
+    filter.rebuild(Flux.range(1, 100)).block();
+
+    filter.putMissed(10_001);
+    assertTrue(filter.mightContain(10_001));
+    assertEquals(1.0, registry.get("product.id.filter.missed").counter().count());
+  }
+}
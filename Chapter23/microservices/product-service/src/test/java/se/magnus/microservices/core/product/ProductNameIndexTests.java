@@ -0,0 +1,73 @@
+package se.magnus.microservices.core.product;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledInNativeImage;
+import reactor.core.publisher.Flux;
+import se.magnus.microservices.core.product.persistence.ProductEntity;
+import se.magnus.microservices.core.product.services.ProductNameIndex;
+import se.magnus.microservices.core.product.services.ProductNameIndex.IndexedProduct;
+
+@DisabledInNativeImage
+class ProductNameIndexTests {
+
+  private ProductNameIndex index;
+
+  @BeforeEach
+  void setUp() {
+    index = new ProductNameIndex(false, null);
+    index.load(Flux.just(
+      new ProductEntity(3, "Red shoes", 1),
+      new ProductEntity(1, "Red shirt", 2),
+      new ProductEntity(2, "Blue shirt, red collar", 3))).block();
+  }
+
+  @Test
+  void searchByPrefix() {
+    assertProductIds(index.search("sh", 10), 1, 2, 3);
+    assertProductIds(index.search("SHIR", 10), 1, 2);
+    assertProductIds(index.search("red sh", 10), 1, 2, 3);
+    assertProductIds(index.search("blue red", 10), 2);
+    assertProductIds(index.search("green", 10));
+    assertProductIds(index.search(" ,", 10));
+  }
+
+  @Test
+  void searchWithLimit() {
+    assertProductIds(index.search("red", 2), 1, 2);
+  }
+
+  @Test
+  void addAndRemove() {
+    index.add(4, "Red hat", 4);
+    assertProductIds(index.search("red", 10), 1, 2, 3, 4);
+
+    index.remove(1);
+    index.remove(1);
+    assertProductIds(index.search("red", 10), 2, 3, 4);
+    assertProductIds(index.search("shirt", 10), 2);
+  }
+
+  @Test
+  void productsDeletedWhileLoadingAreNotAdded() {
+    ProductNameIndex loadingIndex = new ProductNameIndex(false, null);
+
+    Integer count = loadingIndex.load(Flux.just(new ProductEntity(1, "Red shirt", 2), new ProductEntity(2, "Red shoes", 1))
+      .doOnSubscribe(s -> loadingIndex.remove(2))).block();
+
+    assertEquals(1, count);
+    assertProductIds(loadingIndex.search("red", 10), 1);
+  }
+
+  private void assertProductIds(List<IndexedProduct> products, int... expectedProductIds) {
+    assertEquals(expectedProductIds.length, products.size());
+    for (int i = 0; i < expectedProductIds.length; i++) {
+      assertEquals(expectedProductIds[i], products.get(i).productId());
+    }
+    assertTrue(products.stream().allMatch(p -> p.name() != null));
+  }
+}
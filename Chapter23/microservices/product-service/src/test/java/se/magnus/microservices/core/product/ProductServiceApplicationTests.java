@@ -4,22 +4,30 @@ import static org.junit.jupiter.api.Assertions.*;
 import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
 import static org.springframework.http.HttpStatus.*;
 import static org.springframework.http.MediaType.APPLICATION_JSON;
+import static org.springframework.http.MediaType.APPLICATION_NDJSON;
 import static se.magnus.api.event.Event.Type.CREATE;
 import static se.magnus.api.event.Event.Type.DELETE;
 
+import java.nio.file.Path;
+import java.util.List;
 import java.util.function.Consumer;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.condition.DisabledInNativeImage;
+import org.junit.jupiter.api.io.TempDir;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import se.magnus.api.core.product.Product;
 import se.magnus.api.event.Event;
 import se.magnus.api.exceptions.InvalidInputException;
+import se.magnus.microservices.core.product.persistence.ProductEntity;
 import se.magnus.microservices.core.product.persistence.ProductRepository;
+import se.magnus.microservices.core.product.services.ProductCatalogSnapshot;
+import se.magnus.util.snapshot.SnapshotWriter;
 
 @DisabledInNativeImage
 @SpringBootTest(webEnvironment = RANDOM_PORT)
@@ -31,6 +39,9 @@ class ProductServiceApplicationTests extends MongoDbTestBase {
   @Autowired
   private ProductRepository repository;
 
+  @Autowired
+  private ProductCatalogSnapshot catalogSnapshot;
+
   @Autowired
   @Qualifier("messageProcessor")
   private Consumer<Event<Integer, Product>> messageProcessor;
@@ -89,6 +100,148 @@ class ProductServiceApplicationTests extends MongoDbTestBase {
     sendDeleteProductEvent(productId);
   }
 
+  @Test
+  void getProductFromCache() {
+
+    int productId = 1;
+
+    sendCreateProductEvent(productId);
+    getAndVerifyProduct(productId, OK);
+
+    // Removed behind the back of the service, i.e. without a delete event, the cached product is still returned
+    repository.deleteAll().block();
+    getAndVerifyProduct(productId, OK)
+      .jsonPath("$.productId").isEqualTo(productId);
+
+    sendDeleteProductEvent(productId);
+    getAndVerifyProduct(productId, NOT_FOUND);
+  }
+
+  @Test
+  void getProductNotModified() {
+
+    int productId = 1;
+
+    sendCreateProductEvent(productId);
+
+    String etag = client.get()
+      .uri("/product/" + productId)
+      .accept(APPLICATION_JSON)
+      .exchange()
+      .expectStatus().isEqualTo(OK)
+      .expectHeader().exists(HttpHeaders.ETAG)
+      .returnResult(String.class)
+      .getResponseHeaders().getETag();
+
+    client.get()
+      .uri("/product/" + productId)
+      .accept(APPLICATION_JSON)
+      .header(HttpHeaders.IF_NONE_MATCH, etag)
+      .exchange()
+      .expectStatus().isEqualTo(NOT_MODIFIED)
+      .expectBody().isEmpty();
+  }
+
+  @Test
+  void getProductsKeysetPagination() {
+
+    sendCreateProductEvent(3);
+    sendCreateProductEvent(1);
+    sendCreateProductEvent(2);
+
+    getAndVerifyProducts("?limit=2", OK)
+      .jsonPath("$.length()").isEqualTo(2)
+      .jsonPath("$[0].productId").isEqualTo(1)
+      .jsonPath("$[1].productId").isEqualTo(2);
+
+    getAndVerifyProducts("?afterProductId=2&limit=2", OK)
+      .jsonPath("$.length()").isEqualTo(1)
+      .jsonPath("$[0].productId").isEqualTo(3);
+
+    getAndVerifyProducts("?afterProductId=3", OK)
+      .jsonPath("$.length()").isEqualTo(0);
+  }
+
+  @Test
+  void getProductsInvalidLimit() {
+
+    getAndVerifyProducts("?limit=0", UNPROCESSABLE_ENTITY)
+      .jsonPath("$.message").isEqualTo("Invalid limit: 0, must be between 1 and 1000");
+  }
+
+  @Test
+  void exportProducts() {
+
+    sendCreateProductEvent(2);
+    sendCreateProductEvent(1);
+
+    List<Product> products = client.get()
+      .uri("/product/export")
+      .accept(APPLICATION_NDJSON)
+      .exchange()
+      .expectStatus().isEqualTo(OK)
+      .expectHeader().contentType(APPLICATION_NDJSON)
+      .returnResult(Product.class)
+      .getResponseBody()
+      .collectList()
+      .block();
+
+    assertEquals(2, products.size());
+    assertEquals(1, products.get(0).getProductId());
+    assertEquals(2, products.get(1).getProductId());
+  }
+
+  @Test
+  void searchProducts() {
+
+    // The name index is not cleared between the tests, use productIds not used by other tests
+    sendCreateProductEvent(101);
+    sendCreateProductEvent(102);
+
+    getAndVerifyProducts("/search?prefix=name 10", OK)
+      .jsonPath("$.length()").isEqualTo(2)
+      .jsonPath("$[0].productId").isEqualTo(101)
+      .jsonPath("$[0].name").isEqualTo("Name 101");
+
+    getAndVerifyProducts("/search?prefix=nam 102", OK)
+      .jsonPath("$.length()").isEqualTo(1)
+      .jsonPath("$[0].productId").isEqualTo(102);
+
+    sendDeleteProductEvent(101);
+
+    getAndVerifyProducts("/search?prefix=name 10&limit=10", OK)
+      .jsonPath("$.length()").isEqualTo(1)
+      .jsonPath("$[0].productId").isEqualTo(102);
+
+    getAndVerifyProducts("/search?prefix=name&limit=101", UNPROCESSABLE_ENTITY)
+      .jsonPath("$.message").isEqualTo("Invalid limit: 101, must be between 1 and 100");
+
+    getAndVerifyProducts("/search?prefix=n ", UNPROCESSABLE_ENTITY)
+      .jsonPath("$.message").isEqualTo("Invalid prefix: 'n ', must be at least 3 characters");
+  }
+
+  @Test
+  void restoredProductsAreFoundWithoutEvents(@TempDir Path directory) {
+
+    // The name index is not cleared between the tests, use productIds not used by other tests
+    Path file = directory.resolve("products.snapshot");
+    try (SnapshotWriter writer = new SnapshotWriter(file, "products")) {
+      writer.writeInt(121);
+      writer.writeString("Name 121");
+      writer.writeInt(121);
+      writer.endRecord();
+      writer.finish();
+    }
+
+    assertEquals(1, catalogSnapshot.restore(file).block());
+
+    getAndVerifyProduct(121, OK)
+      .jsonPath("$.name").isEqualTo("Name 121");
+    getAndVerifyProducts("/search?prefix=name 121", OK)
+      .jsonPath("$.length()").isEqualTo(1)
+      .jsonPath("$[0].productId").isEqualTo(121);
+  }
+
   @Test
   void getProductInvalidParameterString() {
 
@@ -106,6 +259,17 @@ class ProductServiceApplicationTests extends MongoDbTestBase {
       .jsonPath("$.message").isEqualTo("No product found for productId: " + productIdNotFound);
   }
 
+  @Test
+  void getProductCreatedByAnotherInstance() {
+
+    // Stored without a create event, i.e. the productId filter of this instance doesn't know the product
+    int productId = 14;
+    repository.save(new ProductEntity(productId, "Name " + productId, productId)).block();
+
+    getAndVerifyProduct(productId, OK)
+      .jsonPath("$.productId").isEqualTo(productId);
+  }
+
   @Test
   void getProductInvalidParameterNegativeValue() {
 
@@ -130,6 +294,16 @@ class ProductServiceApplicationTests extends MongoDbTestBase {
       .expectBody();
   }
 
+  private WebTestClient.BodyContentSpec getAndVerifyProducts(String query, HttpStatus expectedStatus) {
+    return client.get()
+      .uri("/product" + query)
+      .accept(APPLICATION_JSON)
+      .exchange()
+      .expectStatus().isEqualTo(expectedStatus)
+      .expectHeader().contentType(APPLICATION_JSON)
+      .expectBody();
+  }
+
   private void sendCreateProductEvent(int productId) {
     Product product = new Product(productId, "Name " + productId, productId, "SA");
     Event<Integer, Product> event = new Event(CREATE, productId, product);
@@ -26,12 +26,14 @@ import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
 import org.springframework.data.mongodb.core.mapping.MongoPersistentProperty;
 import reactor.core.publisher.Hooks;
 import se.magnus.api.core.recommendation.Recommendation;
+import se.magnus.api.core.recommendation.RelatedProduct;
 import se.magnus.api.event.Event;
+import se.magnus.microservices.core.recommendation.persistence.RatingStatisticsEntity;
 import se.magnus.microservices.core.recommendation.persistence.RecommendationEntity;
 
 @SpringBootApplication
 @ComponentScan("se.magnus")
-@RegisterReflectionForBinding({ Event.class, ZonedDateTimeSerializer.class, Recommendation.class})
+@RegisterReflectionForBinding({ Event.class, ZonedDateTimeSerializer.class, Recommendation.class, RelatedProduct.class})
 public class RecommendationServiceApplication {
 
   private static final Logger LOG = LoggerFactory.getLogger(RecommendationServiceApplication.class);
@@ -65,5 +67,8 @@ public class RecommendationServiceApplication {
 
     ReactiveIndexOperations indexOps = mongoTemplate.indexOps(RecommendationEntity.class);
     resolver.resolveIndexFor(RecommendationEntity.class).forEach(e -> indexOps.ensureIndex(e).block());
+
+    ReactiveIndexOperations ratingStatisticsIndexOps = mongoTemplate.indexOps(RatingStatisticsEntity.class);
+    resolver.resolveIndexFor(RatingStatisticsEntity.class).forEach(e -> ratingStatisticsIndexOps.ensureIndex(e).block());
   }
 }
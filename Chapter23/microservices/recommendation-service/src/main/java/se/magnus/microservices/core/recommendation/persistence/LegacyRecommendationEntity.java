@@ -0,0 +1,99 @@
+package se.magnus.microservices.core.recommendation.persistence;
+
+import static java.lang.String.format;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * The document layout used before recommendations were keyed by their productId and recommendationId,
+ * only used to read and migrate recommendations that have not been migrated yet.
+ */
+@Document(collection = "recommendations")
+public class LegacyRecommendationEntity {
+
+  @Id
+  private String id;
+
+  @Version
+  private Integer version;
+
+  private int productId;
+  private int recommendationId;
+  private String author;
+  private int rating;
+  private String content;
+
+  public LegacyRecommendationEntity() {
+  }
+
+  public LegacyRecommendationEntity(int productId, int recommendationId, String author, int rating, String content) {
+    this.productId = productId;
+    this.recommendationId = recommendationId;
+    this.author = author;
+    this.rating = rating;
+    this.content = content;
+  }
+
+  @Override
+  public String toString() {
+    return format("LegacyRecommendationEntity: %s/%d", productId, recommendationId);
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public Integer getVersion() {
+    return version;
+  }
+
+  public int getProductId() {
+    return productId;
+  }
+
+  public int getRecommendationId() {
+    return recommendationId;
+  }
+
+  public String getAuthor() {
+    return author;
+  }
+
+  public int getRating() {
+    return rating;
+  }
+
+  public String getContent() {
+    return content;
+  }
+
+  public void setId(String id) {
+    this.id = id;
+  }
+
+  public void setVersion(Integer version) {
+    this.version = version;
+  }
+
+  public void setProductId(int productId) {
+    this.productId = productId;
+  }
+
+  public void setRecommendationId(int recommendationId) {
+    this.recommendationId = recommendationId;
+  }
+
+  public void setAuthor(String author) {
+    this.author = author;
+  }
+
+  public void setRating(int rating) {
+    this.rating = rating;
+  }
+
+  public void setContent(String content) {
+    this.content = content;
+  }
+}
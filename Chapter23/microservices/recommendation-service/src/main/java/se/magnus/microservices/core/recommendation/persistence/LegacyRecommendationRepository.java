@@ -0,0 +1,11 @@
+package se.magnus.microservices.core.recommendation.persistence;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+import reactor.core.publisher.Flux;
+
+public interface LegacyRecommendationRepository extends ReactiveCrudRepository<LegacyRecommendationEntity, String> {
+  Flux<LegacyRecommendationEntity> findByProductId(int productId);
+
+  Flux<LegacyRecommendationEntity> findByProductIdOrderByRatingDescRecommendationIdAsc(int productId, Pageable pageable);
+}
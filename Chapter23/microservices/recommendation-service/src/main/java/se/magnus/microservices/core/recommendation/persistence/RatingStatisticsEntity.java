@@ -0,0 +1,107 @@
+package se.magnus.microservices.core.recommendation.persistence;
+
+import static java.lang.String.format;
+
+import java.util.List;
+import java.util.Map;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Per-product rating aggregates, updated incrementally as recommendations are created and deleted.
+ * The histogram is keyed by the rating as a string, since MongoDB only supports string keys in sub documents.
+ * <p>
+ * The ids of the counted recommendations are kept, so that a rating is counted once even if it is added again, e.g.
+ * when a create event is redelivered or when the statistics are rebuilt.
+ */
+@Document(collection = "ratingStatistics")
+public class RatingStatisticsEntity {
+
+  @Id
+  private String id;
+
+  @Version
+  private Integer version;
+
+  @Indexed(unique = true)
+  private int productId;
+
+  private int count;
+  private long sum;
+  private Map<String, Integer> histogram;
+  private List<Integer> recommendationIds;
+
+  public RatingStatisticsEntity() {
+  }
+
+  public RatingStatisticsEntity(int productId, int count, long sum, Map<String, Integer> histogram, List<Integer> recommendationIds) {
+    this.productId = productId;
+    this.count = count;
+    this.sum = sum;
+    this.histogram = histogram;
+    this.recommendationIds = recommendationIds;
+  }
+
+  @Override
+  public String toString() {
+    return format("RatingStatisticsEntity: %s", productId);
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public Integer getVersion() {
+    return version;
+  }
+
+  public int getProductId() {
+    return productId;
+  }
+
+  public int getCount() {
+    return count;
+  }
+
+  public long getSum() {
+    return sum;
+  }
+
+  public Map<String, Integer> getHistogram() {
+    return histogram;
+  }
+
+  public List<Integer> getRecommendationIds() {
+    return recommendationIds;
+  }
+
+  public void setId(String id) {
+    this.id = id;
+  }
+
+  public void setVersion(Integer version) {
+    this.version = version;
+  }
+
+  public void setProductId(int productId) {
+    this.productId = productId;
+  }
+
+  public void setCount(int count) {
+    this.count = count;
+  }
+
+  public void setSum(long sum) {
+    this.sum = sum;
+  }
+
+  public void setHistogram(Map<String, Integer> histogram) {
+    this.histogram = histogram;
+  }
+
+  public void setRecommendationIds(List<Integer> recommendationIds) {
+    this.recommendationIds = recommendationIds;
+  }
+}
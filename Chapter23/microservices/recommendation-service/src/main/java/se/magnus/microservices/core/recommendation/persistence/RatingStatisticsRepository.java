@@ -0,0 +1,14 @@
+package se.magnus.microservices.core.recommendation.persistence;
+
+import org.springframework.data.mongodb.repository.Query;
+import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+import reactor.core.publisher.Mono;
+
+public interface RatingStatisticsRepository extends ReactiveCrudRepository<RatingStatisticsEntity, String>, RatingStatisticsRepositoryCustom {
+
+  // The ids of the counted recommendations are only used when ratings are added
+  @Query(value = "{ 'productId': ?0 }", fields = "{ 'recommendationIds': 0 }")
+  Mono<RatingStatisticsEntity> findByProductId(int productId);
+
+  Mono<Void> deleteByProductId(int productId);
+}
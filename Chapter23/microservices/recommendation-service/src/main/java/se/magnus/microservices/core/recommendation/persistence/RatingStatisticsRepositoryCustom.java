@@ -0,0 +1,24 @@
+package se.magnus.microservices.core.recommendation.persistence;
+
+import reactor.core.publisher.Mono;
+
+public interface RatingStatisticsRepositoryCustom {
+
+  /**
+   * Atomically adds a rating to the statistics of a product, creating the statistics if they don't exist. A rating of a
+   * recommendation that is already counted is not counted again, i.e. it is safe to add a rating again, e.g. when a create
+   * event is redelivered.
+   *
+   * @param productId Id of the product
+   * @param recommendationId Id of the recommendation that is rated
+   * @param rating the rating to add
+   */
+  Mono<Void> addRating(int productId, int recommendationId, int rating);
+
+  /**
+   * Adds the ratings of the recommendations in both the new and the legacy layout that are not counted yet to the
+   * statistics of their products, e.g. for recommendations stored before the statistics were maintained. Ratings added
+   * while it runs are counted once, i.e. it is safe to run while recommendations are created.
+   */
+  Mono<Void> rebuildAll();
+}
@@ -0,0 +1,151 @@
+package se.magnus.microservices.core.recommendation.persistence;
+
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.summingInt;
+import static java.util.stream.Collectors.toMap;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.newAggregation;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.query.Update;
+import reactor.core.publisher.Mono;
+
+public class RatingStatisticsRepositoryCustomImpl implements RatingStatisticsRepositoryCustom {
+
+  // Products whose statistics are rebuilt at the same time
+  private static final int REBUILD_CONCURRENCY = 4;
+  // Times the statistics of a product are read again when they are updated while their ratings are added
+  private static final int MAX_CONFLICTS = 10;
+
+  private final ReactiveMongoOperations mongoTemplate;
+
+  @Autowired
+  public RatingStatisticsRepositoryCustomImpl(ReactiveMongoOperations mongoTemplate) {
+    this.mongoTemplate = mongoTemplate;
+  }
+
+  @Override
+  public Mono<Void> addRating(int productId, int recommendationId, int rating) {
+
+    // Use $inc in an upsert to avoid a read-modify-write cycle when events are processed concurrently, the statistics only
+    // match if the recommendation is not counted yet
+    Update update = new Update()
+      .inc("count", 1)
+      .inc("sum", (long) rating)
+      .inc("histogram." + rating, 1)
+      .push("recommendationIds", recommendationId)
+      .inc("version", 1);
+
+    return mongoTemplate.upsert(query(where("productId").is(productId).and("recommendationIds").ne(recommendationId)), update,
+        RatingStatisticsEntity.class)
+      // The statistics exist and the recommendation is already counted, i.e. the upsert tried to create them again
+      .onErrorResume(DuplicateKeyException.class, ex -> Mono.empty())
+      .then();
+  }
+
+  @Override
+  public Mono<Void> rebuildAll() {
+
+    Document fields = new Document("_id", 0).append("productId", 1).append("recommendationId", 1).append("rating", 1);
+
+    // Collects the ratings of each product from both layouts, a recommendation that is being migrated is found in both
+    Aggregation aggregation = newAggregation(
+      stage(new Document("$project", fields)),
+      stage(new Document("$unionWith", new Document("coll", mongoTemplate.getCollectionName(LegacyRecommendationEntity.class))
+        .append("pipeline", List.of(new Document("$project", fields))))),
+      stage(new Document("$group", new Document("_id", new Document("productId", "$productId").append("recommendationId", "$recommendationId"))
+        .append("rating", new Document("$first", "$rating")))),
+      stage(new Document("$group", new Document("_id", "$_id.productId")
+        .append("ratings", new Document("$push", new Document("recommendationId", "$_id.recommendationId").append("rating", "$rating"))))))
+      .withOptions(AggregationOptions.builder().allowDiskUse(true).build());
+
+    return mongoTemplate.aggregate(aggregation, RecommendationEntity.class, Document.class)
+      .flatMap(product -> addRatings(product.getInteger("_id"), product.getList("ratings", Document.class).stream()
+        .collect(toMap(r -> r.getInteger("recommendationId"), r -> r.getInteger("rating")))), REBUILD_CONCURRENCY)
+      .then();
+  }
+
+  /**
+   * Adds the ratings that are not counted yet, conditioned on the version of the statistics, i.e. starts over if a rating
+   * is added in between.
+   *
+   * @param ratings the ratings of the product per recommendationId
+   */
+  private Mono<Void> addRatings(int productId, Map<Integer, Integer> ratings) {
+    return Mono.defer(() -> mongoTemplate.findOne(query(where("productId").is(productId)), RatingStatisticsEntity.class)
+        .flatMap(current -> addMissingRatings(current, ratings))
+        .switchIfEmpty(Mono.defer(() -> insert(productId, ratings))))
+      .filter(updated -> updated)
+      .repeatWhenEmpty(MAX_CONFLICTS, repeats -> repeats)
+      .then();
+  }
+
+  /**
+   * @return false if the statistics were updated since they were read
+   */
+  private Mono<Boolean> addMissingRatings(RatingStatisticsEntity current, Map<Integer, Integer> ratings) {
+    Update update;
+    if (current.getRecommendationIds() == null) {
+      // Counted without the ids of the recommendations, i.e. by an earlier version, replace them
+      update = new Update()
+        .set("count", ratings.size())
+        .set("sum", sum(ratings.values()))
+        .set("histogram", histogram(ratings.values()))
+        .set("recommendationIds", new ArrayList<>(ratings.keySet()));
+    } else {
+      Map<Integer, Integer> missing = new HashMap<>(ratings);
+      missing.keySet().removeAll(current.getRecommendationIds());
+      if (missing.isEmpty()) {
+        return Mono.just(true);
+      }
+
+      Update increments = new Update()
+        .inc("count", missing.size())
+        .inc("sum", sum(missing.values()))
+        .push("recommendationIds").each(missing.keySet().toArray());
+      histogram(missing.values()).forEach((rating, count) -> increments.inc("histogram." + rating, count));
+      update = increments;
+    }
+    update.inc("version", 1);
+
+    return mongoTemplate.updateFirst(query(where("productId").is(current.getProductId()).and("version").is(current.getVersion())),
+        update, RatingStatisticsEntity.class)
+      .map(result -> result.getModifiedCount() == 1);
+  }
+
+  /**
+   * @return false if the statistics were created since they were looked for
+   */
+  private Mono<Boolean> insert(int productId, Map<Integer, Integer> ratings) {
+    RatingStatisticsEntity entity = new RatingStatisticsEntity(productId, ratings.size(), sum(ratings.values()),
+      histogram(ratings.values()), new ArrayList<>(ratings.keySet()));
+
+    return mongoTemplate.insert(entity)
+      .thenReturn(true)
+      .onErrorResume(DuplicateKeyException.class, ex -> Mono.just(false));
+  }
+
+  private static long sum(Collection<Integer> ratings) {
+    return ratings.stream().mapToLong(Integer::longValue).sum();
+  }
+
+  private static Map<String, Integer> histogram(Collection<Integer> ratings) {
+    return ratings.stream().collect(groupingBy(String::valueOf, summingInt(rating -> 1)));
+  }
+
+  private static AggregationOperation stage(Document stage) {
+    return context -> stage;
+  }
+}
@@ -7,8 +7,15 @@ import org.springframework.data.annotation.Version;
 import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.mapping.Document;
 
-@Document(collection = "recommendations")
-@CompoundIndex(name = "prod-rec-id", unique = true, def = "{'productId': 1, 'recommendationId' : 1}")
+/**
+ * Recommendations are keyed directly by their productId and recommendationId, stored as "productId-recommendationId" in the document's _id.
+ * The uniqueness of a recommendation is enforced by the _id index, so no separate unique index needs to be maintained on inserts.
+ * Lookups on productId use the "prod-rating" index.
+ * <p>
+ * Recommendations stored by earlier versions, using a generated _id, are moved to this layout by the LegacyLayoutMigration.
+ */
+@Document(collection = "recommendationsByKey")
+@CompoundIndex(name = "prod-rating", def = "{'productId': 1, 'rating': -1, 'recommendationId': 1}")
 public class RecommendationEntity {
 
   @Id
@@ -27,6 +34,7 @@ public class RecommendationEntity {
   }
 
   public RecommendationEntity(int productId, int recommendationId, String author, int rating, String content) {
+    this.id = keyOf(productId, recommendationId);
     this.productId = productId;
     this.recommendationId = recommendationId;
     this.author = author;
@@ -34,6 +42,10 @@ public class RecommendationEntity {
     this.content = content;
   }
 
+  public static String keyOf(int productId, int recommendationId) {
+    return productId + "-" + recommendationId;
+  }
+
   @Override
   public String toString() {
     return format("RecommendationEntity: %s/%d", productId, recommendationId);
@@ -67,20 +79,18 @@ public class RecommendationEntity {
     return content;
   }
 
-  public void setId(String id) {
-    this.id = id;
-  }
-
   public void setVersion(Integer version) {
     this.version = version;
   }
 
   public void setProductId(int productId) {
     this.productId = productId;
+    this.id = keyOf(productId, recommendationId);
   }
 
   public void setRecommendationId(int recommendationId) {
     this.recommendationId = recommendationId;
+    this.id = keyOf(productId, recommendationId);
   }
 
   public void setAuthor(String author) {
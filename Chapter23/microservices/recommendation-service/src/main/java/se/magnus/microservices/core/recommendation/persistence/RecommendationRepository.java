@@ -1,8 +1,11 @@
 package se.magnus.microservices.core.recommendation.persistence;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.repository.reactive.ReactiveCrudRepository;
 import reactor.core.publisher.Flux;
 
 public interface RecommendationRepository extends ReactiveCrudRepository<RecommendationEntity, String> {
   Flux<RecommendationEntity> findByProductId(int productId);
+
+  Flux<RecommendationEntity> findByProductIdOrderByRatingDescRecommendationIdAsc(int productId, Pageable pageable);
 }
@@ -0,0 +1,315 @@
+package se.magnus.microservices.core.recommendation.services;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Computes the cosine similarity between products, based on the ratings given to them by the same authors,
+ * and keeps the top-K most similar products of each product.
+ * <p>
+ * Each product is represented by a sparse vector of its ratings, indexed by author. The dot products of a product
+ * with all other products are accumulated by walking the products rated by each of its authors, i.e. only pairs
+ * of products that share at least one author are visited. The products are split in ranges processed in parallel
+ * by a fork-join pool, each worker thread reusing a dense accumulator sized for all products.
+ */
+public final class ItemSimilarity {
+
+  private static final int MIN_PRODUCTS_PER_TASK = 64;
+
+  /**
+   * @param workingMemoryBytes Memory used by the vectors and accumulators while computing the table
+   */
+  public record Result(RelatedProductsTable table, long workingMemoryBytes) {}
+
+  private final int topK;
+
+  // The products, sorted on productId, a product is referred to by its index in this array
+  private final int[] productIds;
+
+  // The rating vector of product p is found from productOffsets[p] up to productOffsets[p + 1], sorted on author
+  private final int[] productOffsets;
+  private final int[] productAuthors;
+  private final float[] productRatings;
+  private final double[] norms;
+
+  // The products rated by author a are found from authorOffsets[a] up to authorOffsets[a + 1]
+  private final int[] authorOffsets;
+  private final int[] authorProducts;
+  private final float[] authorRatings;
+
+  // The top-K neighbours of product p are found from p * topK, neighbourCounts[p] of them are used
+  private final int[] neighbours;
+  private final float[] similarities;
+  private final int[] neighbourCounts;
+
+  private ItemSimilarity(int[] productIds, int[] authors, float[] ratings, int count, int noOfAuthors, int topK) {
+    this.topK = topK;
+    this.productIds = Arrays.stream(productIds, 0, count).distinct().sorted().toArray();
+    int noOfProducts = this.productIds.length;
+
+    // Group the ratings per product using a counting sort, packing author and rating into a long to sort them on author
+    this.productOffsets = new int[noOfProducts + 1];
+    int[] productIndexes = new int[count];
+    for (int i = 0; i < count; i++) {
+      productIndexes[i] = Arrays.binarySearch(this.productIds, productIds[i]);
+      productOffsets[productIndexes[i] + 1]++;
+    }
+    for (int p = 0; p < noOfProducts; p++) {
+      productOffsets[p + 1] += productOffsets[p];
+    }
+    long[] packed = new long[count];
+    int[] next = Arrays.copyOf(productOffsets, noOfProducts);
+    for (int i = 0; i < count; i++) {
+      packed[next[productIndexes[i]]++] = ((long) authors[i] << 32) | (Float.floatToRawIntBits(ratings[i]) & 0xffffffffL);
+    }
+
+    // Sort each vector on author, an author rating a product more than once only counts with the highest rating
+    int size = 0;
+    int[] dedupedOffsets = new int[noOfProducts + 1];
+    for (int p = 0; p < noOfProducts; p++) {
+      Arrays.sort(packed, productOffsets[p], productOffsets[p + 1]);
+      for (int i = productOffsets[p]; i < productOffsets[p + 1]; i++) {
+        boolean lastOfAuthor = i + 1 == productOffsets[p + 1] || (packed[i + 1] >>> 32) != (packed[i] >>> 32);
+        if (lastOfAuthor) {
+          packed[size++] = packed[i];
+        }
+      }
+      dedupedOffsets[p + 1] = size;
+    }
+    System.arraycopy(dedupedOffsets, 0, productOffsets, 0, noOfProducts + 1);
+
+    this.productAuthors = new int[size];
+    this.productRatings = new float[size];
+    this.norms = new double[noOfProducts];
+    this.authorOffsets = new int[noOfAuthors + 1];
+    for (int p = 0; p < noOfProducts; p++) {
+      double sumOfSquares = 0;
+      for (int i = productOffsets[p]; i < productOffsets[p + 1]; i++) {
+        productAuthors[i] = (int) (packed[i] >>> 32);
+        productRatings[i] = Float.intBitsToFloat((int) packed[i]);
+        sumOfSquares += productRatings[i] * productRatings[i];
+        authorOffsets[productAuthors[i] + 1]++;
+      }
+      norms[p] = Math.sqrt(sumOfSquares);
+    }
+
+    // Invert the vectors, to find the products rated by each author
+    for (int a = 0; a < noOfAuthors; a++) {
+      authorOffsets[a + 1] += authorOffsets[a];
+    }
+    this.authorProducts = new int[size];
+    this.authorRatings = new float[size];
+    int[] nextOfAuthor = Arrays.copyOf(authorOffsets, noOfAuthors);
+    for (int p = 0; p < noOfProducts; p++) {
+      for (int i = productOffsets[p]; i < productOffsets[p + 1]; i++) {
+        int position = nextOfAuthor[productAuthors[i]]++;
+        authorProducts[position] = p;
+        authorRatings[position] = productRatings[i];
+      }
+    }
+
+    this.neighbours = new int[noOfProducts * topK];
+    this.similarities = new float[noOfProducts * topK];
+    this.neighbourCounts = new int[noOfProducts];
+  }
+
+  /**
+   * @param productIds The rated product of each rating
+   * @param authors The author of each rating, as an index from 0 up to noOfAuthors
+   * @param ratings The rating values, must be positive
+   * @param count The number of ratings in the arrays
+   */
+  public static Result compute(int[] productIds, int[] authors, float[] ratings, int count, int noOfAuthors, int topK, ForkJoinPool pool) {
+    ItemSimilarity similarity = new ItemSimilarity(productIds, authors, ratings, count, noOfAuthors, topK);
+    int noOfProducts = similarity.productIds.length;
+
+    ThreadLocal<Accumulator> accumulators = ThreadLocal.withInitial(() -> new Accumulator(noOfProducts, topK));
+    int productsPerTask = Math.max(MIN_PRODUCTS_PER_TASK, noOfProducts / (pool.getParallelism() * 8));
+    pool.invoke(similarity.new NeighbourTask(0, noOfProducts, productsPerTask, accumulators));
+
+    long workingMemoryBytes = similarity.sizeInBytes() + 12L * count + (long) pool.getParallelism() * Accumulator.sizeInBytes(noOfProducts, topK);
+    return new Result(similarity.toTable(), workingMemoryBytes);
+  }
+
+  private void computeNeighbours(int p, Accumulator acc) {
+    for (int i = productOffsets[p]; i < productOffsets[p + 1]; i++) {
+      int author = productAuthors[i];
+      float rating = productRatings[i];
+      for (int j = authorOffsets[author]; j < authorOffsets[author + 1]; j++) {
+        int q = authorProducts[j];
+        if (q != p) {
+          if (acc.dots[q] == 0) {
+            acc.touched[acc.noOfTouched++] = q;
+          }
+          acc.dots[q] += rating * authorRatings[j];
+        }
+      }
+    }
+
+    acc.heapSize = 0;
+    for (int t = 0; t < acc.noOfTouched; t++) {
+      int q = acc.touched[t];
+      acc.offer(q, (float) (acc.dots[q] / (norms[p] * norms[q])));
+      acc.dots[q] = 0;
+    }
+    acc.noOfTouched = 0;
+
+    neighbourCounts[p] = acc.drainSortedTo(neighbours, similarities, p * topK);
+  }
+
+  private RelatedProductsTable toTable() {
+    int noOfProducts = productIds.length;
+    int[] offsets = new int[noOfProducts + 1];
+    for (int p = 0; p < noOfProducts; p++) {
+      offsets[p + 1] = offsets[p] + neighbourCounts[p];
+    }
+
+    int[] compactNeighbours = new int[offsets[noOfProducts]];
+    float[] compactSimilarities = new float[offsets[noOfProducts]];
+    for (int p = 0; p < noOfProducts; p++) {
+      for (int k = 0; k < neighbourCounts[p]; k++) {
+        compactNeighbours[offsets[p] + k] = productIds[neighbours[p * topK + k]];
+        compactSimilarities[offsets[p] + k] = similarities[p * topK + k];
+      }
+    }
+    return new RelatedProductsTable(productIds, offsets, compactNeighbours, compactSimilarities);
+  }
+
+  private long sizeInBytes() {
+    return 4L * (productIds.length + productOffsets.length + productAuthors.length + productRatings.length)
+      + 8L * norms.length
+      + 4L * (authorOffsets.length + authorProducts.length + authorRatings.length)
+      + 4L * (neighbours.length + similarities.length + neighbourCounts.length);
+  }
+
+  private class NeighbourTask extends RecursiveAction {
+
+    private final int from;
+    private final int to;
+    private final int productsPerTask;
+    private final ThreadLocal<Accumulator> accumulators;
+
+    NeighbourTask(int from, int to, int productsPerTask, ThreadLocal<Accumulator> accumulators) {
+      this.from = from;
+      this.to = to;
+      this.productsPerTask = productsPerTask;
+      this.accumulators = accumulators;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= productsPerTask) {
+        Accumulator acc = accumulators.get();
+        for (int p = from; p < to; p++) {
+          computeNeighbours(p, acc);
+        }
+        return;
+      }
+
+      int middle = (from + to) >>> 1;
+      invokeAll(
+        new NeighbourTask(from, middle, productsPerTask, accumulators),
+        new NeighbourTask(middle, to, productsPerTask, accumulators));
+    }
+  }
+
+  /**
+   * Per thread state: dense dot products with all products and a min-heap of the top-K neighbours found so far.
+   */
+  private static final class Accumulator {
+
+    final double[] dots;
+    final int[] touched;
+    int noOfTouched;
+
+    final int[] heapProducts;
+    final float[] heapSimilarities;
+    int heapSize;
+
+    Accumulator(int noOfProducts, int topK) {
+      this.dots = new double[noOfProducts];
+      this.touched = new int[noOfProducts];
+      this.heapProducts = new int[topK];
+      this.heapSimilarities = new float[topK];
+    }
+
+    static long sizeInBytes(int noOfProducts, int topK) {
+      return 12L * noOfProducts + 8L * topK;
+    }
+
+    void offer(int product, float similarity) {
+      if (heapSize < heapProducts.length) {
+        heapProducts[heapSize] = product;
+        heapSimilarities[heapSize] = similarity;
+        siftUp(heapSize++);
+      } else if (isBetter(product, similarity, 0)) {
+        heapProducts[0] = product;
+        heapSimilarities[0] = similarity;
+        siftDown(0);
+      }
+    }
+
+    /**
+     * @return the number of neighbours written, best first
+     */
+    int drainSortedTo(int[] products, float[] similarities, int offset) {
+      int count = heapSize;
+      // Removing the worst neighbour first fills the target from the end
+      while (heapSize > 0) {
+        products[offset + heapSize - 1] = heapProducts[0];
+        similarities[offset + heapSize - 1] = heapSimilarities[0];
+        heapSize--;
+        heapProducts[0] = heapProducts[heapSize];
+        heapSimilarities[0] = heapSimilarities[heapSize];
+        siftDown(0);
+      }
+      return count;
+    }
+
+    // Higher similarity is better, ties are broken on the lower product index to get a stable result
+    private boolean isBetter(int product, float similarity, int heapIndex) {
+      return similarity > heapSimilarities[heapIndex]
+        || (similarity == heapSimilarities[heapIndex] && product < heapProducts[heapIndex]);
+    }
+
+    private void siftUp(int index) {
+      while (index > 0) {
+        int parent = (index - 1) / 2;
+        if (!isBetter(heapProducts[parent], heapSimilarities[parent], index)) {
+          return;
+        }
+        swap(index, parent);
+        index = parent;
+      }
+    }
+
+    private void siftDown(int index) {
+      while (true) {
+        int worst = index;
+        int left = 2 * index + 1;
+        int right = left + 1;
+        if (left < heapSize && isBetter(heapProducts[worst], heapSimilarities[worst], left)) {
+          worst = left;
+        }
+        if (right < heapSize && isBetter(heapProducts[worst], heapSimilarities[worst], right)) {
+          worst = right;
+        }
+        if (worst == index) {
+          return;
+        }
+        swap(index, worst);
+        index = worst;
+      }
+    }
+
+    private void swap(int i, int j) {
+      int product = heapProducts[i];
+      heapProducts[i] = heapProducts[j];
+      heapProducts[j] = product;
+      float similarity = heapSimilarities[i];
+      heapSimilarities[i] = heapSimilarities[j];
+      heapSimilarities[j] = similarity;
+    }
+  }
+}
@@ -0,0 +1,116 @@
+package se.magnus.microservices.core.recommendation.services;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import se.magnus.microservices.core.recommendation.persistence.LegacyRecommendationEntity;
+import se.magnus.microservices.core.recommendation.persistence.LegacyRecommendationRepository;
+import se.magnus.microservices.core.recommendation.persistence.RatingStatisticsRepository;
+import se.magnus.microservices.core.recommendation.persistence.RecommendationEntity;
+import se.magnus.microservices.core.recommendation.persistence.RecommendationRepository;
+
+/**
+ * Moves recommendations from the legacy layout, i.e. the "recommendations" collection with generated ids,
+ * to the "recommendationsByKey" collection where the productId and recommendationId are used as the id.
+ * <p>
+ * The migration runs in the background while the service is serving requests. Each recommendation is first
+ * copied to the new layout and then removed from the legacy layout, so the migration can be restarted
+ * if it is interrupted. The rating of a migrated recommendation is added to the rating statistics, unless it is counted
+ * already, i.e. the statistics of a product count its migrated recommendations. Both the migration and app.legacy-layout.fallback-enabled, that makes the service find
+ * recommendations that have not been migrated yet, are enabled until they are disabled after the migration has completed.
+ */
+@Component
+public class LegacyLayoutMigration {
+
+  private static final Logger LOG = LoggerFactory.getLogger(LegacyLayoutMigration.class);
+
+  private final boolean migrationEnabled;
+  private final LegacyRecommendationRepository legacyRepository;
+  private final RecommendationRepository repository;
+  private final RatingStatisticsRepository ratingStatisticsRepository;
+  private final RecommendationMapper mapper;
+  private final ReactiveMongoOperations mongoTemplate;
+
+  private final Sinks.Empty<Void> migrated = Sinks.empty();
+
+  @Autowired
+  public LegacyLayoutMigration(
+    @Value("${app.legacy-layout.migration-enabled:true}") boolean migrationEnabled,
+    LegacyRecommendationRepository legacyRepository,
+    RecommendationRepository repository,
+    RatingStatisticsRepository ratingStatisticsRepository,
+    RecommendationMapper mapper,
+    ReactiveMongoOperations mongoTemplate) {
+
+    this.migrationEnabled = migrationEnabled;
+    this.legacyRepository = legacyRepository;
+    this.repository = repository;
+    this.ratingStatisticsRepository = ratingStatisticsRepository;
+    this.mapper = mapper;
+    this.mongoTemplate = mongoTemplate;
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void migrateAfterStartup() {
+    if (!migrationEnabled) {
+      migrated.tryEmitEmpty();
+      return;
+    }
+
+    LOG.info("Will migrate recommendations from the legacy layout in the background...");
+    migrate().subscribe(
+      count -> {
+        LOG.info("Migrated {} recommendations from the legacy layout, the \"recommendations\" collection can now be dropped", count);
+        migrated.tryEmitEmpty();
+      },
+      error -> {
+        LOG.error("Migration from the legacy layout failed, restart the service to resume the migration", error);
+        migrated.tryEmitError(error);
+      });
+  }
+
+  /**
+   * Completes when the migration started at startup has completed, or at startup if the migration is disabled.
+   */
+  public Mono<Void> whenMigrated() {
+    return migrated.asMono();
+  }
+
+  /**
+   * @return the number of migrated recommendations
+   */
+  public Mono<Long> migrate() {
+    // Migrate one recommendation at a time to limit the extra load on MongoDB while the service is online
+    return legacyRepository.findAll()
+      .concatMap(legacyEntity -> migrate(legacyEntity))
+      .filter(migrated -> migrated)
+      .count();
+  }
+
+  private Mono<Boolean> migrate(LegacyRecommendationEntity legacyEntity) {
+    String key = RecommendationEntity.keyOf(legacyEntity.getProductId(), legacyEntity.getRecommendationId());
+
+    return repository.save(mapper.legacyToEntity(legacyEntity))
+      .map(e -> true)
+      // The recommendation has already been recreated in the new layout, keep that version
+      .onErrorResume(DuplicateKeyException.class, ex -> Mono.just(false))
+      .flatMap(copied -> mongoTemplate.findAndRemove(query(where("_id").is(legacyEntity.getId())), LegacyRecommendationEntity.class)
+        .map(removed -> copied)
+        // The recommendation was deleted while being migrated, remove the copy to avoid bringing it back
+        .switchIfEmpty(Mono.defer(() -> copied ? repository.deleteById(key).thenReturn(false) : Mono.just(false))))
+      .flatMap(migrated -> migrated
+        ? ratingStatisticsRepository.addRating(legacyEntity.getProductId(), legacyEntity.getRecommendationId(), legacyEntity.getRating()).thenReturn(true)
+        : Mono.just(false));
+  }
+}
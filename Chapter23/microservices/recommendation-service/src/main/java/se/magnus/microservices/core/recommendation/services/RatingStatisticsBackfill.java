@@ -0,0 +1,64 @@
+package se.magnus.microservices.core.recommendation.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import se.magnus.microservices.core.recommendation.persistence.RatingStatisticsRepository;
+
+/**
+ * Counts the ratings of all recommendations that the rating statistics don't count yet, in the background after startup,
+ * if app.rating-statistics.backfill-enabled is true. The statistics are otherwise only updated as recommendations are
+ * created, deleted and migrated, i.e. recommendations stored before the statistics were maintained are not counted.
+ * <p>
+ * The backfill is a one-off operation, to be enabled for one start of one instance after an upgrade. It waits for the
+ * migration from the legacy layout to complete, and counts the recommendations left in the legacy layout as well.
+ * Ratings already counted, or counted while it runs, are not counted again.
+ */
+@Component
+public class RatingStatisticsBackfill {
+
+  private static final Logger LOG = LoggerFactory.getLogger(RatingStatisticsBackfill.class);
+
+  private final boolean enabled;
+  private final RatingStatisticsRepository repository;
+  private final LegacyLayoutMigration migration;
+
+  @Autowired
+  public RatingStatisticsBackfill(
+    @Value("${app.rating-statistics.backfill-enabled:false}") boolean enabled,
+    RatingStatisticsRepository repository,
+    LegacyLayoutMigration migration) {
+
+    this.enabled = enabled;
+    this.repository = repository;
+    this.migration = migration;
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void backfillAfterStartup() {
+    if (!enabled) {
+      return;
+    }
+
+    LOG.info("Will backfill the rating statistics in the background when the migration from the legacy layout is done...");
+    migration.whenMigrated()
+      .onErrorResume(error -> {
+        LOG.warn("Backfills the rating statistics although the migration failed, also of the recommendations left in the legacy layout");
+        return Mono.empty();
+      })
+      .then(backfill())
+      .subscribe(
+        v -> {},
+        error -> LOG.error("Backfill of the rating statistics failed, restart the service to retry it", error),
+        () -> LOG.info("Backfilled the rating statistics, disable app.rating-statistics.backfill-enabled again"));
+  }
+
+  public Mono<Void> backfill() {
+    return repository.rebuildAll();
+  }
+}
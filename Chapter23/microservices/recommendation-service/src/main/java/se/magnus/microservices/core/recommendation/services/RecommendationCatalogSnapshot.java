@@ -0,0 +1,67 @@
+package se.magnus.microservices.core.recommendation.services;
+
+import java.nio.file.Path;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import se.magnus.microservices.core.recommendation.persistence.RatingStatisticsRepository;
+import se.magnus.microservices.core.recommendation.persistence.RecommendationEntity;
+import se.magnus.util.snapshot.CatalogSnapshot;
+import se.magnus.util.snapshot.Snapshots;
+
+/**
+ * Snapshots of the recommendations, each recommendation is written as its productId, recommendationId, author, rating and content.
+ * <p>
+ * The recommendations are restored in batches that are inserted in parallel using bulk inserts. The bulk inserts don't
+ * update the rating statistics, they are rebuilt from the restored recommendations once all of them are inserted.
+ * Recommendations in the legacy layout are not included, complete the migration before writing a snapshot.
+ */
+@Component
+public class RecommendationCatalogSnapshot implements CatalogSnapshot {
+
+  private static final String TYPE = "recommendations";
+
+  private final int batchSize;
+  private final int parallelism;
+  private final ReactiveMongoOperations mongoTemplate;
+  private final RatingStatisticsRepository ratingStatisticsRepository;
+
+  @Autowired
+  public RecommendationCatalogSnapshot(
+    @Value("${app.catalog-snapshot.batch-size:1000}") int batchSize,
+    @Value("${app.catalog-snapshot.restore-parallelism:4}") int parallelism,
+    ReactiveMongoOperations mongoTemplate,
+    RatingStatisticsRepository ratingStatisticsRepository) {
+
+    this.batchSize = batchSize;
+    this.parallelism = parallelism;
+    this.mongoTemplate = mongoTemplate;
+    this.ratingStatisticsRepository = ratingStatisticsRepository;
+  }
+
+  @Override
+  public String getType() {
+    return TYPE;
+  }
+
+  @Override
+  public Mono<Long> write(Path file) {
+    return Snapshots.write(file, TYPE, mongoTemplate.findAll(RecommendationEntity.class), (writer, e) -> {
+      writer.writeInt(e.getProductId());
+      writer.writeInt(e.getRecommendationId());
+      writer.writeString(e.getAuthor());
+      writer.writeInt(e.getRating());
+      writer.writeString(e.getContent());
+    });
+  }
+
+  @Override
+  public Mono<Long> restore(Path file) {
+    return Snapshots.restore(file, TYPE,
+        reader -> new RecommendationEntity(reader.readInt(), reader.readInt(), reader.readString(), reader.readInt(), reader.readString()),
+        batchSize, parallelism, batch -> mongoTemplate.insert(batch, RecommendationEntity.class).count())
+      .flatMap(count -> ratingStatisticsRepository.rebuildAll().thenReturn(count));
+  }
+}
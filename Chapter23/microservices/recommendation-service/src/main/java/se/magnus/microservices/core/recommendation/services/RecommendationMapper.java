@@ -1,10 +1,14 @@
 package se.magnus.microservices.core.recommendation.services;
 
 import java.util.List;
+import java.util.Map;
 import org.mapstruct.Mapper;
 import org.mapstruct.Mapping;
 import org.mapstruct.Mappings;
+import se.magnus.api.core.recommendation.RatingStatistics;
 import se.magnus.api.core.recommendation.Recommendation;
+import se.magnus.microservices.core.recommendation.persistence.LegacyRecommendationEntity;
+import se.magnus.microservices.core.recommendation.persistence.RatingStatisticsEntity;
 import se.magnus.microservices.core.recommendation.persistence.RecommendationEntity;
 
 @Mapper(componentModel = "spring")
@@ -18,12 +22,23 @@ public interface RecommendationMapper {
 
   @Mappings({
     @Mapping(target = "rating", source = "api.rate"),
-    @Mapping(target = "id", ignore = true),
     @Mapping(target = "version", ignore = true)
   })
   RecommendationEntity apiToEntity(Recommendation api);
 
+  @Mappings({
+    @Mapping(target = "version", ignore = true)
+  })
+  RecommendationEntity legacyToEntity(LegacyRecommendationEntity legacyEntity);
+
   List<Recommendation> entityListToApiList(List<RecommendationEntity> entity);
 
   List<RecommendationEntity> apiListToEntityList(List<Recommendation> api);
-}
\ No newline at end of file
+
+  @Mappings({
+    @Mapping(target = "serviceAddress", ignore = true)
+  })
+  RatingStatistics entityToApi(RatingStatisticsEntity entity);
+
+  Map<Integer, Integer> histogramToApi(Map<String, Integer> histogram);
+}
@@ -1,18 +1,30 @@
 package se.magnus.microservices.core.recommendation.services;
 
+import static java.util.Collections.emptyMap;
 import static java.util.logging.Level.FINE;
+import static se.magnus.util.http.ConditionalRequests.checkNotModified;
+import static se.magnus.util.http.ConditionalRequests.entityTag;
 
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.http.HttpHeaders;
 import org.springframework.web.bind.annotation.RestController;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import se.magnus.api.core.recommendation.RatingStatistics;
 import se.magnus.api.core.recommendation.Recommendation;
 import se.magnus.api.core.recommendation.RecommendationService;
+import se.magnus.api.core.recommendation.RelatedProduct;
 import se.magnus.api.exceptions.InvalidInputException;
+import se.magnus.microservices.core.recommendation.persistence.LegacyRecommendationRepository;
+import se.magnus.microservices.core.recommendation.persistence.RatingStatisticsRepository;
 import se.magnus.microservices.core.recommendation.persistence.RecommendationEntity;
 import se.magnus.microservices.core.recommendation.persistence.RecommendationRepository;
 import se.magnus.util.http.ServiceUtil;
@@ -22,16 +34,39 @@ public class RecommendationServiceImpl implements RecommendationService {
 
   private static final Logger LOG = LoggerFactory.getLogger(RecommendationServiceImpl.class);
 
+  private static final Comparator<RecommendationEntity> BEST_RATED_FIRST =
+    Comparator.comparingInt(RecommendationEntity::getRating).reversed().thenComparingInt(RecommendationEntity::getRecommendationId);
+
   private final RecommendationRepository repository;
 
+  private final LegacyRecommendationRepository legacyRepository;
+
+  private final boolean legacyFallbackEnabled;
+
+  private final RatingStatisticsRepository ratingStatisticsRepository;
+
   private final RecommendationMapper mapper;
 
+  private final RelatedProductsJob relatedProductsJob;
+
   private final ServiceUtil serviceUtil;
 
   @Autowired
-  public RecommendationServiceImpl(RecommendationRepository repository, RecommendationMapper mapper, ServiceUtil serviceUtil) {
+  public RecommendationServiceImpl(
+    RecommendationRepository repository,
+    LegacyRecommendationRepository legacyRepository,
+    @Value("${app.legacy-layout.fallback-enabled:true}") boolean legacyFallbackEnabled,
+    RatingStatisticsRepository ratingStatisticsRepository,
+    RecommendationMapper mapper,
+    RelatedProductsJob relatedProductsJob,
+    ServiceUtil serviceUtil) {
+
     this.repository = repository;
+    this.legacyRepository = legacyRepository;
+    this.legacyFallbackEnabled = legacyFallbackEnabled;
+    this.ratingStatisticsRepository = ratingStatisticsRepository;
     this.mapper = mapper;
+    this.relatedProductsJob = relatedProductsJob;
     this.serviceUtil = serviceUtil;
   }
 
@@ -43,11 +78,14 @@ public class RecommendationServiceImpl implements RecommendationService {
     }
 
     RecommendationEntity entity = mapper.apiToEntity(body);
-    Mono<Recommendation> newEntity = repository.save(entity)
+    Mono<Recommendation> newEntity = rejectIfInLegacyLayout(body.getProductId(), body.getRecommendationId())
+      .then(repository.save(entity))
       .log(LOG.getName(), FINE)
-      .onErrorMap(
-        DuplicateKeyException.class,
-        ex -> new InvalidInputException("Duplicate key, Product Id: " + body.getProductId() + ", Recommendation Id:" + body.getRecommendationId()))
+      // The event may be redelivered since the rating of the stored recommendation failed to be counted, count it
+      .onErrorResume(DuplicateKeyException.class, ex -> repository.findById(entity.getId())
+        .flatMap(stored -> addRating(stored))
+        .then(Mono.<RecommendationEntity>error(new InvalidInputException("Duplicate key, Product Id: " + body.getProductId() + ", Recommendation Id:" + body.getRecommendationId()))))
+      .flatMap(e -> addRating(e).thenReturn(e))
       .map(e -> mapper.entityToApi(e));
 
     return newEntity;
@@ -62,10 +100,72 @@ public class RecommendationServiceImpl implements RecommendationService {
 
     LOG.info("Will get recommendations for product with id={}", productId);
 
-    return repository.findByProductId(productId)
+    return checkNotModified(findByProductId(productId)
+      .log(LOG.getName(), FINE)
+      .map(e -> mapper.entityToApi(e))
+      .map(e -> setServiceAddress(e)), RecommendationServiceImpl::recommendationsTag);
+  }
+
+  @Override
+  public Flux<Recommendation> getTopRecommendations(HttpHeaders headers, int productId, int limit) {
+
+    if (productId < 1) {
+      throw new InvalidInputException("Invalid productId: " + productId);
+    }
+
+    if (limit < 1) {
+      throw new InvalidInputException("Invalid limit: " + limit);
+    }
+
+    LOG.info("Will get the top {} recommendations for product with id={}", limit, productId);
+
+    return checkNotModified(findTopByProductId(productId, limit)
       .log(LOG.getName(), FINE)
       .map(e -> mapper.entityToApi(e))
-      .map(e -> setServiceAddress(e));
+      .map(e -> setServiceAddress(e)), RecommendationServiceImpl::recommendationsTag);
+  }
+
+  @Override
+  public Mono<RatingStatistics> getRatingStatistics(HttpHeaders headers, int productId) {
+
+    if (productId < 1) {
+      throw new InvalidInputException("Invalid productId: " + productId);
+    }
+
+    LOG.info("Will get rating statistics for product with id={}", productId);
+
+    return checkNotModified(ratingStatisticsRepository.findByProductId(productId)
+      .log(LOG.getName(), FINE)
+      .map(e -> mapper.entityToApi(e))
+      .defaultIfEmpty(new RatingStatistics(productId, 0, 0, emptyMap(), null))
+      .map(e -> setServiceAddress(e)), s -> entityTag(s.getProductId(), s.getVersion(), s.getCount(), s.getSum(), s.getHistogram()));
+  }
+
+  private static String recommendationsTag(List<Recommendation> recommendations) {
+    return entityTag(recommendations.stream()
+      .flatMap(r -> Stream.of(r.getRecommendationId(), r.getVersion(), r.getAuthor(), r.getRate(), r.getContent()))
+      .toArray());
+  }
+
+  @Override
+  public Flux<RelatedProduct> getRelatedProducts(HttpHeaders headers, int productId, int limit) {
+
+    if (productId < 1) {
+      throw new InvalidInputException("Invalid productId: " + productId);
+    }
+
+    if (limit < 1) {
+      throw new InvalidInputException("Invalid limit: " + limit);
+    }
+
+    LOG.info("Will get max {} related products for product with id={}", limit, productId);
+
+    // Served from the precomputed table in memory
+    return Flux.fromIterable(relatedProductsJob.getTable().getRelatedProducts(productId, limit))
+      .map(e -> {
+        e.setServiceAddress(serviceUtil.getServiceAddress());
+        return e;
+      });
   }
 
   @Override
@@ -76,11 +176,81 @@ public class RecommendationServiceImpl implements RecommendationService {
     }
 
     LOG.debug("deleteRecommendations: tries to delete recommendations for the product with productId: {}", productId);
-    return repository.deleteAll(repository.findByProductId(productId));
+    return repository.deleteAll(repository.findByProductId(productId))
+      .then(deleteInLegacyLayout(productId))
+      .then(ratingStatisticsRepository.deleteByProductId(productId));
+  }
+
+  /**
+   * A rating that is already counted is not counted again, i.e. a failure between storing a recommendation and counting
+   * its rating is repaired when the create event is redelivered.
+   */
+  private Mono<Void> addRating(RecommendationEntity entity) {
+    return ratingStatisticsRepository.addRating(entity.getProductId(), entity.getRecommendationId(), entity.getRating());
+  }
+
+  private Flux<RecommendationEntity> findByProductId(int productId) {
+    if (!legacyFallbackEnabled) {
+      return repository.findByProductId(productId);
+    }
+
+    // Recommendations already migrated to the new layout take precedence over the legacy ones
+    return Flux.concat(repository.findByProductId(productId), findInLegacyLayout(productId))
+      .distinct(e -> e.getId());
+  }
+
+  private Flux<RecommendationEntity> findTopByProductId(int productId, int limit) {
+    if (!legacyFallbackEnabled) {
+      return repository.findByProductIdOrderByRatingDescRecommendationIdAsc(productId, PageRequest.of(0, limit));
+    }
+
+    // The best rated recommendations are among the best rated of the layout they are stored in, so only the limited
+    // results of both layouts are merged
+    return Flux.concat(
+        repository.findByProductIdOrderByRatingDescRecommendationIdAsc(productId, PageRequest.of(0, limit)),
+        findTopInLegacyLayout(productId, limit))
+      .distinct(e -> e.getId())
+      .sort(BEST_RATED_FIRST)
+      .take(limit);
+  }
+
+  private Flux<RecommendationEntity> findInLegacyLayout(int productId) {
+    return Flux.defer(() -> legacyRepository.findByProductId(productId).map(e -> mapper.legacyToEntity(e)));
+  }
+
+  private Flux<RecommendationEntity> findTopInLegacyLayout(int productId, int limit) {
+    return Flux.defer(() -> legacyRepository.findByProductIdOrderByRatingDescRecommendationIdAsc(productId, PageRequest.of(0, limit))
+      .map(e -> mapper.legacyToEntity(e)));
+  }
+
+  /**
+   * A recommendation that is not migrated yet is only stored in the legacy layout, and is moved to the new layout
+   * before it is removed from the legacy layout, so it is always found in one of them.
+   */
+  private Mono<Void> rejectIfInLegacyLayout(int productId, int recommendationId) {
+    if (!legacyFallbackEnabled) {
+      return Mono.empty();
+    }
+    return findInLegacyLayout(productId)
+      .filter(e -> e.getRecommendationId() == recommendationId)
+      .next()
+      .flatMap(e -> Mono.<Void>error(new DuplicateKeyException("Recommendation Id: " + recommendationId + " is stored in the legacy layout")));
+  }
+
+  private Mono<Void> deleteInLegacyLayout(int productId) {
+    if (!legacyFallbackEnabled) {
+      return Mono.empty();
+    }
+    return Mono.defer(() -> legacyRepository.deleteAll(legacyRepository.findByProductId(productId)));
   }
 
   private Recommendation setServiceAddress(Recommendation e) {
     e.setServiceAddress(serviceUtil.getServiceAddress());
     return e;
   }
+
+  private RatingStatistics setServiceAddress(RatingStatistics e) {
+    e.setServiceAddress(serviceUtil.getServiceAddress());
+    return e;
+  }
 }
@@ -0,0 +1,175 @@
+package se.magnus.microservices.core.recommendation.services;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import se.magnus.microservices.core.recommendation.persistence.RecommendationEntity;
+
+/**
+ * Periodically recomputes the related products of all products from the ratings, see {@link ItemSimilarity}.
+ * <p>
+ * Only ratings of at least min-rating are used, i.e. products are related if they are liked by the same authors.
+ * The resulting table replaces the previous one in memory when it is complete, each instance computes its own table.
+ * The first table is computed when the migration from the legacy layout is done, i.e. when all ratings are found in the
+ * new layout.
+ */
+@Component
+public class RelatedProductsJob {
+
+  private static final Logger LOG = LoggerFactory.getLogger(RelatedProductsJob.class);
+
+  private final boolean enabled;
+  private final Duration interval;
+  private final int topK;
+  private final int minRating;
+  private final int parallelism;
+  private final ReactiveMongoOperations mongoTemplate;
+  private final LegacyLayoutMigration migration;
+
+  private final Timer jobTimer;
+
+  private volatile RelatedProductsTable table = RelatedProductsTable.EMPTY;
+  private volatile long workingMemoryBytes;
+
+  @Autowired
+  public RelatedProductsJob(
+    @Value("${app.related-products.enabled:true}") boolean enabled,
+    @Value("${app.related-products.interval:1h}") Duration interval,
+    @Value("${app.related-products.top-k:20}") int topK,
+    @Value("${app.related-products.min-rating:3}") int minRating,
+    @Value("${app.related-products.parallelism:0}") int parallelism,
+    ReactiveMongoOperations mongoTemplate,
+    LegacyLayoutMigration migration,
+    MeterRegistry registry) {
+
+    this.enabled = enabled;
+    this.interval = interval;
+    this.topK = topK;
+    // Ratings must be positive to be used in the rating vectors
+    this.minRating = Math.max(minRating, 1);
+    this.parallelism = (parallelism > 0) ? parallelism : Runtime.getRuntime().availableProcessors();
+    this.mongoTemplate = mongoTemplate;
+    this.migration = migration;
+
+    this.jobTimer = Timer.builder("recommendation.related.products.job")
+      .description("Duration of the computation of the related products table, including loading the ratings")
+      .register(registry);
+    Gauge.builder("recommendation.related.products.table.memory", this, j -> j.table.sizeInBytes())
+      .description("Memory used by the related products table")
+      .baseUnit("bytes")
+      .register(registry);
+    Gauge.builder("recommendation.related.products.working.memory", this, j -> j.workingMemoryBytes)
+      .description("Memory used by the vectors and accumulators during the last computation of the related products table")
+      .baseUnit("bytes")
+      .register(registry);
+    Gauge.builder("recommendation.related.products.table.products", this, j -> j.table.size())
+      .description("Number of products in the related products table")
+      .register(registry);
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void scheduleAfterStartup() {
+    if (!enabled) {
+      LOG.info("The related products job is disabled");
+      return;
+    }
+
+    LOG.info("Will compute related products every {} when the migration from the legacy layout is done, using {} threads",
+      interval, parallelism);
+    migration.whenMigrated()
+      .onErrorResume(error -> {
+        LOG.warn("The migration from the legacy layout failed, computes related products without the ratings left in the legacy layout");
+        return Mono.empty();
+      })
+      .thenMany(Flux.interval(Duration.ZERO, interval))
+      .onBackpressureDrop(tick -> LOG.warn("The related products job is still running, skips the next run"))
+      .concatMap(tick -> run().onErrorResume(error -> {
+        LOG.warn("The related products job failed, will keep the current table until the next run: {}", error.toString());
+        return Mono.empty();
+      }), 0)
+      .subscribe();
+  }
+
+  public RelatedProductsTable getTable() {
+    return table;
+  }
+
+  public Mono<RelatedProductsTable> run() {
+    return Mono.defer(() -> {
+      long start = System.nanoTime();
+      return loadRatings()
+        .publishOn(Schedulers.boundedElastic())
+        .map(ratings -> compute(ratings))
+        .doOnNext(newTable -> {
+          long elapsed = System.nanoTime() - start;
+          jobTimer.record(Duration.ofNanos(elapsed));
+          table = newTable;
+          LOG.info("Computed related products for {} products in {} ms, used {} bytes while computing, the table uses {} bytes",
+            newTable.size(), elapsed / 1_000_000, workingMemoryBytes, newTable.sizeInBytes());
+        });
+    });
+  }
+
+  private RelatedProductsTable compute(Ratings ratings) {
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    try {
+      ItemSimilarity.Result result = ItemSimilarity.compute(
+        ratings.productIds, ratings.authors, ratings.ratings, ratings.count, ratings.authorIndexes.size(), topK, pool);
+      workingMemoryBytes = result.workingMemoryBytes();
+      return result.table();
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private Mono<Ratings> loadRatings() {
+    Query query = new Query(where("rating").gte(minRating));
+    query.fields().include("productId", "author", "rating");
+
+    return mongoTemplate.find(query, RecommendationEntity.class)
+      .collect(Ratings::new, (ratings, e) -> ratings.add(e.getProductId(), e.getAuthor(), e.getRating()));
+  }
+
+  /**
+   * The loaded ratings as primitive arrays, authors are given an index in the order they are found.
+   */
+  private static class Ratings {
+
+    private int[] productIds = new int[1024];
+    private int[] authors = new int[1024];
+    private float[] ratings = new float[1024];
+    private int count;
+    private final Map<String, Integer> authorIndexes = new HashMap<>();
+
+    void add(int productId, String author, int rating) {
+      if (count == productIds.length) {
+        productIds = Arrays.copyOf(productIds, count * 2);
+        authors = Arrays.copyOf(authors, count * 2);
+        ratings = Arrays.copyOf(ratings, count * 2);
+      }
+      productIds[count] = productId;
+      authors[count] = authorIndexes.computeIfAbsent(String.valueOf(author), a -> authorIndexes.size());
+      ratings[count] = rating;
+      count++;
+    }
+  }
+}
@@ -0,0 +1,54 @@
+package se.magnus.microservices.core.recommendation.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import se.magnus.api.core.recommendation.RelatedProduct;
+
+/**
+ * The top-K related products of each product, stored in a compressed sparse row layout, i.e. the related products
+ * of the product at index i in the sorted productIds are found in the neighbours and similarities arrays
+ * from offsets[i] up to offsets[i + 1].
+ */
+public class RelatedProductsTable {
+
+  public static final RelatedProductsTable EMPTY = new RelatedProductsTable(new int[0], new int[] {0}, new int[0], new float[0]);
+
+  private final int[] productIds;
+  private final int[] offsets;
+  private final int[] neighbours;
+  private final float[] similarities;
+
+  RelatedProductsTable(int[] productIds, int[] offsets, int[] neighbours, float[] similarities) {
+    this.productIds = productIds;
+    this.offsets = offsets;
+    this.neighbours = neighbours;
+    this.similarities = similarities;
+  }
+
+  /**
+   * @return the related products, sorted on similarity in descending order
+   */
+  public List<RelatedProduct> getRelatedProducts(int productId, int limit) {
+    int index = Arrays.binarySearch(productIds, productId);
+    if (index < 0) {
+      return List.of();
+    }
+
+    int from = offsets[index];
+    int to = Math.min(offsets[index + 1], from + limit);
+    List<RelatedProduct> result = new ArrayList<>(to - from);
+    for (int i = from; i < to; i++) {
+      result.add(new RelatedProduct(productId, neighbours[i], similarities[i], null));
+    }
+    return result;
+  }
+
+  public int size() {
+    return productIds.length;
+  }
+
+  public long sizeInBytes() {
+    return 4L * productIds.length + 4L * offsets.length + 4L * neighbours.length + 4L * similarities.length;
+  }
+}
@@ -0,0 +1,79 @@
+package se.magnus.microservices.core.recommendation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledInNativeImage;
+import se.magnus.api.core.recommendation.RelatedProduct;
+import se.magnus.microservices.core.recommendation.services.ItemSimilarity;
+import se.magnus.microservices.core.recommendation.services.RelatedProductsTable;
+
+@DisabledInNativeImage
+class ItemSimilarityTests {
+
+  // Author 0 likes product 1 and 2, author 1 likes product 1, 2 and 3, author 2 likes product 3 and 4
+  private static final int[] PRODUCT_IDS = {1, 2, 1, 2, 3, 3, 4, 1};
+  private static final int[] AUTHORS =     {0, 0, 1, 1, 1, 2, 2, 0};
+  private static final float[] RATINGS =   {5, 5, 4, 4, 4, 5, 5, 3};
+
+  private ForkJoinPool pool;
+
+  @BeforeEach
+  void setUp() {
+    pool = new ForkJoinPool(2);
+  }
+
+  @AfterEach
+  void tearDown() {
+    pool.shutdown();
+  }
+
+  @Test
+  void computeRelatedProducts() {
+    RelatedProductsTable table = compute(20);
+
+    assertEquals(4, table.size());
+    assertRelatedProducts(table.getRelatedProducts(1, 10), new int[] {2, 3}, new double[] {1.0, 16.0 / 41});
+    assertRelatedProducts(table.getRelatedProducts(2, 10), new int[] {1, 3}, new double[] {1.0, 16.0 / 41});
+    assertRelatedProducts(table.getRelatedProducts(3, 10), new int[] {4, 1, 2}, new double[] {5 / Math.sqrt(41), 16.0 / 41, 16.0 / 41});
+    assertRelatedProducts(table.getRelatedProducts(4, 10), new int[] {3}, new double[] {5 / Math.sqrt(41)});
+    assertRelatedProducts(table.getRelatedProducts(99, 10), new int[0], new double[0]);
+  }
+
+  @Test
+  void limitRelatedProducts() {
+    RelatedProductsTable table = compute(20);
+    assertRelatedProducts(table.getRelatedProducts(3, 2), new int[] {4, 1}, new double[] {5 / Math.sqrt(41), 16.0 / 41});
+
+    // Only the top-K related products are kept in the table
+    table = compute(1);
+    assertRelatedProducts(table.getRelatedProducts(3, 10), new int[] {4}, new double[] {5 / Math.sqrt(41)});
+  }
+
+  @Test
+  void computeWithoutRatings() {
+    ItemSimilarity.Result result = ItemSimilarity.compute(new int[0], new int[0], new float[0], 0, 0, 20, pool);
+
+    assertEquals(0, result.table().size());
+    assertTrue(result.table().getRelatedProducts(1, 10).isEmpty());
+  }
+
+  private RelatedProductsTable compute(int topK) {
+    ItemSimilarity.Result result = ItemSimilarity.compute(PRODUCT_IDS, AUTHORS, RATINGS, PRODUCT_IDS.length, 3, topK, pool);
+    assertTrue(result.workingMemoryBytes() > 0);
+    return result.table();
+  }
+
+  private void assertRelatedProducts(List<RelatedProduct> relatedProducts, int[] expectedProductIds, double[] expectedSimilarities) {
+    assertEquals(expectedProductIds.length, relatedProducts.size());
+    for (int i = 0; i < expectedProductIds.length; i++) {
+      assertEquals(expectedProductIds[i], relatedProducts.get(i).getRelatedProductId());
+      assertEquals(expectedSimilarities[i], relatedProducts.get(i).getSimilarity(), 1e-6);
+    }
+  }
+}
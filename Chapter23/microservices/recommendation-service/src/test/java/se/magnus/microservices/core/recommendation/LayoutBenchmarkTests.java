@@ -0,0 +1,95 @@
+package se.magnus.microservices.core.recommendation;
+
+import static se.magnus.util.benchmark.Benchmarks.measureMillis;
+import static se.magnus.util.benchmark.Benchmarks.opsPerSecond;
+
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.index.CompoundIndexDefinition;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+import se.magnus.microservices.core.recommendation.persistence.LegacyRecommendationEntity;
+import se.magnus.microservices.core.recommendation.persistence.LegacyRecommendationRepository;
+import se.magnus.microservices.core.recommendation.persistence.RecommendationEntity;
+import se.magnus.microservices.core.recommendation.persistence.RecommendationRepository;
+import se.magnus.util.benchmark.BenchmarkTest;
+
+/**
+ * Compares insert and lookup throughput of the legacy layout, i.e. a generated _id plus a unique index on productId and
+ * recommendationId, with the layout keyed by productId and recommendationId.
+ * <p>
+ * Run with: ./gradlew :microservices:recommendation-service:test --tests '*LayoutBenchmarkTests' -Dbenchmark=true -i
+ */
+@BenchmarkTest
+@DataMongoTest
+class LayoutBenchmarkTests extends MongoDbTestBase {
+
+  private static final Logger LOG = LoggerFactory.getLogger(LayoutBenchmarkTests.class);
+
+  private static final int NO_OF_PRODUCTS = 5_000;
+  private static final int RECOMMENDATIONS_PER_PRODUCT = 4;
+  private static final int NO_OF_RECOMMENDATIONS = NO_OF_PRODUCTS * RECOMMENDATIONS_PER_PRODUCT;
+  private static final int CONCURRENCY = 16;
+
+  @Autowired
+  private RecommendationRepository repository;
+
+  @Autowired
+  private LegacyRecommendationRepository legacyRepository;
+
+  @Autowired
+  private ReactiveMongoOperations mongoTemplate;
+
+  @BeforeEach
+  void setupDb() {
+    StepVerifier.create(repository.deleteAll()).verifyComplete();
+    StepVerifier.create(legacyRepository.deleteAll()).verifyComplete();
+
+    // The legacy entity no longer declares its index, create it the way earlier versions did
+    mongoTemplate.indexOps(LegacyRecommendationEntity.class)
+      .ensureIndex(new CompoundIndexDefinition(new Document("productId", 1).append("recommendationId", 1))
+        .unique().named("prod-rec-id")).block();
+
+    // The indexes of the keyed layout are created at startup, see RecommendationServiceApplication
+    new MongoPersistentEntityIndexResolver(mongoTemplate.getConverter().getMappingContext())
+      .resolveIndexFor(RecommendationEntity.class)
+      .forEach(index -> mongoTemplate.indexOps(RecommendationEntity.class).ensureIndex(index).block());
+  }
+
+  @Test
+  void compareLayouts() {
+    long legacyInsertMs = measureMillis(() -> Flux.range(0, NO_OF_RECOMMENDATIONS)
+      .flatMap(i -> legacyRepository.save(legacyRecommendation(i)), CONCURRENCY).then().block());
+    long insertMs = measureMillis(() -> Flux.range(0, NO_OF_RECOMMENDATIONS)
+      .flatMap(i -> repository.save(recommendation(i)), CONCURRENCY).then().block());
+
+    long legacyReadMs = measureMillis(() -> Flux.range(1, NO_OF_PRODUCTS)
+      .flatMap(id -> legacyRepository.findByProductId(id), CONCURRENCY).then().block());
+    long readMs = measureMillis(() -> Flux.range(1, NO_OF_PRODUCTS)
+      .flatMap(id -> repository.findByProductId(id), CONCURRENCY).then().block());
+
+    LOG.info("Inserted {} recommendations: legacy layout {} ops/s, keyed layout {} ops/s",
+      NO_OF_RECOMMENDATIONS, opsPerSecond(NO_OF_RECOMMENDATIONS, legacyInsertMs), opsPerSecond(NO_OF_RECOMMENDATIONS, insertMs));
+    LOG.info("Looked up the recommendations of {} products: legacy layout {} ops/s, keyed layout {} ops/s",
+      NO_OF_PRODUCTS, opsPerSecond(NO_OF_PRODUCTS, legacyReadMs), opsPerSecond(NO_OF_PRODUCTS, readMs));
+  }
+
+  private LegacyRecommendationEntity legacyRecommendation(int i) {
+    int productId = i / RECOMMENDATIONS_PER_PRODUCT + 1;
+    int recommendationId = i % RECOMMENDATIONS_PER_PRODUCT + 1;
+    return new LegacyRecommendationEntity(productId, recommendationId, "a" + recommendationId, recommendationId, "c");
+  }
+
+  private RecommendationEntity recommendation(int i) {
+    int productId = i / RECOMMENDATIONS_PER_PRODUCT + 1;
+    int recommendationId = i % RECOMMENDATIONS_PER_PRODUCT + 1;
+    return new RecommendationEntity(productId, recommendationId, "a" + recommendationId, recommendationId, "c");
+  }
+}
@@ -4,10 +4,13 @@ import static org.junit.jupiter.api.Assertions.*;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.condition.DisabledInNativeImage;
 import org.mapstruct.factory.Mappers;
+import se.magnus.api.core.recommendation.RatingStatistics;
 import se.magnus.api.core.recommendation.Recommendation;
+import se.magnus.microservices.core.recommendation.persistence.RatingStatisticsEntity;
 import se.magnus.microservices.core.recommendation.persistence.RecommendationEntity;
 import se.magnus.microservices.core.recommendation.services.RecommendationMapper;
 
@@ -72,4 +75,20 @@ class MapperTests {
     assertEquals(api.getContent(), api2.getContent());
     assertNull(api2.getServiceAddress());
   }
+
+  @Test
+  void mapperRatingStatisticsTests() {
+
+    assertNotNull(mapper);
+
+    RatingStatisticsEntity entity = new RatingStatisticsEntity(1, 3, 7, Map.of("1", 1, "3", 2), List.of(1, 2, 3));
+
+    RatingStatistics api = mapper.entityToApi(entity);
+
+    assertEquals(entity.getProductId(), api.getProductId());
+    assertEquals(entity.getCount(), api.getCount());
+    assertEquals(entity.getSum(), api.getSum());
+    assertEquals(Map.of(1, 1, 3, 2), api.getHistogram());
+    assertNull(api.getServiceAddress());
+  }
 }
@@ -12,6 +12,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
 import se.magnus.microservices.core.recommendation.persistence.RecommendationEntity;
 import se.magnus.microservices.core.recommendation.persistence.RecommendationRepository;
 
@@ -71,6 +72,20 @@ class PersistenceTests extends MongoDbTestBase {
     assertEqualsRecommendation(savedEntity, entityList.get(0));
   }
 
+  @Test
+  void getTopByProductId() {
+    repository.save(new RecommendationEntity(1, 3, "a", 5, "c")).block();
+    repository.save(new RecommendationEntity(1, 4, "a", 1, "c")).block();
+
+    List<RecommendationEntity> entityList = repository
+      .findByProductIdOrderByRatingDescRecommendationIdAsc(savedEntity.getProductId(), PageRequest.of(0, 2))
+      .collectList().block();
+
+    assertThat(entityList, hasSize(2));
+    assertEquals(3, entityList.get(0).getRecommendationId());
+    assertEquals(savedEntity.getRecommendationId(), entityList.get(1).getRecommendationId());
+  }
+
   @Test
   void duplicateError() {
     assertThrows(DuplicateKeyException.class, () -> {
@@ -7,10 +7,13 @@ import static org.springframework.http.MediaType.APPLICATION_JSON;
 import static se.magnus.api.event.Event.Type.CREATE;
 import static se.magnus.api.event.Event.Type.DELETE;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.function.Consumer;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.condition.DisabledInNativeImage;
+import org.junit.jupiter.api.io.TempDir;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.test.context.SpringBootTest;
@@ -19,7 +22,14 @@ import org.springframework.test.web.reactive.server.WebTestClient;
 import se.magnus.api.core.recommendation.Recommendation;
 import se.magnus.api.event.Event;
 import se.magnus.api.exceptions.InvalidInputException;
+import se.magnus.microservices.core.recommendation.persistence.LegacyRecommendationEntity;
+import se.magnus.microservices.core.recommendation.persistence.LegacyRecommendationRepository;
+import se.magnus.microservices.core.recommendation.persistence.RatingStatisticsRepository;
+import se.magnus.microservices.core.recommendation.persistence.RecommendationEntity;
 import se.magnus.microservices.core.recommendation.persistence.RecommendationRepository;
+import se.magnus.microservices.core.recommendation.services.LegacyLayoutMigration;
+import se.magnus.microservices.core.recommendation.services.RatingStatisticsBackfill;
+import se.magnus.microservices.core.recommendation.services.RecommendationCatalogSnapshot;
 
 @DisabledInNativeImage
 @SpringBootTest(webEnvironment = RANDOM_PORT)
@@ -31,6 +41,21 @@ class RecommendationServiceApplicationTests extends MongoDbTestBase {
   @Autowired
   private RecommendationRepository repository;
 
+  @Autowired
+  private LegacyRecommendationRepository legacyRepository;
+
+  @Autowired
+  private RatingStatisticsRepository ratingStatisticsRepository;
+
+  @Autowired
+  private RatingStatisticsBackfill ratingStatisticsBackfill;
+
+  @Autowired
+  private LegacyLayoutMigration legacyLayoutMigration;
+
+  @Autowired
+  private RecommendationCatalogSnapshot catalogSnapshot;
+
   @Autowired
   @Qualifier("messageProcessor")
   private Consumer<Event<Integer, Recommendation>> messageProcessor;
@@ -38,6 +63,8 @@ class RecommendationServiceApplicationTests extends MongoDbTestBase {
   @BeforeEach
   void setupDb() {
     repository.deleteAll().block();
+    legacyRepository.deleteAll().block();
+    ratingStatisticsRepository.deleteAll().block();
   }
 
   @Test
@@ -91,6 +118,152 @@ class RecommendationServiceApplicationTests extends MongoDbTestBase {
     sendDeleteRecommendationEvent(productId);
   }
 
+  @Test
+  void getTopRecommendations() {
+
+    int productId = 1;
+
+    sendCreateRecommendationEvent(productId, 1);
+    sendCreateRecommendationEvent(productId, 3);
+    sendCreateRecommendationEvent(productId, 2);
+
+    getAndVerifyRecommendations("/top?productId=" + productId + "&limit=2", OK)
+      .jsonPath("$.length()").isEqualTo(2)
+      .jsonPath("$[0].recommendationId").isEqualTo(3)
+      .jsonPath("$[0].rate").isEqualTo(3)
+      .jsonPath("$[1].recommendationId").isEqualTo(2);
+
+    getAndVerifyRecommendations("/top?productId=" + productId + "&limit=0", UNPROCESSABLE_ENTITY)
+      .jsonPath("$.message").isEqualTo("Invalid limit: 0");
+  }
+
+  @Test
+  void getTopRecommendationsInBothLayouts() {
+
+    int productId = 1;
+
+    sendCreateRecommendationEvent(productId, 1);
+    sendCreateRecommendationEvent(productId, 3);
+    legacyRepository.save(new LegacyRecommendationEntity(productId, 2, "a", 2, "c")).block();
+    legacyRepository.save(new LegacyRecommendationEntity(productId, 4, "a", 4, "c")).block();
+
+    getAndVerifyRecommendations("/top?productId=" + productId + "&limit=2", OK)
+      .jsonPath("$.length()").isEqualTo(2)
+      .jsonPath("$[0].recommendationId").isEqualTo(4)
+      .jsonPath("$[1].recommendationId").isEqualTo(3);
+  }
+
+  @Test
+  void getRatingStatistics() {
+
+    int productId = 1;
+
+    sendCreateRecommendationEvent(productId, 1);
+    sendCreateRecommendationEvent(productId, 2);
+    sendCreateRecommendationEvent(productId, 2);
+    sendCreateRecommendationEvent(productId, 3);
+
+    assertThrows(InvalidInputException.class, () -> sendCreateRecommendationEvent(productId, 3));
+
+    getAndVerifyRatingStatisticsByProductId(productId, OK)
+      .jsonPath("$.productId").isEqualTo(productId)
+      .jsonPath("$.count").isEqualTo(3)
+      .jsonPath("$.sum").isEqualTo(6)
+      .jsonPath("$.histogram.1").isEqualTo(1)
+      .jsonPath("$.histogram.2").isEqualTo(1)
+      .jsonPath("$.histogram.3").isEqualTo(1);
+
+    sendDeleteRecommendationEvent(productId);
+
+    getAndVerifyRatingStatisticsByProductId(productId, OK)
+      .jsonPath("$.count").isEqualTo(0)
+      .jsonPath("$.sum").isEqualTo(0);
+  }
+
+  @Test
+  void backfillRatingStatistics() {
+
+    // Recommendations stored without statistics, e.g. by an earlier version, one of them in the legacy layout, and one
+    // counted by the statistics
+    repository.save(new RecommendationEntity(1, 1, "a", 1, "c")).block();
+    legacyRepository.save(new LegacyRecommendationEntity(1, 2, "a", 3, "c")).block();
+    repository.save(new RecommendationEntity(2, 1, "a", 5, "c")).block();
+    sendCreateRecommendationEvent(1, 3);
+
+    ratingStatisticsBackfill.backfill().block();
+
+    getAndVerifyRatingStatisticsByProductId(1, OK)
+      .jsonPath("$.count").isEqualTo(3)
+      .jsonPath("$.sum").isEqualTo(7)
+      .jsonPath("$.histogram.1").isEqualTo(1)
+      .jsonPath("$.histogram.3").isEqualTo(2);
+
+    getAndVerifyRatingStatisticsByProductId(2, OK)
+      .jsonPath("$.count").isEqualTo(1)
+      .jsonPath("$.sum").isEqualTo(5)
+      .jsonPath("$.histogram.5").isEqualTo(1);
+
+    // Backfilling again doesn't count the ratings twice, and the statistics are still updated incrementally afterwards
+    ratingStatisticsBackfill.backfill().block();
+    sendCreateRecommendationEvent(2, 2);
+
+    getAndVerifyRatingStatisticsByProductId(2, OK)
+      .jsonPath("$.count").isEqualTo(2)
+      .jsonPath("$.sum").isEqualTo(7);
+  }
+
+  @Test
+  void migrationCountsRatings() {
+
+    legacyRepository.save(new LegacyRecommendationEntity(1, 1, "a", 2, "c")).block();
+    legacyRepository.save(new LegacyRecommendationEntity(1, 2, "a", 4, "c")).block();
+
+    assertEquals(2, legacyLayoutMigration.migrate().block());
+
+    getAndVerifyRatingStatisticsByProductId(1, OK)
+      .jsonPath("$.count").isEqualTo(2)
+      .jsonPath("$.sum").isEqualTo(6);
+  }
+
+  @Test
+  void ratingsAreCountedOnce() {
+
+    sendCreateRecommendationEvent(1, 1);
+
+    // E.g. a create event that is redelivered after the rating was counted
+    ratingStatisticsRepository.addRating(1, 1, 1).block();
+    assertThrows(InvalidInputException.class, () -> sendCreateRecommendationEvent(1, 1));
+
+    getAndVerifyRatingStatisticsByProductId(1, OK)
+      .jsonPath("$.count").isEqualTo(1)
+      .jsonPath("$.sum").isEqualTo(1);
+  }
+
+  @Test
+  void restoreRebuildsRatingStatistics(@TempDir Path directory) throws IOException {
+
+    sendCreateRecommendationEvent(1, 1);
+    sendCreateRecommendationEvent(1, 2);
+    sendCreateRecommendationEvent(2, 1);
+
+    Path file = directory.resolve("recommendations.snapshot");
+    assertEquals(3, catalogSnapshot.write(file).block());
+
+    repository.deleteAll().block();
+    ratingStatisticsRepository.deleteAll().block();
+    assertEquals(3, catalogSnapshot.restore(file).block());
+
+    getAndVerifyRatingStatisticsByProductId(1, OK)
+      .jsonPath("$.count").isEqualTo(2)
+      .jsonPath("$.sum").isEqualTo(3)
+      .jsonPath("$.histogram.1").isEqualTo(1)
+      .jsonPath("$.histogram.2").isEqualTo(1);
+
+    getAndVerifyRatingStatisticsByProductId(2, OK)
+      .jsonPath("$.count").isEqualTo(1)
+      .jsonPath("$.sum").isEqualTo(1);
+  }
+
   @Test
   void getRecommendationsMissingParameter() {
 
@@ -129,8 +302,22 @@ class RecommendationServiceApplicationTests extends MongoDbTestBase {
   }
 
   private WebTestClient.BodyContentSpec getAndVerifyRecommendationsByProductId(String productIdQuery, HttpStatus expectedStatus) {
+    return getAndVerifyRecommendations(productIdQuery, expectedStatus);
+  }
+
+  private WebTestClient.BodyContentSpec getAndVerifyRecommendations(String pathAndQuery, HttpStatus expectedStatus) {
+    return client.get()
+      .uri("/recommendation" + pathAndQuery)
+      .accept(APPLICATION_JSON)
+      .exchange()
+      .expectStatus().isEqualTo(expectedStatus)
+      .expectHeader().contentType(APPLICATION_JSON)
+      .expectBody();
+  }
+
+  private WebTestClient.BodyContentSpec getAndVerifyRatingStatisticsByProductId(int productId, HttpStatus expectedStatus) {
     return client.get()
-      .uri("/recommendation" + productIdQuery)
+      .uri("/recommendation/rating-statistics?productId=" + productId)
       .accept(APPLICATION_JSON)
       .exchange()
       .expectStatus().isEqualTo(expectedStatus)
@@ -0,0 +1,8 @@
+-- Widens the content column of reviews created before ReviewEntity.content was mapped to mediumtext, since
+-- spring.jpa.hibernate.ddl-auto: update doesn't alter existing columns. Run it before content longer than the old
+-- column is stored, and before the backfill is enabled, e.g.:
+--
+--   docker compose exec -T mysql mysql --user=$MYSQL_USR --password=$MYSQL_PWD review-db < microservices/review-service/sql/review-content-mediumtext.sql
+--
+-- The column is rebuilt in place, i.e. it can be run again.
+ALTER TABLE reviews MODIFY content MEDIUMTEXT;
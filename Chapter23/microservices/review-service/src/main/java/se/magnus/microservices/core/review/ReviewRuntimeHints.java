@@ -0,0 +1,42 @@
+package se.magnus.microservices.core.review;
+
+import static org.springframework.aot.hint.ExecutableMode.INVOKE;
+import static org.springframework.aot.hint.MemberCategory.INVOKE_DECLARED_CONSTRUCTORS;
+import static org.springframework.aot.hint.MemberCategory.INVOKE_PUBLIC_METHODS;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+import org.springframework.aot.hint.TypeReference;
+import se.magnus.microservices.core.review.persistence.ReviewRepository;
+import se.magnus.microservices.core.review.services.ReviewMapper;
+
+/**
+ * Runtime hints for the native image of the review service.
+ * <p>
+ * The AOT processing of the JPA and Spring Data support already registers ReviewEntity, its ReviewContentConverter, and
+ * the proxies of ReviewRepository and its StoredContent projection, see ReviewRuntimeHintsTests. The hints below cover
+ * what it leaves out:
+ * <ul>
+ *   <li>the accessors of the StoredContent projection, that the columns of the native query are mapped to by name</li>
+ *   <li>the ReviewMapper implementation generated by MapStruct, that Mappers.getMapper instantiates by reflection</li>
+ *   <li>sun.misc.Unsafe, that Lucene uses to unmap the files of the search index when they are closed</li>
+ * </ul>
+ */
+public class ReviewRuntimeHints implements RuntimeHintsRegistrar {
+
+  // MapStruct names the implementation of a mapper after the mapper, with the suffix Impl
+  static final String MAPPER_IMPLEMENTATION = ReviewMapper.class.getName() + "Impl";
+
+  @Override
+  public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+    hints.reflection().registerType(ReviewRepository.StoredContent.class, INVOKE_PUBLIC_METHODS);
+
+    hints.reflection().registerType(TypeReference.of(MAPPER_IMPLEMENTATION), INVOKE_DECLARED_CONSTRUCTORS);
+
+    hints.reflection().registerType(TypeReference.of("sun.misc.Unsafe"), type -> type
+      .withField("theUnsafe")
+      .withMethod("invokeCleaner", List.of(TypeReference.of(ByteBuffer.class)), INVOKE));
+  }
+}
@@ -16,15 +16,18 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.ImportRuntimeHints;
 import reactor.core.publisher.Hooks;
 import reactor.core.scheduler.Scheduler;
 import reactor.core.scheduler.Schedulers;
 import se.magnus.api.core.review.Review;
 import se.magnus.api.event.Event;
+import se.magnus.util.admission.AdmissionController;
 
 @SpringBootApplication
 @ComponentScan("se.magnus")
 @RegisterReflectionForBinding({ Event.class, ZonedDateTimeSerializer.class, Review.class})
+@ImportRuntimeHints(ReviewRuntimeHints.class)
 public class ReviewServiceApplication {
 
   private static final Logger LOG = LoggerFactory.getLogger(ReviewServiceApplication.class);
@@ -47,6 +50,20 @@ public class ReviewServiceApplication {
     return Schedulers.newBoundedElastic(threadPoolSize, taskQueueSize, "jdbc-pool");
   }
 
+  /**
+   * Sheds requests to the jdbcScheduler before its task queue is full, see AdmissionController.
+   */
+  @Bean
+  public AdmissionController jdbcAdmissionController() {
+    return new AdmissionController("jdbcScheduler", threadPoolSize, threadPoolSize + taskQueueSize);
+  }
+
+  @Bean
+  public Scheduler searchScheduler() {
+    LOG.info("Creates a searchScheduler with thread pool size = {}", threadPoolSize);
+    return Schedulers.newBoundedElastic(threadPoolSize, taskQueueSize, "search-pool");
+  }
+
   @Bean
   BaggagePropagation.FactoryBuilder myPropagationFactoryBuilder(
     ObjectProvider<BaggagePropagationCustomizer> baggagePropagationCustomizers) {
@@ -0,0 +1,96 @@
+package se.magnus.microservices.core.review.persistence;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+import java.io.ByteArrayOutputStream;
+import java.util.Base64;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Stores review content longer than {@link #COMPRESSION_THRESHOLD} characters compressed, to fit more reviews in the
+ * buffer pool of MySQL.
+ * <p>
+ * Compressed content is deflated, Base64 encoded and prefixed with {@link #COMPRESSED_MARKER}, so it is kept in the
+ * existing text column next to uncompressed content. Content that starts with the marker is always compressed,
+ * i.e. stored content is only inflated if it starts with the marker.
+ */
+@Converter
+public class ReviewContentConverter implements AttributeConverter<String, String> {
+
+  public static final int COMPRESSION_THRESHOLD = 1024;
+
+  static final String COMPRESSED_MARKER = "\u0001deflate:";
+
+  private static final int BUFFER_SIZE = 4096;
+
+  @Override
+  public String convertToDatabaseColumn(String content) {
+    if (content == null || (content.length() <= COMPRESSION_THRESHOLD && !content.startsWith(COMPRESSED_MARKER))) {
+      return content;
+    }
+
+    String compressed = COMPRESSED_MARKER + Base64.getEncoder().encodeToString(deflate(content.getBytes(UTF_8)));
+
+    // Incompressible content is kept as is, unless it would be mistaken for compressed content
+    return (compressed.length() < content.length() || content.startsWith(COMPRESSED_MARKER)) ? compressed : content;
+  }
+
+  @Override
+  public String convertToEntityAttribute(String storedContent) {
+    if (!isCompressed(storedContent)) {
+      return storedContent;
+    }
+
+    byte[] compressed = Base64.getDecoder().decode(storedContent.substring(COMPRESSED_MARKER.length()));
+    return new String(inflate(compressed), UTF_8);
+  }
+
+  public static boolean isCompressed(String storedContent) {
+    return storedContent != null && storedContent.startsWith(COMPRESSED_MARKER);
+  }
+
+  private static byte[] deflate(byte[] data) {
+    Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+    try {
+      deflater.setInput(data);
+      deflater.finish();
+
+      ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2);
+      byte[] buffer = new byte[BUFFER_SIZE];
+      while (!deflater.finished()) {
+        out.write(buffer, 0, deflater.deflate(buffer));
+      }
+      return out.toByteArray();
+
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private static byte[] inflate(byte[] data) {
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(data);
+
+      ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+      byte[] buffer = new byte[BUFFER_SIZE];
+      while (!inflater.finished()) {
+        int length = inflater.inflate(buffer);
+        if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          throw new IllegalStateException("Truncated compressed review content");
+        }
+        out.write(buffer, 0, length);
+      }
+      return out.toByteArray();
+
+    } catch (DataFormatException e) {
+      throw new IllegalStateException("Invalid compressed review content", e);
+    } finally {
+      inflater.end();
+    }
+  }
+}
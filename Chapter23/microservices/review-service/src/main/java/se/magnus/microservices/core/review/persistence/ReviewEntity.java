@@ -18,6 +18,9 @@ public class ReviewEntity {
   private int reviewId;
   private String author;
   private String subject;
+
+  @Convert(converter = ReviewContentConverter.class)
+  @Column(columnDefinition = "mediumtext")
   private String content;
 
   public ReviewEntity() {
@@ -1,6 +1,11 @@
 package se.magnus.microservices.core.review.persistence;
 
 import java.util.List;
+import java.util.Optional;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -8,4 +13,33 @@ public interface ReviewRepository extends CrudRepository<ReviewEntity, Integer>
 
   @Transactional(readOnly = true)
   List<ReviewEntity> findByProductId(int productId);
+
+  @Transactional(readOnly = true)
+  Optional<ReviewEntity> findByProductIdAndReviewId(int productId, int reviewId);
+
+  @Transactional(readOnly = true)
+  Slice<ReviewEntity> findByIdGreaterThanOrderByIdAsc(int id, Pageable pageable);
+
+  /**
+   * Reads the content as stored in the database, i.e. without the {@link ReviewContentConverter}.
+   */
+  @Transactional(readOnly = true)
+  @Query(value = "SELECT id, version, content FROM reviews WHERE id > ?1 AND CHAR_LENGTH(content) > ?2 ORDER BY id LIMIT ?3", nativeQuery = true)
+  List<StoredContent> findStoredContentLongerThan(int id, int length, int limit);
+
+  /**
+   * Replaces the content as stored in the database, if the review is not updated since it was read.
+   *
+   * @return the number of updated reviews
+   */
+  @Transactional
+  @Modifying
+  @Query(value = "UPDATE reviews SET content = ?3, version = version + 1 WHERE id = ?1 AND version = ?2", nativeQuery = true)
+  int updateStoredContent(int id, int version, String storedContent);
+
+  interface StoredContent {
+    int getId();
+    int getVersion();
+    String getContent();
+  }
 }
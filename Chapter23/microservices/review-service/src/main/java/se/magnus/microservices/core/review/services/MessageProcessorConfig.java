@@ -1,15 +1,22 @@
 package se.magnus.microservices.core.review.services;
 
+import java.time.Duration;
 import java.util.function.Consumer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.util.retry.Retry;
 import se.magnus.api.core.review.Review;
 import se.magnus.api.core.review.ReviewService;
 import se.magnus.api.event.Event;
 import se.magnus.api.exceptions.EventProcessingException;
+import se.magnus.api.exceptions.ServiceUnavailableException;
 
 @Configuration
 public class MessageProcessorConfig {
@@ -18,9 +25,26 @@ public class MessageProcessorConfig {
 
   private final ReviewService reviewService;
 
+  private final ReviewSearchIndex searchIndex;
+
+  private final Scheduler searchScheduler;
+
+  private final int shedMaxRetries;
+  private final Duration shedMinBackoff;
+  private final Duration shedMaxBackoff;
+
   @Autowired
-  public MessageProcessorConfig(ReviewService reviewService) {
+  public MessageProcessorConfig(ReviewService reviewService, ReviewSearchIndex searchIndex,
+    @Qualifier("searchScheduler") Scheduler searchScheduler,
+    @Value("${app.shed-retry.max-retries:3}") int shedMaxRetries,
+    @Value("${app.shed-retry.min-backoff:100ms}") Duration shedMinBackoff,
+    @Value("${app.shed-retry.max-backoff:1s}") Duration shedMaxBackoff) {
     this.reviewService = reviewService;
+    this.searchIndex = searchIndex;
+    this.searchScheduler = searchScheduler;
+    this.shedMaxRetries = shedMaxRetries;
+    this.shedMinBackoff = shedMinBackoff;
+    this.shedMaxBackoff = shedMaxBackoff;
   }
 
   @Bean
@@ -33,13 +57,13 @@ public class MessageProcessorConfig {
         case CREATE:
           Review review = event.getData();
           LOG.info("Create review with ID: {}/{}", review.getProductId(), review.getReviewId());
-          reviewService.createReview(review).block();
+          retryIfShed(reviewService.createReview(review)).block();
           break;
 
         case DELETE:
           int productId = event.getKey();
           LOG.info("Delete reviews with ProductID: {}", productId);
-          reviewService.deleteReviews(productId).block();
+          retryIfShed(reviewService.deleteReviews(productId)).block();
           break;
 
         default:
@@ -51,4 +75,50 @@ public class MessageProcessorConfig {
       LOG.info("Message processing done!");
     };
   }
+
+  /**
+   * Writes that are shed to give room for reads are retried a few times, see app.shed-retry, i.e. the events waiting in
+   * the queue are the backpressure. If the write is still shed, the ServiceUnavailableException is rethrown and the
+   * retries and the dead-letter queue of the binder take over, rather than blocking the consumer. With max-retries set to
+   * 0, shed writes are handed back to the binder right away.
+   */
+  private <T> Mono<T> retryIfShed(Mono<T> write) {
+    return write.retryWhen(Retry.backoff(shedMaxRetries, shedMinBackoff)
+      .maxBackoff(shedMaxBackoff)
+      .filter(ServiceUnavailableException.class::isInstance)
+      .onRetryExhaustedThrow((spec, signal) -> signal.failure()));
+  }
+
+  /**
+   * Receives all review events, i.e. not only the share of the events processed by this instance in the consumer group,
+   * to keep the search index of every instance up to date. A created review is indexed as stored in the database if it is
+   * stored already, see ReviewSearchIndex.storedOrCreated. The index is updated on the searchScheduler.
+   */
+  @Bean
+  public Consumer<Event<Integer, Review>> searchIndexUpdater() {
+    return event -> {
+      switch (event.getEventType()) {
+
+        case CREATE:
+          Review review = event.getData();
+          LOG.debug("Index review with ID: {}/{}", review.getProductId(), review.getReviewId());
+          searchIndex.storedOrCreated(review)
+            .publishOn(searchScheduler)
+            .doOnNext(searchIndex::index)
+            .block();
+          break;
+
+        case DELETE:
+          int productId = event.getKey();
+          LOG.debug("Remove reviews with ProductID: {} from the search index", productId);
+          Mono.fromRunnable(() -> searchIndex.deleteByProductId(productId))
+            .subscribeOn(searchScheduler)
+            .block();
+          break;
+
+        default:
+          LOG.debug("Ignores event of type {} in the search index", event.getEventType());
+      }
+    };
+  }
 }
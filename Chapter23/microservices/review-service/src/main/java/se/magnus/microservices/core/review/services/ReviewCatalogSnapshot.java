@@ -0,0 +1,113 @@
+package se.magnus.microservices.core.review.services;
+
+import static se.magnus.util.admission.AdmissionController.Priority.WRITE;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.util.retry.Retry;
+import se.magnus.api.exceptions.ServiceUnavailableException;
+import se.magnus.microservices.core.review.persistence.ReviewEntity;
+import se.magnus.microservices.core.review.persistence.ReviewRepository;
+import se.magnus.util.admission.AdmissionController;
+import se.magnus.util.snapshot.CatalogSnapshot;
+import se.magnus.util.snapshot.Snapshots;
+
+/**
+ * Snapshots of the reviews, each review is written as its productId, reviewId, author, subject and content.
+ * <p>
+ * The reviews are restored in batches that are saved in parallel on the jdbcScheduler, within the limit of the
+ * jdbcAdmissionController, each batch in one transaction using JDBC batch inserts. The search index is rebuilt when all
+ * reviews are restored.
+ */
+@Component
+public class ReviewCatalogSnapshot implements CatalogSnapshot {
+
+  private static final String TYPE = "reviews";
+  // With backoffs of 0.1, 0.2, 0.4, 0.8 and then 1 second, a shed batch is retried for about 5 seconds
+  private static final int MAX_SHED_RETRIES = 8;
+
+  private final int batchSize;
+  private final int parallelism;
+  private final ReviewRepository repository;
+  private final ReviewSearchIndex searchIndex;
+  private final Scheduler jdbcScheduler;
+  private final AdmissionController jdbcAdmissionController;
+
+  @Autowired
+  public ReviewCatalogSnapshot(
+    @Value("${app.catalog-snapshot.batch-size:1000}") int batchSize,
+    @Value("${app.catalog-snapshot.restore-parallelism:4}") int parallelism,
+    ReviewRepository repository,
+    ReviewSearchIndex searchIndex,
+    @Qualifier("jdbcScheduler") Scheduler jdbcScheduler,
+    @Qualifier("jdbcAdmissionController") AdmissionController jdbcAdmissionController) {
+
+    this.batchSize = batchSize;
+    this.parallelism = parallelism;
+    this.repository = repository;
+    this.searchIndex = searchIndex;
+    this.jdbcScheduler = jdbcScheduler;
+    this.jdbcAdmissionController = jdbcAdmissionController;
+  }
+
+  @Override
+  public String getType() {
+    return TYPE;
+  }
+
+  @Override
+  public Mono<Long> write(Path file) {
+    Flux<ReviewEntity> reviews = findSlice(0)
+      .expand(slice -> slice.hasNext() ? findSlice(slice.getContent().get(slice.getNumberOfElements() - 1).getId()) : Mono.empty())
+      .flatMapIterable(Slice::getContent);
+
+    return Snapshots.write(file, TYPE, reviews, (writer, e) -> {
+      writer.writeInt(e.getProductId());
+      writer.writeInt(e.getReviewId());
+      writer.writeString(e.getAuthor());
+      writer.writeString(e.getSubject());
+      writer.writeString(e.getContent());
+    });
+  }
+
+  @Override
+  public Mono<Long> restore(Path file) {
+    return Snapshots.restore(file, TYPE,
+        reader -> new ReviewEntity(reader.readInt(), reader.readInt(), reader.readString(), reader.readString(), reader.readString()),
+        batchSize, parallelism, batch -> save(batch))
+      .flatMap(count -> Mono.fromCallable(() -> {
+        searchIndex.rebuild();
+        return count;
+      }).subscribeOn(jdbcScheduler));
+  }
+
+  private Mono<Slice<ReviewEntity>> findSlice(int afterId) {
+    return Mono.fromCallable(() -> repository.findByIdGreaterThanOrderByIdAsc(afterId, PageRequest.of(0, batchSize)))
+      .subscribeOn(jdbcScheduler);
+  }
+
+  /**
+   * Saves the batch in one transaction on the jdbcScheduler, within the limit of the jdbcAdmissionController. A shed
+   * batch is retried, the restore is not worth failing for a busy database.
+   */
+  private Mono<Long> save(List<ReviewEntity> batch) {
+    return jdbcAdmissionController.admit(WRITE, Mono.fromCallable(() -> {
+        repository.saveAll(batch);
+        return (long) batch.size();
+      }).subscribeOn(jdbcScheduler))
+      .retryWhen(Retry.backoff(MAX_SHED_RETRIES, Duration.ofMillis(100))
+        .maxBackoff(Duration.ofSeconds(1))
+        .filter(ServiceUnavailableException.class::isInstance)
+        .onRetryExhaustedThrow((spec, signal) -> signal.failure()));
+  }
+}
@@ -0,0 +1,96 @@
+package se.magnus.microservices.core.review.services;
+
+import static se.magnus.microservices.core.review.persistence.ReviewContentConverter.COMPRESSION_THRESHOLD;
+
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import se.magnus.microservices.core.review.persistence.ReviewContentConverter;
+import se.magnus.microservices.core.review.persistence.ReviewRepository;
+import se.magnus.microservices.core.review.persistence.ReviewRepository.StoredContent;
+
+/**
+ * Compresses the content of reviews stored before the {@link ReviewContentConverter} was introduced.
+ * <p>
+ * The reviews are processed in batches in the order of their ids. A review updated while the backfill is running
+ * is skipped, it is compressed when it is saved anyway. Already compressed reviews are skipped, so the backfill
+ * can be run at every startup and be interrupted at any time.
+ * <p>
+ * The backfill is disabled by default. Existing databases need the content column widened first, see
+ * microservices/review-service/sql/review-content-mediumtext.sql, then enable it with
+ * app.review-content-compression.backfill-enabled.
+ */
+@Component
+public class ReviewContentBackfill {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ReviewContentBackfill.class);
+
+  private final boolean enabled;
+  private final int batchSize;
+  private final ReviewRepository repository;
+  private final Scheduler jdbcScheduler;
+
+  private final ReviewContentConverter converter = new ReviewContentConverter();
+
+  @Autowired
+  public ReviewContentBackfill(
+    @Value("${app.review-content-compression.backfill-enabled:false}") boolean enabled,
+    @Value("${app.review-content-compression.backfill-batch-size:100}") int batchSize,
+    ReviewRepository repository,
+    @Qualifier("jdbcScheduler") Scheduler jdbcScheduler) {
+
+    this.enabled = enabled;
+    this.batchSize = batchSize;
+    this.repository = repository;
+    this.jdbcScheduler = jdbcScheduler;
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void backfillAfterStartup() {
+    if (!enabled) {
+      LOG.info("The review content backfill is disabled");
+      return;
+    }
+
+    Mono.fromCallable(() -> backfill())
+      .subscribeOn(jdbcScheduler)
+      .subscribe(
+        count -> LOG.info("The review content backfill is done, compressed {} reviews", count),
+        error -> LOG.error("The review content backfill failed, restart the service to resume it", error));
+  }
+
+  /**
+   * @return the number of compressed reviews
+   */
+  public int backfill() {
+    int compressed = 0;
+    int lastId = 0;
+    List<StoredContent> batch;
+    do {
+      batch = repository.findStoredContentLongerThan(lastId, COMPRESSION_THRESHOLD, batchSize);
+      for (StoredContent stored : batch) {
+        lastId = stored.getId();
+        if (ReviewContentConverter.isCompressed(stored.getContent())) {
+          continue;
+        }
+
+        String storedContent = converter.convertToDatabaseColumn(stored.getContent());
+        if (ReviewContentConverter.isCompressed(storedContent)
+          && repository.updateStoredContent(stored.getId(), stored.getVersion(), storedContent) == 1) {
+          compressed++;
+        }
+      }
+      LOG.debug("Compressed {} reviews so far, up to id {}", compressed, lastId);
+    } while (batch.size() == batchSize);
+
+    return compressed;
+  }
+}
@@ -0,0 +1,309 @@
+package se.magnus.microservices.core.review.services;
+
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.simple.SimpleQueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.FSDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import se.magnus.api.core.review.Review;
+import se.magnus.api.exceptions.ServiceUnavailableException;
+import se.magnus.microservices.core.review.persistence.ReviewEntity;
+import se.magnus.microservices.core.review.persistence.ReviewRepository;
+import se.magnus.util.admission.AdmissionController;
+
+/**
+ * A full-text index of the subject and content of the reviews, stored in a Lucene index on local disk.
+ * <p>
+ * Every instance has its own index, updated from the review events that are broadcast to all instances.
+ * Updates are searchable as soon as they are applied, i.e. near real-time, and are committed to disk periodically, see
+ * app.review-search.commit-interval, and when the index is closed. At startup, the index is rebuilt from MySQL if it
+ * doesn't contain the same number of reviews as the database, e.g. when events were missed while the instance was down,
+ * when updates were not committed before a crash or when the instance starts with an empty disk. Updates wait while the
+ * index is rebuilt, so that they are applied on top of the rebuilt content instead of being removed by it.
+ */
+@Component
+public class ReviewSearchIndex {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ReviewSearchIndex.class);
+
+  private static final int REBUILD_BATCH_SIZE = 1000;
+
+  // Matches in the subject are considered more relevant than matches in the content
+  private static final Map<String, Float> SEARCH_FIELDS = Map.of("subject", 2.0f, "content", 1.0f);
+
+  private final ReviewRepository repository;
+  private final Scheduler jdbcScheduler;
+  private final AdmissionController jdbcAdmissionController;
+  private final Scheduler searchScheduler;
+  private final Duration commitInterval;
+
+  private final Analyzer analyzer = new StandardAnalyzer();
+  private final FSDirectory directory;
+  private final IndexWriter writer;
+  private final SearcherManager searcherManager;
+  private final ReentrantLock updateLock = new ReentrantLock();
+  private final AtomicBoolean uncommitted = new AtomicBoolean();
+  private Disposable commits;
+
+  @Autowired
+  public ReviewSearchIndex(
+    @Value("${app.review-search.index-directory:${java.io.tmpdir}/review-search-index}") String indexDirectory,
+    @Value("${app.review-search.commit-interval:5s}") Duration commitInterval,
+    ReviewRepository repository,
+    @Qualifier("jdbcScheduler") Scheduler jdbcScheduler,
+    @Qualifier("jdbcAdmissionController") AdmissionController jdbcAdmissionController,
+    @Qualifier("searchScheduler") Scheduler searchScheduler) throws IOException {
+
+    this.repository = repository;
+    this.jdbcScheduler = jdbcScheduler;
+    this.jdbcAdmissionController = jdbcAdmissionController;
+    this.searchScheduler = searchScheduler;
+    this.commitInterval = commitInterval;
+
+    LOG.info("Opens the review search index in: {}", indexDirectory);
+    this.directory = FSDirectory.open(Path.of(indexDirectory));
+    this.writer = new IndexWriter(directory, new IndexWriterConfig(analyzer).setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND));
+    this.searcherManager = new SearcherManager(writer, null);
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void commitPeriodically() {
+    commits = Flux.interval(commitInterval, commitInterval, searchScheduler)
+      .subscribe(tick -> {
+        try {
+          commit();
+        } catch (IOException | RuntimeException e) {
+          LOG.warn("Failed to commit the review search index, will try again: {}", e.toString());
+        }
+      });
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void verifyAfterStartup() {
+    Mono.fromCallable(() -> repository.count())
+      .subscribeOn(jdbcScheduler)
+      .subscribe(
+        reviewCount -> {
+          int indexedCount = writer.getDocStats().numDocs;
+          if (indexedCount == reviewCount) {
+            LOG.info("The review search index is up to date with {} reviews", indexedCount);
+          } else {
+            LOG.info("The review search index contains {} reviews but the database {}, will rebuild it", indexedCount, reviewCount);
+            rebuild();
+          }
+        },
+        error -> LOG.error("Failed to verify the review search index", error));
+  }
+
+  /**
+   * Replaces the content of the index with the reviews in the database.
+   *
+   * @return the number of indexed reviews
+   */
+  public int rebuild() {
+    updateLock.lock();
+    try {
+      writer.deleteAll();
+
+      int count = 0;
+      int lastId = 0;
+      Slice<ReviewEntity> slice;
+      do {
+        slice = repository.findByIdGreaterThanOrderByIdAsc(lastId, PageRequest.of(0, REBUILD_BATCH_SIZE));
+        for (ReviewEntity entity : slice) {
+          writer.updateDocument(idTerm(entity.getProductId(), entity.getReviewId()),
+            toDocument(entity.getProductId(), entity.getReviewId(), entity.getAuthor(), entity.getSubject(), entity.getContent()));
+          lastId = entity.getId();
+          count++;
+        }
+      } while (slice.hasNext());
+
+      commitAndRefresh();
+      LOG.info("Rebuilt the review search index with {} reviews", count);
+      return count;
+
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      updateLock.unlock();
+    }
+  }
+
+  /**
+   * The review of a create event as stored in the database, e.g. not the content of a create event that was rejected as a
+   * duplicate. The content of the event is used if the review is not stored yet by the instance that processes the
+   * event, or if the read is shed, i.e. the database is not polled until it is stored.
+   */
+  public Mono<Review> storedOrCreated(Review created) {
+    return jdbcAdmissionController.admit(AdmissionController.Priority.WRITE,
+        Mono.fromCallable(() -> repository.findByProductIdAndReviewId(created.getProductId(), created.getReviewId()).orElse(null))
+          .subscribeOn(jdbcScheduler))
+      .map(entity -> new Review(entity.getProductId(), entity.getReviewId(), entity.getAuthor(), entity.getSubject(), entity.getContent(), null))
+      .onErrorResume(ServiceUnavailableException.class, e -> Mono.empty())
+      .defaultIfEmpty(created);
+  }
+
+  public void index(Review review) {
+    updateLock.lock();
+    try {
+      writer.updateDocument(idTerm(review.getProductId(), review.getReviewId()),
+        toDocument(review.getProductId(), review.getReviewId(), review.getAuthor(), review.getSubject(), review.getContent()));
+      refresh();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      updateLock.unlock();
+    }
+  }
+
+  public void deleteByProductId(int productId) {
+    updateLock.lock();
+    try {
+      writer.deleteDocuments(IntPoint.newExactQuery("productId", productId));
+      refresh();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      updateLock.unlock();
+    }
+  }
+
+  /**
+   * Single terms must all be found, use quotes to search for a phrase, e.g. "battery \"lasts long\"".
+   *
+   * @return the matching reviews on the requested page, best match first
+   */
+  public List<Review> search(String queryText, int page, int size) {
+    SimpleQueryParser parser = new SimpleQueryParser(analyzer, SEARCH_FIELDS);
+    parser.setDefaultOperator(BooleanClause.Occur.MUST);
+    Query query = parser.parse(queryText);
+
+    // The parser returns null if the query only contains characters that are removed by the analyzer
+    if (query == null) {
+      return List.of();
+    }
+
+    try {
+      IndexSearcher searcher = searcherManager.acquire();
+      try {
+        TopDocs topDocs = searcher.search(query, (page + 1) * size);
+
+        List<Review> reviews = new ArrayList<>(size);
+        ScoreDoc[] scoreDocs = topDocs.scoreDocs;
+        for (int i = page * size; i < scoreDocs.length; i++) {
+          Document doc = searcher.storedFields().document(scoreDocs[i].doc);
+          reviews.add(new Review(
+            doc.getField("productId").numericValue().intValue(),
+            doc.getField("reviewId").numericValue().intValue(),
+            doc.get("author"),
+            doc.get("subject"),
+            doc.get("content"),
+            null));
+        }
+        return reviews;
+
+      } finally {
+        searcherManager.release(searcher);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @PreDestroy
+  public void close() throws IOException {
+    LOG.info("Closes the review search index");
+    if (commits != null) {
+      commits.dispose();
+    }
+    searcherManager.close();
+    writer.close();
+    directory.close();
+  }
+
+  /**
+   * Commits the updates applied since the last commit, if any.
+   */
+  public void commit() throws IOException {
+    if (!uncommitted.getAndSet(false)) {
+      return;
+    }
+    updateLock.lock();
+    try {
+      writer.commit();
+    } catch (IOException | RuntimeException e) {
+      uncommitted.set(true);
+      throw e;
+    } finally {
+      updateLock.unlock();
+    }
+  }
+
+  private void commitAndRefresh() throws IOException {
+    uncommitted.set(false);
+    writer.commit();
+    searcherManager.maybeRefresh();
+  }
+
+  /**
+   * Makes the updates searchable without committing them, see commit().
+   */
+  private void refresh() throws IOException {
+    uncommitted.set(true);
+    searcherManager.maybeRefresh();
+  }
+
+  private static Term idTerm(int productId, int reviewId) {
+    return new Term("id", productId + "-" + reviewId);
+  }
+
+  private static Document toDocument(int productId, int reviewId, String author, String subject, String content) {
+    Document doc = new Document();
+    doc.add(new StringField("id", productId + "-" + reviewId, Field.Store.NO));
+    doc.add(new IntPoint("productId", productId));
+    doc.add(new StoredField("productId", productId));
+    doc.add(new StoredField("reviewId", reviewId));
+    doc.add(new StoredField("author", author == null ? "" : author));
+    doc.add(new TextField("subject", subject == null ? "" : subject, Field.Store.YES));
+    doc.add(new TextField("content", content == null ? "" : content, Field.Store.YES));
+    return doc;
+  }
+}
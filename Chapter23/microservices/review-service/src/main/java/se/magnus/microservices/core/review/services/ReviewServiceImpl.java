@@ -1,8 +1,13 @@
 package se.magnus.microservices.core.review.services;
 
 import static java.util.logging.Level.FINE;
+import static se.magnus.util.admission.AdmissionController.Priority.READ;
+import static se.magnus.util.admission.AdmissionController.Priority.WRITE;
+import static se.magnus.util.http.ConditionalRequests.checkNotModified;
+import static se.magnus.util.http.ConditionalRequests.entityTag;
 
 import java.util.List;
+import java.util.stream.Stream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -18,6 +23,7 @@ import se.magnus.api.core.review.ReviewService;
 import se.magnus.api.exceptions.InvalidInputException;
 import se.magnus.microservices.core.review.persistence.ReviewEntity;
 import se.magnus.microservices.core.review.persistence.ReviewRepository;
+import se.magnus.util.admission.AdmissionController;
 import se.magnus.util.http.ServiceUtil;
 
 @RestController
@@ -25,6 +31,11 @@ public class ReviewServiceImpl implements ReviewService {
 
   private static final Logger LOG = LoggerFactory.getLogger(ReviewServiceImpl.class);
 
+  private static final int MAX_SEARCH_PAGE_SIZE = 100;
+
+  // Deep paging requires the search to collect and rank all preceding hits
+  private static final int MAX_SEARCH_RESULT_WINDOW = 10000;
+
   private final ReviewRepository repository;
 
   private final ReviewMapper mapper;
@@ -33,10 +44,27 @@ public class ReviewServiceImpl implements ReviewService {
 
   private final Scheduler jdbcScheduler;
 
+  private final AdmissionController jdbcAdmissionController;
+
+  private final Scheduler searchScheduler;
+
+  private final ReviewSearchIndex searchIndex;
+
   @Autowired
-  public ReviewServiceImpl(@Qualifier("jdbcScheduler") Scheduler jdbcScheduler, ReviewRepository repository, ReviewMapper mapper, ServiceUtil serviceUtil) {
+  public ReviewServiceImpl(
+    @Qualifier("jdbcScheduler") Scheduler jdbcScheduler,
+    @Qualifier("jdbcAdmissionController") AdmissionController jdbcAdmissionController,
+    @Qualifier("searchScheduler") Scheduler searchScheduler,
+    ReviewRepository repository,
+    ReviewSearchIndex searchIndex,
+    ReviewMapper mapper,
+    ServiceUtil serviceUtil) {
+
     this.jdbcScheduler = jdbcScheduler;
+    this.jdbcAdmissionController = jdbcAdmissionController;
+    this.searchScheduler = searchScheduler;
     this.repository = repository;
+    this.searchIndex = searchIndex;
     this.mapper = mapper;
     this.serviceUtil = serviceUtil;
   }
@@ -47,8 +75,8 @@ public class ReviewServiceImpl implements ReviewService {
     if (body.getProductId() < 1) {
       throw new InvalidInputException("Invalid productId: " + body.getProductId());
     }
-    return Mono.fromCallable(() -> internalCreateReview(body))
-      .subscribeOn(jdbcScheduler);
+    return jdbcAdmissionController.admit(WRITE, Mono.fromCallable(() -> internalCreateReview(body))
+      .subscribeOn(jdbcScheduler));
   }
 
   private Review internalCreateReview(Review body) {
@@ -73,10 +101,17 @@ public class ReviewServiceImpl implements ReviewService {
 
     LOG.info("Will get reviews for product with id={}", productId);
 
-    return Mono.fromCallable(() -> internalGetReviews(productId))
+    return jdbcAdmissionController.admit(READ, Mono.fromCallable(() -> internalGetReviews(productId))
+      .flatMap(reviews -> checkNotModified(reviews, reviewsTag(reviews)))
       .flatMapMany(Flux::fromIterable)
       .log(LOG.getName(), FINE)
-      .subscribeOn(jdbcScheduler);
+      .subscribeOn(jdbcScheduler));
+  }
+
+  private static String reviewsTag(List<Review> reviews) {
+    return entityTag(reviews.stream()
+      .flatMap(r -> Stream.of(r.getReviewId(), r.getVersion(), r.getAuthor(), r.getSubject(), r.getContent()))
+      .toArray());
   }
 
   private List<Review> internalGetReviews(int productId) {
@@ -90,6 +125,33 @@ public class ReviewServiceImpl implements ReviewService {
     return list;
   }
 
+  @Override
+  public Flux<Review> searchReviews(HttpHeaders headers, String query, int page, int size) {
+
+    if (query == null || query.isBlank()) {
+      throw new InvalidInputException("Invalid query, it must not be empty");
+    }
+
+    if (size < 1 || size > MAX_SEARCH_PAGE_SIZE) {
+      throw new InvalidInputException("Invalid size: " + size + ", must be between 1 and " + MAX_SEARCH_PAGE_SIZE);
+    }
+
+    if (page < 0 || (long) (page + 1) * size > MAX_SEARCH_RESULT_WINDOW) {
+      throw new InvalidInputException("Invalid page: " + page + ", only the first " + MAX_SEARCH_RESULT_WINDOW + " hits can be paged through");
+    }
+
+    LOG.info("Will search for reviews matching: {}, page: {}, size: {}", query, page, size);
+
+    return Mono.fromCallable(() -> searchIndex.search(query, page, size))
+      .flatMapMany(Flux::fromIterable)
+      .map(r -> {
+        r.setServiceAddress(serviceUtil.getServiceAddress());
+        return r;
+      })
+      .log(LOG.getName(), FINE)
+      .subscribeOn(searchScheduler);
+  }
+
   @Override
   public Mono<Void> deleteReviews(int productId) {
 
@@ -97,7 +159,7 @@ public class ReviewServiceImpl implements ReviewService {
       throw new InvalidInputException("Invalid productId: " + productId);
     }
 
-    return Mono.fromRunnable(() -> internalDeleteReviews(productId)).subscribeOn(jdbcScheduler).then();
+    return jdbcAdmissionController.admit(WRITE, Mono.fromRunnable(() -> internalDeleteReviews(productId)).subscribeOn(jdbcScheduler).then());
   }
 
   private void internalDeleteReviews(int productId) {
@@ -0,0 +1,50 @@
+package se.magnus.microservices.core.review;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static se.magnus.api.event.Event.Type.DELETE;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledInNativeImage;
+import reactor.core.publisher.Mono;
+import se.magnus.api.core.review.ReviewService;
+import se.magnus.api.event.Event;
+import se.magnus.api.exceptions.ServiceUnavailableException;
+import se.magnus.microservices.core.review.services.MessageProcessorConfig;
+
+@DisabledInNativeImage
+class MessageProcessorTests {
+
+  private final ReviewService reviewService = mock(ReviewService.class);
+  private final MessageProcessorConfig config = new MessageProcessorConfig(reviewService, null, null, 3,
+    Duration.ofMillis(1), Duration.ofMillis(1));
+
+  @Test
+  void shedWritesAreRetried() {
+    AtomicInteger attempts = new AtomicInteger();
+    when(reviewService.deleteReviews(1)).thenReturn(Mono.defer(() -> (attempts.incrementAndGet() <= 2)
+      ? Mono.error(new ServiceUnavailableException("Shed", Duration.ZERO))
+      : Mono.empty()));
+
+    config.messageProcessor().accept(new Event<>(DELETE, 1, null));
+
+    assertEquals(3, attempts.get());
+  }
+
+  @Test
+  void writesStillShedAreHandedBackToTheBinder() {
+    AtomicInteger attempts = new AtomicInteger();
+    when(reviewService.deleteReviews(1)).thenReturn(Mono.defer(() -> {
+      attempts.incrementAndGet();
+      return Mono.error(new ServiceUnavailableException("Shed", Duration.ZERO));
+    }));
+
+    // Rethrown after the retries, for the retries and the dead-letter queue of the binder
+    assertThrows(ServiceUnavailableException.class, () -> config.messageProcessor().accept(new Event<>(DELETE, 1, null)));
+    assertEquals(4, attempts.get());
+  }
+}
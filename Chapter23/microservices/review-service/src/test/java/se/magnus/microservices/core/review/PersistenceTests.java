@@ -4,6 +4,7 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.hasSize;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.springframework.transaction.annotation.Propagation.NOT_SUPPORTED;
+import static se.magnus.microservices.core.review.persistence.ReviewContentConverter.COMPRESSION_THRESHOLD;
 
 import java.util.List;
 import org.junit.jupiter.api.BeforeEach;
@@ -17,6 +18,7 @@ import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.transaction.annotation.Transactional;
 import se.magnus.microservices.core.review.persistence.ReviewEntity;
 import se.magnus.microservices.core.review.persistence.ReviewRepository;
+import se.magnus.microservices.core.review.services.ReviewContentBackfill;
 
 @DisabledInNativeImage
 @DataJpaTest(properties = {"spring.jpa.hibernate.ddl-auto=update"})
@@ -109,6 +111,34 @@ class PersistenceTests extends MySqlTestBase {
     assertEquals("a1", updatedEntity.getAuthor());
   }
 
+  @Test
+  void compressLongContent() {
+    String content = "A long review. ".repeat(1000);
+    ReviewEntity entity = repository.save(new ReviewEntity(1, 3, "a", "s", content));
+
+    // Stored compressed, i.e. shorter than the compression threshold
+    assertTrue(repository.findStoredContentLongerThan(0, COMPRESSION_THRESHOLD, 10).isEmpty());
+    assertEquals(content, repository.findById(entity.getId()).get().getContent());
+  }
+
+  @Test
+  void backfillLongContent() {
+    String content = "A long review. ".repeat(1000);
+
+    // Store the content uncompressed, as done before the content was compressed
+    assertEquals(1, repository.updateStoredContent(savedEntity.getId(), savedEntity.getVersion(), content));
+    assertEquals(1, repository.findStoredContentLongerThan(0, COMPRESSION_THRESHOLD, 10).size());
+
+    ReviewContentBackfill backfill = new ReviewContentBackfill(true, 10, repository, null);
+    assertEquals(1, backfill.backfill());
+    assertEquals(0, backfill.backfill());
+
+    assertTrue(repository.findStoredContentLongerThan(0, COMPRESSION_THRESHOLD, 10).isEmpty());
+    ReviewEntity foundEntity = repository.findById(savedEntity.getId()).get();
+    assertEquals(content, foundEntity.getContent());
+    assertEquals(2, foundEntity.getVersion());
+  }
+
   private void assertEqualsReview(ReviewEntity expectedEntity, ReviewEntity actualEntity) {
     assertEquals(expectedEntity.getId(),        actualEntity.getId());
     assertEquals(expectedEntity.getVersion(),   actualEntity.getVersion());
@@ -0,0 +1,29 @@
+package se.magnus.microservices.core.review;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.projection.ProjectionFactory;
+import org.springframework.data.projection.SpelAwareProxyProjectionFactory;
+import se.magnus.microservices.core.review.persistence.ReviewRepository.StoredContent;
+
+/**
+ * Exists for ./gradlew nativeTest: on the JVM it only tests Spring Data, but in the native test binary the projection
+ * needs the proxy and the accessor hints of StoredContent, see ReviewRuntimeHints. The columns of the native query of
+ * the content backfill are mapped to the projection the same way.
+ */
+class ProjectionTests {
+
+  private final ProjectionFactory factory = new SpelAwareProxyProjectionFactory();
+
+  @Test
+  void storedContentIsProjectedFromColumns() {
+    StoredContent storedContent = factory.createProjection(StoredContent.class,
+      Map.of("id", 1, "version", 2, "content", "c"));
+
+    assertEquals(1, storedContent.getId());
+    assertEquals(2, storedContent.getVersion());
+    assertEquals("c", storedContent.getContent());
+  }
+}
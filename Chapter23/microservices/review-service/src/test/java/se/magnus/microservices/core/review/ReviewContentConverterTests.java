@@ -0,0 +1,58 @@
+package se.magnus.microservices.core.review;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static se.magnus.microservices.core.review.persistence.ReviewContentConverter.COMPRESSION_THRESHOLD;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import se.magnus.microservices.core.review.persistence.ReviewContentConverter;
+
+class ReviewContentConverterTests {
+
+  private final ReviewContentConverter converter = new ReviewContentConverter();
+
+  @Test
+  void keepShortContent() {
+    String content = "c".repeat(COMPRESSION_THRESHOLD);
+
+    assertEquals(content, converter.convertToDatabaseColumn(content));
+    assertEquals(content, converter.convertToEntityAttribute(content));
+    assertNull(converter.convertToDatabaseColumn(null));
+    assertNull(converter.convertToEntityAttribute(null));
+  }
+
+  @Test
+  void compressLongContent() {
+    String content = "The battery lasts long, räksmörgås included. ".repeat(100);
+
+    String storedContent = converter.convertToDatabaseColumn(content);
+    assertTrue(ReviewContentConverter.isCompressed(storedContent));
+    assertTrue(storedContent.length() < content.length() / 10);
+    assertEquals(content, converter.convertToEntityAttribute(storedContent));
+  }
+
+  @Test
+  void keepIncompressibleContent() {
+    Random random = new Random(1);
+    StringBuilder content = new StringBuilder();
+    for (int i = 0; i < 2 * COMPRESSION_THRESHOLD; i++) {
+      content.append((char) ('!' + random.nextInt(94)));
+    }
+
+    String storedContent = converter.convertToDatabaseColumn(content.toString());
+    assertFalse(ReviewContentConverter.isCompressed(storedContent));
+    assertEquals(content.toString(), converter.convertToEntityAttribute(storedContent));
+  }
+
+  @Test
+  void compressContentLookingCompressed() {
+    String content = converter.convertToDatabaseColumn("c".repeat(2 * COMPRESSION_THRESHOLD)).substring(0, 20);
+
+    String storedContent = converter.convertToDatabaseColumn(content);
+    assertTrue(ReviewContentConverter.isCompressed(storedContent));
+    assertEquals(content, converter.convertToEntityAttribute(storedContent));
+  }
+}
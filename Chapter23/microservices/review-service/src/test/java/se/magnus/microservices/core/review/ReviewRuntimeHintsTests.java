@@ -0,0 +1,86 @@
+package se.magnus.microservices.core.review;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.aot.hint.MemberCategory.INVOKE_DECLARED_CONSTRUCTORS;
+import static org.springframework.aot.hint.predicate.RuntimeHintsPredicates.reflection;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledInNativeImage;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.aop.SpringProxy;
+import org.springframework.aop.framework.Advised;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.boot.SpringApplicationAotProcessor;
+import org.springframework.context.aot.AbstractAotProcessor.Settings;
+import org.springframework.core.DecoratingProxy;
+import org.springframework.data.projection.TargetAware;
+import se.magnus.microservices.core.review.persistence.ReviewContentConverter;
+import se.magnus.microservices.core.review.persistence.ReviewEntity;
+import se.magnus.microservices.core.review.persistence.ReviewRepository;
+import se.magnus.microservices.core.review.persistence.ReviewRepository.StoredContent;
+
+/**
+ * Verifies the hints of the native image on the JVM, since a missing hint only shows up when the native image is run.
+ */
+@DisabledInNativeImage
+class ReviewRuntimeHintsTests {
+
+  private final ObjectMapper mapper = new ObjectMapper();
+
+  @Test
+  void hintsAreRegistered() throws ReflectiveOperationException {
+    RuntimeHints hints = new RuntimeHints();
+    new ReviewRuntimeHints().registerHints(hints, getClass().getClassLoader());
+
+    for (Method accessor : StoredContent.class.getMethods()) {
+      assertThat(reflection().onMethod(accessor)).accepts(hints);
+    }
+    assertThat(reflection().onType(Class.forName(ReviewRuntimeHints.MAPPER_IMPLEMENTATION))
+      .withMemberCategory(INVOKE_DECLARED_CONSTRUCTORS)).accepts(hints);
+
+    Class<?> unsafe = Class.forName("sun.misc.Unsafe");
+    assertThat(reflection().onField(unsafe.getDeclaredField("theUnsafe"))).accepts(hints);
+    assertThat(reflection().onMethod(unsafe.getMethod("invokeCleaner", ByteBuffer.class))).accepts(hints);
+  }
+
+  /**
+   * The same AOT processing as the processAot task of the build, i.e. the hints the native image is built with.
+   */
+  @Test
+  void aotProcessingRegistersEntityAndRepository(@TempDir Path output) throws IOException {
+    Settings settings = Settings.builder()
+      .sourceOutput(output.resolve("sources"))
+      .resourceOutput(output.resolve("resources"))
+      .classOutput(output.resolve("classes"))
+      .groupId("se.magnus")
+      .artifactId("review")
+      .build();
+    new SpringApplicationAotProcessor(ReviewServiceApplication.class, settings, new String[0]).process();
+
+    Path config = output.resolve("resources/META-INF/native-image/se.magnus/review");
+    List<Object> types = read(config.resolve("reflect-config.json")).stream().map(type -> type.get("name")).toList();
+    List<Object> proxies = read(config.resolve("proxy-config.json")).stream().map(proxy -> proxy.get("interfaces")).toList();
+
+    assertThat(types).contains(
+      ReviewEntity.class.getName(),
+      ReviewContentConverter.class.getName(),
+      StoredContent.class.getName(),
+      ReviewRuntimeHints.MAPPER_IMPLEMENTATION);
+    assertThat(proxies).contains(
+      List.of(ReviewRepository.class.getName(), SpringProxy.class.getName(), Advised.class.getName(),
+        DecoratingProxy.class.getName()),
+      List.of(StoredContent.class.getName(), TargetAware.class.getName(), SpringProxy.class.getName(),
+        DecoratingProxy.class.getName()));
+  }
+
+  private List<Map<String, Object>> read(Path config) throws IOException {
+    return mapper.readValue(config.toFile(), mapper.getTypeFactory().constructCollectionType(List.class, Map.class));
+  }
+}
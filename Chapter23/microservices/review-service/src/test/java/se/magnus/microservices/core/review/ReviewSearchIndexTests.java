@@ -0,0 +1,110 @@
+package se.magnus.microservices.core.review;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.store.FSDirectory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import se.magnus.api.core.review.Review;
+import se.magnus.microservices.core.review.services.ReviewSearchIndex;
+
+class ReviewSearchIndexTests {
+
+  @TempDir
+  Path indexDirectory;
+
+  private ReviewSearchIndex index;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    index = new ReviewSearchIndex(indexDirectory.toString(), Duration.ofSeconds(5), null, null, null, null);
+    index.index(new Review(1, 1, "a", "Great battery", "The battery lasts long", null));
+    index.index(new Review(1, 2, "a", "Bad screen", "The screen is dim, but the battery is long lasting", null));
+    index.index(new Review(2, 1, "a", "Ok", "Long delivery time", null));
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    index.close();
+  }
+
+  @Test
+  void termQuery() {
+    assertReviews(index.search("battery", 0, 10), "1/1", "1/2");
+    assertReviews(index.search("screen battery", 0, 10), "1/2");
+    assertReviews(index.search("missing", 0, 10));
+  }
+
+  @Test
+  void rankedResults() {
+    // The shorter the text the term is found in, the better the match
+    assertReviews(index.search("long", 0, 10), "2/1", "1/1", "1/2");
+
+    // Matches in the subject rank higher than matches in the content
+    index.index(new Review(3, 1, "a", "Ok", "The display is fine", null));
+    index.index(new Review(4, 1, "a", "Display", "Nothing more to say", null));
+    assertReviews(index.search("display", 0, 10), "4/1", "3/1");
+  }
+
+  @Test
+  void phraseQuery() {
+    assertReviews(index.search("\"lasts long\"", 0, 10), "1/1");
+    assertReviews(index.search("\"long lasting\"", 0, 10), "1/2");
+  }
+
+  @Test
+  void pagination() {
+    assertReviews(index.search("long", 0, 2), "2/1", "1/1");
+    assertReviews(index.search("long", 1, 2), "1/2");
+    assertReviews(index.search("long", 2, 2));
+  }
+
+  @Test
+  void updateAndDelete() {
+    index.index(new Review(1, 1, "a", "Great battery", "Changed my mind", null));
+    assertReviews(index.search("\"lasts long\"", 0, 10));
+
+    index.deleteByProductId(1);
+    assertReviews(index.search("battery", 0, 10));
+    assertReviews(index.search("long", 0, 10), "2/1");
+  }
+
+  @Test
+  void persistedToDisk() throws IOException {
+    index.close();
+    index = new ReviewSearchIndex(indexDirectory.toString(), Duration.ofSeconds(5), null, null, null, null);
+
+    assertReviews(index.search("battery", 0, 10), "1/1", "1/2");
+  }
+
+  @Test
+  void updatesAreSearchableBeforeTheyAreCommitted() throws IOException {
+    assertReviews(index.search("battery", 0, 10), "1/1", "1/2");
+    assertEquals(0, committedReviews());
+
+    index.commit();
+    assertEquals(3, committedReviews());
+  }
+
+  private int committedReviews() throws IOException {
+    try (FSDirectory directory = FSDirectory.open(indexDirectory)) {
+      if (!DirectoryReader.indexExists(directory)) {
+        return 0;
+      }
+      try (DirectoryReader reader = DirectoryReader.open(directory)) {
+        return reader.numDocs();
+      }
+    }
+  }
+
+  private void assertReviews(List<Review> reviews, String... expectedIds) {
+    assertEquals(List.of(expectedIds), reviews.stream().map(r -> r.getProductId() + "/" + r.getReviewId()).toList());
+  }
+}
@@ -7,6 +7,9 @@ import static org.springframework.http.MediaType.APPLICATION_JSON;
 import static se.magnus.api.event.Event.Type.CREATE;
 import static se.magnus.api.event.Event.Type.DELETE;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
 import java.util.function.Consumer;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -15,6 +18,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.HttpStatus;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import se.magnus.api.core.review.Review;
 import se.magnus.api.event.Event;
@@ -38,6 +43,20 @@ class ReviewServiceApplicationTests extends MySqlTestBase {
   @Qualifier("messageProcessor")
   private Consumer<Event<Integer, Review>> messageProcessor;
 
+  @Autowired
+  @Qualifier("searchIndexUpdater")
+  private Consumer<Event<Integer, Review>> searchIndexUpdater;
+
+  @DynamicPropertySource
+  static void searchIndexProperties(DynamicPropertyRegistry registry) {
+    try {
+      String indexDirectory = Files.createTempDirectory("review-search-index").toString();
+      registry.add("app.review-search.index-directory", () -> indexDirectory);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
   @BeforeEach
   void setupDb() {
     repository.deleteAll();
@@ -131,6 +150,70 @@ class ReviewServiceApplicationTests extends MySqlTestBase {
       .jsonPath("$.message").isEqualTo("Invalid productId: " + productIdInvalid);
   }
 
+  @Test
+  void searchReviews() {
+
+    // The search index is not cleared between the tests, use productIds not used by other tests
+    sendCreateReviewEvent(301, 1);
+    sendCreateReviewEvent(301, 2);
+    sendCreateReviewEvent(302, 1);
+
+    getAndVerifySearch("?query=subject", OK)
+      .jsonPath("$.length()").isEqualTo(3);
+
+    getAndVerifySearch("?query=\"content 2\"", OK)
+      .jsonPath("$.length()").isEqualTo(1)
+      .jsonPath("$[0].productId").isEqualTo(301)
+      .jsonPath("$[0].reviewId").isEqualTo(2)
+      .jsonPath("$[0].content").isEqualTo("Content 2");
+
+    getAndVerifySearch("?query=subject&page=1&size=2", OK)
+      .jsonPath("$.length()").isEqualTo(1);
+
+    sendDeleteReviewEvent(301);
+
+    getAndVerifySearch("?query=subject", OK)
+      .jsonPath("$.length()").isEqualTo(1)
+      .jsonPath("$[0].productId").isEqualTo(302);
+  }
+
+  @Test
+  void searchIndexesStoredReviewsOnly() {
+
+    sendCreateReviewEvent(303, 1);
+
+    // A duplicate that is rejected when stored shall not replace the stored review in the search index
+    Review duplicate = new Review(303, 1, "Author 1", "Subject 1", "Rejected duplicate", "SA");
+    Event<Integer, Review> event = new Event(CREATE, 303, duplicate);
+    assertThrows(InvalidInputException.class, () -> messageProcessor.accept(event));
+    searchIndexUpdater.accept(event);
+
+    getAndVerifySearch("?query=\"rejected duplicate\"", OK)
+      .jsonPath("$.length()").isEqualTo(0);
+    getAndVerifySearch("?query=\"content 1\" subject", OK)
+      .jsonPath("$[?(@.productId == 303)].content").isEqualTo("Content 1");
+  }
+
+  @Test
+  void searchReviewsInvalidParameters() {
+
+    getAndVerifySearch("?query=", UNPROCESSABLE_ENTITY)
+      .jsonPath("$.message").isEqualTo("Invalid query, it must not be empty");
+
+    getAndVerifySearch("?query=subject&size=101", UNPROCESSABLE_ENTITY)
+      .jsonPath("$.message").isEqualTo("Invalid size: 101, must be between 1 and 100");
+  }
+
+  private WebTestClient.BodyContentSpec getAndVerifySearch(String query, HttpStatus expectedStatus) {
+    return client.get()
+      .uri("/review/search" + query)
+      .accept(APPLICATION_JSON)
+      .exchange()
+      .expectStatus().isEqualTo(expectedStatus)
+      .expectHeader().contentType(APPLICATION_JSON)
+      .expectBody();
+  }
+
   private WebTestClient.BodyContentSpec getAndVerifyReviewsByProductId(int productId, HttpStatus expectedStatus) {
     return getAndVerifyReviewsByProductId("?productId=" + productId, expectedStatus);
   }
@@ -149,10 +232,12 @@ class ReviewServiceApplicationTests extends MySqlTestBase {
     Review review = new Review(productId, reviewId, "Author " + reviewId, "Subject " + reviewId, "Content " + reviewId, "SA");
     Event<Integer, Review> event = new Event(CREATE, productId, review);
     messageProcessor.accept(event);
+    searchIndexUpdater.accept(event);
   }
 
   private void sendDeleteReviewEvent(int productId) {
     Event<Integer, Review> event = new Event(DELETE, productId, null);
     messageProcessor.accept(event);
+    searchIndexUpdater.accept(event);
   }
 }
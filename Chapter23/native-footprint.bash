@@ -0,0 +1,68 @@
+#!/usr/bin/env bash
+#
+# Builds the native image of a service and reports its size, startup time and memory use, e.g. to compare two versions of the
+# source code:
+#
+#   ./native-footprint.bash product-composite
+#   git checkout <other version> && ./native-footprint.bash product-composite
+#
+# The startup time is the time reported by Spring Boot when the service is started with docker-compose-native.yml, i.e. with the
+# services it depends on already running. The memory use is the resident set size (RSS) of the service after startup.
+#
+# With --jvm, the same is reported for the JVM image of the service, started with docker-compose.yml, for comparison:
+#
+#   ./native-footprint.bash review --jvm
+#
+: ${COMPOSE_FILE=docker-compose-native.yml}
+: ${JVM_COMPOSE_FILE=docker-compose.yml}
+
+SERVICE=$1
+
+if [[ -z "$SERVICE" ]]
+then
+  echo "Usage: $0 <service, e.g. product-composite> [--jvm]"
+  exit 1
+fi
+
+# Reports the image size, startup time and RSS of the service, started with the given compose file
+function footprint() {
+  local composeFile=$1
+  local image=$2
+
+  echo "Image size of $image: $(docker image inspect --format '{{.Size}}' $image | awk '{ printf "%.1f MB", $1 / 1024 / 1024 }')"
+
+  docker compose -f $composeFile up -d --wait $SERVICE || exit 1
+  local started=""
+  for i in $(seq 1 60)
+  do
+    started=$(docker compose -f $composeFile logs $SERVICE | grep -o "Started .* in .* seconds ([^)]*)" | tail -1)
+    [[ -n "$started" ]] && break
+    sleep 1
+  done
+  local rss=$(docker top $(docker compose -f $composeFile ps -q $SERVICE) -o pid,rss | awk 'NR > 1 { kb += $2 } END { printf "%.1f MB", kb / 1024 }')
+  docker compose -f $composeFile stop $SERVICE > /dev/null
+
+  if [[ -z "$started" ]]
+  then
+    echo "$SERVICE did not start, see: docker compose -f $composeFile logs $SERVICE"
+    exit 1
+  fi
+  echo "Startup of $SERVICE: $started"
+  echo "RSS of $SERVICE after startup: $rss"
+}
+
+IMAGE=$(docker compose -f $COMPOSE_FILE config --images $SERVICE 2>/dev/null | head -1)
+IMAGE=${IMAGE:-hands-on/native-$SERVICE-service}
+
+./gradlew :microservices:$SERVICE-service:bootBuildImage || exit 1
+footprint $COMPOSE_FILE $IMAGE
+
+if [[ "$2" == "--jvm" ]]
+then
+  JVM_IMAGE=$(docker compose -f $JVM_COMPOSE_FILE config --images $SERVICE 2>/dev/null | head -1)
+  JVM_IMAGE=${JVM_IMAGE:-hands-on/$SERVICE-service}
+
+  echo
+  ./gradlew :microservices:$SERVICE-service:build -x test && docker compose -f $JVM_COMPOSE_FILE build $SERVICE || exit 1
+  footprint $JVM_COMPOSE_FILE $JVM_IMAGE
+fi
@@ -4,21 +4,47 @@ import brave.baggage.BaggagePropagation;
 import brave.baggage.BaggagePropagationCustomizer;
 import brave.propagation.B3Propagation;
 import brave.propagation.Propagation;
+import java.time.Duration;
 import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.cloud.client.loadbalancer.LoadBalanced;
+import org.springframework.cloud.loadbalancer.annotation.LoadBalancerClients;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
 import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.publisher.Hooks;
+import se.magnus.util.http.PooledHttpClient;
+import se.magnus.util.loadbalancer.LatencyAwareLoadBalancerConfiguration;
+import se.magnus.util.startup.ExitOnRefresh;
 
 @SpringBootApplication
+@LoadBalancerClients(defaultConfiguration = LatencyAwareLoadBalancerConfiguration.class)
+@Import(ExitOnRefresh.class)
 public class GatewayApplication {
 
+  /**
+   * The connection pool of the calls made by the gateway's own WebClients, e.g. the health checks of the microservices.
+   * The routed requests use the HTTP client of Spring Cloud Gateway, see spring.cloud.gateway.httpclient.
+   */
+  @Bean
+  public PooledHttpClient gatewayHttpClient(
+    @Value("${app.http-client.h2c:true}") boolean h2c,
+    @Value("${app.http-client.max-connections:100}") int maxConnections,
+    @Value("${app.http-client.max-idle-time:30s}") Duration maxIdleTime,
+    @Value("${app.http-client.eviction-interval:10s}") Duration evictionInterval,
+    @Value("${app.http-client.pending-acquire-max-count:200}") int pendingAcquireMaxCount,
+    @Value("${app.http-client.pending-acquire-timeout:2s}") Duration pendingAcquireTimeout) {
+
+    return new PooledHttpClient("gateway", h2c, maxConnections, maxIdleTime, evictionInterval, pendingAcquireMaxCount,
+      pendingAcquireTimeout);
+  }
+
   @Bean
   @LoadBalanced
-  public WebClient.Builder loadBalancedWebClientBuilder() {
-    return WebClient.builder();
+  public WebClient.Builder loadBalancedWebClientBuilder(PooledHttpClient gatewayHttpClient) {
+    return WebClient.builder().clientConnector(gatewayHttpClient.connector());
   }
 
   @Bean
@@ -0,0 +1,52 @@
+package se.magnus.springcloud.gateway;
+
+import java.time.Duration;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.core.Ordered;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+/**
+ * Sets the time budget of the routed requests in the X-Request-Timeout-Ms header, i.e. the time in milliseconds that
+ * the microservices have to respond, including the calls they make to each other. A shorter budget set by the client
+ * is kept.
+ */
+@Component
+public class RequestTimeoutFilter implements GlobalFilter, Ordered {
+
+  static final String TIMEOUT_HEADER = "X-Request-Timeout-Ms";
+
+  private final Duration requestTimeout;
+
+  @Autowired
+  public RequestTimeoutFilter(@Value("${app.request-timeout:5s}") Duration requestTimeout) {
+    this.requestTimeout = requestTimeout;
+  }
+
+  @Override
+  public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+    long timeoutMillis = Math.min(requestTimeout.toMillis(), clientTimeoutMillis(exchange));
+
+    return chain.filter(exchange.mutate()
+      .request(request -> request.headers(headers -> headers.set(TIMEOUT_HEADER, String.valueOf(timeoutMillis))))
+      .build());
+  }
+
+  private long clientTimeoutMillis(ServerWebExchange exchange) {
+    String timeout = exchange.getRequest().getHeaders().getFirst(TIMEOUT_HEADER);
+    try {
+      return (timeout == null) ? Long.MAX_VALUE : Long.parseLong(timeout.trim());
+    } catch (NumberFormatException e) {
+      return Long.MAX_VALUE;
+    }
+  }
+
+  @Override
+  public int getOrder() {
+    return Ordered.HIGHEST_PRECEDENCE;
+  }
+}
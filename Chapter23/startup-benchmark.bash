@@ -0,0 +1,81 @@
+#!/usr/bin/env bash
+#
+# Measures the time it takes for the services to become ready, i.e. to report UP on their readiness probe, when they are started
+# on the JVM without the CDS archive of their Docker images, with it, i.e. as the images start them, and with it and AOT processing:
+#
+#   ./gradlew build && docker compose build
+#   ./startup-benchmark.bash
+#   RUNS=10 ./startup-benchmark.bash product review
+#
+# Each service is started RUNS times per mode in a container of its own, with the services it depends on already running. The
+# median time from the start of the container to the readiness probe reporting UP is reported. Note that the readiness of
+# product-composite includes its warm-up, see app.warm-up in config-repo/product-composite.yml.
+#
+: ${COMPOSE_FILE=docker-compose.yml}
+: ${RUNS=5}
+
+SERVICES=${@:-product recommendation review product-composite gateway}
+
+declare -A MODES=(
+  [jvm]="-Dspring.aot.enabled=false"
+  [cds]="-XX:SharedArchiveFile=application.jsa"
+  [aot+cds]="-XX:SharedArchiveFile=application.jsa -Dspring.aot.enabled=true"
+)
+
+function readinessUrl() {
+  if [[ "$1" == "gateway" ]]
+  then
+    echo "https://localhost:8443/actuator/health/readiness"
+  else
+    echo "http://localhost:4004/actuator/health/readiness"
+  fi
+}
+
+function now() {
+  echo $(($(date +%s%N) / 1000000))
+}
+
+# Prints the time to ready in ms of one start of the service, or nothing if it didn't become ready within 120 s
+function timeToReady() {
+  local service=$1
+  local javaOptions=$2
+  local url=$(readinessUrl $service)
+
+  local start=$(now)
+  local container=$(docker compose -f $COMPOSE_FILE run -d --rm --no-deps -e JDK_JAVA_OPTIONS="$javaOptions" $service)
+  local ready=""
+  while (( $(now) - start < 120000 ))
+  do
+    if docker exec $container curl -fsk $url 2>/dev/null | grep -q '"UP"'
+    then
+      ready=$(($(now) - start))
+      break
+    fi
+    sleep 0.1
+  done
+  docker stop $container > /dev/null
+  echo $ready
+}
+
+function median() {
+  sort -n | awk '{ times[NR] = $1 } END { if (NR > 0) print times[int((NR + 1) / 2)] }'
+}
+
+docker compose -f $COMPOSE_FILE up -d --wait || exit 1
+
+printf "%-20s %10s %10s %10s\n" "Time to ready (ms)" jvm cds aot+cds
+for SERVICE in $SERVICES
+do
+  printf "%-20s" $SERVICE
+  for MODE in jvm cds aot+cds
+  do
+    TIMES=$(for i in $(seq 1 $RUNS); do timeToReady $SERVICE "${MODES[$MODE]}"; done)
+    if [[ $(echo "$TIMES" | grep -c .) -lt $RUNS ]]
+    then
+      printf " %10s" "n/a"
+    else
+      printf " %10s" $(echo "$TIMES" | median)
+    fi
+  done
+  echo
+done
@@ -274,6 +274,14 @@ assertCurl 200 "curl $AUTH -k https://$HOST:$PORT/product-composite/$PROD_ID_REV
 assertEqual $PROD_ID_REVS_RECS $(echo $RESPONSE | jq .productId)
 assertEqual 3 $(echo $RESPONSE | jq ".recommendations | length")
 assertEqual 3 $(echo $RESPONSE | jq ".reviews | length")
+assertEqual 3 $(echo $RESPONSE | jq ".ratingSummary.count")
+assertEqual 2 $(echo $RESPONSE | jq ".ratingSummary.average")
+
+# Verify that only the best rated recommendations are returned when a recommendation limit is specified
+assertCurl 200 "curl $AUTH -k https://$HOST:$PORT/product-composite/$PROD_ID_REVS_RECS?recommendationLimit=2 -s"
+assertEqual 2 $(echo $RESPONSE | jq ".recommendations | length")
+assertEqual 3 $(echo $RESPONSE | jq ".recommendations[0].rate")
+assertEqual 3 $(echo $RESPONSE | jq ".ratingSummary.count")
 
 # Verify that a 404 (Not Found) error is returned for a non-existing productId ($PROD_ID_NOT_FOUND)
 assertCurl 404 "curl $AUTH -k https://$HOST:$PORT/product-composite/$PROD_ID_NOT_FOUND -s"
@@ -283,6 +291,7 @@ assertEqual "No product found for productId: $PROD_ID_NOT_FOUND" "$(echo $RESPON
 assertCurl 200 "curl $AUTH -k https://$HOST:$PORT/product-composite/$PROD_ID_NO_RECS -s"
 assertEqual $PROD_ID_NO_RECS $(echo $RESPONSE | jq .productId)
 assertEqual 0 $(echo $RESPONSE | jq ".recommendations | length")
+assertEqual 0 $(echo $RESPONSE | jq ".ratingSummary.count")
 assertEqual 3 $(echo $RESPONSE | jq ".reviews | length")
 
 # Verify that no reviews are returned for productId $PROD_ID_NO_REVS
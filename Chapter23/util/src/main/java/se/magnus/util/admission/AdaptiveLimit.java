@@ -0,0 +1,84 @@
+package se.magnus.util.admission;
+
+/**
+ * A concurrency limit that follows the latency of the admitted work, i.e. a gradient limit.
+ * <p>
+ * The limit grows while the short-term latency stays close to the long-term latency, and shrinks in proportion to
+ * the gradient between them when the latency grows, i.e. when the work is queued rather than executed. Work that is
+ * rejected by the scheduler shrinks the limit multiplicatively.
+ */
+class AdaptiveLimit {
+
+  // Number of samples the short-term and long-term latencies are averaged over
+  private static final int SHORT_WINDOW = 10;
+  private static final int LONG_WINDOW = 600;
+
+  // Latency growth that is tolerated before the limit shrinks
+  private static final double TOLERANCE = 1.5;
+  private static final double MIN_GRADIENT = 0.5;
+  private static final double SMOOTHING = 0.2;
+  private static final double BACKOFF_RATIO = 0.9;
+
+  private final int initialLimit;
+  private final int minLimit;
+  private final int maxLimit;
+
+  private double limit;
+  private double shortLatency;
+  private double longLatency;
+
+  AdaptiveLimit(int initialLimit, int minLimit, int maxLimit) {
+    this.initialLimit = initialLimit;
+    this.limit = initialLimit;
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+  }
+
+  synchronized int getLimit() {
+    return (int) limit;
+  }
+
+  /**
+   * @return the long-term latency in nanoseconds, or zero if no work is completed yet
+   */
+  synchronized long getLatency() {
+    return (long) longLatency;
+  }
+
+  /**
+   * @param latency in nanoseconds
+   * @param inflight the concurrency when the work was admitted
+   */
+  synchronized void onCompleted(long latency, int inflight) {
+    shortLatency = (shortLatency == 0) ? latency : shortLatency + (latency - shortLatency) / SHORT_WINDOW;
+    longLatency = (longLatency == 0) ? latency : longLatency + (latency - longLatency) / LONG_WINDOW;
+
+    // Lets the long-term latency catch up when the latency drops, e.g. after a period of slow queries
+    if (longLatency > 2 * shortLatency) {
+      longLatency *= 0.95;
+    }
+
+    // The limit is not grown when it isn't used, i.e. it has not been verified to be safe
+    if (inflight < limit / 2) {
+      return;
+    }
+
+    double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, TOLERANCE * longLatency / shortLatency));
+    double newLimit = limit * gradient + Math.sqrt(limit);
+    limit = clamp(limit * (1 - SMOOTHING) + newLimit * SMOOTHING);
+  }
+
+  synchronized void onRejected() {
+    limit = clamp(limit * BACKOFF_RATIO);
+  }
+
+  synchronized void reset() {
+    limit = initialLimit;
+    shortLatency = 0;
+    longLatency = 0;
+  }
+
+  private double clamp(double value) {
+    return Math.max(minLimit, Math.min(maxLimit, value));
+  }
+}
@@ -0,0 +1,119 @@
+package se.magnus.util.admission;
+
+import java.time.Duration;
+import java.util.concurrent.RejectedExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import se.magnus.api.exceptions.ServiceUnavailableException;
+
+/**
+ * Admits work to a bounded scheduler within an adaptive concurrency limit, see {@link AdaptiveLimit}, and sheds the
+ * rest with a {@link ServiceUnavailableException} rather than letting it fill up the task queue of the scheduler.
+ * Calls to another service are limited the same way, to not let a slow service hold on to the connections and event
+ * loops that calls to other services need.
+ * <p>
+ * Reads have priority over writes: a share of the limit is reserved for reads, i.e. writes are shed first. Work that
+ * the scheduler rejects anyway, e.g. since other work is submitted to it directly, is shed the same way.
+ */
+public class AdmissionController {
+
+  private static final Logger LOG = LoggerFactory.getLogger(AdmissionController.class);
+
+  // The share of the limit that writes are admitted within
+  private static final double WRITE_SHARE = 0.8;
+  private static final Duration MIN_RETRY_AFTER = Duration.ofSeconds(1);
+
+  public enum Priority { READ, WRITE }
+
+  private final String name;
+  private final AdaptiveLimit limit;
+
+  private int inflight;
+
+  /**
+   * @param name the name of the scheduler or service, used in messages
+   * @param initialLimit typically the number of threads of the scheduler
+   * @param maxLimit typically the number of threads and queued tasks of the scheduler
+   */
+  public AdmissionController(String name, int initialLimit, int maxLimit) {
+    this.name = name;
+    this.limit = new AdaptiveLimit(initialLimit, 1, maxLimit);
+  }
+
+  public <T> Mono<T> admit(Priority priority, Mono<T> work) {
+    return admit(priority, work.flux()).singleOrEmpty();
+  }
+
+  public <T> Flux<T> admit(Priority priority, Flux<T> work) {
+    return Flux.defer(() -> {
+      int admittedInflight = tryAcquire(priority);
+      if (admittedInflight < 0) {
+        return Flux.error(shed(null));
+      }
+
+      long start = System.nanoTime();
+      return work
+        .doOnComplete(() -> release(start, admittedInflight))
+        .doOnError(ex -> release((ex instanceof RejectedExecutionException) ? -1 : start, admittedInflight))
+        // Cancelled work says nothing about the latency
+        .doOnCancel(() -> release(-1, admittedInflight))
+        .onErrorMap(RejectedExecutionException.class, ex -> shed(ex));
+    });
+  }
+
+  public int getLimit() {
+    return limit.getLimit();
+  }
+
+  public synchronized int getInflight() {
+    return inflight;
+  }
+
+  /**
+   * Lets the limit start over from the initial limit, without the latencies it has followed so far. The work in
+   * flight is still counted.
+   */
+  public void reset() {
+    limit.reset();
+  }
+
+  /**
+   * @return the concurrency including the admitted work, or -1 if it is not admitted
+   */
+  private synchronized int tryAcquire(Priority priority) {
+    int currentLimit = limit.getLimit();
+    int priorityLimit = (priority == Priority.READ) ? currentLimit : Math.max(1, (int) (currentLimit * WRITE_SHARE));
+    if (inflight >= priorityLimit) {
+      LOG.debug("Sheds a {} to {}, {} in flight, limit: {}", priority, name, inflight, currentLimit);
+      return -1;
+    }
+    return ++inflight;
+  }
+
+  /**
+   * @param start the start of the work, or -1 if its latency is not to be sampled
+   */
+  private void release(long start, int admittedInflight) {
+    synchronized (this) {
+      inflight--;
+    }
+    if (start != -1) {
+      limit.onCompleted(System.nanoTime() - start, admittedInflight);
+    }
+  }
+
+  private ServiceUnavailableException shed(RejectedExecutionException rejected) {
+    if (rejected != null) {
+      limit.onRejected();
+    }
+
+    // Retry after about the time it takes for the admitted work to complete
+    Duration retryAfter = Duration.ofNanos(limit.getLatency());
+    if (retryAfter.compareTo(MIN_RETRY_AFTER) < 0) {
+      retryAfter = MIN_RETRY_AFTER;
+    }
+    return new ServiceUnavailableException(name + " is overloaded, limit: " + limit.getLimit(), retryAfter, rejected);
+  }
+}
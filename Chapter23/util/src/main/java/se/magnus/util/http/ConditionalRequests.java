@@ -0,0 +1,55 @@
+package se.magnus.util.http;
+
+import java.util.List;
+import java.util.function.Function;
+import org.springframework.web.filter.reactive.ServerWebExchangeContextFilter;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Support for conditional GET requests, i.e. an ETag is set on the response and if it matches the If-None-Match
+ * header of the request, the response is 304 Not Modified without a body.
+ * <p>
+ * The entity tags are derived from the versions of the entities, together with the values of their fields
+ * to tell apart entities that are deleted and created again with the same versions. The service address is not
+ * part of the tags, since it describes the responding instance rather than the entity.
+ */
+public final class ConditionalRequests {
+
+  private ConditionalRequests() {
+  }
+
+  /**
+   * @return a strong entity tag, derived from the values of the parts, see {@link EntityTagBuilder}
+   */
+  public static String entityTag(Object... parts) {
+    EntityTagBuilder builder = new EntityTagBuilder();
+    for (Object part : parts) {
+      builder.add(part);
+    }
+    return builder.build();
+  }
+
+  /**
+   * @return the body, or empty if the request is a conditional GET of the same entity tag
+   */
+  public static <T> Mono<T> checkNotModified(T body, String entityTag) {
+    return Mono.deferContextual(context -> ServerWebExchangeContextFilter.getExchange(context)
+      .filter(exchange -> exchange.checkNotModified(entityTag))
+      .map(exchange -> Mono.<T>empty())
+      .orElseGet(() -> Mono.just(body)));
+  }
+
+  public static <T> Mono<T> checkNotModified(Mono<T> body, Function<T, String> entityTag) {
+    return body.flatMap(value -> checkNotModified(value, entityTag.apply(value)));
+  }
+
+  /**
+   * Collects the elements to derive the entity tag from all of them, before they are emitted.
+   */
+  public static <T> Flux<T> checkNotModified(Flux<T> body, Function<List<T>, String> entityTag) {
+    return body.collectList()
+      .flatMap(list -> checkNotModified(list, entityTag.apply(list)))
+      .flatMapIterable(list -> list);
+  }
+}
@@ -0,0 +1,86 @@
+package se.magnus.util.http;
+
+import java.time.Duration;
+import java.util.Optional;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import reactor.core.publisher.Mono;
+import reactor.util.context.ContextView;
+import se.magnus.api.exceptions.DeadlineExceededException;
+
+/**
+ * The point in time when the caller of a request gives up on it, kept in the Reactor context of the request.
+ * <p>
+ * Deadlines are propagated between the services as the remaining time in milliseconds, in the
+ * {@link #TIMEOUT_HEADER} header, rather than as points in time, to not depend on the clocks of the hosts being in
+ * sync. Each service sets its own deadline from the header when the request is received, see {@link DeadlineFilter}.
+ */
+public final class Deadline {
+
+  public static final String TIMEOUT_HEADER = "X-Request-Timeout-Ms";
+
+  // Measured on the monotonic clock of the JVM
+  private final long nanoTime;
+
+  private Deadline(long nanoTime) {
+    this.nanoTime = nanoTime;
+  }
+
+  public static Deadline after(Duration timeout) {
+    return new Deadline(System.nanoTime() + timeout.toNanos());
+  }
+
+  /**
+   * @return the remaining time, or zero if the deadline is passed
+   */
+  public Duration remaining() {
+    return Duration.ofNanos(Math.max(0, nanoTime - System.nanoTime()));
+  }
+
+  /**
+   * Less than a millisecond left is the same as passed, since it can't be propagated.
+   */
+  public boolean isExpired() {
+    return remaining().toMillis() == 0;
+  }
+
+  public Deadline earliest(Deadline other) {
+    return (other == null || nanoTime - other.nanoTime <= 0) ? this : other;
+  }
+
+  public static Optional<Deadline> get(ContextView context) {
+    return context.getOrEmpty(Deadline.class);
+  }
+
+  /**
+   * @return the deadline of the current request, or empty if the caller did not set one
+   */
+  public static Mono<Deadline> current() {
+    return Mono.deferContextual(context -> Mono.justOrEmpty(get(context)));
+  }
+
+  /**
+   * Limits the deadline that is propagated by the calls made by the publisher to the timeout, if the deadline of the
+   * request is later. Used to propagate the timeout of each attempt of a call that is retried.
+   * <p>
+   * The timeout is measured from the subscription, i.e. from each attempt.
+   */
+  public static <T> Mono<T> within(Duration timeout, Mono<T> mono) {
+    return mono.contextWrite(context -> context.put(Deadline.class, after(timeout).earliest(get(context).orElse(null))));
+  }
+
+  /**
+   * Sets the {@link #TIMEOUT_HEADER} header of the requests of a WebClient to the time remaining of the current
+   * deadline. Requests are not sent if the deadline is passed, they fail with a {@link DeadlineExceededException}.
+   */
+  public static ExchangeFilterFunction propagation() {
+    return (request, next) -> Mono.deferContextual(context -> get(context)
+      .map(deadline -> deadline.isExpired()
+        ? Mono.<ClientResponse>error(new DeadlineExceededException("Deadline exceeded before calling " + request.url()))
+        : next.exchange(ClientRequest.from(request)
+          .headers(headers -> headers.set(TIMEOUT_HEADER, String.valueOf(deadline.remaining().toMillis())))
+          .build()))
+      .orElseGet(() -> next.exchange(request)));
+  }
+}
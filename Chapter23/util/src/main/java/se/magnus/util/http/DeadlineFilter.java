@@ -0,0 +1,59 @@
+package se.magnus.util.http;
+
+import static org.springframework.http.HttpStatus.GATEWAY_TIMEOUT;
+
+import java.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+/**
+ * Sets the deadline of requests with a {@link Deadline#TIMEOUT_HEADER} header, and cancels the processing of the
+ * request when it is passed, e.g. database queries and calls to other services, since the caller has given up on it.
+ * The response is then 504 Gateway Timeout, if it is not already committed.
+ * <p>
+ * Requests without the header have no deadline.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class DeadlineFilter implements WebFilter {
+
+  private static final Logger LOG = LoggerFactory.getLogger(DeadlineFilter.class);
+
+  @Override
+  public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+    String timeout = exchange.getRequest().getHeaders().getFirst(Deadline.TIMEOUT_HEADER);
+    if (timeout == null) {
+      return chain.filter(exchange);
+    }
+
+    long timeoutMillis;
+    try {
+      timeoutMillis = Long.parseLong(timeout.trim());
+    } catch (NumberFormatException e) {
+      LOG.debug("Ignores an invalid {} header: {}", Deadline.TIMEOUT_HEADER, timeout);
+      return chain.filter(exchange);
+    }
+
+    if (timeoutMillis <= 0) {
+      return Mono.error(deadlineExceeded(exchange));
+    }
+
+    Deadline deadline = Deadline.after(Duration.ofMillis(timeoutMillis));
+    return chain.filter(exchange)
+      .contextWrite(context -> context.put(Deadline.class, deadline))
+      .timeout(deadline.remaining(), Mono.error(() -> deadlineExceeded(exchange)));
+  }
+
+  private ResponseStatusException deadlineExceeded(ServerWebExchange exchange) {
+    LOG.debug("Deadline exceeded for {}", exchange.getRequest().getPath());
+    return new ResponseStatusException(GATEWAY_TIMEOUT, "Deadline exceeded");
+  }
+}
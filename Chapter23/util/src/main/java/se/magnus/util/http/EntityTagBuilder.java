@@ -0,0 +1,162 @@
+package se.magnus.util.http;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Builds a strong entity tag from the values of the parts of an entity, i.e. not from their hash codes.
+ * <p>
+ * Each part is encoded as a type byte and a length, followed by its value: the UTF-8 bytes of a string, the two's
+ * complement bytes of an integer, or the parts of a collection or map. The tag is the start of the SHA-256 digest of
+ * the encoded parts, so equal tags mean equal parts except with a negligible probability. Maps are encoded in the order
+ * of their keys, so maps with the same entries give the same tag.
+ */
+public final class EntityTagBuilder {
+
+  private static final int TAG_BYTES = 8;
+
+  private static final byte NULL = 0;
+  private static final byte STRING = 1;
+  private static final byte INT = 2;
+  private static final byte LONG = 3;
+  private static final byte DOUBLE = 4;
+  private static final byte BOOLEAN = 5;
+  private static final byte NUMBER = 6;
+  private static final byte COLLECTION = 7;
+  private static final byte MAP = 8;
+
+  private final CharsetEncoder encoder = UTF_8.newEncoder()
+    .onMalformedInput(CodingErrorAction.REPLACE)
+    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+  private byte[] bytes = new byte[256];
+  private int length;
+
+  /**
+   * @throws IllegalArgumentException if the part is not a string, number, boolean, collection or map of those, or null
+   */
+  public EntityTagBuilder add(Object part) {
+    if (part == null) {
+      writeHeader(NULL, 0);
+    } else if (part instanceof String s) {
+      byte[] utf8 = s.getBytes(UTF_8);
+      writeHeader(STRING, utf8.length);
+      write(utf8, utf8.length);
+    } else if (part instanceof Integer || part instanceof Short || part instanceof Byte) {
+      writeHeader(INT, Integer.BYTES);
+      writeInt(((Number) part).intValue());
+    } else if (part instanceof Long l) {
+      writeHeader(LONG, Long.BYTES);
+      writeLong(l);
+    } else if (part instanceof Double || part instanceof Float) {
+      writeHeader(DOUBLE, Double.BYTES);
+      writeLong(Double.doubleToLongBits(((Number) part).doubleValue()));
+    } else if (part instanceof Boolean b) {
+      writeHeader(BOOLEAN, 1);
+      write(new byte[] {(byte) (b ? 1 : 0)}, 1);
+    } else if (part instanceof Number n) {
+      byte[] digits = n.toString().getBytes(UTF_8);
+      writeHeader(NUMBER, digits.length);
+      write(digits, digits.length);
+    } else if (part instanceof Collection<?> c) {
+      writeHeader(COLLECTION, c.size());
+      c.forEach(this::add);
+    } else if (part instanceof Map<?, ?> m) {
+      writeHeader(MAP, m.size());
+      new TreeMap<>(m).forEach((key, value) -> add(key).add(value));
+    } else {
+      throw new IllegalArgumentException("Unsupported part of an entity tag: " + part.getClass().getName());
+    }
+    return this;
+  }
+
+  /**
+   * Same as adding the string of the characters, without creating the string.
+   */
+  public EntityTagBuilder addString(char[] chars, int offset, int count) {
+    int headerPosition = length;
+    writeHeader(STRING, 0);
+
+    ensureCapacity((int) Math.ceil(count * encoder.maxBytesPerChar()));
+    ByteBuffer out = ByteBuffer.wrap(bytes, length, bytes.length - length);
+    encoder.reset();
+    encoder.encode(CharBuffer.wrap(chars, offset, count), out, true);
+    encoder.flush(out);
+    int encodedLength = out.position() - length;
+    length = out.position();
+
+    // Replaces the length of the header, now that the length of the UTF-8 bytes is known
+    int end = length;
+    length = headerPosition + 1;
+    writeInt(encodedLength);
+    length = end;
+    return this;
+  }
+
+  /**
+   * Adds the parts added to another builder.
+   */
+  public EntityTagBuilder append(EntityTagBuilder parts) {
+    write(parts.bytes, parts.length);
+    return this;
+  }
+
+  /**
+   * Removes all parts, to reuse the builder.
+   */
+  public EntityTagBuilder reset() {
+    length = 0;
+    return this;
+  }
+
+  public String build() {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(bytes, 0, length);
+      return "\"" + HexFormat.of().formatHex(digest.digest(), 0, TAG_BYTES) + "\"";
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private void writeHeader(byte type, int partLength) {
+    ensureCapacity(1);
+    bytes[length++] = type;
+    writeInt(partLength);
+  }
+
+  private void writeInt(int value) {
+    ensureCapacity(Integer.BYTES);
+    for (int shift = 24; shift >= 0; shift -= 8) {
+      bytes[length++] = (byte) (value >>> shift);
+    }
+  }
+
+  private void writeLong(long value) {
+    writeInt((int) (value >>> 32));
+    writeInt((int) value);
+  }
+
+  private void write(byte[] source, int count) {
+    ensureCapacity(count);
+    System.arraycopy(source, 0, bytes, length, count);
+    length += count;
+  }
+
+  private void ensureCapacity(int additional) {
+    if (length + additional > bytes.length) {
+      bytes = Arrays.copyOf(bytes, Math.max(length + additional, 2 * bytes.length));
+    }
+  }
+}
@@ -0,0 +1,11 @@
+package se.magnus.util.http;
+
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.reactive.ServerWebExchangeContextFilter;
+
+/**
+ * Makes the current exchange available in the Reactor context, used by {@link ConditionalRequests}.
+ */
+@Component
+public class ExchangeContextFilter extends ServerWebExchangeContextFilter {
+}
@@ -1,20 +1,26 @@
 package se.magnus.util.http;
 
 import static org.springframework.http.HttpStatus.BAD_REQUEST;
+import static org.springframework.http.HttpStatus.GATEWAY_TIMEOUT;
 import static org.springframework.http.HttpStatus.NOT_FOUND;
+import static org.springframework.http.HttpStatus.SERVICE_UNAVAILABLE;
 import static org.springframework.http.HttpStatus.UNPROCESSABLE_ENTITY;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
 import se.magnus.api.exceptions.BadRequestException;
+import se.magnus.api.exceptions.DeadlineExceededException;
 import se.magnus.api.exceptions.InvalidInputException;
 import se.magnus.api.exceptions.NotFoundException;
+import se.magnus.api.exceptions.ServiceUnavailableException;
 
 @RestControllerAdvice
 class GlobalControllerExceptionHandler {
@@ -45,6 +51,25 @@ class GlobalControllerExceptionHandler {
     return createHttpErrorInfo(UNPROCESSABLE_ENTITY, request, ex);
   }
 
+  @ResponseStatus(GATEWAY_TIMEOUT)
+  @ExceptionHandler(DeadlineExceededException.class)
+  public @ResponseBody HttpErrorInfo handleDeadlineExceededException(
+    ServerHttpRequest request, DeadlineExceededException ex) {
+
+    return createHttpErrorInfo(GATEWAY_TIMEOUT, request, ex);
+  }
+
+  @ExceptionHandler(ServiceUnavailableException.class)
+  public ResponseEntity<HttpErrorInfo> handleServiceUnavailableException(
+    ServerHttpRequest request, ServiceUnavailableException ex) {
+
+    // Retry-After is in whole seconds, rounded up to not retry too early
+    long retryAfterSeconds = Math.max(1, (ex.getRetryAfter().toMillis() + 999) / 1000);
+    return ResponseEntity.status(SERVICE_UNAVAILABLE)
+      .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+      .body(createHttpErrorInfo(SERVICE_UNAVAILABLE, request, ex));
+  }
+
   private HttpErrorInfo createHttpErrorInfo(
     HttpStatus httpStatus, ServerHttpRequest request, Exception ex) {
 
@@ -0,0 +1,70 @@
+package se.magnus.util.http;
+
+import java.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.http.client.reactive.ClientHttpConnector;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+/**
+ * A Reactor Netty HTTP client with a connection pool of its own, instead of the pool shared by all clients, sized for the
+ * calls of one application to the instances of the services it calls.
+ * <p>
+ * The connections are optionally upgraded to HTTP/2 over cleartext (h2c), i.e. the calls to an instance are multiplexed
+ * over a few connections. Servers that do not accept the upgrade are called over HTTP/1.1. The metrics of the pool,
+ * e.g. the active, idle and pending connections and the time it takes to acquire a connection, are exported as
+ * <code>reactor.netty.connection.provider.*</code>, tagged with the name of the pool, by the Micrometer global registry.
+ */
+public class PooledHttpClient implements DisposableBean {
+
+  private static final Logger LOG = LoggerFactory.getLogger(PooledHttpClient.class);
+
+  private final ConnectionProvider connectionProvider;
+  private final HttpClient httpClient;
+
+  /**
+   * @param maxConnections the connections per host, i.e. per instance of a service
+   * @param maxIdleTime the time before an idle connection is closed
+   * @param evictionInterval how often idle connections are looked for and closed
+   * @param pendingAcquireMaxCount the calls that may wait for a connection when all are in use, more calls fail at once
+   * @param pendingAcquireTimeout the time a call waits for a connection before it fails
+   */
+  public PooledHttpClient(String name, boolean h2c, int maxConnections, Duration maxIdleTime, Duration evictionInterval,
+    int pendingAcquireMaxCount, Duration pendingAcquireTimeout) {
+
+    LOG.info("Creates the HTTP client {} with h2c: {}, max connections per host: {}, max idle time: {}, pending acquire max count: {}",
+      name, h2c, maxConnections, maxIdleTime, pendingAcquireMaxCount);
+
+    this.connectionProvider = ConnectionProvider.builder(name)
+      .maxConnections(maxConnections)
+      .maxIdleTime(maxIdleTime)
+      .evictInBackground(evictionInterval)
+      .pendingAcquireMaxCount(pendingAcquireMaxCount)
+      .pendingAcquireTimeout(pendingAcquireTimeout)
+      .metrics(true)
+      .build();
+
+    HttpClient client = HttpClient.create(connectionProvider);
+    this.httpClient = h2c ? client.protocol(HttpProtocol.HTTP11, HttpProtocol.H2C) : client;
+  }
+
+  public HttpClient getHttpClient() {
+    return httpClient;
+  }
+
+  /**
+   * To be set on the WebClient builders, with <code>WebClient.Builder#clientConnector</code>.
+   */
+  public ClientHttpConnector connector() {
+    return new ReactorClientHttpConnector(httpClient);
+  }
+
+  @Override
+  public void destroy() {
+    connectionProvider.dispose();
+  }
+}
@@ -0,0 +1,21 @@
+package se.magnus.util.loadbalancer;
+
+import java.util.List;
+import org.springframework.cloud.client.ServiceInstance;
+
+/**
+ * Tells if an instance of a service may get calls, e.g. by the state of a circuit breaker of the instance. The beans of
+ * the application that implement it are asked by the load balancer of each service, in addition to the ejection of
+ * {@link InstanceStats}.
+ */
+public interface InstanceAvailability {
+
+  boolean isAvailable(ServiceInstance instance);
+
+  /**
+   * Called with the instances of a service each time they are supplied, before they are asked if they are available,
+   * to let the state of the instances that are no longer listed be removed.
+   */
+  default void retainAll(String serviceId, List<ServiceInstance> instances) {
+  }
+}
@@ -0,0 +1,195 @@
+package se.magnus.util.loadbalancer;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.CompletionContext;
+import org.springframework.cloud.client.loadbalancer.LoadBalancerLifecycle;
+import org.springframework.cloud.client.loadbalancer.Request;
+import org.springframework.cloud.client.loadbalancer.Response;
+import org.springframework.cloud.client.loadbalancer.ResponseData;
+import org.springframework.cloud.client.loadbalancer.TimedRequestContext;
+
+/**
+ * The latency, in-flight calls and errors of the instances of a service, as reported to the lifecycle of its load balancer
+ * by the load-balanced WebClients and the gateway.
+ * <p>
+ * The latency is a moving average over time that follows latency peaks at once, i.e. an instance that gets slow is
+ * avoided at once, and an instance that was slow a while ago is tried again. An instance with an error rate above the
+ * threshold is ejected for a while, unless too many of the instances are ejected already.
+ */
+public class InstanceStats implements LoadBalancerLifecycle<Object, Object, ServiceInstance> {
+
+  private static final Logger LOG = LoggerFactory.getLogger(InstanceStats.class);
+
+  // Number of calls the error rate is averaged over
+  private static final int ERROR_WINDOW = 20;
+  // The latency assumed for the calls in flight to an instance that has not completed any call yet, and for failed calls,
+  // to not let an instance that fails fast get the calls
+  private static final long PENALTY_NANOS = 1_000_000_000L;
+
+  private final String serviceId;
+  private final double decayNanos;
+  private final double errorRateThreshold;
+  private final int minRequests;
+  private final long ejectionTimeNanos;
+  private final double maxEjectionShare;
+  private final LongSupplier nanoClock;
+
+  private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+
+  /**
+   * @param decay the time it takes for the latency of a call to lose most of its weight in the average latency
+   * @param errorRateThreshold the error rate, e.g. 0.5 for 50%, at which an instance is ejected
+   * @param minRequests the calls to an instance before its error rate is trusted
+   * @param ejectionTime the time an ejected instance gets no calls
+   * @param maxEjectionShare the largest share of the instances that is ejected at the same time
+   */
+  public InstanceStats(String serviceId, Duration decay, double errorRateThreshold, int minRequests, Duration ejectionTime,
+    double maxEjectionShare) {
+    this(serviceId, decay, errorRateThreshold, minRequests, ejectionTime, maxEjectionShare, System::nanoTime);
+  }
+
+  InstanceStats(String serviceId, Duration decay, double errorRateThreshold, int minRequests, Duration ejectionTime,
+    double maxEjectionShare, LongSupplier nanoClock) {
+    this.serviceId = serviceId;
+    this.decayNanos = decay.toNanos();
+    this.errorRateThreshold = errorRateThreshold;
+    this.minRequests = minRequests;
+    this.ejectionTimeNanos = ejectionTime.toNanos();
+    this.maxEjectionShare = maxEjectionShare;
+    this.nanoClock = nanoClock;
+  }
+
+  /**
+   * The cost of a call to the instance, i.e. its average latency weighted by the calls in flight to it. An instance
+   * without calls yet has no cost, to let it get a call and a latency.
+   */
+  public double cost(ServiceInstance instance) {
+    Stats instanceStats = stats.get(key(instance));
+    return (instanceStats == null) ? 0 : instanceStats.cost(nanoClock.getAsLong());
+  }
+
+  public boolean isEjected(ServiceInstance instance) {
+    Stats instanceStats = stats.get(key(instance));
+    return instanceStats != null && instanceStats.isEjected(nanoClock.getAsLong());
+  }
+
+  public void onCallStarted(ServiceInstance instance) {
+    stats.computeIfAbsent(key(instance), k -> new Stats()).onStarted();
+  }
+
+  /**
+   * @param latency in nanoseconds, or -1 if it is not known
+   */
+  public void onCallCompleted(ServiceInstance instance, long latency, boolean failed) {
+    long now = nanoClock.getAsLong();
+    Stats instanceStats = stats.computeIfAbsent(key(instance), k -> new Stats());
+    if (instanceStats.onCompleted(now, latency, failed) && tryEject(instanceStats, now)) {
+      LOG.warn("Ejects {} of {} for {} ms, its error rate is above {}", key(instance), serviceId, ejectionTimeNanos / 1_000_000,
+        errorRateThreshold);
+    }
+  }
+
+  @Override
+  public void onStart(Request<Object> request) {
+  }
+
+  @Override
+  public void onStartRequest(Request<Object> request, Response<ServiceInstance> lbResponse) {
+    if (request.getContext() instanceof TimedRequestContext context) {
+      context.setRequestStartTime(System.nanoTime());
+    }
+    onCallStarted(lbResponse.getServer());
+  }
+
+  @Override
+  public void onComplete(CompletionContext<Object, ServiceInstance, Object> completionContext) {
+    Response<ServiceInstance> lbResponse = completionContext.getLoadBalancerResponse();
+    // Discarded calls were not made, e.g. since no instance was found
+    if (completionContext.status() == CompletionContext.Status.DISCARD || lbResponse == null || !lbResponse.hasServer()) {
+      return;
+    }
+
+    long latency = -1;
+    if (completionContext.getLoadBalancerRequest().getContext() instanceof TimedRequestContext context && context.getRequestStartTime() > 0) {
+      latency = System.nanoTime() - context.getRequestStartTime();
+    }
+
+    boolean failed = completionContext.status() == CompletionContext.Status.FAILED
+      || (completionContext.getClientResponse() instanceof ResponseData response
+        && response.getHttpStatus() != null && response.getHttpStatus().is5xxServerError());
+
+    onCallCompleted(lbResponse.getServer(), latency, failed);
+  }
+
+  private synchronized boolean tryEject(Stats instanceStats, long now) {
+    long ejected = stats.values().stream().filter(s -> s.isEjected(now)).count();
+    if (ejected + 1 > Math.max(1, (long) (stats.size() * maxEjectionShare))) {
+      return false;
+    }
+    instanceStats.eject(now + ejectionTimeNanos);
+    return true;
+  }
+
+  private static String key(ServiceInstance instance) {
+    return instance.getHost() + ":" + instance.getPort();
+  }
+
+  private class Stats {
+
+    private int inflight;
+    private double latency;
+    private long lastCompleted;
+    private double errorRate;
+    private int requests;
+    private long ejectedUntil;
+
+    synchronized void onStarted() {
+      inflight++;
+    }
+
+    /**
+     * @return true if the error rate has reached the threshold
+     */
+    synchronized boolean onCompleted(long now, long callLatency, boolean failed) {
+      inflight = Math.max(0, inflight - 1);
+
+      if (failed) {
+        callLatency = Math.max(callLatency, PENALTY_NANOS);
+      }
+      if (callLatency >= 0) {
+        double weight = (lastCompleted == 0) ? 0 : Math.exp(-(now - lastCompleted) / decayNanos);
+        latency = (callLatency > latency) ? callLatency : latency * weight + callLatency * (1 - weight);
+        lastCompleted = now;
+      }
+
+      errorRate += ((failed ? 1 : 0) - errorRate) / Math.min(++requests, ERROR_WINDOW);
+      return requests >= minRequests && errorRate >= errorRateThreshold && !isEjected(now);
+    }
+
+    synchronized double cost(long now) {
+      if (lastCompleted == 0) {
+        return (double) inflight * PENALTY_NANOS;
+      }
+      // The latency of an idle instance decays, to let it be tried again when it may have recovered
+      double weight = (inflight == 0) ? Math.exp(-(now - lastCompleted) / decayNanos) : 1;
+      return latency * weight * (inflight + 1);
+    }
+
+    synchronized boolean isEjected(long now) {
+      return now < ejectedUntil;
+    }
+
+    synchronized void eject(long until) {
+      ejectedUntil = until;
+      // The instance gets a new chance when it is back
+      errorRate = 0;
+      requests = 0;
+    }
+  }
+}
@@ -0,0 +1,64 @@
+package se.magnus.util.loadbalancer;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.DefaultResponse;
+import org.springframework.cloud.client.loadbalancer.EmptyResponse;
+import org.springframework.cloud.client.loadbalancer.Request;
+import org.springframework.cloud.client.loadbalancer.Response;
+import org.springframework.cloud.loadbalancer.core.NoopServiceInstanceListSupplier;
+import org.springframework.cloud.loadbalancer.core.ReactorServiceInstanceLoadBalancer;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import reactor.core.publisher.Mono;
+
+/**
+ * Chooses the instance of a service with the power of two choices: of two instances picked at random, the one with the
+ * lowest cost, i.e. average latency weighted by the calls in flight, is chosen. A slow or overloaded instance gets fewer
+ * calls, without all calls going to the instance that happens to be the fastest.
+ */
+public class LatencyAwareLoadBalancer implements ReactorServiceInstanceLoadBalancer {
+
+  private static final Logger LOG = LoggerFactory.getLogger(LatencyAwareLoadBalancer.class);
+
+  private final ObjectProvider<ServiceInstanceListSupplier> serviceInstanceListSupplierProvider;
+  private final String serviceId;
+  private final InstanceStats stats;
+
+  public LatencyAwareLoadBalancer(ObjectProvider<ServiceInstanceListSupplier> serviceInstanceListSupplierProvider,
+    String serviceId, InstanceStats stats) {
+    this.serviceInstanceListSupplierProvider = serviceInstanceListSupplierProvider;
+    this.serviceId = serviceId;
+    this.stats = stats;
+  }
+
+  @Override
+  public Mono<Response<ServiceInstance>> choose(Request request) {
+    ServiceInstanceListSupplier supplier = serviceInstanceListSupplierProvider.getIfAvailable(NoopServiceInstanceListSupplier::new);
+    return supplier.get(request).next().map(this::choose);
+  }
+
+  Response<ServiceInstance> choose(List<ServiceInstance> instances) {
+    if (instances.isEmpty()) {
+      LOG.warn("No servers available for service: {}", serviceId);
+      return new EmptyResponse();
+    }
+    if (instances.size() == 1) {
+      return new DefaultResponse(instances.get(0));
+    }
+
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    int first = random.nextInt(instances.size());
+    int second = random.nextInt(instances.size() - 1);
+    if (second >= first) {
+      second++;
+    }
+
+    ServiceInstance a = instances.get(first);
+    ServiceInstance b = instances.get(second);
+    return new DefaultResponse(stats.cost(a) <= stats.cost(b) ? a : b);
+  }
+}
@@ -0,0 +1,62 @@
+package se.magnus.util.loadbalancer;
+
+import static org.springframework.boot.convert.DurationStyle.detectAndParse;
+
+import java.util.List;
+import org.springframework.beans.factory.BeanFactoryUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.loadbalancer.core.ReactorLoadBalancer;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import org.springframework.cloud.loadbalancer.support.LoadBalancerClientFactory;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.env.Environment;
+
+/**
+ * The load balancer of each service, to be used with
+ * <code>@LoadBalancerClients(defaultConfiguration = LatencyAwareLoadBalancerConfiguration.class)</code>, see
+ * {@link LatencyAwareLoadBalancer}. The instances are listed by the discovery client, and the ones that are ejected for
+ * their error rate, or are not available to a {@link InstanceAvailability} of the application, are left out, see
+ * {@link InstanceStats}.
+ * <p>
+ * Not annotated with @Configuration, since it must not be component scanned. Spring Cloud LoadBalancer creates its beans
+ * once per service, in a context without the conversions of Spring Boot, i.e. durations are parsed here.
+ */
+public class LatencyAwareLoadBalancerConfiguration {
+
+  @Bean
+  public InstanceStats instanceStats(
+    Environment environment,
+    @Value("${app.load-balancer.decay:10s}") String decay,
+    @Value("${app.load-balancer.error-rate-threshold:0.5}") double errorRateThreshold,
+    @Value("${app.load-balancer.min-requests:10}") int minRequests,
+    @Value("${app.load-balancer.ejection-time:30s}") String ejectionTime,
+    @Value("${app.load-balancer.max-ejection-share:0.5}") double maxEjectionShare) {
+
+    return new InstanceStats(LoadBalancerClientFactory.getName(environment), detectAndParse(decay), errorRateThreshold, minRequests,
+      detectAndParse(ejectionTime), maxEjectionShare);
+  }
+
+  @Bean
+  public ServiceInstanceListSupplier serviceInstanceListSupplier(ConfigurableApplicationContext context, InstanceStats instanceStats) {
+    // The availabilities are beans of the application, i.e. of the parent of this context
+    List<InstanceAvailability> availabilities =
+      List.copyOf(BeanFactoryUtils.beansOfTypeIncludingAncestors(context, InstanceAvailability.class).values());
+
+    return ServiceInstanceListSupplier.builder()
+      .withDiscoveryClient()
+      .withCaching()
+      .with((ctx, delegate) -> new OutlierEjectingServiceInstanceListSupplier(delegate, instanceStats, availabilities))
+      .build(context);
+  }
+
+  @Bean
+  public ReactorLoadBalancer<ServiceInstance> latencyAwareLoadBalancer(Environment environment,
+    LoadBalancerClientFactory loadBalancerClientFactory, InstanceStats instanceStats) {
+
+    String serviceId = LoadBalancerClientFactory.getName(environment);
+    return new LatencyAwareLoadBalancer(
+      loadBalancerClientFactory.getLazyProvider(serviceId, ServiceInstanceListSupplier.class), serviceId, instanceStats);
+  }
+}
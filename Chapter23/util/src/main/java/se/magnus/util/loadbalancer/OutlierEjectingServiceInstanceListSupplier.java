@@ -0,0 +1,50 @@
+package se.magnus.util.loadbalancer;
+
+import java.util.List;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.Request;
+import org.springframework.cloud.loadbalancer.core.DelegatingServiceInstanceListSupplier;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import reactor.core.publisher.Flux;
+
+/**
+ * Leaves out the instances that are ejected for their error rate, see {@link InstanceStats}, or that are not available
+ * for another reason, see {@link InstanceAvailability}. All instances are supplied if none of them is left, rather than
+ * failing the calls without trying.
+ */
+public class OutlierEjectingServiceInstanceListSupplier extends DelegatingServiceInstanceListSupplier {
+
+  private final InstanceStats stats;
+  private final List<InstanceAvailability> availabilities;
+
+  public OutlierEjectingServiceInstanceListSupplier(ServiceInstanceListSupplier delegate, InstanceStats stats) {
+    this(delegate, stats, List.of());
+  }
+
+  public OutlierEjectingServiceInstanceListSupplier(ServiceInstanceListSupplier delegate, InstanceStats stats,
+    List<InstanceAvailability> availabilities) {
+    super(delegate);
+    this.stats = stats;
+    this.availabilities = availabilities;
+  }
+
+  @Override
+  public Flux<List<ServiceInstance>> get() {
+    return getDelegate().get().map(this::withoutEjected);
+  }
+
+  @Override
+  public Flux<List<ServiceInstance>> get(Request request) {
+    return getDelegate().get(request).map(this::withoutEjected);
+  }
+
+  private List<ServiceInstance> withoutEjected(List<ServiceInstance> instances) {
+    availabilities.forEach(availability -> availability.retainAll(getServiceId(), instances));
+    List<ServiceInstance> available = instances.stream().filter(this::isAvailable).toList();
+    return available.isEmpty() ? instances : available;
+  }
+
+  private boolean isAvailable(ServiceInstance instance) {
+    return !stats.isEjected(instance) && availabilities.stream().allMatch(availability -> availability.isAvailable(instance));
+  }
+}
@@ -0,0 +1,27 @@
+package se.magnus.util.snapshot;
+
+import java.nio.file.Path;
+import reactor.core.publisher.Mono;
+
+/**
+ * Writes the entities stored by a core service to a snapshot file, or restores them from one, see {@link CatalogSnapshotRunner}.
+ */
+public interface CatalogSnapshot {
+
+  /**
+   * @return the type of the entities in the snapshot, also used as the name of the snapshot file
+   */
+  String getType();
+
+  /**
+   * @return the number of entities written
+   */
+  Mono<Long> write(Path file);
+
+  /**
+   * Inserts the entities in the snapshot, the entities must not already exist.
+   *
+   * @return the number of entities restored
+   */
+  Mono<Long> restore(Path file);
+}
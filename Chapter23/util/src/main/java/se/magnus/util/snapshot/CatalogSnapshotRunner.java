@@ -0,0 +1,85 @@
+package se.magnus.util.snapshot;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationContext;
+import org.springframework.stereotype.Component;
+
+/**
+ * Writes or restores a snapshot of the entities of the service when it starts, if app.catalog-snapshot.mode is set
+ * to "write" or "restore". The snapshot file is named after the type of the entities, in app.catalog-snapshot.directory.
+ * <p>
+ * The snapshot is written or restored before the service is ready. By default, the application context is closed when it
+ * is done, i.e. the service exits without becoming ready.
+ * See catalog-snapshot.bash for running it for all core services in parallel.
+ */
+@Component
+public class CatalogSnapshotRunner implements ApplicationRunner {
+
+  private static final Logger LOG = LoggerFactory.getLogger(CatalogSnapshotRunner.class);
+
+  private final String mode;
+  private final Path directory;
+  private final boolean exitWhenDone;
+  private final ObjectProvider<CatalogSnapshot> catalogSnapshot;
+  private final ApplicationContext context;
+
+  @Autowired
+  public CatalogSnapshotRunner(
+    @Value("${app.catalog-snapshot.mode:none}") String mode,
+    @Value("${app.catalog-snapshot.directory:/snapshots}") String directory,
+    @Value("${app.catalog-snapshot.exit-when-done:true}") boolean exitWhenDone,
+    ObjectProvider<CatalogSnapshot> catalogSnapshot,
+    ApplicationContext context) {
+
+    this.mode = mode;
+    this.directory = Path.of(directory);
+    this.exitWhenDone = exitWhenDone;
+    this.catalogSnapshot = catalogSnapshot;
+    this.context = context;
+  }
+
+  @Override
+  public void run(ApplicationArguments args) throws Exception {
+    if ("none".equals(mode)) {
+      return;
+    }
+
+    CatalogSnapshot snapshot = catalogSnapshot.getIfAvailable();
+    if (snapshot == null) {
+      throw new IllegalStateException("The service doesn't support catalog snapshots");
+    }
+
+    Path file = directory.resolve(snapshot.getType() + ".snapshot");
+    long start = System.nanoTime();
+    long count = switch (mode) {
+      case "write" -> {
+        Files.createDirectories(directory);
+        LOG.info("Will write a snapshot of all {} to: {}", snapshot.getType(), file);
+        yield snapshot.write(file).block();
+      }
+      case "restore" -> {
+        LOG.info("Will restore {} from the snapshot: {}", snapshot.getType(), file);
+        yield snapshot.restore(file).block();
+      }
+      default -> throw new IllegalArgumentException("Invalid app.catalog-snapshot.mode: " + mode + ", must be one of none, write or restore");
+    };
+
+    Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+    LOG.info("Done with the {} snapshot of {} {} in {} s, {} per second",
+      mode, count, snapshot.getType(), elapsed.toSeconds(), count * 1000 / Math.max(elapsed.toMillis(), 1));
+
+    if (exitWhenDone) {
+      SpringApplication.exit(context, () -> 0);
+    }
+  }
+}
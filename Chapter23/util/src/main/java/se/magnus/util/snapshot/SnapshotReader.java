@@ -0,0 +1,132 @@
+package se.magnus.util.snapshot;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static se.magnus.util.snapshot.SnapshotWriter.FORMAT_VERSION;
+import static se.magnus.util.snapshot.SnapshotWriter.MAGIC;
+import static se.magnus.util.snapshot.SnapshotWriter.REGION_SIZE;
+import static se.magnus.util.snapshot.SnapshotWriter.UNFINISHED;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the records of a snapshot file written by a {@link SnapshotWriter}, through read-only memory-mapped regions
+ * of the file.
+ */
+public class SnapshotReader implements AutoCloseable {
+
+  private final FileChannel channel;
+  private final int regionSize;
+  private final long size;
+  private final long recordCount;
+  private MappedByteBuffer region;
+  private long regionStart;
+  private long recordsRead;
+
+  /**
+   * @throws IllegalStateException if the file is not a finished snapshot of the expected type
+   */
+  public SnapshotReader(Path file, String expectedType) {
+    this(file, expectedType, REGION_SIZE);
+  }
+
+  SnapshotReader(Path file, String expectedType, int regionSize) {
+    this.regionSize = regionSize;
+    try {
+      this.channel = FileChannel.open(file, StandardOpenOption.READ);
+      this.size = channel.size();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    try {
+      if (size < 16 || readInt() != MAGIC) {
+        throw new IllegalStateException("Not a snapshot file: " + file);
+      }
+      int formatVersion = readInt();
+      if (formatVersion != FORMAT_VERSION) {
+        throw new IllegalStateException("Unsupported snapshot format version: " + formatVersion + ", in file: " + file);
+      }
+      this.recordCount = readLong();
+      if (recordCount == UNFINISHED) {
+        throw new IllegalStateException("Incomplete snapshot, the snapshot was not finished when it was written: " + file);
+      }
+      String type = readString();
+      if (!expectedType.equals(type)) {
+        throw new IllegalStateException("Expected a snapshot of " + expectedType + " but found " + type + ", in file: " + file);
+      }
+    } catch (RuntimeException e) {
+      close();
+      throw e;
+    }
+  }
+
+  public long getRecordCount() {
+    return recordCount;
+  }
+
+  /**
+   * Moves to the next record, to be read with {@link #readInt()} and {@link #readString()} in the order it was written.
+   *
+   * @return false if all records are read
+   */
+  public boolean nextRecord() {
+    if (recordsRead == recordCount) {
+      return false;
+    }
+    recordsRead++;
+    return true;
+  }
+
+  public int readInt() {
+    return ensureRemaining(Integer.BYTES).getInt();
+  }
+
+  public long readLong() {
+    return ensureRemaining(Long.BYTES).getLong();
+  }
+
+  public String readString() {
+    int length = readInt();
+    if (length == -1) {
+      return null;
+    }
+    if (length < 0) {
+      throw new IllegalStateException("Corrupt snapshot, found a string length of " + length);
+    }
+
+    byte[] bytes = new byte[length];
+    ensureRemaining(length).get(bytes);
+    return new String(bytes, UTF_8);
+  }
+
+  @Override
+  public void close() {
+    try {
+      region = null;
+      channel.close();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private MappedByteBuffer ensureRemaining(int bytes) {
+    if (region == null || region.remaining() < bytes) {
+      long position = (region == null) ? 0 : regionStart + region.position();
+      if (position + bytes > size) {
+        throw new IllegalStateException("Corrupt snapshot, found a value of " + bytes + " bytes at position " + position + " of " + size);
+      }
+      try {
+        region = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(Math.max(regionSize, bytes), size - position));
+        regionStart = position;
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    return region;
+  }
+}
@@ -0,0 +1,126 @@
+package se.magnus.util.snapshot;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+/**
+ * Writes records of ints and strings to a snapshot file, through memory-mapped regions of the file.
+ * <p>
+ * The file starts with a header holding a magic number, the format version, the number of records and the type of
+ * the records. The number of records is written by {@link #finish()}, a snapshot that is not finished is rejected by
+ * the {@link SnapshotReader}. Strings are written as their length in UTF-8 encoded bytes followed by the bytes,
+ * null is written as the length -1.
+ */
+public class SnapshotWriter implements AutoCloseable {
+
+  static final int MAGIC = 0x534e4150;
+  static final int FORMAT_VERSION = 1;
+  static final long RECORD_COUNT_POSITION = 8;
+  static final long UNFINISHED = -1;
+  static final int REGION_SIZE = 64 * 1024 * 1024;
+
+  private final FileChannel channel;
+  private final int regionSize;
+  private MappedByteBuffer region;
+  private long regionStart;
+  private long recordCount;
+
+  public SnapshotWriter(Path file, String type) {
+    this(file, type, REGION_SIZE);
+  }
+
+  SnapshotWriter(Path file, String type, int regionSize) {
+    this.regionSize = regionSize;
+    try {
+      this.channel = FileChannel.open(file, CREATE, TRUNCATE_EXISTING, READ, WRITE);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    writeInt(MAGIC);
+    writeInt(FORMAT_VERSION);
+    writeLong(UNFINISHED);
+    writeString(type);
+  }
+
+  public void writeInt(int value) {
+    ensureRemaining(Integer.BYTES).putInt(value);
+  }
+
+  public void writeLong(long value) {
+    ensureRemaining(Long.BYTES).putLong(value);
+  }
+
+  public void writeString(String value) {
+    if (value == null) {
+      writeInt(-1);
+      return;
+    }
+
+    byte[] bytes = value.getBytes(UTF_8);
+    writeInt(bytes.length);
+    ensureRemaining(bytes.length).put(bytes);
+  }
+
+  public void endRecord() {
+    recordCount++;
+  }
+
+  public long getRecordCount() {
+    return recordCount;
+  }
+
+  /**
+   * Marks the snapshot as complete, by writing the number of records to the header, and flushes it to disk.
+   */
+  public void finish() {
+    try {
+      if (region != null) {
+        region.force();
+      }
+      channel.write(ByteBuffer.allocate(Long.BYTES).putLong(0, recordCount), RECORD_COUNT_POSITION);
+      channel.force(true);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Closes the file, without marking the snapshot as complete if {@link #finish()} is not called.
+   */
+  @Override
+  public void close() {
+    try {
+      // Mapping a region extends the file to the end of the region, cut off the unused part
+      long size = (region == null) ? 0 : regionStart + region.position();
+      region = null;
+      channel.truncate(size);
+      channel.close();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private MappedByteBuffer ensureRemaining(int bytes) {
+    if (region == null || region.remaining() < bytes) {
+      long position = (region == null) ? 0 : regionStart + region.position();
+      try {
+        region = channel.map(FileChannel.MapMode.READ_WRITE, position, Math.max(regionSize, bytes));
+        regionStart = position;
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    return region;
+  }
+}
@@ -0,0 +1,62 @@
+package se.magnus.util.snapshot;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * The write and restore loops of the {@link CatalogSnapshot} implementations, the services only supply how an entity is
+ * written to and read from a record, and how a batch of entities is inserted.
+ */
+public final class Snapshots {
+
+  private Snapshots() {
+  }
+
+  /**
+   * Writes one record per entity.
+   *
+   * @return the number of entities written
+   */
+  public static <T> Mono<Long> write(Path file, String type, Flux<T> entities, BiConsumer<SnapshotWriter, T> recordWriter) {
+    return Mono.using(
+      () -> new SnapshotWriter(file, type),
+      writer -> entities
+        .doOnNext(entity -> {
+          recordWriter.accept(writer, entity);
+          writer.endRecord();
+        })
+        .then(Mono.fromCallable(() -> {
+          writer.finish();
+          return writer.getRecordCount();
+        })),
+      SnapshotWriter::close);
+  }
+
+  /**
+   * Reads the entities in batches, and inserts up to parallelism batches at a time.
+   *
+   * @param insert inserts a batch and emits the number of entities inserted
+   * @return the number of entities restored
+   */
+  public static <T> Mono<Long> restore(Path file, String type, Function<SnapshotReader, T> recordReader, int batchSize,
+    int parallelism, Function<List<T>, Mono<Long>> insert) {
+
+    return Flux.using(
+      () -> new SnapshotReader(file, type),
+      reader -> Flux.<T>generate(sink -> {
+        if (reader.nextRecord()) {
+          sink.next(recordReader.apply(reader));
+        } else {
+          sink.complete();
+        }
+      }),
+      SnapshotReader::close)
+      .buffer(batchSize)
+      .flatMap(insert, parallelism)
+      .reduce(0L, Long::sum);
+  }
+}
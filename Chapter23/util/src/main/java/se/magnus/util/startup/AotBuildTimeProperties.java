@@ -0,0 +1,83 @@
+package se.magnus.util.startup;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.aot.AotDetector;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.stereotype.Component;
+
+/**
+ * Fails the startup of a service started with the bean definitions of the AOT processing, i.e. with
+ * -Dspring.aot.enabled=true, if one of the switches that the AOT processing decides at build time is set to another
+ * value than the one it had at build time, i.e. the one in src/main/resources/application.yml of the service.
+ * <p>
+ * Without the check, such a switch set in config-repo is silently ignored, e.g. spring.cloud.loadbalancer.enabled.
+ * A service started without AOT, the default of the Docker images, evaluates them at startup as usual.
+ */
+@Component
+public class AotBuildTimeProperties {
+
+  private static final Logger LOG = LoggerFactory.getLogger(AotBuildTimeProperties.class);
+
+  /**
+   * The properties that decide which beans are created, i.e. the conditions the AOT processing evaluates at build time.
+   */
+  static final List<String> BUILD_TIME_PROPERTIES = List.of(
+    "spring.cloud.loadbalancer.enabled",
+    "spring.cloud.stream.defaultBinder",
+    "management.health.rabbit.enabled",
+    "management.health.kafka.enabled",
+    "management.health.circuitbreakers.enabled",
+    "management.endpoint.health.probes.enabled");
+
+  private static final String PROFILE_PROPERTY = "spring.config.activate.on-profile";
+
+  public AotBuildTimeProperties(Environment environment) {
+    if (AotDetector.useGeneratedArtifacts()) {
+      check(environment, buildTimeValues());
+    }
+  }
+
+  static void check(Environment environment, Map<String, String> buildTimeValues) {
+    buildTimeValues.forEach((name, buildTimeValue) -> {
+      String value = environment.getProperty(name);
+      if (!Objects.equals(buildTimeValue, value)) {
+        throw new IllegalStateException("Started with AOT, but " + name + " is set to " + value + " instead of " + buildTimeValue
+          + " as at build time. Set it in src/main/resources/application.yml and rebuild, or start without -Dspring.aot.enabled=true");
+      }
+    });
+    LOG.debug("Started with AOT, the build time properties are unchanged: {}", buildTimeValues.keySet());
+  }
+
+  /**
+   * The AOT processing runs without active profiles, i.e. only the documents without spring.config.activate.on-profile
+   * were used.
+   */
+  static Map<String, String> buildTimeValues() {
+    ClassPathResource resource = new ClassPathResource("application.yml");
+    if (!resource.exists()) {
+      return Map.of();
+    }
+    try {
+      Map<String, String> values = new HashMap<>();
+      List<PropertySource<?>> documents = new YamlPropertySourceLoader().load("build-time", resource);
+      documents.stream()
+        .filter(document -> !document.containsProperty(PROFILE_PROPERTY))
+        .forEach(document -> BUILD_TIME_PROPERTIES.stream()
+          .filter(document::containsProperty)
+          .forEach(name -> values.put(name, String.valueOf(document.getProperty(name)))));
+      return values;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
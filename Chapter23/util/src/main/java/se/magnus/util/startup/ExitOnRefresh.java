@@ -0,0 +1,59 @@
+package se.magnus.util.startup;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+/**
+ * Exits the JVM when the application context is refreshed, before any other lifecycle bean is started, if the system
+ * property spring.context.exit is set to onRefresh. I.e. a backport of the same system property of Spring Framework 6.1.
+ * <p>
+ * Used for the training run that creates the CDS archive of a service when its Docker image is built: all beans are
+ * created, i.e. most classes are loaded, but the web servers are not started and nothing is connected to, e.g. the
+ * message broker. The JVM is halted, as Spring Framework 6.1 does, since the context can't be closed while it is being
+ * refreshed.
+ * <p>
+ * The classes the training run loads are written to a dynamic CDS archive, that the JVM maps into memory at startup
+ * instead of loading and verifying the classes again. The archive only works with the JVM of the image, and can't be
+ * created for a class path with directories of classes, i.e. the classes of the service are packaged in a jar of their
+ * own. Properties that the training run needs without the config repo are set by the cds-training profile.
+ * <p>
+ * The images start the services without the bean definitions generated by the AOT processing. Starting with them, i.e.
+ * with JDK_JAVA_OPTIONS set to "-XX:SharedArchiveFile=application.jsa -Dspring.aot.enabled=true", fixes the conditions
+ * of the auto-configurations at build time, see {@link AotBuildTimeProperties}.
+ */
+@Component
+public class ExitOnRefresh implements SmartLifecycle {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ExitOnRefresh.class);
+
+  static final String EXIT_PROPERTY = "spring.context.exit";
+  static final String ON_REFRESH = "onRefresh";
+
+  private volatile boolean running;
+
+  @Override
+  public void start() {
+    if (ON_REFRESH.equals(System.getProperty(EXIT_PROPERTY))) {
+      LOG.info("Exits, since {} is set to {}", EXIT_PROPERTY, ON_REFRESH);
+      Runtime.getRuntime().halt(0);
+    }
+    running = true;
+  }
+
+  @Override
+  public void stop() {
+    running = false;
+  }
+
+  @Override
+  public boolean isRunning() {
+    return running;
+  }
+
+  @Override
+  public int getPhase() {
+    return Integer.MIN_VALUE;
+  }
+}
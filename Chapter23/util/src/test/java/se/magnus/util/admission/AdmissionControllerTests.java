@@ -0,0 +1,90 @@
+package se.magnus.util.admission;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static se.magnus.util.admission.AdmissionController.Priority.READ;
+import static se.magnus.util.admission.AdmissionController.Priority.WRITE;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import se.magnus.api.exceptions.ServiceUnavailableException;
+
+class AdmissionControllerTests {
+
+  private final AdmissionController controller = new AdmissionController("test", 10, 100);
+
+  @Test
+  void shedsAboveLimit() {
+    Sinks.Empty<Void> done = Sinks.empty();
+    IntStream.range(0, 10).forEach(i -> controller.admit(READ, done.asMono()).subscribe());
+    assertThat(controller.getInflight()).isEqualTo(10);
+
+    ServiceUnavailableException ex = assertThrows(ServiceUnavailableException.class, () -> controller.admit(READ, Mono.just(1)).block());
+    assertThat(ex.getRetryAfter()).isPositive();
+
+    done.tryEmitEmpty();
+    assertThat(controller.getInflight()).isZero();
+    assertThat(controller.admit(READ, Mono.just(1)).block()).isEqualTo(1);
+  }
+
+  @Test
+  void readsHavePriority() {
+    Sinks.Empty<Void> done = Sinks.empty();
+    IntStream.range(0, 8).forEach(i -> controller.admit(WRITE, done.asMono()).subscribe());
+
+    // The rest of the limit is reserved for reads
+    assertThrows(ServiceUnavailableException.class, () -> controller.admit(WRITE, Mono.just(1)).block());
+    controller.admit(READ, done.asMono()).subscribe();
+    assertThat(controller.getInflight()).isEqualTo(9);
+  }
+
+  @Test
+  void cancelledWorkIsReleased() {
+    Disposable work = controller.admit(READ, Mono.never()).subscribe();
+    assertThat(controller.getInflight()).isEqualTo(1);
+
+    work.dispose();
+    assertThat(controller.getInflight()).isZero();
+  }
+
+  @Test
+  void rejectedWorkIsShedAndShrinksLimit() {
+    Mono<Integer> rejected = controller.admit(WRITE, Mono.error(new RejectedExecutionException("Queue is full")));
+
+    assertThrows(ServiceUnavailableException.class, () -> rejected.block());
+    assertThat(controller.getLimit()).isLessThan(10);
+    assertThat(controller.getInflight()).isZero();
+  }
+
+  @Test
+  void resetLimitStartsOver() {
+    Mono<Integer> rejected = controller.admit(WRITE, Mono.error(new RejectedExecutionException("Queue is full")));
+    assertThrows(ServiceUnavailableException.class, () -> rejected.block());
+    assertThat(controller.getLimit()).isLessThan(10);
+
+    controller.reset();
+    assertThat(controller.getLimit()).isEqualTo(10);
+  }
+
+  @Test
+  void limitGrowsWhenUsedWithSteadyLatency() {
+    AdaptiveLimit limit = new AdaptiveLimit(10, 1, 100);
+    IntStream.range(0, 100).forEach(i -> limit.onCompleted(1_000_000, limit.getLimit()));
+    assertThat(limit.getLimit()).isEqualTo(100);
+
+    // Work that is queued rather than executed, i.e. with a growing latency, shrinks the limit
+    IntStream.range(0, 100).forEach(i -> limit.onCompleted(10_000_000, limit.getLimit()));
+    assertThat(limit.getLimit()).isLessThan(50);
+  }
+
+  @Test
+  void limitIsKeptWhenNotUsed() {
+    AdaptiveLimit limit = new AdaptiveLimit(10, 1, 100);
+    IntStream.range(0, 100).forEach(i -> limit.onCompleted(1_000_000, 1));
+    assertThat(limit.getLimit()).isEqualTo(10);
+  }
+}
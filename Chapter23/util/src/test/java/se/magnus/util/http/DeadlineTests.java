@@ -0,0 +1,66 @@
+package se.magnus.util.http;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import reactor.core.publisher.Mono;
+import se.magnus.api.exceptions.DeadlineExceededException;
+
+class DeadlineTests {
+
+  private final List<ClientRequest> sentRequests = new ArrayList<>();
+  private final ExchangeFunction exchange = request -> {
+    sentRequests.add(request);
+    return Mono.just(ClientResponse.create(HttpStatus.OK).build());
+  };
+
+  @Test
+  void propagatesRemainingTime() {
+    withDeadline(send(), Duration.ofSeconds(5)).block();
+
+    long timeout = Long.parseLong(sentRequests.get(0).headers().getFirst(Deadline.TIMEOUT_HEADER));
+    assertThat(timeout).isBetween(4000L, 5000L);
+  }
+
+  @Test
+  void noDeadlineNoHeader() {
+    send().block();
+
+    assertThat(sentRequests.get(0).headers().containsKey(Deadline.TIMEOUT_HEADER)).isFalse();
+  }
+
+  @Test
+  void expiredDeadlineIsNotSent() {
+    Mono<ClientResponse> response = withDeadline(send(), Duration.ZERO);
+
+    assertThrows(DeadlineExceededException.class, () -> response.block());
+    assertThat(sentRequests).isEmpty();
+  }
+
+  @Test
+  void withinLimitsLaterDeadline() {
+    withDeadline(Deadline.within(Duration.ofSeconds(1), send()), Duration.ofSeconds(5)).block();
+    withDeadline(Deadline.within(Duration.ofSeconds(10), send()), Duration.ofSeconds(5)).block();
+
+    assertThat(Long.parseLong(sentRequests.get(0).headers().getFirst(Deadline.TIMEOUT_HEADER))).isBetween(0L, 1000L);
+    assertThat(Long.parseLong(sentRequests.get(1).headers().getFirst(Deadline.TIMEOUT_HEADER))).isBetween(4000L, 5000L);
+  }
+
+  private Mono<ClientResponse> send() {
+    return Deadline.propagation().filter(ClientRequest.create(HttpMethod.GET, URI.create("http://product/product/1")).build(), exchange);
+  }
+
+  private <T> Mono<T> withDeadline(Mono<T> mono, Duration timeout) {
+    return mono.contextWrite(context -> context.put(Deadline.class, Deadline.after(timeout)));
+  }
+}
@@ -0,0 +1,54 @@
+package se.magnus.util.http;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static se.magnus.util.http.ConditionalRequests.entityTag;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class EntityTagBuilderTests {
+
+  @Test
+  void partsWithTheSameHashCodeGiveDifferentTags() {
+    assertEquals("Aa".hashCode(), "BB".hashCode());
+    assertNotEquals(entityTag(1, "Aa"), entityTag(1, "BB"));
+  }
+
+  @Test
+  void partsAreKeptApart() {
+    assertNotEquals(entityTag("ab", "c"), entityTag("a", "bc"));
+    assertNotEquals(entityTag(null, "a"), entityTag("", "a"));
+    assertNotEquals(entityTag(1), entityTag(1L));
+    assertNotEquals(entityTag(List.of(1, 2), 3), entityTag(List.of(1), 2, 3));
+  }
+
+  @Test
+  void mapsWithTheSameEntriesGiveTheSameTag() {
+    Map<Integer, Integer> histogram = new LinkedHashMap<>();
+    histogram.put(5, 1);
+    histogram.put(3, 2);
+
+    assertEquals(entityTag(Map.of(3, 2, 5, 1)), entityTag(histogram));
+    assertNotEquals(entityTag(Map.of(3, 2, 5, 1)), entityTag(Map.of(3, 1, 5, 2)));
+  }
+
+  @Test
+  void charactersAreAddedAsTheirString() {
+    String text = "räksmörgås 😀";
+    char[] chars = ("xx" + text + "x").toCharArray();
+
+    String tag = new EntityTagBuilder().add(1).addString(chars, 2, text.length()).add(2).build();
+    assertEquals(entityTag(1, text, 2), tag);
+  }
+
+  @Test
+  void appendedPartsAreTheSameAsAddedParts() {
+    EntityTagBuilder parts = new EntityTagBuilder().add("a").add(2);
+
+    assertEquals(entityTag(1, "a", 2, 3), new EntityTagBuilder().add(1).append(parts).add(3).build());
+    assertEquals(entityTag(4), parts.reset().add(4).build());
+  }
+}
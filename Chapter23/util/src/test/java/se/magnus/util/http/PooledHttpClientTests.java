@@ -0,0 +1,81 @@
+package se.magnus.util.http;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.server.HttpServer;
+
+class PooledHttpClientTests {
+
+  // Set by Netty on the requests it receives over HTTP/2
+  private static final String STREAM_ID_HEADER = "x-http2-stream-id";
+
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  private final PooledHttpClient client = new PooledHttpClient("test", true, 10, Duration.ofSeconds(30), Duration.ofSeconds(10), 20,
+    Duration.ofSeconds(1));
+  private DisposableServer server;
+
+  PooledHttpClientTests() {
+    Metrics.addRegistry(registry);
+  }
+
+  @AfterEach
+  void tearDown() {
+    client.destroy();
+    server.disposeNow();
+    Metrics.removeRegistry(registry);
+  }
+
+  @Test
+  void callsAreMultiplexedOverHttp2() {
+    server = server(HttpProtocol.HTTP11, HttpProtocol.H2C);
+
+    // Streams of the same connection, upgraded to h2c by the first call
+    assertThat(IntStream.range(0, 3).mapToObj(i -> get()).toList()).containsExactly("1", "3", "5");
+  }
+
+  @Test
+  void serverWithoutHttp2IsCalledOverHttp11() {
+    server = server(HttpProtocol.HTTP11);
+
+    assertThat(get()).isEqualTo("none");
+  }
+
+  @Test
+  void poolMetricsAreExported() {
+    server = server(HttpProtocol.HTTP11);
+    get();
+
+    List<String> names = registry.getMeters().stream().map(Meter::getId)
+      .filter(id -> "test".equals(id.getTag("name"))).map(Meter.Id::getName).toList();
+    assertThat(names).contains(
+      "reactor.netty.connection.provider.active.connections",
+      "reactor.netty.connection.provider.idle.connections",
+      "reactor.netty.connection.provider.pending.connections",
+      "reactor.netty.connection.provider.max.connections");
+  }
+
+  private String get() {
+    return client.getHttpClient().get().uri("http://localhost:" + server.port() + "/")
+      .responseSingle((response, body) -> body.asString()).block();
+  }
+
+  private static DisposableServer server(HttpProtocol... protocols) {
+    return HttpServer.create().port(0).protocol(protocols)
+      .handle((request, response) -> {
+        String streamId = request.requestHeaders().get(STREAM_ID_HEADER);
+        return response.sendString(Mono.just(streamId == null ? "none" : streamId));
+      })
+      .bindNow();
+  }
+}
@@ -0,0 +1,124 @@
+package se.magnus.util.loadbalancer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import reactor.core.publisher.Flux;
+
+class LatencyAwareLoadBalancerTests {
+
+  private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final ServiceInstance fast = instance("fast");
+  private final ServiceInstance slow = instance("slow");
+  private final ServiceInstance broken = instance("broken");
+
+  private long now = TimeUnit.SECONDS.toNanos(1000);
+  private final InstanceStats stats = new InstanceStats("test", Duration.ofSeconds(10), 0.5, 10, Duration.ofSeconds(30), 0.5, () -> now);
+  private final LatencyAwareLoadBalancer loadBalancer = new LatencyAwareLoadBalancer(null, "test", stats);
+
+  @Test
+  void slowInstanceGetsFewerCalls() {
+    IntStream.range(0, 10).forEach(i -> {
+      complete(fast, 10 * MS, false);
+      complete(slow, 100 * MS, false);
+    });
+
+    Map<String, Long> chosen = choose(List.of(fast, slow), 1000);
+    assertThat(chosen.get("fast")).isEqualTo(1000);
+  }
+
+  @Test
+  void instanceFailingFastIsNotPreferred() {
+    complete(slow, 100 * MS, false);
+    complete(broken, MS, true);
+
+    assertThat(stats.cost(broken)).isGreaterThan(stats.cost(slow));
+  }
+
+  @Test
+  void callsInFlightAddToCost() {
+    complete(fast, 10 * MS, false);
+    complete(slow, 30 * MS, false);
+
+    // Five calls in flight to the fast instance make it more costly than the slow instance
+    IntStream.range(0, 5).forEach(i -> stats.onCallStarted(fast));
+    assertThat(stats.cost(fast)).isGreaterThan(stats.cost(slow));
+  }
+
+  @Test
+  void slowInstanceIsTriedAgainWhenIdle() {
+    complete(fast, 10 * MS, false);
+    complete(slow, 100 * MS, false);
+
+    now += TimeUnit.SECONDS.toNanos(60);
+    complete(fast, 10 * MS, false);
+    assertThat(stats.cost(slow)).isLessThan(stats.cost(fast));
+  }
+
+  @Test
+  void instanceWithHighErrorRateIsEjected() {
+    IntStream.range(0, 10).forEach(i -> {
+      complete(fast, 10 * MS, false);
+      complete(slow, 10 * MS, false);
+      complete(broken, MS, true);
+    });
+    assertThat(stats.isEjected(broken)).isTrue();
+
+    OutlierEjectingServiceInstanceListSupplier supplier = new OutlierEjectingServiceInstanceListSupplier(supplier(fast, slow, broken), stats);
+    assertThat(supplier.get().blockFirst()).containsExactly(fast, slow);
+
+    // Back after the ejection time
+    now += TimeUnit.SECONDS.toNanos(30);
+    assertThat(supplier.get().blockFirst()).containsExactly(fast, slow, broken);
+  }
+
+  @Test
+  void notTooManyInstancesAreEjected() {
+    IntStream.range(0, 10).forEach(i -> {
+      complete(fast, MS, true);
+      complete(broken, MS, true);
+    });
+
+    assertThat(stats.isEjected(fast) && stats.isEjected(broken)).isFalse();
+    assertThat(stats.isEjected(fast) || stats.isEjected(broken)).isTrue();
+  }
+
+  private void complete(ServiceInstance instance, long latency, boolean failed) {
+    stats.onCallStarted(instance);
+    stats.onCallCompleted(instance, latency, failed);
+  }
+
+  private Map<String, Long> choose(List<ServiceInstance> instances, int calls) {
+    return IntStream.range(0, calls).mapToObj(i -> loadBalancer.choose(instances).getServer().getInstanceId())
+      .collect(Collectors.groupingBy(Function.identity(), Collectors.counting()));
+  }
+
+  private static ServiceInstance instance(String id) {
+    return new DefaultServiceInstance(id, "test", id + ".example", 80, false);
+  }
+
+  private static ServiceInstanceListSupplier supplier(ServiceInstance... instances) {
+    return new ServiceInstanceListSupplier() {
+      @Override
+      public String getServiceId() {
+        return "test";
+      }
+
+      @Override
+      public Flux<List<ServiceInstance>> get() {
+        return Flux.just(List.of(instances));
+      }
+    };
+  }
+}
@@ -0,0 +1,120 @@
+package se.magnus.util.snapshot;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+class SnapshotTests {
+
+  // Small regions to make records span several regions
+  private static final int REGION_SIZE = 64;
+
+  @TempDir
+  Path directory;
+
+  @Test
+  void writeAndRead() throws Exception {
+    Path file = directory.resolve("products.snapshot");
+    String longName = "räksmörgås ".repeat(20);
+
+    try (SnapshotWriter writer = new SnapshotWriter(file, "products", REGION_SIZE)) {
+      for (int i = 1; i <= 100; i++) {
+        writer.writeInt(i);
+        writer.writeString(i % 10 == 0 ? longName : (i % 7 == 0 ? null : "name-" + i));
+        writer.writeLong(i * 1_000_000_000L);
+        writer.endRecord();
+      }
+      writer.finish();
+    }
+
+    try (SnapshotReader reader = new SnapshotReader(file, "products", REGION_SIZE)) {
+      assertThat(reader.getRecordCount()).isEqualTo(100);
+      int i = 0;
+      while (reader.nextRecord()) {
+        i++;
+        assertThat(reader.readInt()).isEqualTo(i);
+        assertThat(reader.readString()).isEqualTo(i % 10 == 0 ? longName : (i % 7 == 0 ? null : "name-" + i));
+        assertThat(reader.readLong()).isEqualTo(i * 1_000_000_000L);
+      }
+      assertThat(i).isEqualTo(100);
+    }
+  }
+
+  @Test
+  void writeAndRestoreInBatches() {
+    Path file = directory.resolve("products.snapshot");
+    List<Integer> productIds = IntStream.rangeClosed(1, 10).boxed().toList();
+
+    Long written = Snapshots.write(file, "products", Flux.fromIterable(productIds), SnapshotWriter::writeInt).block();
+    assertThat(written).isEqualTo(10);
+
+    ConcurrentLinkedQueue<List<Integer>> batches = new ConcurrentLinkedQueue<>();
+    Long restored = Snapshots.restore(file, "products", SnapshotReader::readInt, 3, 2, batch -> {
+      batches.add(batch);
+      return Mono.just((long) batch.size());
+    }).block();
+
+    assertThat(restored).isEqualTo(10);
+    assertThat(batches).extracting(List::size).containsExactlyInAnyOrder(3, 3, 3, 1);
+    assertThat(batches.stream().flatMap(List::stream)).containsExactlyInAnyOrderElementsOf(productIds);
+  }
+
+  @Test
+  void truncateUnusedPartOfRegion() throws Exception {
+    Path file = directory.resolve("products.snapshot");
+
+    try (SnapshotWriter writer = new SnapshotWriter(file, "products")) {
+      writer.writeInt(1);
+      writer.endRecord();
+      writer.finish();
+    }
+
+    // Magic, version, record count, type length, type and the record
+    assertThat(Files.size(file)).isEqualTo(4 + 4 + 8 + 4 + "products".length() + 4);
+  }
+
+  @Test
+  void rejectUnfinishedSnapshot() {
+    Path file = directory.resolve("products.snapshot");
+
+    try (SnapshotWriter writer = new SnapshotWriter(file, "products", REGION_SIZE)) {
+      writer.writeInt(1);
+      writer.endRecord();
+    }
+
+    assertThatThrownBy(() -> new SnapshotReader(file, "products"))
+      .isInstanceOf(IllegalStateException.class)
+      .hasMessageStartingWith("Incomplete snapshot");
+  }
+
+  @Test
+  void rejectOtherType() {
+    Path file = directory.resolve("reviews.snapshot");
+
+    try (SnapshotWriter writer = new SnapshotWriter(file, "reviews", REGION_SIZE)) {
+      writer.finish();
+    }
+
+    assertThatThrownBy(() -> new SnapshotReader(file, "products"))
+      .isInstanceOf(IllegalStateException.class)
+      .hasMessageStartingWith("Expected a snapshot of products but found reviews");
+  }
+
+  @Test
+  void rejectOtherFiles() throws Exception {
+    Path file = Files.writeString(directory.resolve("products.snapshot"), "Not a snapshot file at all");
+
+    assertThatThrownBy(() -> new SnapshotReader(file, "products"))
+      .isInstanceOf(IllegalStateException.class)
+      .hasMessageStartingWith("Not a snapshot file");
+  }
+}
@@ -0,0 +1,35 @@
+package se.magnus.util.startup;
+
+import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+class AotBuildTimePropertiesTests {
+
+  private final Map<String, String> buildTimeValues = Map.of("spring.cloud.loadbalancer.enabled", "false");
+
+  @Test
+  void unchangedPropertiesAreAccepted() {
+    MockEnvironment environment = new MockEnvironment().withProperty("spring.cloud.loadbalancer.enabled", "false");
+
+    assertThatCode(() -> AotBuildTimeProperties.check(environment, buildTimeValues)).doesNotThrowAnyException();
+  }
+
+  @Test
+  void changedPropertyFailsTheStartup() {
+    MockEnvironment environment = new MockEnvironment().withProperty("spring.cloud.loadbalancer.enabled", "true");
+
+    assertThatThrownBy(() -> AotBuildTimeProperties.check(environment, buildTimeValues))
+      .isInstanceOf(IllegalStateException.class)
+      .hasMessageContaining("spring.cloud.loadbalancer.enabled");
+  }
+
+  @Test
+  void removedPropertyFailsTheStartup() {
+    assertThatThrownBy(() -> AotBuildTimeProperties.check(new MockEnvironment(), buildTimeValues))
+      .isInstanceOf(IllegalStateException.class);
+  }
+}
@@ -0,0 +1,22 @@
+package se.magnus.util.benchmark;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import org.junit.jupiter.api.condition.DisabledInNativeImage;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+/**
+ * Marks a test class as a benchmark, that is only run when requested with the system property benchmark, e.g.:
+ * <p>
+ * ./gradlew :microservices:product-service:test --tests '*LayoutBenchmarkTests' -Dbenchmark=true -i
+ * <p>
+ * The test task of the service passes the system property on to the tests. Benchmarks are not run in native images.
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+@DisabledInNativeImage
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+public @interface BenchmarkTest {
+}
@@ -0,0 +1,40 @@
+package se.magnus.util.benchmark;
+
+import java.util.regex.Pattern;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks of a {@link BenchmarkTest}, either the JMH benchmarks of the class or timed runs of a workload.
+ */
+public final class Benchmarks {
+
+  private Benchmarks() {
+  }
+
+  /**
+   * Runs the methods annotated with <code>@Benchmark</code> of the class, as configured by its JMH annotations. The GC
+   * profiler reports the allocated bytes per operation, i.e. gc.alloc.rate.norm.
+   */
+  public static void runJmh(Class<?> benchmarkClass) throws RunnerException {
+    new Runner(new OptionsBuilder()
+      .include(Pattern.quote(benchmarkClass.getName()) + "\\.")
+      .addProfiler(GCProfiler.class)
+      .build()).run();
+  }
+
+  /**
+   * @return the time the workload took in milliseconds
+   */
+  public static long measureMillis(Runnable workload) {
+    long start = System.nanoTime();
+    workload.run();
+    return (System.nanoTime() - start) / 1_000_000;
+  }
+
+  public static long opsPerSecond(long operations, long millis) {
+    return operations * 1000L / Math.max(millis, 1);
+  }
+}